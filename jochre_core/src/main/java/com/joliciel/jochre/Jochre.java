@@ -60,7 +60,6 @@ import com.joliciel.jochre.analyser.ErrorLogger;
 import com.joliciel.jochre.analyser.FScoreObserver;
 import com.joliciel.jochre.analyser.ImageAnalyser;
 import com.joliciel.jochre.analyser.LetterAssigner;
-import com.joliciel.jochre.analyser.LetterGuessObserver;
 import com.joliciel.jochre.analyser.OriginalShapeLetterAssigner;
 import com.joliciel.jochre.analyser.SimpleLetterFScoreObserver;
 import com.joliciel.jochre.boundaries.BoundaryDetector;
@@ -83,6 +82,7 @@ import com.joliciel.jochre.boundaries.features.SplitFeature;
 import com.joliciel.jochre.boundaries.features.SplitFeatureParser;
 import com.joliciel.jochre.graphics.CorpusSelectionCriteria;
 import com.joliciel.jochre.graphics.GraphicsDao;
+import com.joliciel.jochre.graphics.JochreCorpusSnapshot;
 import com.joliciel.jochre.graphics.ImageStatus;
 import com.joliciel.jochre.graphics.JochreCorpusGroupReader;
 import com.joliciel.jochre.graphics.JochreCorpusImageProcessor;
@@ -99,6 +99,7 @@ import com.joliciel.jochre.letterGuesser.LetterValidator;
 import com.joliciel.jochre.letterGuesser.features.LetterFeature;
 import com.joliciel.jochre.letterGuesser.features.LetterFeatureParser;
 import com.joliciel.jochre.letterGuesser.features.LetterFeatureTester;
+import com.joliciel.jochre.lexicon.CompactLexicon;
 import com.joliciel.jochre.lexicon.CorpusLexiconBuilder;
 import com.joliciel.jochre.lexicon.LexiconErrorWriter;
 import com.joliciel.jochre.lexicon.MostLikelyWordChooser;
@@ -206,10 +207,28 @@ public class Jochre {
           values.put("jochre.boundaries.splitter.beam-width", Integer.parseInt(argValue));
         } else if (argName.equals("lexicon")) {
           values.put("jochre.lexicon", argValue);
+        } else if (argName.equals("corpusSnapshot")) {
+          values.put("jochre.corpus-snapshot", argValue);
+        } else if (argName.equals("pdfLookAhead")) {
+          values.put("jochre.pdf.look-ahead", Integer.parseInt(argValue));
+        } else if (argName.equals("trainingThreads")) {
+          values.put("jochre.training.thread-count", Integer.parseInt(argValue));
+        } else if (argName.equals("eventCacheDir")) {
+          values.put("jochre.training.event-cache-dir", argValue);
         } else if (argName.equals("targetShortDimension")) {
           values.put("jochre.segmenter.target-short-dimension", Integer.parseInt(argValue));
         } else if (argName.equals("isCleanSegment")) {
           values.put("jochre.segmenter.is-clean-segment", Boolean.parseBoolean(argValue));
+        } else if (argName.equals("parallelSegmentation")) {
+          values.put("jochre.segmenter.parallel", Boolean.parseBoolean(argValue));
+        } else if (argName.equals("parallelBeamSearch")) {
+          values.put("jochre.image-analyser.parallel-beam-search", Boolean.parseBoolean(argValue));
+        } else if (argName.equals("lexiconPrefixPruning")) {
+          values.put("jochre.image-analyser.lexicon-prefix-pruning", Boolean.parseBoolean(argValue));
+        } else if (argName.equals("unknownPrefixFactor")) {
+          values.put("jochre.image-analyser.unknown-prefix-factor", Double.parseDouble(argValue));
+        } else if (argName.equals("threadCount")) {
+          values.put("jochre.pipeline.thread-count", Integer.parseInt(argValue));
         } else {
           handled = false;
         }
@@ -292,6 +311,7 @@ public class Jochre {
     String docSelectionPath = null;
     List<String> featureDescriptors = null;
     boolean includeDate = false;
+    boolean compactLexicon = false;
 
     for (Entry<String, String> argMapEntry : argMap.entrySet()) {
       String argName = argMapEntry.getKey();
@@ -415,6 +435,8 @@ public class Jochre {
         suffix = argValue;
       else if (argName.equals("includeBeam"))
         includeBeam = argValue.equalsIgnoreCase("true");
+      else if (argName.equals("compactLexicon"))
+        compactLexicon = argValue.equalsIgnoreCase("true");
       else if (argName.equals("outputFormat")) {
         outputFormats = new ArrayList<>();
         String[] outputFormatStrings = argValue.split(",");
@@ -577,8 +599,12 @@ public class Jochre {
             if (baseName.lastIndexOf("/") > 0)
               baseName = baseName.substring(baseName.lastIndexOf("/") + 1);
 
-            File lexiconFile = new File(outputDir, baseName + ".obj");
-            lexicon.serialize(lexiconFile);
+            if (compactLexicon) {
+              CompactLexicon.write(lexicon, jochreSession.getLocale(), new File(outputDir, baseName + ".lex"));
+            } else {
+              File lexiconFile = new File(outputDir, baseName + ".obj");
+              lexicon.serialize(lexiconFile);
+            }
           }
         } else {
           LOG.debug(inFilePath + ": " + inputFile.exists() + ", size: " + inputFile.length());
@@ -591,9 +617,22 @@ public class Jochre {
 
           File lexiconFile = outputFile;
           if (lexiconFile == null)
-            lexiconFile = new File(outputDir, baseName + ".obj");
-          lexicon.serialize(lexiconFile);
+            lexiconFile = new File(outputDir, baseName + (compactLexicon ? ".lex" : ".obj"));
+          if (compactLexicon)
+            CompactLexicon.write(lexicon, jochreSession.getLocale(), lexiconFile);
+          else
+            lexicon.serialize(lexiconFile);
+        }
+      } else if (command.equals("exportCorpus")) {
+        if (outputFile == null) {
+          throw new JochreException("outputFile is required for " + command);
+        }
+        this.doCommandExportCorpus(criteria, outputFile);
+      } else if (command.equals("buildLexicon")) {
+        if (outputDir == null) {
+          throw new JochreException("Either outputDir our outputFile are required for " + command);
         }
+        this.doCommandBuildLexicon(outputDir, criteria, compactLexicon);
       } else if (command.equals("analyseFolder")) {
         File inDir = new File(inDirPath);
         File[] pdfFiles = inDir.listFiles(new FilenameFilter() {
@@ -627,6 +666,10 @@ public class Jochre {
       } else if (command.equals("analyseFile")) {
         File pdfFile = new File(inFilePath);
         this.doCommandAnalyse(pdfFile, wordChooser, pages, observers, imageObservers);
+      } else if (command.equals("convertShapePixels")) {
+        GraphicsDao graphicsDao = GraphicsDao.getInstance(jochreSession);
+        int convertedCount = graphicsDao.convertShapePixels();
+        LOG.info("Converted pixels for " + convertedCount + " shapes");
       } else if (command.equals("findSplits")) {
         GraphicsDao graphicsDao = GraphicsDao.getInstance(jochreSession);
         List<Shape> shapesToSplit = graphicsDao.findShapesToSplit(jochreSession.getLocale());
@@ -640,6 +683,7 @@ public class Jochre {
       LOG.error("An error occurred while running Jochre", e);
       throw e;
     } finally {
+      jochreSession.closeCorpusSnapshot();
       long duration = System.currentTimeMillis() - startTime;
       LOG.info("Duration (ms):" + duration);
     }
@@ -697,10 +741,31 @@ public class Jochre {
     }
   }
 
+  /**
+   * Export the selected training corpus images to a snapshot file, which can
+   * then be used instead of the database via the corpusSnapshot argument.
+   */
+  public void doCommandExportCorpus(CorpusSelectionCriteria criteria, File outputFile) throws IOException {
+    int imageCount = JochreCorpusSnapshot.write(criteria, outputFile, jochreSession);
+    LOG.info("Exported " + imageCount + " images to " + outputFile.getPath());
+  }
+
   /**
    * Rebuild the training corpus lexicon.
    */
   public void doCommandBuildLexicon(File outputDir, CorpusSelectionCriteria criteria) {
+    this.doCommandBuildLexicon(outputDir, criteria, false);
+  }
+
+  /**
+   * Rebuild the training corpus lexicon.
+   * 
+   * @param compactLexicon
+   *          if true, the lexicon is written as a compact memory-mapped
+   *          lexicon (jochreCorpusLexicon.lex), otherwise it is serialized
+   *          (jochreCorpusLexicon.zip)
+   */
+  public void doCommandBuildLexicon(File outputDir, CorpusSelectionCriteria criteria, boolean compactLexicon) {
     try {
       CorpusLexiconBuilder builder = new CorpusLexiconBuilder(criteria, jochreSession);
       TextFileLexicon lexicon = builder.buildLexicon();
@@ -715,8 +780,13 @@ public class Jochre {
         textFileWriter.close();
       }
 
-      File lexiconFile = new File(outputDir, "jochreCorpusLexicon.zip");
-      lexicon.serialize(lexiconFile);
+      if (compactLexicon) {
+        File lexiconFile = new File(outputDir, "jochreCorpusLexicon.lex");
+        CompactLexicon.write(lexicon, jochreSession.getLocale(), lexiconFile);
+      } else {
+        File lexiconFile = new File(outputDir, "jochreCorpusLexicon.zip");
+        lexicon.serialize(lexiconFile);
+      }
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -1081,7 +1151,7 @@ public class Jochre {
       throw new JochreException("The file " + sourceFile.getPath() + " does not exist");
 
     if (sourceFile.getName().toLowerCase().endsWith(".pdf")) {
-      PdfDocumentProcessor pdfDocumentProcessor = new PdfDocumentProcessor(sourceFile, pages, documentGenerator);
+      PdfDocumentProcessor pdfDocumentProcessor = this.getPdfDocumentProcessor(sourceFile, pages, documentGenerator);
       for (PdfImageObserver imageObserver : imageObservers) {
         pdfDocumentProcessor.addImageObserver(imageObserver);
       }
@@ -1097,39 +1167,18 @@ public class Jochre {
     }
   }
 
+  private PdfDocumentProcessor getPdfDocumentProcessor(File pdfFile, Set<Integer> pages,
+      SourceFileProcessor documentProcessor) {
+    PdfDocumentProcessor pdfDocumentProcessor = new PdfDocumentProcessor(pdfFile, pages, documentProcessor,
+        config.getBytes("jochre.pdf.max-main-memory"));
+    pdfDocumentProcessor.setLookAhead(config.getInt("jochre.pdf.look-ahead"));
+    return pdfDocumentProcessor;
+  }
+
   private JochreDocumentGenerator getDocumentGenerator(String fileName, MostLikelyWordChooser wordChooser, Set<Integer> pages,
                                 List<DocumentObserver> observers, List<PdfImageObserver> imageObservers, boolean exitOnError) throws IOException {
-
-    ClassificationModel letterModel = jochreSession.getLetterModel();
-
-    List<String> letterFeatureDescriptors = letterModel.getFeatureDescriptors();
-    LetterFeatureParser letterFeatureParser = new LetterFeatureParser();
-    Set<LetterFeature<?>> letterFeatures = letterFeatureParser.getLetterFeatureSet(letterFeatureDescriptors);
-    LetterGuesser letterGuesser = new LetterGuesser(letterFeatures, letterModel.getDecisionMaker());
-    BoundaryDetector boundaryDetector = null;
-    LetterGuessObserver letterGuessObserver = null;
-
-    if (jochreSession.getSplitModel() != null && jochreSession.getMergeModel() != null) {
-      boundaryDetector = new DeterministicBoundaryDetector(jochreSession.getSplitModel(), jochreSession.getMergeModel(),
-          jochreSession);
-
-      OriginalShapeLetterAssigner shapeLetterAssigner = new OriginalShapeLetterAssigner();
-      shapeLetterAssigner.setEvaluate(false);
-      shapeLetterAssigner.setSingleLetterMethod(false);
-
-      letterGuessObserver = shapeLetterAssigner;
-    } else {
-      boundaryDetector = new OriginalBoundaryDetector();
-
-      LetterAssigner letterAssigner = new LetterAssigner();
-      letterGuessObserver = letterAssigner;
-    }
-
-    ImageAnalyser analyser = new BeamSearchImageAnalyser(boundaryDetector, letterGuesser, wordChooser, jochreSession);
-    analyser.addObserver(letterGuessObserver);
-
     JochreDocumentGenerator documentGenerator = new JochreDocumentGenerator(fileName, "", jochreSession, exitOnError);
-    documentGenerator.addDocumentObserver(analyser);
+    documentGenerator.requestAnalysis(wordChooser);
 
     for (DocumentObserver observer : observers)
       documentGenerator.addDocumentObserver(observer);
@@ -1259,7 +1308,7 @@ public class Jochre {
     JochreDocument doc = documentDao.loadJochreDocument(docId);
     if (filename.toLowerCase().endsWith(".pdf")) {
       File pdfFile = new File(filename);
-      PdfDocumentProcessor pdfDocumentProcessor = new PdfDocumentProcessor(pdfFile, pages, new PdfImageUpdater(doc));
+      PdfDocumentProcessor pdfDocumentProcessor = this.getPdfDocumentProcessor(pdfFile, pages, new PdfImageUpdater(doc));
       pdfDocumentProcessor.process();
     } else {
       throw new RuntimeException("Unrecognised file extension");
@@ -1280,7 +1329,8 @@ public class Jochre {
       File pdfFile = new File(filename);
       String baseName = this.getBaseName(pdfFile);
       List<PdfImageObserver> imageObservers = this.getImageObservers(Arrays.asList(OutputFormat.ImageExtractor), baseName, outputDir);
-      PdfImageVisitor pdfImageVisitor = new PdfImageVisitor(pdfFile, pages);
+      PdfImageVisitor pdfImageVisitor = new PdfImageVisitor(pdfFile, pages, config.getBytes("jochre.pdf.max-main-memory"));
+      pdfImageVisitor.setLookAhead(config.getInt("jochre.pdf.look-ahead"));
       for (PdfImageObserver imageObserver : imageObservers) {
         pdfImageVisitor.addImageObserver(imageObserver);
       }
@@ -1329,7 +1379,7 @@ public class Jochre {
     }
 
     if (filename.toLowerCase().endsWith(".pdf")) {
-      PdfDocumentProcessor pdfDocumentProcessor = new PdfDocumentProcessor(file, pages, jochreDocumentGenerator);
+      PdfDocumentProcessor pdfDocumentProcessor = this.getPdfDocumentProcessor(file, pages, jochreDocumentGenerator);
       pdfDocumentProcessor.process();
     } else if (filename.toLowerCase().endsWith(".png") || filename.toLowerCase().endsWith(".jpg")
         || filename.toLowerCase().endsWith(".jpeg") || filename.toLowerCase().endsWith(".gif")) {
@@ -29,11 +29,14 @@ import java.util.zip.ZipInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.joliciel.jochre.graphics.JochreCorpusSnapshot;
 import com.joliciel.jochre.lang.Linguistics;
+import com.joliciel.jochre.lexicon.CompactLexicon;
 import com.joliciel.jochre.lexicon.DefaultLexiconWrapper;
 import com.joliciel.jochre.lexicon.FakeLexicon;
 import com.joliciel.jochre.lexicon.Lexicon;
 import com.joliciel.jochre.lexicon.LexiconMerger;
+import com.joliciel.jochre.lexicon.LexiconPrefixTrie;
 import com.joliciel.jochre.lexicon.TextFileLexicon;
 import com.joliciel.talismane.machineLearning.ClassificationModel;
 import com.joliciel.talismane.machineLearning.MachineLearningModelFactory;
@@ -43,7 +46,12 @@ import com.joliciel.talismane.utils.SimpleObjectCache;
 import com.typesafe.config.Config;
 
 /**
- * A class storing session-wide reference data.
+ * A class storing session-wide reference data.<br>
+ * <br>
+ * A single session may be shared by several threads analysing different images
+ * concurrently: the lexicon, linguistics and models are read-only once loaded,
+ * and the models are loaded at most once. Decision makers should be requested
+ * from the models separately by each thread.
  * 
  * @author Assaf Urieli
  *
@@ -64,6 +72,8 @@ public class JochreSession {
   private ClassificationModel letterModel;
   private ClassificationModel mergeModel;
   private ClassificationModel splitModel;
+  private LexiconPrefixTrie lexiconPrefixTrie;
+  private JochreCorpusSnapshot corpusSnapshot;
 
   /**
    * 
@@ -77,7 +87,7 @@ public class JochreSession {
     Config jochreConfig = config.getConfig("jochre");
 
     this.locale = Locale.forLanguageTag(jochreConfig.getString("locale"));
-    this.objectCache = new SimpleObjectCache();
+    this.objectCache = new SynchronizedObjectCache(new SimpleObjectCache());
 
     if (jochreConfig.hasPath("encoding"))
       encoding = Charset.forName(jochreConfig.getString("encoding"));
@@ -182,6 +192,8 @@ public class JochreSession {
         if (lexiconFile.getName().endsWith(".txt")) {
           TextFileLexicon textFileLexicon = new TextFileLexicon(lexiconFile, this.encoding);
           lexiconMerger.addLexicon(textFileLexicon);
+        } else if (lexiconFile.getName().endsWith(".lex")) {
+          lexiconMerger.addLexicon(new CompactLexicon(lexiconFile));
         } else {
           Lexicon textFileLexicon = TextFileLexicon.deserialize(lexiconFile);
           lexiconMerger.addLexicon(textFileLexicon);
@@ -193,6 +205,8 @@ public class JochreSession {
       if (lexiconDir.getName().endsWith(".txt")) {
         TextFileLexicon textFileLexicon = new TextFileLexicon(lexiconDir, this.encoding);
         myLexicon = textFileLexicon;
+      } else if (lexiconDir.getName().endsWith(".lex")) {
+        myLexicon = new CompactLexicon(lexiconDir);
       } else {
         Lexicon textFileLexicon = TextFileLexicon.deserialize(lexiconDir);
         myLexicon = textFileLexicon;
@@ -205,13 +219,48 @@ public class JochreSession {
     return this.lexicon;
   }
 
+  /**
+   * A prefix trie built from the lexicon, or null if no lexicon was
+   * configured. Built the first time it's requested.
+   */
+  public synchronized LexiconPrefixTrie getLexiconPrefixTrie() {
+    if (lexiconPrefixTrie == null && !(lexicon instanceof FakeLexicon)) {
+      LOG.debug("Building lexicon prefix trie");
+      lexiconPrefixTrie = new LexiconPrefixTrie(lexicon);
+      LOG.debug("Lexicon prefix trie nodes: " + lexiconPrefixTrie.size());
+    }
+    return lexiconPrefixTrie;
+  }
+
+  /**
+   * The corpus snapshot indicated by the config path, from which training
+   * corpus images are read instead of the database, or null if none was
+   * configured. Opened the first time it's requested.
+   */
+  public synchronized JochreCorpusSnapshot getCorpusSnapshot() {
+    if (corpusSnapshot == null && config.hasPath("jochre.corpus-snapshot")) {
+      corpusSnapshot = new JochreCorpusSnapshot(new File(config.getString("jochre.corpus-snapshot")), this);
+    }
+    return corpusSnapshot;
+  }
+
+  /**
+   * Close the corpus snapshot if it was opened.
+   */
+  public synchronized void closeCorpusSnapshot() throws IOException {
+    if (corpusSnapshot != null) {
+      corpusSnapshot.close();
+      corpusSnapshot = null;
+    }
+  }
+
   /**
    * Return the letter model indicated by the config path.
    * 
    * @throws IOException
    *           if unable to load the letter model
    */
-  public ClassificationModel getLetterModel() throws IOException {
+  public synchronized ClassificationModel getLetterModel() throws IOException {
     if (letterModel == null) {
       if (letterModelPath == null) {
         throw new IllegalArgumentException("Missing config setting: jochre.image-analyser.letter-model");
@@ -233,7 +282,7 @@ public class JochreSession {
    * @throws IOException
    *           if unable to load the merge model
    */
-  public ClassificationModel getMergeModel() throws IOException {
+  public synchronized ClassificationModel getMergeModel() throws IOException {
     if (mergeModel == null && mergeModelPath != null) {
       Config imageAnalyserConfig = config.getConfig("jochre.image-analyser");
       MachineLearningModelFactory modelFactory = new MachineLearningModelFactory();
@@ -252,7 +301,7 @@ public class JochreSession {
    * @throws IOException
    *           if unable to load the split model
    */
-  public ClassificationModel getSplitModel() throws IOException {
+  public synchronized ClassificationModel getSplitModel() throws IOException {
     if (splitModel == null && splitModelPath != null) {
       Config imageAnalyserConfig = config.getConfig("jochre.image-analyser");
       MachineLearningModelFactory modelFactory = new MachineLearningModelFactory();
@@ -277,4 +326,44 @@ public class JochreSession {
     return splitModelPath;
   }
 
+  /**
+   * An object cache which can be shared by several threads.
+   */
+  private static final class SynchronizedObjectCache implements ObjectCache {
+    private final ObjectCache wrappedCache;
+
+    public SynchronizedObjectCache(ObjectCache wrappedCache) {
+      this.wrappedCache = wrappedCache;
+    }
+
+    @Override
+    public synchronized <T> T getEntity(Class<T> clazz, Object id) {
+      return wrappedCache.getEntity(clazz, id);
+    }
+
+    @Override
+    public synchronized <T> void putEntity(Class<T> clazz, Object id, T entity) {
+      wrappedCache.putEntity(clazz, id, entity);
+    }
+
+    @Override
+    public synchronized <T> void removeEntity(Class<T> clazz, Object id) {
+      wrappedCache.removeEntity(clazz, id);
+    }
+
+    @Override
+    public synchronized <T> T getOrPutEntity(Class<T> clazz, Object id, T entity) {
+      return wrappedCache.getOrPutEntity(clazz, id, entity);
+    }
+
+    @Override
+    public synchronized void clearCache() {
+      wrappedCache.clearCache();
+    }
+
+    @Override
+    public synchronized void clearCache(Class<? extends Object> clazz) {
+      wrappedCache.clearCache(clazz);
+    }
+  }
 }
@@ -19,10 +19,14 @@
 package com.joliciel.jochre.analyser;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.PriorityQueue;
 import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,8 +42,10 @@ import com.joliciel.jochre.graphics.JochreImage;
 import com.joliciel.jochre.graphics.Paragraph;
 import com.joliciel.jochre.graphics.RowOfShapes;
 import com.joliciel.jochre.graphics.Shape;
+import com.joliciel.jochre.lang.Linguistics;
 import com.joliciel.jochre.letterGuesser.LetterGuesser;
 import com.joliciel.jochre.letterGuesser.LetterSequence;
+import com.joliciel.jochre.lexicon.LexiconPrefixTrie;
 import com.joliciel.jochre.lexicon.MostLikelyWordChooser;
 import com.joliciel.talismane.machineLearning.Decision;
 import com.joliciel.talismane.utils.LogUtils;
@@ -56,6 +62,7 @@ import com.typesafe.config.Config;
  */
 public class BeamSearchImageAnalyser implements ImageAnalyser, Monitorable {
   private static final Logger LOG = LoggerFactory.getLogger(BeamSearchImageAnalyser.class);
+  private static final Pattern PUNCTUATION = Pattern.compile("[\\p{Punct}]+", Pattern.UNICODE_CHARACTER_CLASS);
 
   private final MostLikelyWordChooser mostLikelyWordChooser;
   private final BoundaryDetector boundaryDetector;
@@ -63,6 +70,9 @@ public class BeamSearchImageAnalyser implements ImageAnalyser, Monitorable {
 
   private final int beamWidth;
   private final double minOutcomeWeight;
+  private final boolean parallelBeamSearch;
+  private final LexiconPrefixTrie lexiconPrefixTrie;
+  private final double unknownPrefixFactor;
 
   private int shapeCount = 0;
   private int totalShapeCount = -1;
@@ -91,6 +101,12 @@ public class BeamSearchImageAnalyser implements ImageAnalyser, Monitorable {
     Config imageAnalyserConfig = jochreSession.getConfig().getConfig("jochre.image-analyser");
     this.beamWidth = imageAnalyserConfig.getInt("beam-width");
     this.minOutcomeWeight = imageAnalyserConfig.getDouble("min-outcome-prob");
+    this.parallelBeamSearch = imageAnalyserConfig.getBoolean("parallel-beam-search");
+    if (imageAnalyserConfig.getBoolean("lexicon-prefix-pruning"))
+      this.lexiconPrefixTrie = jochreSession.getLexiconPrefixTrie();
+    else
+      this.lexiconPrefixTrie = null;
+    this.unknownPrefixFactor = imageAnalyserConfig.getDouble("unknown-prefix-factor");
   }
 
   @Override
@@ -113,6 +129,27 @@ public class BeamSearchImageAnalyser implements ImageAnalyser, Monitorable {
     if (totalShapeCount < 0)
       totalShapeCount = image.getShapeCount();
 
+    // The beam search for each group is independent of all other groups, and
+    // is performed up-front, possibly in parallel. Only the choice of the most
+    // likely word depends on the previous group, in the case of a hyphen
+    // holdover at the end of a row, and is performed sequentially below.
+    List<RowOfShapes> rows = new ArrayList<>();
+    for (Paragraph paragraph : image.getParagraphs())
+      rows.addAll(paragraph.getRows());
+
+    Map<GroupOfShapes, List<LetterSequence>> finalSequencesPerGroup = new HashMap<>();
+    if (parallelBeamSearch) {
+      // rows rather than groups are the unit of parallelism, since groups on
+      // the same row share lazily calculated row-level data
+      List<Map<GroupOfShapes, List<LetterSequence>>> resultsPerRow = rows.parallelStream().map(this::beamSearch)
+          .collect(Collectors.toList());
+      for (Map<GroupOfShapes, List<LetterSequence>> rowResults : resultsPerRow)
+        finalSequencesPerGroup.putAll(rowResults);
+    } else {
+      for (RowOfShapes row : rows)
+        finalSequencesPerGroup.putAll(this.beamSearch(row));
+    }
+
     for (Paragraph paragraph : image.getParagraphs()) {
       LOG.debug("Analysing paragraph " + paragraph.getIndex() + " (id=" + paragraph.getId() + ")");
       List<LetterSequence> holdoverSequences = null;
@@ -124,97 +161,13 @@ public class BeamSearchImageAnalyser implements ImageAnalyser, Monitorable {
             LOG.debug("Skipping group " + group.getIndex() + " (id=" + group.getId() + ")");
             continue;
           }
-          LOG.debug("Analysing group " + group.getIndex() + " (id=" + group.getId() + ")");
-
-          int width = group.getRight() - group.getLeft() + 1;
-
-          List<ShapeSequence> shapeSequences = null;
-          if (boundaryDetector != null) {
-            shapeSequences = boundaryDetector.findBoundaries(group);
-          } else {
-            // simply add this groups shape's
-            shapeSequences = new ArrayList<>();
-            ShapeSequence shapeSequence = new ShapeSequence();
-            for (Shape shape : group.getShapes())
-              shapeSequence.addShape(shape);
-            shapeSequences.add(shapeSequence);
-          }
-
-          // Perform a beam search to guess the most likely sequence
-          // for this
-          // word
-          TreeMap<Integer, PriorityQueue<LetterSequence>> heaps = new TreeMap<>();
-
-          // prime a starter heap with the n best shape boundary
-          // analyses for
-          // this group
-          PriorityQueue<LetterSequence> starterHeap = new PriorityQueue<>(1);
-          for (ShapeSequence shapeSequence : shapeSequences) {
-            LetterSequence emptySequence = new LetterSequence(shapeSequence, jochreSession);
-            starterHeap.add(emptySequence);
-          }
-          heaps.put(0, starterHeap);
-
-          PriorityQueue<LetterSequence> finalHeap = null;
-          while (heaps.size() > 0) {
-            Entry<Integer, PriorityQueue<LetterSequence>> heapEntry = heaps.pollFirstEntry();
-            if (LOG.isTraceEnabled())
-              LOG.trace("heap for index: " + heapEntry.getKey().intValue() + ", width: " + width);
-            if (heapEntry.getKey().intValue() == width) {
-              finalHeap = heapEntry.getValue();
-              break;
-            }
-
-            PriorityQueue<LetterSequence> previousHeap = heapEntry.getValue();
-
-            // limit the breadth to K
-            int maxSequences = previousHeap.size() > this.beamWidth ? this.beamWidth : previousHeap.size();
+          LOG.debug("Choosing word for group " + group.getIndex() + " (id=" + group.getId() + ")");
 
-            for (int j = 0; j < maxSequences; j++) {
-              LetterSequence history = previousHeap.poll();
-              ShapeInSequence shapeInSequence = history.getNextShape();
-              Shape shape = shapeInSequence.getShape();
-              if (LOG.isTraceEnabled()) {
-                LOG.trace("Sequence " + history + ", shape: " + shape);
-              }
-              LogUtils.logMemory(LOG);
-              int position = 0;
-              if (jochreSession.getLinguistics().isLeftToRight()) {
-                position = shape.getRight() - group.getLeft() + 1;
-              } else {
-                position = group.getRight() - shape.getLeft() + 1;
-              }
-              PriorityQueue<LetterSequence> heap = heaps.get(position);
-              if (heap == null) {
-                heap = new PriorityQueue<>();
-                heaps.put(position, heap);
-              }
-
-              letterGuesser.guessLetter(shapeInSequence, history);
-
-              // heap sort
-              for (Decision letterGuess : shape.getLetterGuesses()) {
-                // leave out very low probability outcomes
-                if (letterGuess.getProbability() > this.minOutcomeWeight) {
-                  LetterSequence sequence = new LetterSequence(history);
-                  sequence.getLetters().add(letterGuess.getOutcome());
-                  sequence.addDecision(letterGuess);
-                  heap.add(sequence);
-                } // weight big enough to include
-              } // next letter guess for this shape
-
-            } // next history in heap
-          } // any more heaps?
+          List<LetterSequence> finalSequences = finalSequencesPerGroup.get(group);
 
           // find best sequence
           LetterSequence bestSequence = null;
           boolean isHoldover = false;
-          List<LetterSequence> finalSequences = new ArrayList<>();
-          for (int i = 0; i < this.beamWidth; i++) {
-            if (finalHeap.isEmpty())
-              break;
-            finalSequences.add(finalHeap.poll());
-          }
 
           if (this.mostLikelyWordChooser == null) {
             // most likely sequence is on top of the last heap
@@ -303,6 +256,166 @@ public class BeamSearchImageAnalyser implements ImageAnalyser, Monitorable {
     }
   }
 
+  /**
+   * Perform a beam search for each group in a row which isn't skipped.
+   * 
+   * @return the best letter sequences for each group, most likely first
+   */
+  private Map<GroupOfShapes, List<LetterSequence>> beamSearch(RowOfShapes row) {
+    LOG.debug("Analysing row " + row.getIndex() + " (id=" + row.getId() + ")");
+    Map<GroupOfShapes, List<LetterSequence>> finalSequencesPerGroup = new HashMap<>();
+    for (GroupOfShapes group : row.getGroups()) {
+      if (group.isSkip())
+        continue;
+      finalSequencesPerGroup.put(group, this.beamSearch(group));
+    }
+    return finalSequencesPerGroup;
+  }
+
+  /**
+   * Perform a beam search to guess the most likely letter sequences for a
+   * single group.
+   * 
+   * @return the best letter sequences, most likely first, limited to the beam
+   *         width
+   */
+  private List<LetterSequence> beamSearch(GroupOfShapes group) {
+    LOG.debug("Analysing group " + group.getIndex() + " (id=" + group.getId() + ")");
+
+    int width = group.getRight() - group.getLeft() + 1;
+
+    List<ShapeSequence> shapeSequences = null;
+    if (boundaryDetector != null) {
+      shapeSequences = boundaryDetector.findBoundaries(group);
+    } else {
+      // simply add this groups shape's
+      shapeSequences = new ArrayList<>();
+      ShapeSequence shapeSequence = new ShapeSequence();
+      for (Shape shape : group.getShapes())
+        shapeSequence.addShape(shape);
+      shapeSequences.add(shapeSequence);
+    }
+
+    // Perform a beam search to guess the most likely sequence
+    // for this
+    // word
+    TreeMap<Integer, PriorityQueue<LetterSequence>> heaps = new TreeMap<>();
+
+    // prime a starter heap with the n best shape boundary
+    // analyses for
+    // this group
+    PriorityQueue<LetterSequence> starterHeap = new PriorityQueue<>(1);
+    for (ShapeSequence shapeSequence : shapeSequences) {
+      LetterSequence emptySequence = new LetterSequence(shapeSequence, jochreSession);
+      starterHeap.add(emptySequence);
+    }
+    heaps.put(0, starterHeap);
+
+    PriorityQueue<LetterSequence> finalHeap = null;
+    while (heaps.size() > 0) {
+      Entry<Integer, PriorityQueue<LetterSequence>> heapEntry = heaps.pollFirstEntry();
+      if (LOG.isTraceEnabled())
+        LOG.trace("heap for index: " + heapEntry.getKey().intValue() + ", width: " + width);
+      if (heapEntry.getKey().intValue() == width) {
+        finalHeap = heapEntry.getValue();
+        break;
+      }
+
+      PriorityQueue<LetterSequence> previousHeap = heapEntry.getValue();
+
+      // limit the breadth to K
+      int maxSequences = previousHeap.size() > this.beamWidth ? this.beamWidth : previousHeap.size();
+
+      for (int j = 0; j < maxSequences; j++) {
+        LetterSequence history = previousHeap.poll();
+        ShapeInSequence shapeInSequence = history.getNextShape();
+        Shape shape = shapeInSequence.getShape();
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("Sequence " + history + ", shape: " + shape);
+        }
+        LogUtils.logMemory(LOG);
+        int position = 0;
+        if (jochreSession.getLinguistics().isLeftToRight()) {
+          position = shape.getRight() - group.getLeft() + 1;
+        } else {
+          position = group.getRight() - shape.getLeft() + 1;
+        }
+        PriorityQueue<LetterSequence> heap = heaps.get(position);
+        if (heap == null) {
+          heap = new PriorityQueue<>();
+          heaps.put(position, heap);
+        }
+
+        List<Decision> letterGuesses = letterGuesser.guessLetters(shapeInSequence, history);
+
+        // heap sort
+        for (Decision letterGuess : letterGuesses) {
+          // leave out very low probability outcomes
+          if (letterGuess.getProbability() > this.minOutcomeWeight) {
+            LetterSequence sequence = new LetterSequence(history, letterGuess.getOutcome(), letterGuess);
+            if (lexiconPrefixTrie != null && position < width && !this.isLexiconPrefix(sequence)) {
+              sequence.setScore(sequence.getScore() * unknownPrefixFactor);
+            }
+            heap.add(sequence);
+          } // weight big enough to include
+        } // next letter guess for this shape
+
+      } // next history in heap
+    } // any more heaps?
+
+    List<LetterSequence> finalSequences = new ArrayList<>();
+    for (int i = 0; i < this.beamWidth; i++) {
+      if (finalHeap.isEmpty())
+        break;
+      finalSequences.add(finalHeap.poll());
+    }
+    return finalSequences;
+  }
+
+  /**
+   * Could the word currently being guessed at the end of this sequence (after
+   * any punctuation) be the start of a word in the lexicon? Errs on the side
+   * of yes whenever we cannot tell, e.g. for split letters or numbers.
+   */
+  private boolean isLexiconPrefix(LetterSequence sequence) {
+    int letterCount = sequence.getLetterCount();
+    int start = letterCount;
+    while (start > 0 && !PUNCTUATION.matcher(sequence.getLetter(start - 1)).matches())
+      start--;
+    if (start == letterCount)
+      return true;
+
+    String word = this.getWord(sequence, start, letterCount);
+    if (word == null)
+      return true;
+    Linguistics linguistics = jochreSession.getLinguistics();
+    if (lexiconPrefixTrie.isPrefix(linguistics.standardiseWord(word)))
+      return true;
+
+    // the last letter could be the first half of two letters which are
+    // standardised together
+    String shorterWord = this.getWord(sequence, start, letterCount - 1);
+    return lexiconPrefixTrie.isPrefix(linguistics.standardiseWord(shorterWord));
+  }
+
+  /**
+   * The word formed by the letters from start (inclusive) to end (exclusive),
+   * or null if it contains split letters or digits.
+   */
+  private String getWord(LetterSequence sequence, int start, int end) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = start; i < end; i++) {
+      String letter = sequence.getLetter(i);
+      for (int j = 0; j < letter.length(); j++) {
+        char c = letter.charAt(j);
+        if (c == '|' || Character.isDigit(c))
+          return null;
+      }
+      sb.append(letter);
+    }
+    return sb.toString();
+  }
+
   private void assignLetter(ShapeInSequence shapeInSequence, String bestGuess) {
     for (LetterGuessObserver observer : observers) {
       observer.onGuessLetter(shapeInSequence, bestGuess);
@@ -20,6 +20,8 @@ package com.joliciel.jochre.boundaries;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,21 +36,25 @@ import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 import com.joliciel.jochre.JochreSession;
+import com.joliciel.jochre.graphics.JochreImage;
 import com.joliciel.jochre.graphics.Shape;
+import com.joliciel.jochre.utils.dao.BatchUtils;
 import com.joliciel.jochre.utils.dao.DaoConfig;
 import com.joliciel.talismane.utils.DaoUtils;
+import com.typesafe.config.Config;
 
 public final class BoundaryDao {
   private static final Logger LOG = LoggerFactory.getLogger(BoundaryDao.class);
   private static final String SELECT_SPLIT = "split_id, split_shape_id, split_position";
 
   private final DataSource dataSource;
+  private final int batchSize;
 
   private final JochreSession jochreSession;
 
   public static Map<String, BoundaryDao> instances = new HashMap<>();
 
-  public static BoundaryDao getInstance(JochreSession jochreSession) {
+  public static synchronized BoundaryDao getInstance(JochreSession jochreSession) {
     String key = DaoConfig.getKey(jochreSession.getConfig().getConfig("jochre.jdbc"));
     BoundaryDao instance = instances.get(key);
     if (instance == null) {
@@ -60,7 +66,9 @@ public final class BoundaryDao {
 
   private BoundaryDao(JochreSession jochreSession) {
     this.jochreSession = jochreSession;
-    this.dataSource = DaoConfig.getDataSource(jochreSession.getConfig().getConfig("jochre.jdbc"));
+    Config jdbcConfig = jochreSession.getConfig().getConfig("jochre.jdbc");
+    this.dataSource = DaoConfig.getDataSource(jdbcConfig);
+    this.batchSize = BatchUtils.getBatchSize(jdbcConfig);
   }
 
   public DataSource getDataSource() {
@@ -98,6 +106,26 @@ public final class BoundaryDao {
     return splits;
   }
 
+  /**
+   * Find all splits for all shapes in a given image, ordered by shape.
+   */
+  public List<Split> findSplits(JochreImage jochreImage) {
+    NamedParameterJdbcTemplate jt = new NamedParameterJdbcTemplate(this.getDataSource());
+    String sql = "SELECT " + SELECT_SPLIT + " FROM ocr_split" + " INNER JOIN ocr_shape ON split_shape_id = shape_id"
+        + " INNER JOIN ocr_group ON shape_group_id = group_id" + " INNER JOIN ocr_row ON group_row_id = row_id"
+        + " INNER JOIN ocr_paragraph ON row_paragraph_id = paragraph_id" + " WHERE paragraph_image_id = :image_id"
+        + " ORDER BY split_shape_id, split_position";
+    MapSqlParameterSource paramSource = new MapSqlParameterSource();
+    paramSource.addValue("image_id", jochreImage.getId());
+
+    LOG.debug(sql);
+    logParameters(paramSource);
+
+    List<Split> splits = jt.query(sql, paramSource, new SplitMapper());
+
+    return splits;
+  }
+
   private final class SplitMapper implements RowMapper<Split> {
 
     @Override
@@ -116,35 +144,52 @@ public final class BoundaryDao {
   }
 
   void saveSplit(Split split) {
-    NamedParameterJdbcTemplate jt = new NamedParameterJdbcTemplate(this.getDataSource());
-    MapSqlParameterSource paramSource = new MapSqlParameterSource();
-
-    paramSource.addValue("split_shape_id", split.getShapeId());
-    paramSource.addValue("split_position", split.getPosition());
-    String sql = null;
+    this.saveSplits(Collections.singletonList(split));
+  }
 
-    if (split.getId() == 0) {
-      sql = "SELECT nextval('ocr_split_id_seq')";
-      LOG.debug(sql);
-      int splitId = jt.queryForObject(sql, paramSource, Integer.class);
-      paramSource.addValue("split_id", splitId);
+  /**
+   * Save any dirty splits in the list, reserving the ids for new splits in a
+   * single query and sending inserts and updates in batches.
+   */
+  public void saveSplits(List<Split> splits) {
+    NamedParameterJdbcTemplate jt = new NamedParameterJdbcTemplate(this.getDataSource());
+    List<Split> newSplits = new ArrayList<>();
+    List<MapSqlParameterSource> updateParams = new ArrayList<>();
+    for (Split split : splits) {
+      if (!split.isDirty())
+        continue;
+      if (split.getId() == 0) {
+        newSplits.add(split);
+      } else {
+        MapSqlParameterSource paramSource = this.getSplitParameters(split);
+        paramSource.addValue("split_id", split.getId());
+        updateParams.add(paramSource);
+      }
+    }
 
-      sql = "INSERT INTO ocr_split (split_id, split_shape_id, split_position) " + "VALUES (:split_id, :split_shape_id, :split_position)";
+    List<Integer> splitIds = BatchUtils.getNextIds(jt, "ocr_split_id_seq", newSplits.size());
+    List<MapSqlParameterSource> insertParams = new ArrayList<>();
+    for (int i = 0; i < newSplits.size(); i++) {
+      MapSqlParameterSource paramSource = this.getSplitParameters(newSplits.get(i));
+      paramSource.addValue("split_id", splitIds.get(i));
+      insertParams.add(paramSource);
+    }
 
-      LOG.debug(sql);
-      logParameters(paramSource);
-      jt.update(sql, paramSource);
+    String sql = "INSERT INTO ocr_split (split_id, split_shape_id, split_position) " + "VALUES (:split_id, :split_shape_id, :split_position)";
+    BatchUtils.batchUpdate(jt, sql, insertParams, batchSize);
 
-      split.setId(splitId);
-    } else {
-      paramSource.addValue("split_id", split.getId());
+    for (int i = 0; i < newSplits.size(); i++)
+      newSplits.get(i).setId(splitIds.get(i));
 
-      sql = "UPDATE ocr_split" + " SET split_shape_id = :split_shape_id" + ", split_position = :split_position" + " WHERE split_id = :split_id";
+    sql = "UPDATE ocr_split" + " SET split_shape_id = :split_shape_id" + ", split_position = :split_position" + " WHERE split_id = :split_id";
+    BatchUtils.batchUpdate(jt, sql, updateParams, batchSize);
+  }
 
-      LOG.debug(sql);
-      logParameters(paramSource);
-      jt.update(sql, paramSource);
-    }
+  private MapSqlParameterSource getSplitParameters(Split split) {
+    MapSqlParameterSource paramSource = new MapSqlParameterSource();
+    paramSource.addValue("split_shape_id", split.getShapeId());
+    paramSource.addValue("split_position", split.getPosition());
+    return paramSource;
   }
 
   public void deleteSplit(Split split) {
@@ -160,6 +205,23 @@ public final class BoundaryDao {
     jt.update(sql, paramSource);
   }
 
+  /**
+   * Delete any previously saved splits in the list, in batches.
+   */
+  public void deleteSplits(List<Split> splits) {
+    NamedParameterJdbcTemplate jt = new NamedParameterJdbcTemplate(this.getDataSource());
+    List<MapSqlParameterSource> paramSources = new ArrayList<>();
+    for (Split split : splits) {
+      if (split.getId() != 0) {
+        MapSqlParameterSource paramSource = new MapSqlParameterSource();
+        paramSource.addValue("split_id", split.getId());
+        paramSources.add(paramSource);
+      }
+    }
+    String sql = "delete from ocr_split where split_id = :split_id";
+    BatchUtils.batchUpdate(jt, sql, paramSources, batchSize);
+  }
+
   public static void logParameters(MapSqlParameterSource paramSource) {
     DaoUtils.LogParameters(paramSource.getValues());
   }
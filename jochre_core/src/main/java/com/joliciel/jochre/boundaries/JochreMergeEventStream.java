@@ -19,10 +19,12 @@
 package com.joliciel.jochre.boundaries;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,34 +35,36 @@ import com.joliciel.jochre.graphics.CorpusSelectionCriteria;
 import com.joliciel.jochre.graphics.GroupOfShapes;
 import com.joliciel.jochre.graphics.JochreCorpusGroupReader;
 import com.joliciel.jochre.graphics.Shape;
+import com.joliciel.jochre.training.CorpusEventStream;
 import com.joliciel.talismane.machineLearning.ClassificationEvent;
-import com.joliciel.talismane.machineLearning.ClassificationEventStream;
 import com.joliciel.talismane.machineLearning.features.FeatureResult;
 import com.joliciel.talismane.machineLearning.features.RuntimeEnvironment;
 import com.typesafe.config.Config;
 
-public class JochreMergeEventStream implements ClassificationEventStream {
+/**
+ * An event stream for training the merge model, with one event per pair of
+ * consecutive shapes in each group which are close enough to be considered for
+ * merging.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+public class JochreMergeEventStream extends CorpusEventStream<GroupOfShapes> {
   private static final Logger LOG = LoggerFactory.getLogger(JochreMergeEventStream.class);
 
   private SplitCandidateFinder splitCandidateFinder;
 
   private final Set<MergeFeature<?>> mergeFeatures;
-  private final JochreSession jochreSession;
 
   private double maxWidthRatio = 1.2;
   private double maxDistanceRatio = 0.15;
 
-  private int shapeIndex = 0;
-
-  private int belowRatioCount = 0;
-  private int aboveRatioCount = 0;
-  private int yesCount = 0;
-  private int noCount = 0;
-
-  private ShapePair mergeCandidate;
+  private final AtomicInteger belowRatioCount = new AtomicInteger();
+  private final AtomicInteger aboveRatioCount = new AtomicInteger();
+  private final AtomicInteger yesCount = new AtomicInteger();
+  private final AtomicInteger noCount = new AtomicInteger();
 
   private JochreCorpusGroupReader groupReader;
-  private GroupOfShapes group = null;
 
   private final CorpusSelectionCriteria criteria;
 
@@ -71,7 +75,7 @@ public class JochreMergeEventStream implements ClassificationEventStream {
    *            the features to analyse when training
    */
   public JochreMergeEventStream(CorpusSelectionCriteria criteria, Set<MergeFeature<?>> mergeFeatures, JochreSession jochreSession) {
-    this.jochreSession = jochreSession;
+    super(jochreSession);
     this.criteria = criteria;
     this.mergeFeatures = mergeFeatures;
 
@@ -81,9 +85,34 @@ public class JochreMergeEventStream implements ClassificationEventStream {
   }
 
   @Override
-  public ClassificationEvent next() {
-    ClassificationEvent event = null;
-    if (this.hasNext()) {
+  protected GroupOfShapes nextUnit() {
+    if (groupReader == null) {
+      groupReader = new JochreCorpusGroupReader(jochreSession);
+      groupReader.setSelectionCriteria(criteria);
+    }
+
+    if (groupReader.hasNext())
+      return groupReader.next();
+    return null;
+  }
+
+  @Override
+  protected List<ClassificationEvent> getEvents(GroupOfShapes group) {
+    List<ClassificationEvent> events = new ArrayList<>();
+    for (int shapeIndex = 0; shapeIndex < group.getShapes().size() - 1; shapeIndex++) {
+      Shape shape1 = group.getShapes().get(shapeIndex);
+      Shape shape2 = group.getShapes().get(shapeIndex + 1);
+
+      ShapePair mergeCandidate = new ShapePair(shape1, shape2);
+      double widthRatio = (double) mergeCandidate.getWidth() / (double) mergeCandidate.getXHeight();
+      double distanceRatio = (double) mergeCandidate.getInnerDistance() / (double) mergeCandidate.getXHeight();
+      if (widthRatio <= maxWidthRatio && distanceRatio <= maxDistanceRatio) {
+        belowRatioCount.incrementAndGet();
+      } else {
+        aboveRatioCount.incrementAndGet();
+        continue;
+      }
+
       LOG.debug("next event, " + mergeCandidate.getFirstShape() + ", " + mergeCandidate.getSecondShape());
 
       List<FeatureResult<?>> featureResults = new ArrayList<>();
@@ -113,66 +142,27 @@ public class JochreMergeEventStream implements ClassificationEventStream {
         outcome = MergeOutcome.DO_MERGE;
 
       if (outcome.equals(MergeOutcome.DO_MERGE))
-        yesCount++;
+        yesCount.incrementAndGet();
       else
-        noCount++;
+        noCount.incrementAndGet();
 
       LOG.debug("Outcome: " + outcome);
-      event = new ClassificationEvent(featureResults, outcome.name());
-
-      // set mergeCandidate to null so that hasNext can retrieve the next
-      // one.
-      this.mergeCandidate = null;
+      events.add(new ClassificationEvent(featureResults, outcome.name()));
     }
-    return event;
+    return events;
   }
 
   @Override
-  public boolean hasNext() {
-    this.initialiseStream();
-
-    while (mergeCandidate == null && group != null) {
-      if (shapeIndex < group.getShapes().size() - 1) {
-        Shape shape1 = group.getShapes().get(shapeIndex);
-        Shape shape2 = group.getShapes().get(shapeIndex + 1);
-
-        ShapePair shapePair = new ShapePair(shape1, shape2);
-        double widthRatio = (double) shapePair.getWidth() / (double) shapePair.getXHeight();
-        double distanceRatio = (double) shapePair.getInnerDistance() / (double) shapePair.getXHeight();
-        if (widthRatio <= maxWidthRatio && distanceRatio <= maxDistanceRatio) {
-          belowRatioCount++;
-          mergeCandidate = shapePair;
-        } else {
-          aboveRatioCount++;
-          mergeCandidate = null;
-        }
-        shapeIndex++;
-      } else {
-        group = null;
-        shapeIndex = 0;
-        if (groupReader.hasNext())
-          group = groupReader.next();
-      }
-    }
-
-    if (mergeCandidate == null) {
-
-      LOG.debug("aboveRatioCount: " + aboveRatioCount);
-      LOG.debug("belowRatioCount: " + belowRatioCount);
-      LOG.debug("yesCount: " + yesCount);
-      LOG.debug("noCount: " + noCount);
-    }
-
-    return mergeCandidate != null;
+  protected void onStreamComplete() {
+    LOG.debug("aboveRatioCount: " + aboveRatioCount);
+    LOG.debug("belowRatioCount: " + belowRatioCount);
+    LOG.debug("yesCount: " + yesCount);
+    LOG.debug("noCount: " + noCount);
   }
 
-  void initialiseStream() {
-    if (groupReader == null) {
-      groupReader = new JochreCorpusGroupReader(jochreSession);
-      groupReader.setSelectionCriteria(criteria);
-      if (groupReader.hasNext())
-        group = groupReader.next();
-    }
+  @Override
+  protected Collection<MergeFeature<?>> getFeatures() {
+    return mergeFeatures;
   }
 
   public SplitCandidateFinder getSplitCandidateFinder() {
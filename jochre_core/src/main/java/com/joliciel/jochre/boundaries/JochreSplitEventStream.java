@@ -19,10 +19,12 @@
 package com.joliciel.jochre.boundaries;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,34 +34,34 @@ import com.joliciel.jochre.boundaries.features.SplitFeature;
 import com.joliciel.jochre.graphics.CorpusSelectionCriteria;
 import com.joliciel.jochre.graphics.JochreCorpusShapeReader;
 import com.joliciel.jochre.graphics.Shape;
+import com.joliciel.jochre.training.CorpusEventStream;
 import com.joliciel.talismane.machineLearning.ClassificationEvent;
-import com.joliciel.talismane.machineLearning.ClassificationEventStream;
 import com.joliciel.talismane.machineLearning.features.FeatureResult;
 import com.joliciel.talismane.machineLearning.features.RuntimeEnvironment;
 import com.typesafe.config.Config;
 
-public class JochreSplitEventStream implements ClassificationEventStream {
+/**
+ * An event stream for training the split model, with one event per split
+ * candidate found in each shape large enough to be considered for splitting.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+public class JochreSplitEventStream extends CorpusEventStream<Shape> {
   private static final Logger LOG = LoggerFactory.getLogger(JochreSplitEventStream.class);
   private SplitCandidateFinder splitCandidateFinder;
 
   private final Set<SplitFeature<?>> splitFeatures;
-  private final JochreSession jochreSession;
 
   private double minWidthRatio;
   private double minHeightRatio;
 
-  private int splitCandidateIndex = 0;
-
-  private int belowRatioCount = 0;
-  private int aboveRatioCount = 0;
-  private int yesCount = 0;
-  private int noCount = 0;
-
-  List<Split> splitCandidates = null;
-  private Split splitCandidate = null;
+  private final AtomicInteger belowRatioCount = new AtomicInteger();
+  private final AtomicInteger aboveRatioCount = new AtomicInteger();
+  private final AtomicInteger yesCount = new AtomicInteger();
+  private final AtomicInteger noCount = new AtomicInteger();
 
   private JochreCorpusShapeReader shapeReader;
-  private Shape shape;
 
   private final CorpusSelectionCriteria criteria;
 
@@ -70,19 +72,43 @@ public class JochreSplitEventStream implements ClassificationEventStream {
    *          the SplitFeatures to analyse when training
    */
   public JochreSplitEventStream(CorpusSelectionCriteria criteria, Set<SplitFeature<?>> splitFeatures, JochreSession jochreSession) {
-    this.jochreSession = jochreSession;
+    super(jochreSession);
     this.criteria = criteria;
     this.splitFeatures = splitFeatures;
 
     Config splitterConfig = jochreSession.getConfig().getConfig("jochre.boundaries.splitter");
     minWidthRatio = splitterConfig.getDouble("min-width-ratio");
     minHeightRatio = splitterConfig.getDouble("min-height-ratio");
+    splitCandidateFinder = new SplitCandidateFinder(jochreSession);
+  }
+
+  @Override
+  protected Shape nextUnit() {
+    if (shapeReader == null) {
+      shapeReader = new JochreCorpusShapeReader(jochreSession);
+      shapeReader.setSelectionCriteria(criteria);
+    }
+
+    Shape shape = null;
+    while (shape == null && shapeReader.hasNext()) {
+      shape = shapeReader.next();
+      double widthRatio = (double) shape.getWidth() / (double) shape.getXHeight();
+      double heightRatio = (double) shape.getHeight() / (double) shape.getXHeight();
+      if (widthRatio >= minWidthRatio && heightRatio >= minHeightRatio) {
+        aboveRatioCount.incrementAndGet();
+      } else {
+        belowRatioCount.incrementAndGet();
+        shape = null;
+      }
+    }
+    return shape;
   }
 
   @Override
-  public ClassificationEvent next() {
-    ClassificationEvent event = null;
-    if (this.hasNext()) {
+  protected List<ClassificationEvent> getEvents(Shape shape) {
+    List<ClassificationEvent> events = new ArrayList<>();
+    List<Split> splitCandidates = splitCandidateFinder.findSplitCandidates(shape);
+    for (Split splitCandidate : splitCandidates) {
       LOG.debug("next event, " + splitCandidate.getShape() + ", split: " + splitCandidate.getPosition());
 
       List<FeatureResult<?>> featureResults = new ArrayList<FeatureResult<?>>();
@@ -119,67 +145,32 @@ public class JochreSplitEventStream implements ClassificationEventStream {
         }
       }
       if (outcome.equals(SplitOutcome.DO_SPLIT))
-        yesCount++;
+        yesCount.incrementAndGet();
       else
-        noCount++;
+        noCount.incrementAndGet();
 
       LOG.debug("Outcome: " + outcome);
-      event = new ClassificationEvent(featureResults, outcome.name());
-
-      // set splitCandidate to null so that hasNext can retrieve the next one.
-      this.splitCandidate = null;
+      events.add(new ClassificationEvent(featureResults, outcome.name()));
     }
-    return event;
+    return events;
   }
 
   @Override
-  public boolean hasNext() {
-    this.initialiseStream();
-
-    while (splitCandidate == null && shape != null) {
-      if (splitCandidateIndex < splitCandidates.size()) {
-        splitCandidate = splitCandidates.get(splitCandidateIndex);
-        splitCandidateIndex++;
-      } else {
-        this.getNextShape();
-      }
-    }
-
-    if (splitCandidate == null) {
-      LOG.debug("aboveRatioCount: " + aboveRatioCount);
-      LOG.debug("belowRatioCount: " + belowRatioCount);
-      LOG.debug("yesCount: " + yesCount);
-      LOG.debug("noCount: " + noCount);
-    }
-
-    return splitCandidate != null;
+  protected void onStreamComplete() {
+    LOG.debug("aboveRatioCount: " + aboveRatioCount);
+    LOG.debug("belowRatioCount: " + belowRatioCount);
+    LOG.debug("yesCount: " + yesCount);
+    LOG.debug("noCount: " + noCount);
   }
 
-  void getNextShape() {
-    shape = null;
-    while (shape == null && shapeReader.hasNext()) {
-      shape = shapeReader.next();
-      double widthRatio = (double) shape.getWidth() / (double) shape.getXHeight();
-      double heightRatio = (double) shape.getHeight() / (double) shape.getXHeight();
-      if (widthRatio >= minWidthRatio && heightRatio >= minHeightRatio) {
-        aboveRatioCount++;
-        splitCandidates = splitCandidateFinder.findSplitCandidates(shape);
-        splitCandidateIndex = 0;
-      } else {
-        belowRatioCount++;
-        splitCandidates = null;
-        shape = null;
-      }
-    }
-
+  @Override
+  protected Collection<SplitFeature<?>> getFeatures() {
+    return splitFeatures;
   }
 
-  void initialiseStream() {
-    if (shapeReader == null) {
-      shapeReader = new JochreCorpusShapeReader(jochreSession);
-      shapeReader.setSelectionCriteria(criteria);
-      this.getNextShape();
-    }
+  @Override
+  protected void addCacheAttributes(Map<String, String> cacheAttributes) {
+    cacheAttributes.put("minDistanceBetweenSplits", "" + splitCandidateFinder.getMinDistanceBetweenSplits());
   }
 
   public SplitCandidateFinder getSplitCandidateFinder() {
@@ -19,7 +19,9 @@
 package com.joliciel.jochre.boundaries;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -59,7 +61,13 @@ import com.typesafe.config.Config;
  * of recursion, we set the highest probability option to 1, and set all of the
  * other probabilities proportionally to the highest. This will give
  * equiprobable sequences in the above case, and gives the intuitive response in
- * other cases.
+ * other cases.<br/>
+ * <br/>
+ * The same horizontal interval of the original shape is typically reached via
+ * several different split sequences. The split candidates and their
+ * probabilities are only evaluated once per interval, and the sequences for a
+ * given interval and depth are only calculated once, and copied when required
+ * again.
  * 
  * @author Assaf Urieli
  *
@@ -95,7 +103,8 @@ public class RecursiveShapeSplitter implements ShapeSplitter {
   public List<ShapeSequence> split(Shape shape) {
     LOG.trace("Splitting shape: " + shape);
     boolean leftToRight = shape.getJochreImage().isLeftToRight();
-    List<ShapeSequence> shapeSequences = this.split(shape, 0, shape, leftToRight);
+    Map<Shape, SplitInterval> intervals = new HashMap<Shape, SplitInterval>();
+    List<ShapeSequence> shapeSequences = this.split(shape, 0, shape, leftToRight, intervals);
     int i = 0;
     for (ShapeSequence shapeSequence : shapeSequences) {
       LOG.debug("Sequence" + i + ", score=" + shapeSequence.getScore());
@@ -108,7 +117,32 @@ public class RecursiveShapeSplitter implements ShapeSplitter {
     return shapeSequences;
   }
 
-  List<ShapeSequence> split(Shape shape, int depth, Shape originalShape, boolean leftToRight) {
+  /**
+   * Split a shape at a given depth, re-using any sequences already calculated
+   * for the same interval and depth.
+   */
+  List<ShapeSequence> split(Shape shape, int depth, Shape originalShape, boolean leftToRight, Map<Shape, SplitInterval> intervals) {
+    SplitInterval interval = intervals.get(shape);
+    if (interval == null) {
+      interval = new SplitInterval();
+      intervals.put(shape, interval);
+    }
+    List<ShapeSequence> shapeSequences = interval.sequencesByDepth.get(depth);
+    if (shapeSequences != null) {
+      if (LOG.isTraceEnabled())
+        LOG.trace("Reusing sequences for shape: " + shape.getLeft() + " , " + shape.getRight() + ", depth " + depth);
+      List<ShapeSequence> copies = new ArrayList<ShapeSequence>(shapeSequences.size());
+      for (ShapeSequence shapeSequence : shapeSequences)
+        copies.add(this.copy(shapeSequence));
+      return copies;
+    }
+    shapeSequences = this.split(shape, depth, originalShape, leftToRight, interval, intervals);
+    interval.sequencesByDepth.put(depth, shapeSequences);
+    return shapeSequences;
+  }
+
+  private List<ShapeSequence> split(Shape shape, int depth, Shape originalShape, boolean leftToRight, SplitInterval interval,
+      Map<Shape, SplitInterval> intervals) {
     String padding = "-";
     for (int i = 0; i < depth; i++)
       padding += "-";
@@ -130,28 +164,11 @@ public class RecursiveShapeSplitter implements ShapeSplitter {
       shapeSequence.addShape(shape, originalShape);
       shapeSequences.add(shapeSequence);
     } else {
-      List<Split> splitCandidates = this.splitCandidateFinder.findSplitCandidates(shape);
+      if (interval.weightedSplits == null)
+        this.evaluateSplits(shape, interval);
       TreeSet<ShapeSequence> myShapeSequences = new TreeSet<ShapeSequence>();
-
-      TreeSet<WeightedOutcome<Split>> weightedSplits = new TreeSet<WeightedOutcome<Split>>();
-      for (Split splitCandidate : splitCandidates) {
-        double splitProb = this.shouldSplit(splitCandidate);
-        WeightedOutcome<Split> weightedSplit = new WeightedOutcome<Split>(splitCandidate, splitProb);
-        weightedSplits.add(weightedSplit);
-      }
-
-      double maxSplitProb = 0.0;
-      if (weightedSplits.size() > 0)
-        maxSplitProb = weightedSplits.first().getWeight();
-
-      double noSplitProb = 1 - maxSplitProb;
-      if (noSplitProb > maxSplitProb)
-        maxSplitProb = noSplitProb;
-
-      Split noSplit = new Split(shape, jochreSession);
-      noSplit.setPosition(-1);
-      WeightedOutcome<Split> weightedNoSplit = new WeightedOutcome<Split>(noSplit, noSplitProb);
-      weightedSplits.add(weightedNoSplit);
+      TreeSet<WeightedOutcome<Split>> weightedSplits = interval.weightedSplits;
+      double maxSplitProb = interval.maxSplitProb;
 
       boolean topCandidate = true;
       double topCandidateWeight = 1.0;
@@ -184,15 +201,23 @@ public class RecursiveShapeSplitter implements ShapeSplitter {
           myShapeSequences.add(shapeSequence);
         } else {
           // a proper split
-          Shape leftShape = shape.getJochreImage().getShape(shape.getLeft(), shape.getTop(), shape.getLeft() + splitCandidate.getPosition(), shape.getBottom());
-          Shape rightShape = shape.getJochreImage().getShape(shape.getLeft() + splitCandidate.getPosition() + 1, shape.getTop(), shape.getRight(),
-              shape.getBottom());
+          Shape[] subShapes = interval.subShapes.get(splitCandidate.getPosition());
+          if (subShapes == null) {
+            Shape leftShape = shape.getJochreImage().getShape(shape.getLeft(), shape.getTop(), shape.getLeft() + splitCandidate.getPosition(),
+                shape.getBottom());
+            Shape rightShape = shape.getJochreImage().getShape(shape.getLeft() + splitCandidate.getPosition() + 1, shape.getTop(), shape.getRight(),
+                shape.getBottom());
+            subShapes = new Shape[] { leftShape, rightShape };
+            interval.subShapes.put(splitCandidate.getPosition(), subShapes);
+          }
+          Shape leftShape = subShapes[0];
+          Shape rightShape = subShapes[1];
 
           // for each split recursively try to split it again up to depth of m
           // Note: m=2 is probably enough, since we're not expecting more than 4
           // letters per shape (3 splits)
-          List<ShapeSequence> leftShapeSequences = this.split(leftShape, depth + 1, originalShape, leftToRight);
-          List<ShapeSequence> rightShapeSequences = this.split(rightShape, depth + 1, originalShape, leftToRight);
+          List<ShapeSequence> leftShapeSequences = this.split(leftShape, depth + 1, originalShape, leftToRight, intervals);
+          List<ShapeSequence> rightShapeSequences = this.split(rightShape, depth + 1, originalShape, leftToRight, intervals);
 
           if (topCandidate) {
             // find the no-split sequence in each sub-sequence
@@ -273,6 +298,50 @@ public class RecursiveShapeSplitter implements ShapeSplitter {
     return shapeSequences;
   }
 
+  /**
+   * Evaluate the split candidates for a given interval, and add the no-split
+   * candidate.
+   */
+  private void evaluateSplits(Shape shape, SplitInterval interval) {
+    List<Split> splitCandidates = this.splitCandidateFinder.findSplitCandidates(shape);
+
+    TreeSet<WeightedOutcome<Split>> weightedSplits = new TreeSet<WeightedOutcome<Split>>();
+    for (Split splitCandidate : splitCandidates) {
+      double splitProb = this.shouldSplit(splitCandidate);
+      WeightedOutcome<Split> weightedSplit = new WeightedOutcome<Split>(splitCandidate, splitProb);
+      weightedSplits.add(weightedSplit);
+    }
+
+    double maxSplitProb = 0.0;
+    if (weightedSplits.size() > 0)
+      maxSplitProb = weightedSplits.first().getWeight();
+
+    double noSplitProb = 1 - maxSplitProb;
+    if (noSplitProb > maxSplitProb)
+      maxSplitProb = noSplitProb;
+
+    Split noSplit = new Split(shape, jochreSession);
+    noSplit.setPosition(-1);
+    WeightedOutcome<Split> weightedNoSplit = new WeightedOutcome<Split>(noSplit, noSplitProb);
+    weightedSplits.add(weightedNoSplit);
+
+    interval.weightedSplits = weightedSplits;
+    interval.maxSplitProb = maxSplitProb;
+  }
+
+  /**
+   * A copy of a memoized sequence, with its own shapes-in-sequence, exactly as
+   * if it had been recalculated.
+   */
+  private ShapeSequence copy(ShapeSequence shapeSequence) {
+    ShapeSequence copy = new ShapeSequence(shapeSequence.size());
+    for (ShapeInSequence shapeInSequence : shapeSequence)
+      copy.addShape(shapeInSequence.getShape(), shapeInSequence.getOriginalShapes());
+    for (Decision decision : shapeSequence.getDecisions())
+      copy.addDecision(decision);
+    return copy;
+  }
+
   public double shouldSplit(Split splitCandidate) {
     List<FeatureResult<?>> featureResults = new ArrayList<FeatureResult<?>>();
 
@@ -345,4 +414,16 @@ public class RecursiveShapeSplitter implements ShapeSplitter {
   public void setMaxDepth(int maxDepth) {
     this.maxDepth = maxDepth;
   }
+
+  /**
+   * Everything calculated for a single horizontal interval of the original
+   * shape while splitting it: the weighted split candidates, the sub-shapes for
+   * each split position, and the resulting sequences at each depth.
+   */
+  private static final class SplitInterval {
+    private TreeSet<WeightedOutcome<Split>> weightedSplits;
+    private double maxSplitProb;
+    private final Map<Integer, Shape[]> subShapes = new HashMap<Integer, Shape[]>();
+    private final Map<Integer, List<ShapeSequence>> sequencesByDepth = new HashMap<Integer, List<ShapeSequence>>();
+  }
 }
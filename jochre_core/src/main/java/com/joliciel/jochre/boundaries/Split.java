@@ -93,7 +93,11 @@ public class Split implements Entity, ShapeWrapper {
     return shape;
   }
 
-  void setShape(Shape shape) {
+  /**
+   * Set the shape containing this split, e.g. when the split and its shape are
+   * loaded together, to avoid loading the shape again.
+   */
+  public void setShape(Shape shape) {
     this.shape = shape;
     if (shape != null)
       this.setShapeId(shape.getId());
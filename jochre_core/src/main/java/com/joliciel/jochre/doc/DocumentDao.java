@@ -20,6 +20,8 @@ package com.joliciel.jochre.doc;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -36,8 +38,10 @@ import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 import com.joliciel.jochre.EntityNotFoundException;
 import com.joliciel.jochre.JochreSession;
+import com.joliciel.jochre.utils.dao.BatchUtils;
 import com.joliciel.jochre.utils.dao.DaoConfig;
 import com.joliciel.talismane.utils.DaoUtils;
+import com.typesafe.config.Config;
 
 public final class DocumentDao {
   private static final Logger LOG = LoggerFactory.getLogger(DocumentDao.class);
@@ -48,12 +52,13 @@ public final class DocumentDao {
   private static final String SELECT_AUTHOR = "author_id, author_first_name, author_last_name, author_first_name_local, author_last_name_local";
 
   private final DataSource dataSource;
+  private final int batchSize;
 
   private final JochreSession jochreSession;
 
   private static Map<String, DocumentDao> instances = new HashMap<>();
 
-  public static DocumentDao getInstance(JochreSession jochreSession) {
+  public static synchronized DocumentDao getInstance(JochreSession jochreSession) {
     String key = DaoConfig.getKey(jochreSession.getConfig().getConfig("jochre.jdbc"));
     DocumentDao instance = instances.get(key);
     if (instance == null) {
@@ -65,7 +70,9 @@ public final class DocumentDao {
 
   private DocumentDao(JochreSession jochreSession) {
     this.jochreSession = jochreSession;
-    this.dataSource = DaoConfig.getDataSource(jochreSession.getConfig().getConfig("jochre.jdbc"));
+    Config jdbcConfig = jochreSession.getConfig().getConfig("jochre.jdbc");
+    this.dataSource = DaoConfig.getDataSource(jdbcConfig);
+    this.batchSize = BatchUtils.getBatchSize(jdbcConfig);
   }
 
   public JochrePage loadJochrePage(int pageId) {
@@ -114,35 +121,56 @@ public final class DocumentDao {
   }
 
   void saveJochrePage(JochrePage jochrePage) {
-    NamedParameterJdbcTemplate jt = new NamedParameterJdbcTemplate(this.getDataSource());
-    MapSqlParameterSource paramSource = new MapSqlParameterSource();
+    this.saveJochrePages(Collections.singletonList(jochrePage));
+  }
 
-    paramSource.addValue("page_doc_id", jochrePage.getDocumentId());
-    paramSource.addValue("page_index", jochrePage.getIndex());
-    String sql = null;
+  /**
+   * Save a list of pages along with their images, reserving the ids for any
+   * new pages in a single query and sending inserts and updates in batches.
+   */
+  void saveJochrePages(List<JochrePage> jochrePages) {
+    NamedParameterJdbcTemplate jt = new NamedParameterJdbcTemplate(this.getDataSource());
+    List<JochrePage> newPages = new ArrayList<>();
+    List<MapSqlParameterSource> updateParams = new ArrayList<>();
+    for (JochrePage jochrePage : jochrePages) {
+      jochrePage.beforeSave();
+      if (jochrePage.getId() == 0) {
+        newPages.add(jochrePage);
+      } else {
+        MapSqlParameterSource paramSource = this.getJochrePageParameters(jochrePage);
+        paramSource.addValue("page_id", jochrePage.getId());
+        updateParams.add(paramSource);
+      }
+    }
 
-    if (jochrePage.getId() == 0) {
-      sql = "SELECT nextval('ocr_page_id_seq')";
-      LOG.info(sql);
-      int jochrePageId = jt.queryForObject(sql, paramSource, Integer.class);
-      paramSource.addValue("page_id", jochrePageId);
+    List<Integer> pageIds = BatchUtils.getNextIds(jt, "ocr_page_id_seq", newPages.size());
+    List<MapSqlParameterSource> insertParams = new ArrayList<>();
+    for (int i = 0; i < newPages.size(); i++) {
+      MapSqlParameterSource paramSource = this.getJochrePageParameters(newPages.get(i));
+      paramSource.addValue("page_id", pageIds.get(i));
+      insertParams.add(paramSource);
+    }
 
-      sql = "INSERT INTO ocr_page (page_id, page_doc_id, page_index) " + "VALUES (:page_id, :page_doc_id, :page_index)";
+    String sql = "INSERT INTO ocr_page (page_id, page_doc_id, page_index) " + "VALUES (:page_id, :page_doc_id, :page_index)";
+    LOG.info(sql);
+    BatchUtils.batchUpdate(jt, sql, insertParams, batchSize);
 
-      LOG.info(sql);
-      logParameters(paramSource);
-      jt.update(sql, paramSource);
+    for (int i = 0; i < newPages.size(); i++)
+      newPages.get(i).setId(pageIds.get(i));
 
-      jochrePage.setId(jochrePageId);
-    } else {
-      paramSource.addValue("page_id", jochrePage.getId());
+    sql = "UPDATE ocr_page" + " SET page_doc_id = :page_doc_id" + ", page_index = :page_index" + " WHERE page_id = :page_id";
+    LOG.info(sql);
+    BatchUtils.batchUpdate(jt, sql, updateParams, batchSize);
 
-      sql = "UPDATE ocr_page" + " SET page_doc_id = :page_doc_id" + ", page_index = :page_index" + " WHERE page_id = :page_id";
+    for (JochrePage jochrePage : jochrePages)
+      jochrePage.saveImages();
+  }
 
-      LOG.info(sql);
-      logParameters(paramSource);
-      jt.update(sql, paramSource);
-    }
+  private MapSqlParameterSource getJochrePageParameters(JochrePage jochrePage) {
+    MapSqlParameterSource paramSource = new MapSqlParameterSource();
+    paramSource.addValue("page_doc_id", jochrePage.getDocumentId());
+    paramSource.addValue("page_index", jochrePage.getIndex());
+    return paramSource;
   }
 
   void deleteJochrePage(JochrePage page) {
@@ -392,18 +420,18 @@ public final class DocumentDao {
     logParameters(paramSource);
     jt.update(sql, paramSource);
 
+    List<MapSqlParameterSource> insertParams = new ArrayList<>();
     for (Author author : doc.getAuthors()) {
       paramSource = new MapSqlParameterSource();
 
       paramSource.addValue("docauthor_doc_id", doc.getId());
       paramSource.addValue("docauthor_author_id", author.getId());
-
-      sql = "INSERT INTO ocr_doc_author_map (docauthor_doc_id, docauthor_author_id)" + " VALUES (:docauthor_doc_id, :docauthor_author_id)";
-
-      LOG.info(sql);
-      logParameters(paramSource);
-      jt.update(sql, paramSource);
+      insertParams.add(paramSource);
     }
+
+    sql = "INSERT INTO ocr_doc_author_map (docauthor_doc_id, docauthor_author_id)" + " VALUES (:docauthor_doc_id, :docauthor_author_id)";
+    LOG.info(sql);
+    BatchUtils.batchUpdate(jt, sql, insertParams, batchSize);
   }
 
   DataSource getDataSource() {
@@ -110,9 +110,7 @@ public class JochreDocument implements Entity {
     DocumentDao documentDao = DocumentDao.getInstance(jochreSession);
     documentDao.saveJochreDocument(this);
     if (this.pages != null) {
-      for (JochrePage page : this.pages) {
-        page.save();
-      }
+      documentDao.saveJochrePages(this.pages);
     }
     if (this.authors != null) {
       if (this.authors.isDirty()) {
@@ -417,6 +415,10 @@ public class JochreDocument implements Entity {
   @Override
   public void setId(int id) {
     this.id = id;
+    if (this.pages != null) {
+      for (JochrePage page : this.pages)
+        page.setDocumentId(id);
+    }
   }
 
 }
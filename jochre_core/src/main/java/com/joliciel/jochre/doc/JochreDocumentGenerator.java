@@ -22,8 +22,16 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 
@@ -47,6 +55,7 @@ import com.joliciel.jochre.lexicon.MostLikelyWordChooser;
 import com.joliciel.jochre.security.User;
 import com.joliciel.jochre.utils.JochreException;
 import com.joliciel.talismane.machineLearning.ClassificationModel;
+import com.joliciel.talismane.utils.MessageResource;
 import com.joliciel.talismane.utils.Monitorable;
 import com.joliciel.talismane.utils.MultiTaskProgressMonitor;
 import com.joliciel.talismane.utils.ProgressMonitor;
@@ -55,7 +64,12 @@ import com.typesafe.config.Config;
 
 /**
  * A utility interface to create and analyse JochreDocuments out of a source
- * file containing multiple pages and images (typically a PDF file).
+ * file containing multiple pages and images (typically a PDF file).<br>
+ * <br>
+ * If jochre.pipeline.thread-count is greater than 1, each image is segmented and
+ * analysed on a separate worker thread, with its own image analyser, while the
+ * document observers continue to receive their events in page order on the
+ * thread calling this generator.
  * 
  * @author Assaf Urieli
  *
@@ -81,6 +95,16 @@ public class JochreDocumentGenerator implements SourceFileProcessor, Monitorable
   private final JochreSession jochreSession;
   private final boolean exitOnError;
 
+  private final int threadCount;
+  private final int maxPendingImages;
+  private MostLikelyWordChooser wordChooser = null;
+  private ExecutorService executor = null;
+  private OrderedObserverDispatcher dispatcher = null;
+  private ThreadLocal<ImageAnalyser> workerAnalyser = null;
+  private final List<ImageAnalyser> workerAnalysers = Collections.synchronizedList(new ArrayList<>());
+  private final Deque<ProgressMonitor> pendingImageMonitors = new ConcurrentLinkedDeque<>();
+  private int currentPageImageCount = 0;
+
   /**
    * Constructor for existing documents.
    * 
@@ -91,6 +115,9 @@ public class JochreDocumentGenerator implements SourceFileProcessor, Monitorable
     this.jochreSession = jochreSession;
     this.doc = jochreDocument;
     this.exitOnError = false;
+    Config pipelineConfig = jochreSession.getConfig().getConfig("jochre.pipeline");
+    this.threadCount = pipelineConfig.getInt("thread-count");
+    this.maxPendingImages = this.getMaxPendingImages(pipelineConfig);
   }
 
   /**
@@ -110,6 +137,16 @@ public class JochreDocumentGenerator implements SourceFileProcessor, Monitorable
     this.filename = filename;
     this.userFriendlyName = userFriendlyName;
     this.exitOnError = exitOnError;
+    Config pipelineConfig = jochreSession.getConfig().getConfig("jochre.pipeline");
+    this.threadCount = pipelineConfig.getInt("thread-count");
+    this.maxPendingImages = this.getMaxPendingImages(pipelineConfig);
+  }
+
+  private int getMaxPendingImages(Config pipelineConfig) {
+    int maxPendingImages = pipelineConfig.getInt("max-pending-images");
+    if (maxPendingImages <= 0)
+      maxPendingImages = threadCount * 2;
+    return maxPendingImages;
   }
 
   @Override
@@ -135,12 +172,25 @@ public class JochreDocumentGenerator implements SourceFileProcessor, Monitorable
     for (DocumentObserver observer : documentObservers)
       observer.onDocumentStart(this.doc);
 
+    if (threadCount > 1) {
+      LOG.debug("Processing images on " + threadCount + " threads");
+      this.executor = Executors.newFixedThreadPool(threadCount, new WorkerThreadFactory());
+      this.dispatcher = new OrderedObserverDispatcher(documentObservers, maxPendingImages);
+    }
+
     return this.doc;
   }
 
   @Override
   public void onDocumentComplete(JochreDocument doc) {
     LOG.debug("JochreDocumentGeneratorImpl.onDocumentComplete");
+    if (dispatcher != null) {
+      try {
+        dispatcher.flush();
+      } finally {
+        executor.shutdownNow();
+      }
+    }
     for (DocumentObserver observer : documentObservers)
       observer.onDocumentComplete(doc);
   }
@@ -148,6 +198,8 @@ public class JochreDocumentGenerator implements SourceFileProcessor, Monitorable
   @Override
   public void onAnalysisComplete() {
     LOG.debug("JochreDocumentGeneratorImpl.onAnalysisComplete");
+    for (ImageAnalyser analyser : workerAnalysers)
+      analyser.onAnalysisComplete();
     for (DocumentObserver observer : documentObservers)
       observer.onAnalysisComplete();
   }
@@ -164,6 +216,11 @@ public class JochreDocumentGenerator implements SourceFileProcessor, Monitorable
     jochrePage.setIndex(pageIndex);
     if (save)
       jochrePage.save();
+    if (dispatcher != null) {
+      currentPageImageCount = 0;
+      dispatcher.onPageStart(jochrePage);
+      return jochrePage;
+    }
     for (DocumentObserver observer : documentObservers)
       observer.onPageStart(jochrePage);
     return jochrePage;
@@ -172,14 +229,38 @@ public class JochreDocumentGenerator implements SourceFileProcessor, Monitorable
   @Override
   public void onPageComplete(JochrePage jochrePage) {
     LOG.debug("JochreDocumentGeneratorImpl.onPageComplete(" + jochrePage.getIndex() + ")");
+    if (dispatcher != null) {
+      dispatcher.onPageComplete(jochrePage, jochrePage::clearMemory);
+      return;
+    }
     for (DocumentObserver observer : documentObservers)
       observer.onPageComplete(jochrePage);
     jochrePage.clearMemory();
   }
 
+  /**
+   * If images are being processed concurrently, the image is created on a
+   * worker thread and null is returned.
+   */
   @Override
   public JochreImage onImageFound(JochrePage jochrePage, BufferedImage image, String imageName, int imageIndex) {
     LOG.debug("JochreDocumentGeneratorImpl.onImageFound");
+    if (dispatcher != null) {
+      int index = ++currentPageImageCount;
+      MultiTaskProgressMonitor imageMonitor = null;
+      if (currentMonitor != null) {
+        imageMonitor = new MultiTaskProgressMonitor();
+        pendingImageMonitors.add(imageMonitor);
+        currentMonitor.startTask(new PendingImageProgressMonitor(), 1.0);
+      }
+      final MultiTaskProgressMonitor monitor = imageMonitor;
+      Future<SourceImage> futureImage = executor
+          .submit(() -> this.processImage(jochrePage, image, imageName, index, monitor));
+      dispatcher.onImageProcessing(jochrePage, futureImage);
+      if (currentMonitor != null)
+        currentMonitor.endTask();
+      return null;
+    }
     try {
       int monitorableCount = 0;
       for (DocumentObserver observer : documentObservers) {
@@ -279,6 +360,95 @@ public class JochreDocumentGenerator implements SourceFileProcessor, Monitorable
     }
   }
 
+  /**
+   * Create, segment and analyse a single image on a worker thread. Observers
+   * other than the worker's image analyser are notified later, in page order,
+   * by the dispatcher.
+   * 
+   * @param imageMonitor
+   *          the monitor to update with this image's progress, or null if
+   *          progress isn't being monitored
+   */
+  private SourceImage processImage(JochrePage jochrePage, BufferedImage image, String imageName, int index,
+      MultiTaskProgressMonitor imageMonitor) throws IOException {
+    try {
+      return this.processImageInternal(jochrePage, image, imageName, index, imageMonitor);
+    } finally {
+      if (imageMonitor != null) {
+        imageMonitor.setFinished(true);
+        pendingImageMonitors.remove(imageMonitor);
+      }
+    }
+  }
+
+  private SourceImage processImageInternal(JochrePage jochrePage, BufferedImage image, String imageName, int index,
+      MultiTaskProgressMonitor imageMonitor) throws IOException {
+    LOG.debug("Processing image " + imageName);
+    SourceImage sourceImage = new SourceImage(jochrePage, imageName + '.' + SUFFIX, image, jochreSession);
+    sourceImage.setIndex(index);
+    if (currentUser != null)
+      sourceImage.setOwner(currentUser);
+
+    // same allocation as in the single-threaded case, with the image analyser
+    // as the only monitorable observer
+    boolean analyse = workerAnalyser != null;
+    Segmenter segmenter = new Segmenter(sourceImage, jochreSession);
+    segmenter.setDrawSegmentation(drawSegmentedImage);
+    if (imageMonitor != null) {
+      imageMonitor.setCurrentAction("imageMonitor.segmentingImage", new Object[] { jochrePage.getIndex() });
+      double percentAlloted = 1;
+      if (analyse && save) {
+        percentAlloted = 0.3;
+      } else if (analyse) {
+        percentAlloted = 0.4;
+      } else if (save) {
+        percentAlloted = 0.8;
+      }
+      imageMonitor.startTask(segmenter.monitorTask(), percentAlloted);
+    }
+    try {
+      segmenter.segment();
+    } catch (SegmentationException se) {
+      LOG.error("segmentation failed", se);
+      sourceImage.clearSegmentation();
+      if (exitOnError) {
+        throw se;
+      }
+    }
+    if (imageMonitor != null)
+      imageMonitor.endTask();
+
+    if (drawSegmentedImage) {
+      BufferedImage segmentedImage = segmenter.getSegmentedImage();
+      File imageFile = new File(outputDirectory, imageName + "_seg.png");
+      LOG.debug("Writing segmented image to " + imageFile.getAbsolutePath());
+      ImageIO.write(segmentedImage, "PNG", imageFile);
+    }
+    sourceImage.setImageStatus(ImageStatus.AUTO_NEW);
+
+    if (save) {
+      if (imageMonitor != null) {
+        SimpleProgressMonitor monitor = new SimpleProgressMonitor();
+        monitor.setCurrentAction("imageMonitor.savingImage", new Object[] { jochrePage.getIndex() });
+        imageMonitor.startTask(monitor, analyse ? 0.1 : 0.2);
+      }
+      sourceImage.save();
+      if (imageMonitor != null)
+        imageMonitor.endTask();
+    }
+
+    if (analyse) {
+      ImageAnalyser analyser = workerAnalyser.get();
+      if (imageMonitor != null && analyser instanceof Monitorable)
+        imageMonitor.startTask(((Monitorable) analyser).monitorTask(), 0.6);
+      analyser.onImageStart(sourceImage);
+      analyser.onImageComplete(sourceImage);
+      if (imageMonitor != null && analyser instanceof Monitorable)
+        imageMonitor.endTask();
+    }
+    return sourceImage;
+  }
+
   @Override
   public ProgressMonitor monitorTask() {
     currentMonitor = new MultiTaskProgressMonitor();
@@ -338,6 +508,32 @@ public class JochreDocumentGenerator implements SourceFileProcessor, Monitorable
    * split/merge models.
    */
   public void requestAnalysis(MostLikelyWordChooser wordChooser) {
+    this.wordChooser = wordChooser;
+    if (threadCount > 1) {
+      // load the models up-front, so that any errors are reported immediately
+      try {
+        jochreSession.getLetterModel();
+        jochreSession.getSplitModel();
+        jochreSession.getMergeModel();
+      } catch (IOException e) {
+        LOG.error("Failed to load models", e);
+        throw new RuntimeException(e);
+      }
+      this.workerAnalyser = ThreadLocal.withInitial(() -> {
+        ImageAnalyser analyser = this.getImageAnalyser();
+        workerAnalysers.add(analyser);
+        return analyser;
+      });
+    } else {
+      this.documentObservers.add(0, this.getImageAnalyser());
+    }
+  }
+
+  /**
+   * Get a new image analyser, with its own letter guesser and boundary detector,
+   * which can be used by a single thread at a time.
+   */
+  private ImageAnalyser getImageAnalyser() {
     try {
       ClassificationModel letterModel = jochreSession.getLetterModel();
 
@@ -367,8 +563,7 @@ public class JochreDocumentGenerator implements SourceFileProcessor, Monitorable
 
       ImageAnalyser analyser = new BeamSearchImageAnalyser(boundaryDetector, letterGuesser, wordChooser, jochreSession);
       analyser.addObserver(observer);
-
-      this.documentObservers.add(0, analyser);
+      return analyser;
     } catch (Exception e) {
       LOG.error("Failed to load models", e);
       throw new RuntimeException(e);
@@ -390,4 +585,61 @@ public class JochreDocumentGenerator implements SourceFileProcessor, Monitorable
     this.drawSegmentedImage = true;
     this.outputDirectory = outputDirectory;
   }
+
+  /**
+   * Reports the progress of the oldest image still being processed on a worker
+   * thread, which is the image the calling thread waits for when too many
+   * images are pending.
+   */
+  private final class PendingImageProgressMonitor implements ProgressMonitor {
+    private ProgressMonitor getOldest() {
+      return pendingImageMonitors.peekFirst();
+    }
+
+    @Override
+    public double getPercentComplete() {
+      ProgressMonitor oldest = this.getOldest();
+      return oldest == null ? 1.0 : oldest.getPercentComplete();
+    }
+
+    @Override
+    public List<MessageResource> getCurrentActions() {
+      ProgressMonitor oldest = this.getOldest();
+      return oldest == null ? Collections.emptyList() : oldest.getCurrentActions();
+    }
+
+    @Override
+    public String getCurrentAction() {
+      ProgressMonitor oldest = this.getOldest();
+      return oldest == null ? "" : oldest.getCurrentAction();
+    }
+
+    @Override
+    public Object[] getCurrentArguments() {
+      ProgressMonitor oldest = this.getOldest();
+      return oldest == null ? new Object[0] : oldest.getCurrentArguments();
+    }
+
+    @Override
+    public Exception getException() {
+      return null;
+    }
+
+    @Override
+    public boolean isFinished() {
+      return this.getOldest() == null;
+    }
+  }
+
+  private static final class WorkerThreadFactory implements ThreadFactory {
+    private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "jochre-image-" + threadIndex.incrementAndGet());
+      // don't stop the JVM from exiting if the document fails mid-way
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
 }
@@ -69,13 +69,26 @@ public class JochrePage implements Entity {
     return jochreImage;
   }
 
+  /**
+   * Add an image constructed outside of this page, e.g. on a separate thread.
+   * Its index should already have been set.
+   */
+  public void addJochreImage(JochreImage jochreImage) {
+    this.getImages().add(jochreImage);
+  }
+
   @Override
   public void save() {
+    DocumentDao documentDao = DocumentDao.getInstance(jochreSession);
+    documentDao.saveJochrePage(this);
+  }
+
+  void beforeSave() {
     if (this.document != null && this.documentId == 0)
       this.documentId = this.document.getId();
-    DocumentDao documentDao = DocumentDao.getInstance(jochreSession);
+  }
 
-    documentDao.saveJochrePage(this);
+  void saveImages() {
     if (this.jochreImages != null) {
       for (JochreImage jochreImage : this.jochreImages) {
         jochreImage.save();
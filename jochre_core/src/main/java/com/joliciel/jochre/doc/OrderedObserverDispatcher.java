@@ -0,0 +1,163 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.doc;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.joliciel.jochre.graphics.JochreImage;
+import com.joliciel.jochre.utils.JochreException;
+
+/**
+ * Passes document events on to a list of observers in the order in which they
+ * were generated, when images are being processed concurrently. Events for an
+ * image which is still being processed, and all events following them, are held
+ * back until processing for that image is complete, so that observers always
+ * receive page N before page N+1.<br>
+ * <br>
+ * All observer calls are made on the thread calling this dispatcher, so the
+ * observers themselves needn't be thread-safe.
+ *
+ * @author Assaf Urieli
+ *
+ */
+class OrderedObserverDispatcher {
+  private static final Logger LOG = LoggerFactory.getLogger(OrderedObserverDispatcher.class);
+
+  private final List<DocumentObserver> observers;
+  private final int maxPendingImages;
+  private final Deque<PendingEvent<?>> pendingEvents = new ArrayDeque<>();
+  private int pendingImageCount = 0;
+
+  /**
+   * @param observers
+   *          the observers to notify
+   * @param maxPendingImages
+   *          the maximum number of images being processed at any given time -
+   *          any further images will block until the first pending image is
+   *          complete
+   */
+  public OrderedObserverDispatcher(List<DocumentObserver> observers, int maxPendingImages) {
+    this.observers = observers;
+    this.maxPendingImages = maxPendingImages;
+  }
+
+  public void onPageStart(JochrePage jochrePage) {
+    this.addEvent(CompletableFuture.completedFuture(jochrePage), page -> {
+      for (DocumentObserver observer : observers)
+        observer.onPageStart(page);
+    }, false);
+  }
+
+  /**
+   * Add an image currently being processed. Once processing is complete, the
+   * image is added to its page, and observers receive onImageStart followed by
+   * onImageComplete.
+   */
+  public void onImageProcessing(JochrePage jochrePage, Future<? extends JochreImage> futureImage) {
+    this.addEvent(futureImage, image -> {
+      jochrePage.addJochreImage(image);
+      for (DocumentObserver observer : observers)
+        observer.onImageStart(image);
+      for (DocumentObserver observer : observers)
+        observer.onImageComplete(image);
+    }, true);
+
+    while (pendingImageCount >= maxPendingImages) {
+      this.dispatchFirstEvent();
+    }
+  }
+
+  /**
+   * @param onComplete
+   *          an action to perform once observers have been notified
+   */
+  public void onPageComplete(JochrePage jochrePage, Runnable onComplete) {
+    this.addEvent(CompletableFuture.completedFuture(jochrePage), page -> {
+      for (DocumentObserver observer : observers)
+        observer.onPageComplete(page);
+      onComplete.run();
+    }, false);
+  }
+
+  /**
+   * Wait for all pending images, and pass on all pending events.
+   */
+  public void flush() {
+    while (!pendingEvents.isEmpty()) {
+      this.dispatchFirstEvent();
+    }
+  }
+
+  private <T> void addEvent(Future<? extends T> future, Consumer<T> action, boolean isImage) {
+    pendingEvents.add(new PendingEvent<>(future, action, isImage));
+    if (isImage)
+      pendingImageCount++;
+    this.dispatchReadyEvents();
+  }
+
+  private void dispatchReadyEvents() {
+    while (!pendingEvents.isEmpty() && pendingEvents.peekFirst().future.isDone()) {
+      this.dispatchFirstEvent();
+    }
+  }
+
+  private void dispatchFirstEvent() {
+    PendingEvent<?> event = pendingEvents.pollFirst();
+    if (event.isImage)
+      pendingImageCount--;
+    event.dispatch();
+  }
+
+  private static final class PendingEvent<T> {
+    private final Future<? extends T> future;
+    private final Consumer<T> action;
+    private final boolean isImage;
+
+    public PendingEvent(Future<? extends T> future, Consumer<T> action, boolean isImage) {
+      this.future = future;
+      this.action = action;
+      this.isImage = isImage;
+    }
+
+    public void dispatch() {
+      T result;
+      try {
+        result = future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new JochreException(e);
+      } catch (ExecutionException e) {
+        LOG.error("Failed to process image", e.getCause());
+        if (e.getCause() instanceof RuntimeException)
+          throw (RuntimeException) e.getCause();
+        throw new JochreException(e.getCause());
+      }
+      action.accept(result);
+    }
+  }
+}
@@ -0,0 +1,347 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.graphics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Finds the contiguous black areas in an image grid, where pixels touching
+ * horizontally, vertically or diagonally belong to the same area.<br>
+ * <br>
+ * The grid is read in a single sweep from top to bottom, breaking each row
+ * into horizontal runs of black pixels. Each run either starts a new
+ * provisional area, or joins the areas of the runs touching it in the
+ * previous row, which are merged using a union-find structure storing the
+ * bounding box of each area. Only the runs of the current and previous row are
+ * kept in memory, unless the labeller is asked to keep all runs in order to
+ * fill in a mirror of a given area.<br>
+ * <br>
+ * If required, the runs on each row are found in parallel before the sweep,
+ * which is the only part of the process to read the grid. The sweep itself
+ * remains sequential, so that areas are identical to those found on a single
+ * thread.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+final class ConnectedComponentLabeller {
+  private final ImageGrid imageGrid;
+  private final int blackThreshold;
+  private final boolean keepRuns;
+  private final boolean parallel;
+
+  private int labelCount = 0;
+  private int[] parents = new int[64];
+  private int[] lefts = new int[64];
+  private int[] tops = new int[64];
+  private int[] rights = new int[64];
+  private int[] bottoms = new int[64];
+  private int[] startXs = new int[64];
+
+  private int runCount = 0;
+  private int[] runYs;
+  private int[] runStarts;
+  private int[] runEnds;
+  private int[] runLabels;
+
+  private boolean labelled = false;
+
+  /**
+   * @param imageGrid
+   *          the grid to analyse
+   * @param blackThreshold
+   *          pixels at or below this threshold are considered black
+   * @param keepRuns
+   *          if true, all runs are kept, so that
+   *          {@link #fillComponent(WritableImageGrid, int, int)} can be called
+   */
+  public ConnectedComponentLabeller(ImageGrid imageGrid, int blackThreshold, boolean keepRuns) {
+    this(imageGrid, blackThreshold, keepRuns, false);
+  }
+
+  /**
+   * @param parallel
+   *          if true, the grid's rows are read in parallel, in which case the
+   *          image grid must support concurrent reads
+   */
+  public ConnectedComponentLabeller(ImageGrid imageGrid, int blackThreshold, boolean keepRuns, boolean parallel) {
+    this.imageGrid = imageGrid;
+    this.blackThreshold = blackThreshold;
+    this.keepRuns = keepRuns;
+    this.parallel = parallel;
+    if (keepRuns) {
+      runYs = new int[256];
+      runStarts = new int[256];
+      runEnds = new int[256];
+      runLabels = new int[256];
+    }
+  }
+
+  /**
+   * Return all contiguous areas, ordered by their starting point, which is the
+   * first black pixel encountered when reading the grid from top-left to
+   * bottom-right, travelling horizontally first.
+   */
+  public List<Component> getComponents() {
+    this.label();
+    List<Component> components = new ArrayList<>();
+    for (int i = 0; i < labelCount; i++) {
+      if (parents[i] == i)
+        components.add(new Component(i));
+    }
+    return components;
+  }
+
+  /**
+   * Mark all of the pixels in the area containing a given black pixel on the
+   * mirror provided, and return this area.
+   */
+  public Component fillComponent(WritableImageGrid mirror, int x, int y) {
+    if (!keepRuns)
+      throw new IllegalStateException("Runs must be kept in order to fill a component");
+    this.label();
+    int root = -1;
+    for (int i = 0; i < runCount; i++) {
+      if (runYs[i] == y && runStarts[i] <= x && x < runEnds[i]) {
+        root = this.find(runLabels[i]);
+        break;
+      }
+    }
+    if (root < 0)
+      throw new IllegalArgumentException("Pixel (" + x + "," + y + ") is not black");
+
+    for (int i = 0; i < runCount; i++) {
+      if (this.find(runLabels[i]) == root) {
+        for (int runX = runStarts[i]; runX < runEnds[i]; runX++)
+          mirror.setPixel(runX, runYs[i], 1);
+      }
+    }
+    return new Component(root);
+  }
+
+  private void label() {
+    if (labelled)
+      return;
+    labelled = true;
+
+    int width = imageGrid.getWidth();
+    int height = imageGrid.getHeight();
+    int maxRunsPerRow = (width + 1) / 2;
+    int[] previousStarts = new int[maxRunsPerRow];
+    int[] previousEnds = new int[maxRunsPerRow];
+    int[] previousLabels = new int[maxRunsPerRow];
+    int previousCount = 0;
+    int[] currentStarts = new int[maxRunsPerRow];
+    int[] currentEnds = new int[maxRunsPerRow];
+    int[] currentLabels = new int[maxRunsPerRow];
+
+    // each row's runs are stored as consecutive start and end pairs
+    int[][] runsPerRow = null;
+    if (parallel) {
+      runsPerRow = IntStream.range(0, height).parallel().mapToObj(y -> {
+        int[] runs = new int[maxRunsPerRow * 2];
+        return Arrays.copyOf(runs, this.findRuns(y, runs));
+      }).toArray(int[][]::new);
+    }
+    int[] rowRuns = parallel ? null : new int[maxRunsPerRow * 2];
+
+    for (int y = 0; y < height; y++) {
+      int currentCount = 0;
+      int p = 0;
+      int runLength;
+      if (parallel) {
+        rowRuns = runsPerRow[y];
+        runLength = rowRuns.length;
+      } else {
+        runLength = this.findRuns(y, rowRuns);
+      }
+      for (int r = 0; r < runLength; r += 2) {
+        int start = rowRuns[r];
+        int end = rowRuns[r + 1];
+
+        // runs in the previous row touch this one if they overlap it, or
+        // touch it diagonally at either end
+        while (p < previousCount && previousEnds[p] < start)
+          p++;
+        int label = -1;
+        int q = p;
+        while (q < previousCount && previousStarts[q] <= end) {
+          int previousLabel = this.find(previousLabels[q]);
+          label = label < 0 ? previousLabel : this.union(label, previousLabel);
+          q++;
+        }
+        // the last previous run may also touch the next run in this row
+        if (q > p)
+          p = q - 1;
+
+        if (label < 0) {
+          label = this.newLabel(start, y);
+        }
+        if (start < lefts[label])
+          lefts[label] = start;
+        if (end - 1 > rights[label])
+          rights[label] = end - 1;
+        bottoms[label] = y;
+
+        currentStarts[currentCount] = start;
+        currentEnds[currentCount] = end;
+        currentLabels[currentCount] = label;
+        currentCount++;
+
+        if (keepRuns)
+          this.addRun(y, start, end, label);
+      }
+
+      int[] swap = previousStarts;
+      previousStarts = currentStarts;
+      currentStarts = swap;
+      swap = previousEnds;
+      previousEnds = currentEnds;
+      currentEnds = swap;
+      swap = previousLabels;
+      previousLabels = currentLabels;
+      currentLabels = swap;
+      previousCount = currentCount;
+    }
+  }
+
+  /**
+   * Find the runs of black pixels on a given row, storing the start (inclusive)
+   * and end (exclusive) of each run in the array provided, and return the
+   * number of values stored.
+   */
+  private int findRuns(int y, int[] runs) {
+    int width = imageGrid.getWidth();
+    int length = 0;
+    int x = 0;
+    while (x < width) {
+      if (!imageGrid.isPixelBlack(x, y, blackThreshold)) {
+        x++;
+        continue;
+      }
+      int start = x;
+      while (x < width && imageGrid.isPixelBlack(x, y, blackThreshold))
+        x++;
+      runs[length++] = start;
+      runs[length++] = x;
+    }
+    return length;
+  }
+
+  private int newLabel(int x, int y) {
+    if (labelCount == parents.length) {
+      int newLength = parents.length * 2;
+      parents = Arrays.copyOf(parents, newLength);
+      lefts = Arrays.copyOf(lefts, newLength);
+      tops = Arrays.copyOf(tops, newLength);
+      rights = Arrays.copyOf(rights, newLength);
+      bottoms = Arrays.copyOf(bottoms, newLength);
+      startXs = Arrays.copyOf(startXs, newLength);
+    }
+    int label = labelCount++;
+    parents[label] = label;
+    lefts[label] = x;
+    tops[label] = y;
+    rights[label] = x;
+    bottoms[label] = y;
+    startXs[label] = x;
+    return label;
+  }
+
+  private void addRun(int y, int start, int end, int label) {
+    if (runCount == runYs.length) {
+      int newLength = runYs.length * 2;
+      runYs = Arrays.copyOf(runYs, newLength);
+      runStarts = Arrays.copyOf(runStarts, newLength);
+      runEnds = Arrays.copyOf(runEnds, newLength);
+      runLabels = Arrays.copyOf(runLabels, newLength);
+    }
+    runYs[runCount] = y;
+    runStarts[runCount] = start;
+    runEnds[runCount] = end;
+    runLabels[runCount] = label;
+    runCount++;
+  }
+
+  private int find(int label) {
+    while (parents[label] != label) {
+      parents[label] = parents[parents[label]];
+      label = parents[label];
+    }
+    return label;
+  }
+
+  /**
+   * Merge two areas, keeping the earliest label as the root, so that the root
+   * always holds the area's starting point.
+   */
+  private int union(int label1, int label2) {
+    int root1 = this.find(label1);
+    int root2 = this.find(label2);
+    if (root1 == root2)
+      return root1;
+    int root = Math.min(root1, root2);
+    int child = Math.max(root1, root2);
+    parents[child] = root;
+    if (lefts[child] < lefts[root])
+      lefts[root] = lefts[child];
+    if (rights[child] > rights[root])
+      rights[root] = rights[child];
+    if (bottoms[child] > bottoms[root])
+      bottoms[root] = bottoms[child];
+    return root;
+  }
+
+  /**
+   * A single contiguous area of black pixels.
+   */
+  final class Component {
+    private final int label;
+
+    private Component(int label) {
+      this.label = label;
+    }
+
+    public int getLeft() {
+      return lefts[label];
+    }
+
+    public int getTop() {
+      return tops[label];
+    }
+
+    public int getRight() {
+      return rights[label];
+    }
+
+    public int getBottom() {
+      return bottoms[label];
+    }
+
+    /**
+     * The x-coordinate of the first black pixel in this area's top row.
+     */
+    public int getStartX() {
+      return startXs[label];
+    }
+  }
+}
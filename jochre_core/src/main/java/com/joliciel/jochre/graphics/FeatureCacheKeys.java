@@ -0,0 +1,64 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.graphics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.joliciel.talismane.machineLearning.features.Feature;
+import com.joliciel.talismane.machineLearning.features.RuntimeEnvironment;
+
+/**
+ * Converts a feature and its runtime environment into a single long key, for
+ * use in primitive-keyed feature result caches. Feature names and environment
+ * keys are each assigned a permanent int id the first time they are seen, so
+ * that a lookup never needs to build a new string. The number of ids is bounded
+ * by the number of distinct feature names and environment keys in the feature
+ * descriptors.<br>
+ * <br>
+ * Thread-safe.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+final class FeatureCacheKeys {
+  private static final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+  private static final AtomicInteger nextId = new AtomicInteger();
+
+  private FeatureCacheKeys() {
+  }
+
+  /**
+   * The key for a given feature in a given environment. Two features share a
+   * key if and only if they have the same name and environment key.
+   */
+  public static long getKey(Feature<?, ?> feature, RuntimeEnvironment env) {
+    long nameId = getId(feature.getName());
+    long envId = getId(env.getKey());
+    return (nameId << 32) | envId;
+  }
+
+  private static int getId(String string) {
+    Integer id = ids.get(string);
+    if (id == null)
+      id = ids.computeIfAbsent(string, s -> nextId.getAndIncrement());
+    return id;
+  }
+}
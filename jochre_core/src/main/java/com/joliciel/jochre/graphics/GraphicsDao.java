@@ -22,6 +22,7 @@ import java.awt.image.BufferedImage;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -41,21 +42,28 @@ import org.springframework.jdbc.support.rowset.SqlRowSet;
 
 import com.joliciel.jochre.EntityNotFoundException;
 import com.joliciel.jochre.JochreSession;
+import com.joliciel.jochre.boundaries.BoundaryDao;
+import com.joliciel.jochre.boundaries.Split;
 import com.joliciel.jochre.doc.JochrePage;
 import com.joliciel.jochre.lang.Linguistics;
+import com.joliciel.jochre.utils.dao.BatchUtils;
 import com.joliciel.jochre.utils.dao.DaoConfig;
 import com.joliciel.jochre.utils.dao.ImageUtils;
+import com.joliciel.jochre.utils.graphics.ImagePixelGrabber;
 import com.joliciel.talismane.utils.DaoUtils;
+import com.typesafe.config.Config;
 
 public final class GraphicsDao {
   private static final Logger LOG = LoggerFactory.getLogger(GraphicsDao.class);
   private final DataSource dataSource;
+  private final int batchSize;
+  private final boolean compressPixels;
 
   private final JochreSession jochreSession;
 
   private static Map<String, GraphicsDao> instances = new HashMap<>();
 
-  public static GraphicsDao getInstance(JochreSession jochreSession) {
+  public static synchronized GraphicsDao getInstance(JochreSession jochreSession) {
     String key = DaoConfig.getKey(jochreSession.getConfig().getConfig("jochre.jdbc"));
     GraphicsDao instance = instances.get(key);
     if (instance == null) {
@@ -67,7 +75,10 @@ public final class GraphicsDao {
 
   private GraphicsDao(JochreSession jochreSession) {
     this.jochreSession = jochreSession;
-    this.dataSource = DaoConfig.getDataSource(jochreSession.getConfig().getConfig("jochre.jdbc"));
+    Config jdbcConfig = jochreSession.getConfig().getConfig("jochre.jdbc");
+    this.dataSource = DaoConfig.getDataSource(jdbcConfig);
+    this.batchSize = BatchUtils.getBatchSize(jdbcConfig);
+    this.compressPixels = jdbcConfig.getBoolean("compress-pixels");
   }
 
   private static final String SELECT_IMAGE = "image_id, image_name, image_width, image_height, image_black_threshold"
@@ -182,9 +193,9 @@ public final class GraphicsDao {
       shape.setIndex(rs.getInt("shape_index"));
       shape.setGroupId(rs.getInt("shape_group_id"));
 
-      BufferedImage image = ImageUtils.getImage(rs, "shape_pixels");
-      if (image != null)
-        shape.setImage(image);
+      ImagePixelGrabber pixels = ImageUtils.getPixels(rs, "shape_pixels");
+      if (pixels != null)
+        shape.setPixelGrabber(pixels);
 
       shape.setLetter(rs.getString("shape_letter"));
 
@@ -440,11 +451,76 @@ public final class GraphicsDao {
   }
 
   void saveShape(Shape shape) {
+    this.saveShapes(Collections.singletonList(shape));
+  }
+
+  /**
+   * Save a list of shapes along with their splits, reserving the ids for any
+   * new shapes in a single query and sending inserts and updates in batches.
+   * Only dirty shapes are written.
+   */
+  void saveShapes(List<Shape> shapes) {
     // note: update will not update the pixels (not strictly required).
     NamedParameterJdbcTemplate jt = new NamedParameterJdbcTemplate(this.getDataSource());
-    MapSqlParameterSource paramSource = new MapSqlParameterSource();
-    Shape iShape = shape;
+    List<Shape> newShapes = new ArrayList<>();
+    List<MapSqlParameterSource> updateParams = new ArrayList<>();
+    for (Shape shape : shapes) {
+      shape.beforeSave();
+      if (!shape.isDirty())
+        continue;
+      if (shape.getId() == 0) {
+        newShapes.add(shape);
+      } else {
+        MapSqlParameterSource paramSource = this.getShapeParameters(shape);
+        paramSource.addValue("shape_id", shape.getId());
+        updateParams.add(paramSource);
+      }
+    }
+
+    List<Integer> shapeIds = BatchUtils.getNextIds(jt, "ocr_shape_id_seq", newShapes.size());
+    List<MapSqlParameterSource> insertParams = new ArrayList<>();
+    for (int i = 0; i < newShapes.size(); i++) {
+      Shape shape = newShapes.get(i);
+      MapSqlParameterSource paramSource = this.getShapeParameters(shape);
+      paramSource.addValue("shape_id", shapeIds.get(i));
+      ImageUtils.storePixels(paramSource, "shape_pixels", shape.getPixelGrabber(), compressPixels);
+      insertParams.add(paramSource);
+    }
 
+    String sql = "INSERT INTO ocr_shape (shape_id, shape_top, shape_left, shape_bottom, shape_right"
+        + ", shape_cap_line, shape_mean_line, shape_base_line, shape_pixels, shape_letter, shape_group_id" + ", shape_index, shape_original_guess) "
+        + "VALUES (:shape_id, :shape_top, :shape_left, :shape_bottom, :shape_right"
+        + ", :shape_cap_line, :shape_mean_line, :shape_base_line, :shape_pixels, :shape_letter, :shape_group_id"
+        + ", :shape_index, :shape_original_guess)";
+    BatchUtils.batchUpdate(jt, sql, insertParams, batchSize);
+
+    for (int i = 0; i < newShapes.size(); i++)
+      newShapes.get(i).setId(shapeIds.get(i));
+
+    sql = "UPDATE ocr_shape" + " SET shape_top = :shape_top" + ", shape_left = :shape_left" + ", shape_bottom = :shape_bottom"
+        + ", shape_right = :shape_right" + ", shape_cap_line = :shape_cap_line" + ", shape_mean_line = :shape_mean_line"
+        + ", shape_base_line = :shape_base_line" + ", shape_letter = :shape_letter" + ", shape_group_id = :shape_group_id"
+        + ", shape_index = :shape_index " + ", shape_original_guess = :shape_original_guess " + " WHERE shape_id = :shape_id";
+    BatchUtils.batchUpdate(jt, sql, updateParams, batchSize);
+
+    List<Split> splitsToDelete = new ArrayList<>();
+    List<Split> splitsToSave = new ArrayList<>();
+    for (Shape shape : shapes) {
+      if (shape.splits != null) {
+        splitsToDelete.addAll(shape.splits.getItemsRemoved());
+        splitsToSave.addAll(shape.splits);
+      }
+    }
+    BoundaryDao boundaryDao = BoundaryDao.getInstance(jochreSession);
+    boundaryDao.deleteSplits(splitsToDelete);
+    boundaryDao.saveSplits(splitsToSave);
+
+    for (Shape shape : shapes)
+      shape.getJochreImage().onSaveShape(shape);
+  }
+
+  private MapSqlParameterSource getShapeParameters(Shape shape) {
+    MapSqlParameterSource paramSource = new MapSqlParameterSource();
     paramSource.addValue("shape_top", shape.getTop());
     paramSource.addValue("shape_left", shape.getLeft());
     paramSource.addValue("shape_bottom", shape.getBottom());
@@ -456,39 +532,7 @@ public final class GraphicsDao {
     paramSource.addValue("shape_original_guess", shape.getOriginalGuess());
     paramSource.addValue("shape_group_id", shape.getGroupId());
     paramSource.addValue("shape_index", shape.getIndex());
-    String sql = null;
-
-    if (shape.getId() == 0) {
-      sql = "SELECT nextval('ocr_shape_id_seq')";
-      LOG.debug(sql);
-      int shapeId = jt.queryForObject(sql, paramSource, Integer.class);
-      paramSource.addValue("shape_id", shapeId);
-
-      ImageUtils.storeImage(paramSource, "shape_pixels", shape.getImage());
-
-      sql = "INSERT INTO ocr_shape (shape_id, shape_top, shape_left, shape_bottom, shape_right"
-          + ", shape_cap_line, shape_mean_line, shape_base_line, shape_pixels, shape_letter, shape_group_id" + ", shape_index, shape_original_guess) "
-          + "VALUES (:shape_id, :shape_top, :shape_left, :shape_bottom, :shape_right"
-          + ", :shape_cap_line, :shape_mean_line, :shape_base_line, :shape_pixels, :shape_letter, :shape_group_id"
-          + ", :shape_index, :shape_original_guess)";
-
-      LOG.debug(sql);
-      logParameters(paramSource);
-      jt.update(sql, paramSource);
-
-      iShape.setId(shapeId);
-    } else {
-      paramSource.addValue("shape_id", shape.getId());
-
-      sql = "UPDATE ocr_shape" + " SET shape_top = :shape_top" + ", shape_left = :shape_left" + ", shape_bottom = :shape_bottom"
-          + ", shape_right = :shape_right" + ", shape_cap_line = :shape_cap_line" + ", shape_mean_line = :shape_mean_line"
-          + ", shape_base_line = :shape_base_line" + ", shape_letter = :shape_letter" + ", shape_group_id = :shape_group_id"
-          + ", shape_index = :shape_index " + ", shape_original_guess = :shape_original_guess " + " WHERE shape_id = :shape_id";
-
-      LOG.debug(sql);
-      logParameters(paramSource);
-      jt.update(sql, paramSource);
-    }
+    return paramSource;
   }
 
   void deleteShape(Shape shape) {
@@ -604,82 +648,127 @@ public final class GraphicsDao {
   }
 
   void saveRowOfShapes(RowOfShapes row) {
+    this.saveRowsOfShapes(Collections.singletonList(row));
+  }
+
+  /**
+   * Save a list of rows along with their groups, reserving the ids for any new
+   * rows in a single query and sending inserts and updates in batches.
+   */
+  void saveRowsOfShapes(List<RowOfShapes> rows) {
     NamedParameterJdbcTemplate jt = new NamedParameterJdbcTemplate(this.getDataSource());
-    MapSqlParameterSource paramSource = new MapSqlParameterSource();
-    RowOfShapes iRow = row;
+    List<RowOfShapes> newRows = new ArrayList<>();
+    List<MapSqlParameterSource> updateParams = new ArrayList<>();
+    for (RowOfShapes row : rows) {
+      row.beforeSave();
+      if (row.getId() == 0) {
+        newRows.add(row);
+      } else {
+        MapSqlParameterSource paramSource = this.getRowParameters(row);
+        paramSource.addValue("row_id", row.getId());
+        updateParams.add(paramSource);
+      }
+    }
+
+    List<Integer> rowIds = BatchUtils.getNextIds(jt, "ocr_row_id_seq", newRows.size());
+    List<MapSqlParameterSource> insertParams = new ArrayList<>();
+    for (int i = 0; i < newRows.size(); i++) {
+      RowOfShapes row = newRows.get(i);
+      MapSqlParameterSource paramSource = this.getRowParameters(row);
+      paramSource.addValue("row_id", rowIds.get(i));
+      ImageUtils.storeImage(paramSource, "row_image", row.getImage());
+      insertParams.add(paramSource);
+    }
 
+    String sql = "INSERT INTO ocr_row (row_id, row_paragraph_id, row_index, row_image, row_height) "
+        + "VALUES (:row_id, :row_paragraph_id, :row_index, :row_image, :row_height)";
+    BatchUtils.batchUpdate(jt, sql, insertParams, batchSize);
+
+    for (int i = 0; i < newRows.size(); i++) {
+      RowOfShapes row = newRows.get(i);
+      row.clearMemory();
+      row.setId(rowIds.get(i));
+    }
+
+    sql = "UPDATE ocr_row" + " SET row_paragraph_id = :row_paragraph_id" + ", row_index = :row_index" + ", row_height = :row_height"
+        + " WHERE row_id = :row_id";
+    BatchUtils.batchUpdate(jt, sql, updateParams, batchSize);
+
+    List<GroupOfShapes> groups = new ArrayList<>();
+    for (RowOfShapes row : rows)
+      groups.addAll(row.getGroupsToSave());
+    this.saveGroupsOfShapes(groups);
+  }
+
+  private MapSqlParameterSource getRowParameters(RowOfShapes row) {
+    MapSqlParameterSource paramSource = new MapSqlParameterSource();
     paramSource.addValue("row_paragraph_id", row.getParagraphId());
     paramSource.addValue("row_index", row.getIndex());
     paramSource.addValue("row_height", row.getXHeight());
-    String sql = null;
+    return paramSource;
+  }
 
-    if (row.getId() == 0) {
-      sql = "SELECT nextval('ocr_row_id_seq')";
-      LOG.debug(sql);
-      int rowId = jt.queryForObject(sql, paramSource, Integer.class);
-      paramSource.addValue("row_id", rowId);
+  void saveGroupOfShapes(GroupOfShapes group) {
+    this.saveGroupsOfShapes(Collections.singletonList(group));
+  }
 
-      ImageUtils.storeImage(paramSource, "row_image", row.getImage());
+  /**
+   * Save a list of groups along with their shapes, reserving the ids for any
+   * new groups in a single query and sending inserts and updates in batches.
+   * Only dirty groups are written.
+   */
+  void saveGroupsOfShapes(List<GroupOfShapes> groups) {
+    NamedParameterJdbcTemplate jt = new NamedParameterJdbcTemplate(this.getDataSource());
+    List<GroupOfShapes> newGroups = new ArrayList<>();
+    List<MapSqlParameterSource> updateParams = new ArrayList<>();
+    for (GroupOfShapes group : groups) {
+      group.beforeSave();
+      if (!group.isDirty())
+        continue;
+      if (group.getId() == 0) {
+        newGroups.add(group);
+      } else {
+        MapSqlParameterSource paramSource = this.getGroupParameters(group);
+        paramSource.addValue("group_id", group.getId());
+        updateParams.add(paramSource);
+      }
+    }
 
-      sql = "INSERT INTO ocr_row (row_id, row_paragraph_id, row_index, row_image, row_height) "
-          + "VALUES (:row_id, :row_paragraph_id, :row_index, :row_image, :row_height)";
+    List<Integer> groupIds = BatchUtils.getNextIds(jt, "ocr_group_id_seq", newGroups.size());
+    List<MapSqlParameterSource> insertParams = new ArrayList<>();
+    for (int i = 0; i < newGroups.size(); i++) {
+      MapSqlParameterSource paramSource = this.getGroupParameters(newGroups.get(i));
+      paramSource.addValue("group_id", groupIds.get(i));
+      insertParams.add(paramSource);
+    }
 
-      LOG.debug(sql);
-      logParameters(paramSource);
-      jt.update(sql, paramSource);
+    String sql = "INSERT INTO ocr_group (group_id, group_row_id, group_index, group_hard_hyphen, group_broken_word, group_segment_problem, group_skip) "
+        + "VALUES (:group_id, :group_row_id, :group_index, :group_hard_hyphen, :group_broken_word, :group_segment_problem, :group_skip)";
+    BatchUtils.batchUpdate(jt, sql, insertParams, batchSize);
 
-      iRow.clearMemory();
-      iRow.setId(rowId);
-    } else {
-      paramSource.addValue("row_id", row.getId());
+    for (int i = 0; i < newGroups.size(); i++)
+      newGroups.get(i).setId(groupIds.get(i));
 
-      sql = "UPDATE ocr_row" + " SET row_paragraph_id = :row_paragraph_id" + ", row_index = :row_index" + ", row_height = :row_height"
-          + " WHERE row_id = :row_id";
+    sql = "UPDATE ocr_group" + " SET group_row_id = :group_row_id" + ", group_index = :group_index" + ", group_hard_hyphen = :group_hard_hyphen"
+        + ", group_broken_word = :group_broken_word" + ", group_segment_problem = :group_segment_problem" + ", group_skip = :group_skip"
+        + " WHERE group_id = :group_id";
+    BatchUtils.batchUpdate(jt, sql, updateParams, batchSize);
 
-      LOG.debug(sql);
-      logParameters(paramSource);
-      jt.update(sql, paramSource);
-    }
+    List<Shape> shapes = new ArrayList<>();
+    for (GroupOfShapes group : groups)
+      shapes.addAll(group.getShapesToSave());
+    this.saveShapes(shapes);
   }
 
-  void saveGroupOfShapes(GroupOfShapes group) {
-    NamedParameterJdbcTemplate jt = new NamedParameterJdbcTemplate(this.getDataSource());
+  private MapSqlParameterSource getGroupParameters(GroupOfShapes group) {
     MapSqlParameterSource paramSource = new MapSqlParameterSource();
-    GroupOfShapes iGroup = group;
-
     paramSource.addValue("group_row_id", group.getRowId());
     paramSource.addValue("group_index", group.getIndex());
     paramSource.addValue("group_hard_hyphen", group.isHardHyphen());
     paramSource.addValue("group_broken_word", group.isBrokenWord());
     paramSource.addValue("group_segment_problem", group.isSegmentationProblem());
     paramSource.addValue("group_skip", group.isSkip());
-    String sql = null;
-
-    if (group.getId() == 0) {
-      sql = "SELECT nextval('ocr_group_id_seq')";
-      LOG.debug(sql);
-      int groupId = jt.queryForObject(sql, paramSource, Integer.class);
-      paramSource.addValue("group_id", groupId);
-
-      sql = "INSERT INTO ocr_group (group_id, group_row_id, group_index, group_hard_hyphen, group_broken_word, group_segment_problem, group_skip) "
-          + "VALUES (:group_id, :group_row_id, :group_index, :group_hard_hyphen, :group_broken_word, :group_segment_problem, :group_skip)";
-
-      LOG.debug(sql);
-      logParameters(paramSource);
-      jt.update(sql, paramSource);
-
-      iGroup.setId(groupId);
-    } else {
-      paramSource.addValue("group_id", group.getId());
-
-      sql = "UPDATE ocr_group" + " SET group_row_id = :group_row_id" + ", group_index = :group_index" + ", group_hard_hyphen = :group_hard_hyphen"
-          + ", group_broken_word = :group_broken_word" + ", group_segment_problem = :group_segment_problem" + ", group_skip = :group_skip"
-          + " WHERE group_id = :group_id";
-
-      LOG.debug(sql);
-      logParameters(paramSource);
-      jt.update(sql, paramSource);
-    }
+    return paramSource;
   }
 
   Paragraph loadParagraph(int paragraphId) {
@@ -729,38 +818,172 @@ public final class GraphicsDao {
   }
 
   void saveParagraph(Paragraph paragraph) {
+    this.saveParagraphs(Collections.singletonList(paragraph));
+  }
+
+  /**
+   * Save a list of paragraphs along with their rows, reserving the ids for any
+   * new paragraphs in a single query and sending inserts and updates in
+   * batches.
+   */
+  void saveParagraphs(List<Paragraph> paragraphs) {
     NamedParameterJdbcTemplate jt = new NamedParameterJdbcTemplate(this.getDataSource());
-    MapSqlParameterSource paramSource = new MapSqlParameterSource();
-    Paragraph iParagraph = paragraph;
+    List<Paragraph> newParagraphs = new ArrayList<>();
+    List<MapSqlParameterSource> updateParams = new ArrayList<>();
+    for (Paragraph paragraph : paragraphs) {
+      paragraph.beforeSave();
+      if (paragraph.getId() == 0) {
+        newParagraphs.add(paragraph);
+      } else {
+        MapSqlParameterSource paramSource = this.getParagraphParameters(paragraph);
+        paramSource.addValue("paragraph_id", paragraph.getId());
+        updateParams.add(paramSource);
+      }
+    }
+
+    List<Integer> paragraphIds = BatchUtils.getNextIds(jt, "ocr_paragraph_id_seq", newParagraphs.size());
+    List<MapSqlParameterSource> insertParams = new ArrayList<>();
+    for (int i = 0; i < newParagraphs.size(); i++) {
+      MapSqlParameterSource paramSource = this.getParagraphParameters(newParagraphs.get(i));
+      paramSource.addValue("paragraph_id", paragraphIds.get(i));
+      insertParams.add(paramSource);
+    }
+
+    String sql = "INSERT INTO ocr_paragraph (paragraph_id, paragraph_image_id, paragraph_index) "
+        + "VALUES (:paragraph_id, :paragraph_image_id, :paragraph_index)";
+    BatchUtils.batchUpdate(jt, sql, insertParams, batchSize);
+
+    for (int i = 0; i < newParagraphs.size(); i++)
+      newParagraphs.get(i).setId(paragraphIds.get(i));
+
+    sql = "UPDATE ocr_paragraph" + " SET paragraph_image_id = :paragraph_image_id" + ", paragraph_index = :paragraph_index"
+        + " WHERE paragraph_id = :paragraph_id";
+    BatchUtils.batchUpdate(jt, sql, updateParams, batchSize);
+
+    List<RowOfShapes> rows = new ArrayList<>();
+    for (Paragraph paragraph : paragraphs)
+      rows.addAll(paragraph.getRowsToSave());
+    this.saveRowsOfShapes(rows);
+  }
 
+  private MapSqlParameterSource getParagraphParameters(Paragraph paragraph) {
+    MapSqlParameterSource paramSource = new MapSqlParameterSource();
     paramSource.addValue("paragraph_image_id", paragraph.getImageId());
     paramSource.addValue("paragraph_index", paragraph.getIndex());
-    String sql = null;
+    return paramSource;
+  }
 
-    if (paragraph.getId() == 0) {
-      sql = "SELECT nextval('ocr_paragraph_id_seq')";
-      LOG.debug(sql);
-      int paragraphId = jt.queryForObject(sql, paramSource, Integer.class);
-      paramSource.addValue("paragraph_id", paragraphId);
+  /**
+   * Load an image's paragraphs, rows, groups, shapes and splits in one query
+   * per table, rather than one query per paragraph, row and group as the image
+   * is navigated.
+   */
+  void loadGraph(JochreImage jochreImage) {
+    NamedParameterJdbcTemplate jt = new NamedParameterJdbcTemplate(this.getDataSource());
+    MapSqlParameterSource paramSource = new MapSqlParameterSource();
+    paramSource.addValue("image_id", jochreImage.getId());
 
-      sql = "INSERT INTO ocr_paragraph (paragraph_id, paragraph_image_id, paragraph_index) "
-          + "VALUES (:paragraph_id, :paragraph_image_id, :paragraph_index)";
+    List<Paragraph> paragraphs = this.findParagraphs(jochreImage);
 
-      LOG.debug(sql);
-      logParameters(paramSource);
-      jt.update(sql, paramSource);
+    String sql = "SELECT " + SELECT_ROW + " FROM ocr_row" + " INNER JOIN ocr_paragraph ON row_paragraph_id = paragraph_id"
+        + " WHERE paragraph_image_id = :image_id" + " ORDER BY row_paragraph_id, row_index";
+    LOG.debug(sql);
+    logParameters(paramSource);
+    List<RowOfShapes> rows = jt.query(sql, paramSource, new RowOfShapesMapper());
 
-      iParagraph.setId(paragraphId);
-    } else {
-      paramSource.addValue("paragraph_id", paragraph.getId());
+    sql = "SELECT " + SELECT_GROUP + " FROM ocr_group" + " INNER JOIN ocr_row ON group_row_id = row_id"
+        + " INNER JOIN ocr_paragraph ON row_paragraph_id = paragraph_id" + " WHERE paragraph_image_id = :image_id"
+        + " ORDER BY group_row_id, group_index";
+    LOG.debug(sql);
+    logParameters(paramSource);
+    List<GroupOfShapes> groups = jt.query(sql, paramSource, new GroupOfShapesMapper());
 
-      sql = "UPDATE ocr_paragraph" + " SET paragraph_image_id = :paragraph_image_id" + ", paragraph_index = :paragraph_index"
-          + " WHERE paragraph_id = :paragraph_id";
+    sql = "SELECT " + SELECT_SHAPE + " FROM ocr_shape" + " INNER JOIN ocr_group ON shape_group_id = group_id"
+        + " INNER JOIN ocr_row ON group_row_id = row_id" + " INNER JOIN ocr_paragraph ON row_paragraph_id = paragraph_id"
+        + " WHERE paragraph_image_id = :image_id" + " ORDER BY shape_group_id, shape_index";
+    LOG.debug(sql);
+    logParameters(paramSource);
+    List<Shape> shapes = jt.query(sql, paramSource, new ShapeMapper());
+
+    BoundaryDao boundaryDao = BoundaryDao.getInstance(jochreSession);
+    List<Split> splits = boundaryDao.findSplits(jochreImage);
+
+    Map<Integer, List<RowOfShapes>> rowsByParagraph = new HashMap<>();
+    for (RowOfShapes row : rows)
+      rowsByParagraph.computeIfAbsent(row.getParagraphId(), k -> new ArrayList<>()).add(row);
+    Map<Integer, List<GroupOfShapes>> groupsByRow = new HashMap<>();
+    for (GroupOfShapes group : groups)
+      groupsByRow.computeIfAbsent(group.getRowId(), k -> new ArrayList<>()).add(group);
+    Map<Integer, List<Shape>> shapesByGroup = new HashMap<>();
+    for (Shape shape : shapes)
+      shapesByGroup.computeIfAbsent(shape.getGroupId(), k -> new ArrayList<>()).add(shape);
+    Map<Integer, List<Split>> splitsByShape = new HashMap<>();
+    for (Split split : splits)
+      splitsByShape.computeIfAbsent(split.getShapeId(), k -> new ArrayList<>()).add(split);
+
+    for (Paragraph paragraph : paragraphs) {
+      paragraph.setImage(jochreImage);
+      List<RowOfShapes> paragraphRows = rowsByParagraph.getOrDefault(paragraph.getId(), new ArrayList<>());
+      for (RowOfShapes row : paragraphRows) {
+        row.setParagraph(paragraph);
+        List<GroupOfShapes> rowGroups = groupsByRow.getOrDefault(row.getId(), new ArrayList<>());
+        for (GroupOfShapes group : rowGroups) {
+          group.setRow(row);
+          List<Shape> groupShapes = shapesByGroup.getOrDefault(group.getId(), new ArrayList<>());
+          group.addShapes(groupShapes);
+          for (Shape shape : groupShapes)
+            shape.setSplits(splitsByShape.getOrDefault(shape.getId(), new ArrayList<>()));
+        }
+        row.setGroups(rowGroups);
+      }
+      paragraph.setRows(paragraphRows);
+    }
+    jochreImage.setParagraphs(paragraphs);
+  }
+
+  /**
+   * Convert the pixels of any shapes still stored as PNG images to the format
+   * written by {@link ImageUtils#storePixels}, in place.
+   * 
+   * @return the number of shapes converted
+   */
+  public int convertShapePixels() {
+    NamedParameterJdbcTemplate jt = new NamedParameterJdbcTemplate(this.getDataSource());
+    String sql = "SELECT shape_id, shape_pixels FROM ocr_shape" + " WHERE shape_id > :shape_id AND shape_pixels IS NOT NULL"
+        + " ORDER BY shape_id LIMIT :limit";
+    String updateSql = "UPDATE ocr_shape SET shape_pixels = :shape_pixels WHERE shape_id = :shape_id";
+    int lastShapeId = 0;
+    int convertedCount = 0;
+    while (true) {
+      MapSqlParameterSource paramSource = new MapSqlParameterSource();
+      paramSource.addValue("shape_id", lastShapeId);
+      paramSource.addValue("limit", batchSize);
 
       LOG.debug(sql);
       logParameters(paramSource);
-      jt.update(sql, paramSource);
+      List<MapSqlParameterSource> shapePixels = jt.query(sql, paramSource, (rs, rowNum) -> {
+        MapSqlParameterSource pixelSource = new MapSqlParameterSource();
+        pixelSource.addValue("shape_id", rs.getInt("shape_id"));
+        pixelSource.addValue("shape_pixels", rs.getBytes("shape_pixels"));
+        return pixelSource;
+      });
+      if (shapePixels.size() == 0)
+        break;
+
+      List<MapSqlParameterSource> updateParams = new ArrayList<>();
+      for (MapSqlParameterSource pixelSource : shapePixels) {
+        lastShapeId = (Integer) pixelSource.getValue("shape_id");
+        byte[] bytes = (byte[]) pixelSource.getValue("shape_pixels");
+        if (!ImageUtils.isEncodedPixels(bytes)) {
+          ImageUtils.storePixels(pixelSource, "shape_pixels", ImageUtils.decodePixels(bytes), compressPixels);
+          updateParams.add(pixelSource);
+        }
+      }
+      BatchUtils.batchUpdate(jt, updateSql, updateParams, batchSize);
+      convertedCount += updateParams.size();
+      LOG.info("Converted " + convertedCount + " shapes, up to shape " + lastShapeId);
     }
+    return convertedCount;
   }
 
   int getShapeCount(JochreImage jochreImage) {
@@ -19,6 +19,7 @@
 package com.joliciel.jochre.graphics;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import com.joliciel.jochre.Entity;
@@ -159,20 +160,26 @@ public class GroupOfShapes implements Entity, Rectangle {
 
   @Override
   public void save() {
+    this.graphicsDao.saveGroupOfShapes(this);
+  }
+
+  void beforeSave() {
     if (this.row != null && this.rowId == 0)
       this.setRowId(this.row.getId());
+  }
 
-    if (this.dirty)
-      this.graphicsDao.saveGroupOfShapes(this);
-
-    if (this.shapes != null) {
-      int index = 0;
-      for (Shape shape : this.shapes) {
-        shape.setGroup(this);
-        shape.setIndex(index++);
-        shape.save();
-      }
+  /**
+   * The shapes to be saved along with this group, if they've been loaded.
+   */
+  List<Shape> getShapesToSave() {
+    if (this.shapes == null)
+      return Collections.emptyList();
+    int index = 0;
+    for (Shape shape : this.shapes) {
+      shape.setGroup(this);
+      shape.setIndex(index++);
     }
+    return this.shapes;
   }
 
   /**
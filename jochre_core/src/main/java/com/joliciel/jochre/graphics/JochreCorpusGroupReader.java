@@ -58,6 +58,7 @@ public class JochreCorpusGroupReader extends JochreCorpusReader {
     this.initialiseStream();
     while (group == null && imageIndex < this.getImages().size()) {
       JochreImage image = this.getImages().get(imageIndex);
+      image.loadGraph();
       while (group == null && paragraphIndex < image.getParagraphs().size()) {
         Paragraph paragraph = image.getParagraphs().get(paragraphIndex);
         while (group == null && rowIndex < paragraph.getRows().size()) {
@@ -19,6 +19,7 @@
 package com.joliciel.jochre.graphics;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
@@ -48,13 +49,35 @@ public abstract class JochreCorpusReader {
   protected void initialiseStream() {
     if (images == null) {
       images = new ArrayList<JochreImage>();
+      JochreCorpusSnapshot snapshot = jochreSession.getCorpusSnapshot();
+      if (snapshot != null)
+        LOG.debug("Reading images from corpus snapshot " + snapshot.getFile().getPath());
       if (selectionCriteria.getImageId() != 0) {
-        JochreImage jochreImage = this.graphicsDao.loadJochreImage(selectionCriteria.getImageId());
-        images.add(jochreImage);
+        JochreImage jochreImage = null;
+        if (snapshot != null) {
+          for (JochreImage image : snapshot.getImages()) {
+            if (image.getId() == selectionCriteria.getImageId())
+              jochreImage = image;
+          }
+        } else {
+          jochreImage = this.graphicsDao.loadJochreImage(selectionCriteria.getImageId());
+        }
+        if (jochreImage != null)
+          images.add(jochreImage);
       } else if (selectionCriteria.getDocumentSelections() != null) {
         for (String docName : selectionCriteria.getDocumentSelections().keySet()) {
-          DocumentDao documentDao = DocumentDao.getInstance(jochreSession);
-          JochreDocument doc = documentDao.loadJochreDocument(docName);
+          JochreDocument doc = null;
+          if (snapshot != null) {
+            for (JochreImage image : snapshot.getImages()) {
+              if (docName.equals(image.getPage().getDocument().getName()))
+                doc = image.getPage().getDocument();
+            }
+          } else {
+            DocumentDao documentDao = DocumentDao.getInstance(jochreSession);
+            doc = documentDao.loadJochreDocument(docName);
+          }
+          if (doc == null)
+            continue;
           Set<Integer> pageIds = selectionCriteria.getDocumentSelections().get(docName);
           for (JochrePage page : doc.getPages()) {
             if (pageIds.size() == 0 || pageIds.contains(page.getIndex())) {
@@ -65,7 +88,17 @@ public abstract class JochreCorpusReader {
           }
         }
       } else {
-        List<JochreImage> myImages = this.graphicsDao.findImages(selectionCriteria.getImageStatusesToInclude());
+        List<JochreImage> myImages;
+        if (snapshot != null) {
+          myImages = new ArrayList<>();
+          List<ImageStatus> imageStatuses = Arrays.asList(selectionCriteria.getImageStatusesToInclude());
+          for (JochreImage image : snapshot.getImages()) {
+            if (imageStatuses.contains(image.getImageStatus()))
+              myImages.add(image);
+          }
+        } else {
+          myImages = this.graphicsDao.findImages(selectionCriteria.getImageStatusesToInclude());
+        }
         int i = 0;
         for (JochreImage image : myImages) {
           if (selectionCriteria.getImageCount() > 0 && images.size() >= selectionCriteria.getImageCount())
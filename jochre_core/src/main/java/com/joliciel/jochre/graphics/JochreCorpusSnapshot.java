@@ -0,0 +1,447 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.graphics;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.joliciel.jochre.JochreSession;
+import com.joliciel.jochre.boundaries.Split;
+import com.joliciel.jochre.doc.JochreDocument;
+import com.joliciel.jochre.doc.JochrePage;
+import com.joliciel.jochre.utils.JochreException;
+import com.joliciel.jochre.utils.dao.ImageUtils;
+
+/**
+ * A self-contained snapshot of a selection of the training corpus in a single
+ * binary file, so that training and evaluation can be run without a database.
+ * <br>
+ * <br>
+ * The file contains one block per image, holding its paragraphs, rows, groups,
+ * shapes (with their pixels and letters) and splits, followed by an index
+ * describing the documents, pages and images, and the position of each image's
+ * block. The index is read up front, and each image's block is read the first
+ * time the image's contents are requested. Document authors and image owners
+ * are not included. The snapshot keeps the file open until it is closed.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+public class JochreCorpusSnapshot implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(JochreCorpusSnapshot.class);
+  private static final byte[] MAGIC = new byte[] { 'J', 'O', 'C', 'H', 'R', 'E', 'C', 'S' };
+  private static final int VERSION = 2;
+
+  private final File file;
+  private final JochreSession jochreSession;
+  private final List<JochreImage> images = new ArrayList<>();
+  private final Map<JochreImage, long[]> blockPositions = new HashMap<>();
+  private RandomAccessFile randomAccessFile;
+
+  /**
+   * Write all images selected by the criteria to a snapshot file.
+   * 
+   * @return the number of images written
+   */
+  public static int write(CorpusSelectionCriteria criteria, File file, JochreSession jochreSession) throws IOException {
+    JochreCorpusImageReader imageReader = new JochreCorpusImageReader(jochreSession);
+    imageReader.setSelectionCriteria(criteria);
+    return write(new Iterator<JochreImage>() {
+      @Override
+      public boolean hasNext() {
+        return imageReader.hasNext();
+      }
+
+      @Override
+      public JochreImage next() {
+        return imageReader.next();
+      }
+    }, file);
+  }
+
+  /**
+   * Write the images provided to a snapshot file.
+   * 
+   * @return the number of images written
+   */
+  static int write(Iterator<JochreImage> imageReader, File file) throws IOException {
+    Map<Integer, JochreDocument> documents = new LinkedHashMap<>();
+    Map<Integer, JochrePage> pages = new LinkedHashMap<>();
+    List<JochreImage> images = new ArrayList<>();
+    List<long[]> blockPositions = new ArrayList<>();
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.write(MAGIC);
+      out.writeInt(VERSION);
+      long position = MAGIC.length + 4;
+
+      while (imageReader.hasNext()) {
+        JochreImage image = imageReader.next();
+        image.loadGraph();
+        JochrePage page = image.getPage();
+        pages.putIfAbsent(page.getId(), page);
+        documents.putIfAbsent(page.getDocumentId(), page.getDocument());
+
+        byte[] block = writeGraph(image);
+        out.write(block);
+        images.add(image);
+        blockPositions.add(new long[] { position, block.length, countShapes(image) });
+        position += block.length;
+        LOG.debug("Wrote image " + image.getId() + ": " + block.length + " bytes");
+      }
+
+      long indexPosition = position;
+      out.writeInt(documents.size());
+      for (JochreDocument doc : documents.values()) {
+        out.writeInt(doc.getId());
+        writeString(out, doc.getName());
+        writeString(out, doc.getFileName());
+        writeString(out, doc.getLocale() == null ? null : doc.getLocale().toLanguageTag());
+        writeString(out, doc.getNameLocal());
+        writeString(out, doc.getPublisher());
+        writeString(out, doc.getCity());
+        out.writeInt(doc.getYear());
+        writeString(out, doc.getReference());
+        out.writeInt(doc.getTotalPageCount());
+      }
+      out.writeInt(pages.size());
+      for (JochrePage page : pages.values()) {
+        out.writeInt(page.getId());
+        out.writeInt(page.getDocumentId());
+        out.writeInt(page.getIndex());
+      }
+      out.writeInt(images.size());
+      for (int i = 0; i < images.size(); i++) {
+        JochreImage image = images.get(i);
+        out.writeInt(image.getId());
+        out.writeInt(image.getPageId());
+        writeString(out, image.getName());
+        out.writeInt(image.getIndex());
+        out.writeInt(image.getWidth());
+        out.writeInt(image.getHeight());
+        out.writeInt(image.getBlackThreshold());
+        out.writeInt(image.getSeparationThreshold());
+        out.writeInt(image.getBlackLimit());
+        out.writeInt(image.getWhiteLimit());
+        out.writeInt(image.getWhiteGapFillFactor());
+        out.writeInt(image.getImageStatus().getId());
+        out.writeLong(blockPositions.get(i)[0]);
+        out.writeInt((int) blockPositions.get(i)[1]);
+        out.writeInt((int) blockPositions.get(i)[2]);
+      }
+      out.writeLong(indexPosition);
+    }
+    return images.size();
+  }
+
+  private static byte[] writeGraph(JochreImage image) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(image.getParagraphs().size());
+    for (Paragraph paragraph : image.getParagraphs()) {
+      out.writeInt(paragraph.getId());
+      out.writeInt(paragraph.getIndex());
+      out.writeInt(paragraph.getRows().size());
+      for (RowOfShapes row : paragraph.getRows()) {
+        out.writeInt(row.getId());
+        out.writeInt(row.getIndex());
+        out.writeInt(row.getXHeight());
+        out.writeInt(row.getGroups().size());
+        for (GroupOfShapes group : row.getGroups()) {
+          out.writeInt(group.getId());
+          out.writeInt(group.getIndex());
+          out.writeBoolean(group.isHardHyphen());
+          out.writeBoolean(group.isBrokenWord());
+          out.writeBoolean(group.isSegmentationProblem());
+          out.writeBoolean(group.isSkip());
+          out.writeInt(group.getShapes().size());
+          for (Shape shape : group.getShapes()) {
+            out.writeInt(shape.getId());
+            out.writeInt(shape.getIndex());
+            out.writeInt(shape.getTop());
+            out.writeInt(shape.getLeft());
+            out.writeInt(shape.getBottom());
+            out.writeInt(shape.getRight());
+            out.writeInt(shape.getCapLine());
+            out.writeInt(shape.getMeanLine());
+            out.writeInt(shape.getBaseLine());
+            writeString(out, shape.getLetter());
+            writeString(out, shape.getOriginalGuess());
+            byte[] pixels = ImageUtils.encodePixels(shape.getPixelGrabber(), true);
+            out.writeInt(pixels.length);
+            out.write(pixels);
+            out.writeInt(shape.getSplits().size());
+            for (Split split : shape.getSplits()) {
+              out.writeInt(split.getId());
+              out.writeInt(split.getPosition());
+            }
+          }
+        }
+      }
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static int countShapes(JochreImage image) {
+    int shapeCount = 0;
+    for (Paragraph paragraph : image.getParagraphs())
+      for (RowOfShapes row : paragraph.getRows())
+        for (GroupOfShapes group : row.getGroups())
+          shapeCount += group.getShapes().size();
+    return shapeCount;
+  }
+
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    out.writeBoolean(string != null);
+    if (string != null)
+      out.writeUTF(string);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    if (in.readBoolean())
+      return in.readUTF();
+    return null;
+  }
+
+  /**
+   * Open a snapshot file, reading the document, page and image index.
+   */
+  public JochreCorpusSnapshot(File file, JochreSession jochreSession) {
+    this.file = file;
+    this.jochreSession = jochreSession;
+    try {
+      this.randomAccessFile = new RandomAccessFile(file, "r");
+      byte[] magic = new byte[MAGIC.length];
+      randomAccessFile.readFully(magic);
+      int version = randomAccessFile.readInt();
+      if (!Arrays.equals(magic, MAGIC) || version != VERSION)
+        throw new JochreException("Not a corpus snapshot (version " + VERSION + "): " + file.getPath());
+
+      randomAccessFile.seek(randomAccessFile.length() - 8);
+      long indexPosition = randomAccessFile.readLong();
+      byte[] index = new byte[(int) (randomAccessFile.length() - 8 - indexPosition)];
+      randomAccessFile.seek(indexPosition);
+      randomAccessFile.readFully(index);
+      this.readIndex(new DataInputStream(new ByteArrayInputStream(index)));
+    } catch (IOException e) {
+      throw new JochreException(e);
+    }
+    LOG.info("Read corpus snapshot " + file.getPath() + " with " + images.size() + " images");
+  }
+
+  private void readIndex(DataInputStream in) throws IOException {
+    Map<Integer, JochreDocument> documents = new HashMap<>();
+    int documentCount = in.readInt();
+    for (int i = 0; i < documentCount; i++) {
+      JochreDocument doc = new JochreDocument(jochreSession);
+      int docId = in.readInt();
+      doc.setName(readString(in));
+      doc.setFileName(readString(in));
+      String localeTag = readString(in);
+      if (localeTag != null)
+        doc.setLocale(Locale.forLanguageTag(localeTag));
+      doc.setNameLocal(readString(in));
+      doc.setPublisher(readString(in));
+      doc.setCity(readString(in));
+      doc.setYear(in.readInt());
+      doc.setReference(readString(in));
+      doc.setTotalPageCount(in.readInt());
+      documents.put(docId, doc);
+    }
+
+    // pages are added to their document before any ids are set, so that
+    // neither tries to load its contents from the database
+    Map<Integer, JochrePage> pages = new HashMap<>();
+    int pageCount = in.readInt();
+    for (int i = 0; i < pageCount; i++) {
+      int pageId = in.readInt();
+      JochreDocument doc = documents.get(in.readInt());
+      JochrePage page = doc.newPage();
+      page.setIndex(in.readInt());
+      pages.put(pageId, page);
+    }
+
+    Map<JochreImage, Integer> imagePageIds = new HashMap<>();
+    int imageCount = in.readInt();
+    for (int i = 0; i < imageCount; i++) {
+      JochreImage image = new JochreImage(jochreSession);
+      image.setSnapshot(this);
+      image.setId(in.readInt());
+      int pageId = in.readInt();
+      image.setName(readString(in));
+      image.setIndex(in.readInt());
+      image.setWidth(in.readInt());
+      image.setHeight(in.readInt());
+      image.setBlackThreshold(in.readInt());
+      image.setSeparationThreshold(in.readInt());
+      image.setBlackLimit(in.readInt());
+      image.setWhiteLimit(in.readInt());
+      image.setWhiteGapFillFactor(in.readInt());
+      image.setImageStatus(ImageStatus.forId(in.readInt()));
+      long position = in.readLong();
+      int length = in.readInt();
+      // stored in the index, since it is requested before the image's block is read
+      image.setShapeCount(in.readInt());
+      blockPositions.put(image, new long[] { position, length });
+      pages.get(pageId).addJochreImage(image);
+      imagePageIds.put(image, pageId);
+      images.add(image);
+    }
+
+    for (Map.Entry<Integer, JochrePage> pageEntry : pages.entrySet())
+      pageEntry.getValue().setId(pageEntry.getKey());
+    for (Map.Entry<Integer, JochreDocument> docEntry : documents.entrySet())
+      docEntry.getValue().setId(docEntry.getKey());
+    for (JochreImage image : images)
+      image.setPage(pages.get(imagePageIds.get(image)));
+  }
+
+  /**
+   * All images in the snapshot, in the order in which they were written.
+   */
+  public List<JochreImage> getImages() {
+    return images;
+  }
+
+  /**
+   * The snapshot file.
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Close the snapshot file. Images whose contents haven't been read yet can no
+   * longer be read.
+   */
+  @Override
+  public void close() throws IOException {
+    randomAccessFile.close();
+  }
+
+  /**
+   * Read an image's paragraphs, rows, groups, shapes and splits from the
+   * snapshot.
+   */
+  synchronized void loadGraph(JochreImage image) {
+    long[] blockPosition = blockPositions.get(image);
+    byte[] block = new byte[(int) blockPosition[1]];
+    try {
+      randomAccessFile.seek(blockPosition[0]);
+      randomAccessFile.readFully(block);
+      this.readGraph(image, new DataInputStream(new ByteArrayInputStream(block)));
+    } catch (IOException e) {
+      throw new JochreException(e);
+    }
+  }
+
+  private void readGraph(JochreImage image, DataInputStream in) throws IOException {
+    int paragraphCount = in.readInt();
+    List<Paragraph> paragraphs = new ArrayList<>(paragraphCount);
+    for (int i = 0; i < paragraphCount; i++) {
+      Paragraph paragraph = new Paragraph(jochreSession);
+      paragraph.setId(in.readInt());
+      paragraph.setIndex(in.readInt());
+      paragraph.setImage(image);
+
+      int rowCount = in.readInt();
+      List<RowOfShapes> rows = new ArrayList<>(rowCount);
+      for (int j = 0; j < rowCount; j++) {
+        RowOfShapes row = new RowOfShapes(jochreSession);
+        row.setId(in.readInt());
+        row.setIndex(in.readInt());
+        row.setXHeight(in.readInt());
+        row.setParagraph(paragraph);
+
+        int groupCount = in.readInt();
+        List<GroupOfShapes> groups = new ArrayList<>(groupCount);
+        for (int k = 0; k < groupCount; k++) {
+          GroupOfShapes group = new GroupOfShapes(jochreSession);
+          group.setId(in.readInt());
+          group.setIndex(in.readInt());
+          group.setHardHyphen(in.readBoolean());
+          group.setBrokenWord(in.readBoolean());
+          group.setSegmentationProblem(in.readBoolean());
+          group.setSkip(in.readBoolean());
+          group.setRow(row);
+
+          int shapeCount = in.readInt();
+          List<Shape> shapes = new ArrayList<>(shapeCount);
+          for (int l = 0; l < shapeCount; l++) {
+            Shape shape = new Shape(jochreSession);
+            shape.setId(in.readInt());
+            shape.setIndex(in.readInt());
+            shape.setTop(in.readInt());
+            shape.setLeft(in.readInt());
+            shape.setBottom(in.readInt());
+            shape.setRight(in.readInt());
+            shape.setCapLine(in.readInt());
+            shape.setMeanLine(in.readInt());
+            shape.setBaseLine(in.readInt());
+            shape.setLetter(readString(in));
+            shape.setOriginalGuess(readString(in));
+            shape.setGroupId(group.getId());
+            byte[] pixels = new byte[in.readInt()];
+            in.readFully(pixels);
+            shape.setPixelGrabber(ImageUtils.decodePixels(pixels));
+
+            int splitCount = in.readInt();
+            List<Split> splits = new ArrayList<>(splitCount);
+            for (int m = 0; m < splitCount; m++) {
+              Split split = new Split(shape, jochreSession);
+              split.setId(in.readInt());
+              split.setPosition(in.readInt());
+              splits.add(split);
+            }
+            shape.setSplits(splits);
+            shape.setDirty(false);
+            shapes.add(shape);
+          }
+          group.addShapes(shapes);
+          groups.add(group);
+        }
+        row.setGroups(groups);
+        rows.add(row);
+      }
+      paragraph.setRows(rows);
+      paragraphs.add(paragraph);
+    }
+    image.setParagraphs(paragraphs);
+  }
+}
@@ -35,7 +35,6 @@ import com.joliciel.jochre.Entity;
 import com.joliciel.jochre.JochreSession;
 import com.joliciel.jochre.doc.DocumentDao;
 import com.joliciel.jochre.doc.JochrePage;
-import com.joliciel.jochre.utils.graphics.ImagePixelGrabber;
 import com.joliciel.jochre.utils.graphics.ImagePixelGrabberImpl;
 import com.joliciel.jochre.security.SecurityDao;
 import com.joliciel.jochre.security.User;
@@ -43,6 +42,9 @@ import com.joliciel.talismane.utils.Monitorable;
 import com.joliciel.talismane.utils.ProgressMonitor;
 import com.joliciel.talismane.utils.SimpleProgressMonitor;
 
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
 /**
  * A representation of an image that contains the results of segmentataion
  * analysis. In other words, the image has been broken up into paragraphs, rows,
@@ -68,18 +70,20 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
   private int ownerId;
   private User owner;
 
-  int[] normalizedBrightnessValues;
+  volatile int[] normalizedBrightnessValues;
   int whiteGapFillFactor;
   double averageRowHeight = 0;
   boolean originalImageChanged = false;
   private BufferedImage originalImage = null;
   int shapeCount = -1;
-  private ImagePixelGrabber pixelGrabber;
+  private volatile PagePixelStore pixelStore;
+  private JochreCorpusSnapshot snapshot;
 
   private double confidence = -1;
   ImageStatus imageStatus;
 
-  private Map<String, Shape> shapeMap = null;
+  private TLongObjectMap<Shape> shapeMap = null;
+  private Map<String, Shape> largeShapeMap = null;
   SimpleProgressMonitor currentMonitor = null;
   int shapesSaved = 0;
 
@@ -99,11 +103,19 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
     this.originalImage = originalImage;
   }
 
-  ImagePixelGrabber getPixelGrabber() {
-    if (this.pixelGrabber == null) {
-      this.pixelGrabber = new ImagePixelGrabberImpl(this.getOriginalImage());
+  /**
+   * This image's pixels, read from the original image the first time they are
+   * requested.
+   */
+  PagePixelStore getPixelStore() {
+    // local variable to ensure the store is complete when read from another
+    // thread
+    PagePixelStore pixelStore = this.pixelStore;
+    if (pixelStore == null) {
+      pixelStore = new PagePixelStore(new ImagePixelGrabberImpl(this.getOriginalImage()));
+      this.pixelStore = pixelStore;
     }
-    return this.pixelGrabber;
+    return pixelStore;
   }
 
   @Override
@@ -126,7 +138,7 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
 
   @Override
   public int getRawAbsolutePixel(int x, int y) {
-    return this.getPixelGrabber().getPixelBrightness(x, y);
+    return this.getPixelStore().getBrightness(x, y);
   }
 
   @Override
@@ -134,10 +146,7 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
     if (x < 0 || y < 0 || x >= this.getWidth() || y >= this.getHeight())
       return false;
 
-    if (this.getPixel(x, y) <= threshold)
-      return true;
-    else
-      return false;
+    return this.getPixelStore().isBlack(x, y, threshold, this.getNormalizedBrightnessValues());
   }
 
   /**
@@ -195,6 +204,8 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
     if (paragraphs == null) {
       if (this.id == 0)
         paragraphs = new ArrayList<>();
+      else if (this.snapshot != null)
+        snapshot.loadGraph(this);
       else
         paragraphs = graphicsDao.findParagraphs(this);
     }
@@ -212,8 +223,8 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
       int index = 0;
       for (Paragraph paragraph : this.paragraphs) {
         paragraph.setIndex(index++);
-        paragraph.save();
       }
+      graphicsDao.saveParagraphs(this.paragraphs);
     }
 
     if (this.originalImageChanged) {
@@ -221,6 +232,32 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
     }
   }
 
+  void setParagraphs(List<Paragraph> paragraphs) {
+    this.paragraphs = paragraphs;
+  }
+
+  /**
+   * Load this image's paragraphs, rows, groups and shapes in a handful of
+   * queries, instead of one query per paragraph, row and group as they get
+   * navigated. Does nothing if the paragraphs have already been loaded.
+   */
+  public void loadGraph() {
+    if (this.paragraphs == null && this.id != 0) {
+      if (this.snapshot != null)
+        snapshot.loadGraph(this);
+      else
+        graphicsDao.loadGraph(this);
+    }
+  }
+
+  /**
+   * Read this image's contents from a corpus snapshot rather than the
+   * database.
+   */
+  void setSnapshot(JochreCorpusSnapshot snapshot) {
+    this.snapshot = snapshot;
+  }
+
   public Paragraph newParagraph() {
     Paragraph paragraph = new Paragraph(jochreSession);
     this.getParagraphs().add(paragraph);
@@ -286,6 +323,7 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
 
   public void setWhiteLimit(int whiteLimit) {
     this.whiteLimit = whiteLimit;
+    this.normalizedBrightnessValues = null;
   }
 
   /**
@@ -298,6 +336,7 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
 
   public void setBlackLimit(int blackLimit) {
     this.blackLimit = blackLimit;
+    this.normalizedBrightnessValues = null;
   }
 
   /**
@@ -305,6 +344,14 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
    * taking into account the black limit and white limit.
    */
   public int normalize(int brightness) {
+    return this.getNormalizedBrightnessValues()[brightness];
+  }
+
+  /**
+   * The normalized brightness value for each brightness from 0 to 255.
+   */
+  int[] getNormalizedBrightnessValues() {
+    int[] normalizedBrightnessValues = this.normalizedBrightnessValues;
     if (normalizedBrightnessValues == null) {
       normalizedBrightnessValues = new int[256];
       double greyscaleMultiplier = (255.0 / (whiteLimit - blackLimit));
@@ -315,9 +362,10 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
           normalizedBrightnessValues[i] = 255;
         normalizedBrightnessValues[i] = (int) Math.round((i - blackLimit) * greyscaleMultiplier);
       }
+      this.normalizedBrightnessValues = normalizedBrightnessValues;
     }
 
-    return normalizedBrightnessValues[brightness];
+    return normalizedBrightnessValues;
   }
 
   /**
@@ -346,7 +394,8 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
 
   public void clearSegmentation() {
     this.paragraphs = new ArrayList<>();
-    this.shapeMap = new HashMap<>();
+    this.shapeMap = null;
+    this.largeShapeMap = null;
   }
   
   /**
@@ -355,8 +404,13 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
   public void clearMemory() {
     this.paragraphs = null;
     this.originalImage = null;
-    this.pixelGrabber = null;
+    this.pixelStore = null;
+    if (this.shapeMap != null) {
+      for (Shape shape : this.shapeMap.valueCollection())
+        shape.clearMemory();
+    }
     this.shapeMap = null;
+    this.largeShapeMap = null;
     System.gc();
   }
 
@@ -394,11 +448,13 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
 
   public void setOriginalImage(BufferedImage originalImage) {
     this.originalImage = originalImage;
+    this.pixelStore = null;
     originalImageChanged = true;
   }
 
   void setOriginalImageDB(BufferedImage originalImage) {
     this.originalImage = originalImage;
+    this.pixelStore = null;
   }
 
   /**
@@ -459,25 +515,46 @@ public class JochreImage implements Entity, ImageGrid, Monitorable {
   }
 
   /**
-   * Returns a shape with the coordinates provided.
+   * Returns a shape with the coordinates provided. Synchronized, since shapes
+   * may be requested by several rows being analysed concurrently.
    */
-  public Shape getShape(int left, int top, int right, int bottom) {
-    String key = left + "," + top + "," + right + "," + bottom;
+  public synchronized Shape getShape(int left, int top, int right, int bottom) {
+    // coordinates are packed into a single key, unless they don't fit in 16 bits
+    if (((left | top | right | bottom) >>> 16) != 0)
+      return this.getLargeShape(left, top, right, bottom);
 
+    long key = ((long) left << 48) | ((long) top << 32) | ((long) right << 16) | bottom;
     if (this.shapeMap == null)
-      this.shapeMap = new HashMap<>();
+      this.shapeMap = new TLongObjectHashMap<>();
     Shape shape = this.shapeMap.get(key);
     if (shape == null) {
-      shape = new Shape(this, jochreSession);
-      shape.setLeft(left);
-      shape.setTop(top);
-      shape.setRight(right);
-      shape.setBottom(bottom);
+      shape = this.newShape(left, top, right, bottom);
       this.shapeMap.put(key, shape);
     }
     return shape;
   }
 
+  private Shape getLargeShape(int left, int top, int right, int bottom) {
+    String key = left + "," + top + "," + right + "," + bottom;
+    if (this.largeShapeMap == null)
+      this.largeShapeMap = new HashMap<>();
+    Shape shape = this.largeShapeMap.get(key);
+    if (shape == null) {
+      shape = this.newShape(left, top, right, bottom);
+      this.largeShapeMap.put(key, shape);
+    }
+    return shape;
+  }
+
+  private Shape newShape(int left, int top, int right, int bottom) {
+    Shape shape = new Shape(this, jochreSession);
+    shape.setLeft(left);
+    shape.setTop(top);
+    shape.setRight(right);
+    shape.setBottom(bottom);
+    return shape;
+  }
+
   /**
    * Is this containing document's locale left-to-right or right-to-left
    * (ignoring top-to-bottom for now!)
@@ -0,0 +1,124 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.graphics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.joliciel.jochre.utils.graphics.ImagePixelGrabber;
+
+/**
+ * A compact copy of an image's pixels, read once from the underlying image so
+ * that subsequent pixel reads are simple array lookups. The greyscale
+ * brightness of each pixel is stored as an unsigned byte. In addition,
+ * black-and-white bitplanes are built on demand for each black threshold
+ * requested, with each row packed into 64-bit words.<br>
+ * <br>
+ * Bitplanes depend on the normalisation of brightness values, and are thrown
+ * away whenever a different normalisation table is requested.<br>
+ * <br>
+ * Can be shared by several threads.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+final class PagePixelStore {
+  private static final int MAX_BRIGHTNESS = 255;
+
+  private final int width;
+  private final int height;
+  private final byte[] brightness;
+  private final int wordsPerRow;
+  private volatile Bitplanes bitplanes;
+
+  public PagePixelStore(ImagePixelGrabber pixelGrabber) {
+    this.width = pixelGrabber.getWidth();
+    this.height = pixelGrabber.getHeight();
+    this.brightness = pixelGrabber.getBrightnessPlane();
+    this.wordsPerRow = (width + 63) >>> 6;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * The raw greyscale brightness of a given pixel, from 0 to 255.
+   */
+  public int getBrightness(int x, int y) {
+    return brightness[y * width + x] & 0xff;
+  }
+
+  /**
+   * Is the given pixel black, that is, is its normalised brightness &lt;= the
+   * threshold?
+   * 
+   * @param normalizedValues
+   *          the normalised brightness value for each raw brightness value
+   */
+  public boolean isBlack(int x, int y, int threshold, int[] normalizedValues) {
+    if (threshold < 0 || threshold > MAX_BRIGHTNESS)
+      return normalizedValues[this.getBrightness(x, y)] <= threshold;
+    long[] bitplane = this.getBitplane(threshold, normalizedValues);
+    return (bitplane[y * wordsPerRow + (x >>> 6)] & (1L << (x & 63))) != 0;
+  }
+
+  private long[] getBitplane(int threshold, int[] normalizedValues) {
+    Bitplanes bitplanes = this.bitplanes;
+    if (bitplanes == null || bitplanes.normalizedValues != normalizedValues) {
+      bitplanes = new Bitplanes(normalizedValues);
+      this.bitplanes = bitplanes;
+    }
+    long[] bitplane = bitplanes.bitplanes.get(threshold);
+    if (bitplane == null) {
+      bitplane = this.buildBitplane(threshold, normalizedValues);
+      bitplanes.bitplanes.compareAndSet(threshold, null, bitplane);
+    }
+    return bitplane;
+  }
+
+  private long[] buildBitplane(int threshold, int[] normalizedValues) {
+    boolean[] black = new boolean[MAX_BRIGHTNESS + 1];
+    for (int i = 0; i <= MAX_BRIGHTNESS; i++)
+      black[i] = normalizedValues[i] <= threshold;
+
+    long[] bitplane = new long[wordsPerRow * height];
+    for (int y = 0; y < height; y++) {
+      int rowStart = y * width;
+      int wordStart = y * wordsPerRow;
+      for (int x = 0; x < width; x++) {
+        if (black[brightness[rowStart + x] & 0xff])
+          bitplane[wordStart + (x >>> 6)] |= 1L << (x & 63);
+      }
+    }
+    return bitplane;
+  }
+
+  private static final class Bitplanes {
+    private final int[] normalizedValues;
+    private final AtomicReferenceArray<long[]> bitplanes = new AtomicReferenceArray<>(MAX_BRIGHTNESS + 1);
+
+    public Bitplanes(int[] normalizedValues) {
+      this.normalizedValues = normalizedValues;
+    }
+  }
+}
@@ -19,6 +19,7 @@
 package com.joliciel.jochre.graphics;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import com.joliciel.jochre.Entity;
@@ -73,18 +74,26 @@ public class Paragraph implements Entity, Rectangle {
 
   @Override
   public void save() {
+    this.graphicsDao.saveParagraph(this);
+  }
+
+  void beforeSave() {
     if (this.image != null && this.imageId == 0)
       this.imageId = this.image.getId();
+  }
 
-    this.graphicsDao.saveParagraph(this);
-    if (this.rows != null) {
-      int index = 0;
-      for (RowOfShapes row : this.rows) {
-        row.setParagraph(this);
-        row.setIndex(index++);
-        row.save();
-      }
+  /**
+   * The rows to be saved along with this paragraph, if they've been loaded.
+   */
+  List<RowOfShapes> getRowsToSave() {
+    if (this.rows == null)
+      return Collections.emptyList();
+    int index = 0;
+    for (RowOfShapes row : this.rows) {
+      row.setParagraph(this);
+      row.setIndex(index++);
     }
+    return this.rows;
   }
 
   /**
@@ -107,6 +116,10 @@ public class Paragraph implements Entity, Rectangle {
     this.imageId = imageId;
   }
 
+  void setRows(List<RowOfShapes> rows) {
+    this.rows = rows;
+  }
+
   public List<RowOfShapes> getRows() {
     if (rows == null) {
       if (this.id == 0)
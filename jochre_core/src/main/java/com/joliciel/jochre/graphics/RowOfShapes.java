@@ -25,6 +25,7 @@ import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.TreeSet;
@@ -193,6 +194,10 @@ public class RowOfShapes implements Entity, Rectangle {
     return groups;
   }
 
+  void setGroups(List<GroupOfShapes> groups) {
+    this.groups = groups;
+  }
+
   public GroupOfShapes newGroup() {
     GroupOfShapes group = new GroupOfShapes(jochreSession);
     group.setRow(this);
@@ -220,17 +225,25 @@ public class RowOfShapes implements Entity, Rectangle {
 
   @Override
   public void save() {
+    this.graphicsDao.saveRowOfShapes(this);
+  }
+
+  void beforeSave() {
     if (this.paragraph != null && this.paragraphId == 0)
       this.paragraphId = this.paragraph.getId();
+  }
 
-    this.graphicsDao.saveRowOfShapes(this);
-    if (this.groups != null) {
-      int index = 0;
-      for (GroupOfShapes group : this.groups) {
-        group.setIndex(index++);
-        group.save();
-      }
+  /**
+   * The groups to be saved along with this row, if they've been loaded.
+   */
+  List<GroupOfShapes> getGroupsToSave() {
+    if (this.groups == null)
+      return Collections.emptyList();
+    int index = 0;
+    for (GroupOfShapes group : this.groups) {
+      group.setIndex(index++);
     }
+    return this.groups;
   }
 
   public int getParagraphId() {
@@ -24,6 +24,8 @@ import java.awt.Graphics2D;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math.stat.descriptive.moment.Mean;
@@ -51,6 +53,7 @@ import com.typesafe.config.Config;
  */
 public class Segmenter implements Monitorable {
   private static final Logger LOG = LoggerFactory.getLogger(Segmenter.class);
+  private static final long SAMPLE_SEED = 1;
   private boolean drawSegmentation = false;
   private BufferedImage segmentedImage = null;
   private Graphics2D graphics2D = null;
@@ -59,17 +62,22 @@ public class Segmenter implements Monitorable {
 
   private final SourceImage sourceImage;
   private final JochreSession jochreSession;
-  private final int maxShapeStackSize;
 
   private final boolean clean;
+  private final boolean parallel;
+
+  /**
+   * Seeded, so that the same image is always segmented in the same way.
+   */
+  private final Random sampleRandom = new Random(SAMPLE_SEED);
 
   public Segmenter(SourceImage sourceImage, JochreSession jochreSession) {
     this.sourceImage = sourceImage;
     this.jochreSession = jochreSession;
     Config segmenterConfig = jochreSession.getConfig().getConfig("jochre.segmenter");
     drawSegmentation = segmenterConfig.getBoolean("draw-segmented-image");
-    maxShapeStackSize = segmenterConfig.getInt("max-shape-stack-size");
     clean = segmenterConfig.getBoolean("is-clean-segment");
+    parallel = segmenterConfig.getBoolean("parallel");
   }
 
   /**
@@ -242,165 +250,175 @@ public class Segmenter implements Monitorable {
     }
 
     // For each row to be considered for splitting, see if there are lines
-    // of white space inside it.
-    Hashtable<RowOfShapes, List<RowOfShapes>> splitRows = new Hashtable<RowOfShapes, List<RowOfShapes>>();
-    for (RowOfShapes row : candidateRows) {
-      SimpleRegression regression = new SimpleRegression();
-      // y = intercept + slope * x
-      LOG.debug("Left point: (" + row.getLeft() + " , " + row.getTop() + ")");
-      regression.addData(row.getLeft(), row.getTop());
-      double rightHandY = row.getTop() + ((row.getRight() - row.getLeft()) * slopeMean);
-      LOG.debug("Right point: (" + row.getRight() + " , " + rightHandY + ")");
-      regression.addData(row.getRight(), rightHandY);
-
-      int yDelta = (int) Math.ceil(Math.abs(rightHandY - row.getTop()));
-      int yInterval = yDelta + (row.getBottom() - row.getTop() + 1) + yDelta;
-
-      LOG.debug("yDelta: " + yDelta);
-      LOG.debug("yInterval: " + yInterval);
-      // let's get pixel counts shape by shape, and leave out the rest (in
-      // case rows overlap vertically)
-      int[] pixelCounts = new int[yInterval];
+    // of white space inside it. Each row is analysed independently, so this
+    // can be done in parallel, but the rows are only replaced afterwards.
+    Stream<RowOfShapes> candidateStream = parallel ? candidateRows.parallelStream() : candidateRows.stream();
+    List<List<RowOfShapes>> newRowsPerCandidate = candidateStream.map(row -> this.splitRow(sourceImage, row, slopeMean))
+        .collect(Collectors.toList());
+
+    for (int i = 0; i < candidateRows.size(); i++) {
+      List<RowOfShapes> newRows = newRowsPerCandidate.get(i);
+      if (newRows.size() > 0)
+        sourceImage.replaceRow(candidateRows.get(i), newRows);
+    }
+  }
+
+  /**
+   * Look for lines of white space inside a single row, and return the rows
+   * it should be split into, or an empty list if no split is required.
+   */
+  private List<RowOfShapes> splitRow(SourceImage sourceImage, RowOfShapes row, double slopeMean) {
+    SimpleRegression regression = new SimpleRegression();
+    // y = intercept + slope * x
+    LOG.debug("Left point: (" + row.getLeft() + " , " + row.getTop() + ")");
+    regression.addData(row.getLeft(), row.getTop());
+    double rightHandY = row.getTop() + ((row.getRight() - row.getLeft()) * slopeMean);
+    LOG.debug("Right point: (" + row.getRight() + " , " + rightHandY + ")");
+    regression.addData(row.getRight(), rightHandY);
+
+    int yDelta = (int) Math.ceil(Math.abs(rightHandY - row.getTop()));
+    int yInterval = yDelta + (row.getBottom() - row.getTop() + 1) + yDelta;
+
+    LOG.debug("yDelta: " + yDelta);
+    LOG.debug("yInterval: " + yInterval);
+    // let's get pixel counts shape by shape, and leave out the rest (in
+    // case rows overlap vertically)
+    int[] pixelCounts = new int[yInterval];
+    for (Shape shape : row.getShapes()) {
+      LOG.trace("Shape " + shape);
+      int yDeltaAtLeft = (int) Math.round(regression.predict(shape.getLeft()));
+      LOG.trace("yDeltaAtLeft: " + yDeltaAtLeft);
+      // the shape offset + the offset between the regression line and
+      // the row top
+      // + the delta we left at the start in case the line slopes
+      // upwards to the right
+      int topIndex = (shape.getTop() - row.getTop()) + (row.getTop() - yDeltaAtLeft) + yDelta;
+      LOG.trace("topIndex: (" + shape.getTop() + " - " + row.getTop() + ") + (" + row.getTop() + " - " + yDeltaAtLeft + ") + " + yDelta + " = "
+          + topIndex);
+      for (int x = 0; x < shape.getWidth(); x++) {
+        for (int y = 0; y < shape.getHeight(); y++) {
+          if (shape.isPixelBlack(x, y, sourceImage.getBlackThreshold())) {
+            pixelCounts[topIndex + y]++;
+          }
+        }
+      }
+    }
+
+    Mean pixelCountMean = new Mean();
+    StandardDeviation pixelCountStdDev = new StandardDeviation();
+    for (int i = 0; i < yInterval; i++) {
+      LOG.debug("Pixel count " + i + ": " + pixelCounts[i]);
+      pixelCountMean.increment(pixelCounts[i]);
+      pixelCountStdDev.increment(pixelCounts[i]);
+    }
+    LOG.debug("pixel count mean: " + pixelCountMean.getResult() + ", std dev: " + pixelCountStdDev.getResult());
+
+    // If there's a split required, we're going to go considerably above
+    // and below the mean several times
+    double lowThreshold = pixelCountMean.getResult() / 2.0;
+    double highThreshold = pixelCountMean.getResult() * 2.0;
+    boolean inRow = false;
+    List<Integer> switches = new ArrayList<Integer>();
+    for (int i = 0; i < yInterval; i++) {
+      if (!inRow && pixelCounts[i] > highThreshold) {
+        LOG.debug("In row at " + i + ", pixel count " + pixelCounts[i]);
+        inRow = true;
+        switches.add(i);
+      } else if (inRow && pixelCounts[i] < lowThreshold) {
+        LOG.debug("Out of row at " + i + ", pixel count " + pixelCounts[i]);
+        inRow = false;
+        switches.add(i);
+      }
+    }
+    if (switches.size() > 2) {
+      // we have more than one row
+      List<Integer> rowSeparations = new ArrayList<Integer>();
+
+      // find the row separators
+      for (int switchIndex = 1; switchIndex < switches.size() - 2; switchIndex = switchIndex + 2) {
+        int outOfRow = switches.get(switchIndex);
+        int intoRow = switches.get(switchIndex + 1);
+        int minPixelCount = (int) Math.ceil(highThreshold);
+        int minIndex = -1;
+        // find the row with the lowest pixel count
+        for (int i = outOfRow; i <= intoRow; i++) {
+          if (pixelCounts[i] < minPixelCount) {
+            minPixelCount = pixelCounts[i];
+            minIndex = i;
+          }
+        }
+        rowSeparations.add(minIndex);
+      }
+
+      // separate the shapes among the rows
+      List<RowOfShapes> newRows = new ArrayList<RowOfShapes>(rowSeparations.size() + 1);
+      for (int i = 0; i <= rowSeparations.size(); i++) {
+        newRows.add(new RowOfShapes(sourceImage, jochreSession));
+      }
+
+      // add a separator at the beginning and end
+      rowSeparations.add(0, 0);
+      rowSeparations.add(yInterval + 1);
       for (Shape shape : row.getShapes()) {
-        LOG.trace("Shape " + shape);
         int yDeltaAtLeft = (int) Math.round(regression.predict(shape.getLeft()));
-        LOG.trace("yDeltaAtLeft: " + yDeltaAtLeft);
-        // the shape offset + the offset between the regression line and
-        // the row top
-        // + the delta we left at the start in case the line slopes
-        // upwards to the right
         int topIndex = (shape.getTop() - row.getTop()) + (row.getTop() - yDeltaAtLeft) + yDelta;
-        LOG.trace("topIndex: (" + shape.getTop() + " - " + row.getTop() + ") + (" + row.getTop() + " - " + yDeltaAtLeft + ") + " + yDelta + " = "
-            + topIndex);
-        for (int x = 0; x < shape.getWidth(); x++) {
-          for (int y = 0; y < shape.getHeight(); y++) {
-            if (shape.isPixelBlack(x, y, sourceImage.getBlackThreshold())) {
-              pixelCounts[topIndex + y]++;
-            }
-          }
-        }
-      }
+        int firstSepAfterShapeBottom = rowSeparations.size();
+        int lastSepBeforeShapeTop = -1;
 
-      Mean pixelCountMean = new Mean();
-      StandardDeviation pixelCountStdDev = new StandardDeviation();
-      for (int i = 0; i < yInterval; i++) {
-        LOG.debug("Pixel count " + i + ": " + pixelCounts[i]);
-        pixelCountMean.increment(pixelCounts[i]);
-        pixelCountStdDev.increment(pixelCounts[i]);
-      }
-      LOG.debug("pixel count mean: " + pixelCountMean.getResult() + ", std dev: " + pixelCountStdDev.getResult());
-
-      // If there's a split required, we're going to go considerably above
-      // and below the mean several times
-      double lowThreshold = pixelCountMean.getResult() / 2.0;
-      double highThreshold = pixelCountMean.getResult() * 2.0;
-      boolean inRow = false;
-      List<Integer> switches = new ArrayList<Integer>();
-      for (int i = 0; i < yInterval; i++) {
-        if (!inRow && pixelCounts[i] > highThreshold) {
-          LOG.debug("In row at " + i + ", pixel count " + pixelCounts[i]);
-          inRow = true;
-          switches.add(i);
-        } else if (inRow && pixelCounts[i] < lowThreshold) {
-          LOG.debug("Out of row at " + i + ", pixel count " + pixelCounts[i]);
-          inRow = false;
-          switches.add(i);
-        }
-      }
-      if (switches.size() > 2) {
-        // we have more than one row
-        List<Integer> rowSeparations = new ArrayList<Integer>();
-
-        // find the row separators
-        for (int switchIndex = 1; switchIndex < switches.size() - 2; switchIndex = switchIndex + 2) {
-          int outOfRow = switches.get(switchIndex);
-          int intoRow = switches.get(switchIndex + 1);
-          int minPixelCount = (int) Math.ceil(highThreshold);
-          int minIndex = -1;
-          // find the row with the lowest pixel count
-          for (int i = outOfRow; i <= intoRow; i++) {
-            if (pixelCounts[i] < minPixelCount) {
-              minPixelCount = pixelCounts[i];
-              minIndex = i;
-            }
+        for (int i = rowSeparations.size() - 1; i >= 0; i--) {
+          int rowSeparation = rowSeparations.get(i);
+          if (rowSeparation <= topIndex) {
+            lastSepBeforeShapeTop = i;
+            break;
           }
-          rowSeparations.add(minIndex);
-        }
-
-        // separate the shapes among the rows
-        List<RowOfShapes> newRows = new ArrayList<RowOfShapes>(rowSeparations.size() + 1);
-        for (int i = 0; i <= rowSeparations.size(); i++) {
-          newRows.add(new RowOfShapes(sourceImage, jochreSession));
         }
 
-        // add a separator at the beginning and end
-        rowSeparations.add(0, 0);
-        rowSeparations.add(yInterval + 1);
-        for (Shape shape : row.getShapes()) {
-          int yDeltaAtLeft = (int) Math.round(regression.predict(shape.getLeft()));
-          int topIndex = (shape.getTop() - row.getTop()) + (row.getTop() - yDeltaAtLeft) + yDelta;
-          int firstSepAfterShapeBottom = rowSeparations.size();
-          int lastSepBeforeShapeTop = -1;
-
-          for (int i = rowSeparations.size() - 1; i >= 0; i--) {
-            int rowSeparation = rowSeparations.get(i);
-            if (rowSeparation <= topIndex) {
-              lastSepBeforeShapeTop = i;
-              break;
-            }
+        for (int i = 0; i < rowSeparations.size(); i++) {
+          int rowSeparation = rowSeparations.get(i);
+          if (rowSeparation >= topIndex + shape.getHeight()) {
+            firstSepAfterShapeBottom = i;
+            break;
           }
+        }
 
-          for (int i = 0; i < rowSeparations.size(); i++) {
-            int rowSeparation = rowSeparations.get(i);
-            if (rowSeparation >= topIndex + shape.getHeight()) {
-              firstSepAfterShapeBottom = i;
-              break;
+        if (lastSepBeforeShapeTop == firstSepAfterShapeBottom - 1) {
+          // shape clearly belongs to one row
+          RowOfShapes newRow = newRows.get(lastSepBeforeShapeTop);
+          newRow.addShape(shape);
+        } else {
+          // is the shape much closer to one row than another?
+          // if yes, add it to then add it to this row
+          int[] yPixelsPerRow = new int[newRows.size()];
+          for (int i = 0; i < newRows.size(); i++) {
+            int separatorTop = rowSeparations.get(i);
+            int separatorBottom = rowSeparations.get(i + 1);
+            int top = topIndex < separatorTop ? separatorTop : topIndex;
+            int bottom = topIndex + shape.getHeight() < separatorBottom ? topIndex + shape.getHeight() : separatorBottom;
+            yPixelsPerRow[i] = bottom - top;
+          }
+
+          int pixelsInMaxRow = 0;
+          int maxPixelRowIndex = -1;
+          for (int i = 0; i < newRows.size(); i++) {
+            if (yPixelsPerRow[i] > pixelsInMaxRow) {
+              pixelsInMaxRow = yPixelsPerRow[i];
+              maxPixelRowIndex = i;
             }
           }
-
-          if (lastSepBeforeShapeTop == firstSepAfterShapeBottom - 1) {
-            // shape clearly belongs to one row
-            RowOfShapes newRow = newRows.get(lastSepBeforeShapeTop);
+          double minPercentage = 0.8;
+          if (((double) pixelsInMaxRow / (double) shape.getHeight()) >= minPercentage) {
+            RowOfShapes newRow = newRows.get(maxPixelRowIndex);
             newRow.addShape(shape);
           } else {
-            // is the shape much closer to one row than another?
-            // if yes, add it to then add it to this row
-            int[] yPixelsPerRow = new int[newRows.size()];
-            for (int i = 0; i < newRows.size(); i++) {
-              int separatorTop = rowSeparations.get(i);
-              int separatorBottom = rowSeparations.get(i + 1);
-              int top = topIndex < separatorTop ? separatorTop : topIndex;
-              int bottom = topIndex + shape.getHeight() < separatorBottom ? topIndex + shape.getHeight() : separatorBottom;
-              yPixelsPerRow[i] = bottom - top;
-            }
-
-            int pixelsInMaxRow = 0;
-            int maxPixelRowIndex = -1;
-            for (int i = 0; i < newRows.size(); i++) {
-              if (yPixelsPerRow[i] > pixelsInMaxRow) {
-                pixelsInMaxRow = yPixelsPerRow[i];
-                maxPixelRowIndex = i;
-              }
-            }
-            double minPercentage = 0.8;
-            if (((double) pixelsInMaxRow / (double) shape.getHeight()) >= minPercentage) {
-              RowOfShapes newRow = newRows.get(maxPixelRowIndex);
-              newRow.addShape(shape);
-            } else {
-              // otherwise, the shape needs to be got rid of
-              // as it's causing massive confusion
-              // do this by simply not adding it anywhere
-            }
-          } // is the shape in one row exactly?
-        } // next shape
-        splitRows.put(row, newRows);
-      } // do we have more than one row?
-    } // next row
-
-    for (RowOfShapes row : splitRows.keySet()) {
-      List<RowOfShapes> newRows = splitRows.get(row);
-      sourceImage.replaceRow(row, newRows);
-    }
+            // otherwise, the shape needs to be got rid of
+            // as it's causing massive confusion
+            // do this by simply not adding it anywhere
+          }
+        } // is the shape in one row exactly?
+      } // next shape
+      return newRows;
+    } // do we have more than one row?
+    return Collections.emptyList();
   }
 
   void removeOversizedShapes(Set<Shape> shapes) {
@@ -557,9 +575,12 @@ public class Segmenter implements Monitorable {
 
     // remove shapes that are enclosed inside illustrations
     List<Shape> enclosedShapesToDelete = new ArrayList<Shape>();
+    SpatialIndex<Shape> shapeIndex = new SpatialIndex<>(sourceImage.getWidth(), sourceImage.getHeight());
+    shapeIndex.addAll(shapes);
     int extension = 5;
-    for (Shape shape : shapes) {
-      for (Shape shapeToDelete : illustrations) {
+    for (Shape shapeToDelete : illustrations) {
+      for (Shape shape : shapeIndex.findOverlapping(shapeToDelete.getLeft() - extension, shapeToDelete.getTop() - extension,
+          shapeToDelete.getRight() + extension, shapeToDelete.getBottom() + extension)) {
         if (shape.getLeft() >= shapeToDelete.getLeft() - extension && shape.getRight() <= shapeToDelete.getRight() + extension
             && shape.getTop() >= shapeToDelete.getTop() - extension && shape.getBottom() <= shapeToDelete.getBottom() + extension) {
           LOG.debug("Enclosed shape: " + shape);
@@ -573,6 +594,10 @@ public class Segmenter implements Monitorable {
     // ease finding
     shapes.removeAll(largeShapes);
     shapes.removeAll(enclosedShapesToDelete);
+    for (Shape shape : largeShapes)
+      shapeIndex.remove(shape);
+    for (Shape shape : enclosedShapesToDelete)
+      shapeIndex.remove(shape);
 
     // remove shapes that are practically touching horizontal rules
     // (probably segments of the rule that got split)
@@ -581,7 +606,9 @@ public class Segmenter implements Monitorable {
     for (int i = 0; i < 3; i++) {
       List<Shape> horizontalRuleSegments = new ArrayList<Shape>();
       for (Shape horizontalRule : listToTestAgainst) {
-        for (Shape shape : shapes) {
+        // note that the horizontal condition includes all shapes
+        for (Shape shape : shapeIndex.findOverlapping(Integer.MIN_VALUE, horizontalRule.getTop() - extension, Integer.MAX_VALUE,
+            horizontalRule.getBottom() + extension)) {
           if ((shape.getLeft() <= horizontalRule.getRight() + extension || shape.getRight() >= horizontalRule.getLeft() - extension)
               && shape.getTop() >= horizontalRule.getTop() - extension && shape.getBottom() <= horizontalRule.getBottom() + extension) {
             LOG.debug("Horizontal rule segment: " + shape);
@@ -592,6 +619,8 @@ public class Segmenter implements Monitorable {
         }
       }
       shapes.removeAll(horizontalRuleSegments);
+      for (Shape shape : horizontalRuleSegments)
+        shapeIndex.remove(shape);
       listToTestAgainst = horizontalRuleSegments;
       if (listToTestAgainst.size() == 0)
         break;
@@ -738,26 +767,13 @@ public class Segmenter implements Monitorable {
    */
   Set<Shape> findContiguousShapes(SourceImage sourceImage) {
     LOG.debug("########## findContiguousShapes #########");
-    // As we get them out of the image grid, we write them to a writeable
-    // grid so as to avoid duplicate extraction
-    WritableImageGrid mirror = new ImageMirror(sourceImage);
     Set<Shape> shapes = new TreeSet<Shape>(new ShapeTopToBottomComparator());
 
-    for (int y = 0; y < sourceImage.getHeight(); y++) {
-      for (int x = 0; x < sourceImage.getWidth(); x++) {
-        if (sourceImage.isPixelBlack(x, y, sourceImage.getSeparationThreshold())) {
-          // if this pixel has already been found, ignore it
-          if (mirror.getPixel(x, y) > 0)
-            continue;
-
-          // get the shape surrounding this pixel
-          Shape shape = this.getShape(sourceImage, mirror, x, y);
-          shapes.add(shape);
-          // List<Shape> splitShapes = this.getShapes(sourceImage,
-          // mirror, x, y);
-          // shapes.addAll(splitShapes);
-        }
-      }
+    ConnectedComponentLabeller labeller = new ConnectedComponentLabeller(sourceImage, sourceImage.getSeparationThreshold(), false, parallel);
+    for (ConnectedComponentLabeller.Component component : labeller.getComponents()) {
+      Shape shape = new Shape(sourceImage, component.getLeft(), component.getTop(), component.getRight(), component.getBottom(), jochreSession);
+      shape.setStartingPoint(new int[] { component.getStartX(), component.getTop() });
+      shapes.add(shape);
     }
     return shapes;
   }
@@ -821,6 +837,9 @@ public class Segmenter implements Monitorable {
     LOG.debug("numberOfMeanWidthsForSearch: " + numberOfMeanWidthsForSearch);
     LOG.debug("search distance: " + averageShapeWidth * numberOfMeanWidthsForSearch);
 
+    SpatialIndex<Shape> shapeIndex = new SpatialIndex<>(sourceImage.getWidth(), sourceImage.getHeight());
+    shapeIndex.addAll(shapes);
+
     for (Shape shape : shapes) {
       if (shape.getRow() == null) {
         RowOfShapes row = new RowOfShapes(sourceImage, jochreSession);
@@ -954,7 +973,11 @@ public class Segmenter implements Monitorable {
       // min 10% overlap to assume same row
       double minOverlap = 0.10;
 
-      for (Shape otherShape : shapes) {
+      // only shapes overlapping the search area vertically need to be
+      // considered
+      List<Shape> otherShapes = shapeIndex.findOverlapping(Math.min(newSearchLeft, shape.getLeft()), shape.getTop(),
+          Math.max(newSearchRight, shape.getRight()), shape.getBottom());
+      for (Shape otherShape : otherShapes) {
         boolean haveSomeOverlap = false;
         if (!shape.getRow().equals(otherShape.getRow()) && !otherShape.equals(shape)) {
 
@@ -1091,6 +1114,9 @@ public class Segmenter implements Monitorable {
     // few specks
     // or just a bunch of specks off on their own
     DBSCANClusterer<Shape> clusterer = new DBSCANClusterer<Shape>(specks, speckCoordinates);
+    Set<Shape> speckSet = new HashSet<Shape>(specks);
+    SpatialIndex<Shape> shapeIndex = new SpatialIndex<>(sourceImage.getWidth(), sourceImage.getHeight());
+    shapeIndex.addAll(shapes);
     Set<Set<Shape>> speckClusters = clusterer.cluster(speckXDistanceThresholdFloor, 2, true);
     for (Set<Shape> speckCluster : speckClusters) {
       // safeguard to remove huge clusters of specks
@@ -1143,67 +1169,25 @@ public class Segmenter implements Monitorable {
       LOG.debug("speckXDistanceThreshold=" + speckXDistanceThreshold);
       LOG.debug("speckYDistanceThreshold=" + speckYDistanceThreshold);
 
-      Shape nearestShape = null;
+      final int left = clusterLeft;
+      final int top = clusterTop;
+      final int right = clusterRight;
+      final int bottom = clusterBottom;
+      // Note: tried !specks.contains(otherShape), but sometimes we
+      // have a valid case
+      // where a diacritic is "split" into two specks
+      Shape nearestShape = shapeIndex.findNearest(clusterLeft - speckXDistanceThreshold - 1, clusterTop - speckYDistanceThreshold - 1,
+          clusterRight + speckXDistanceThreshold + 1, clusterBottom + speckYDistanceThreshold + 1,
+          otherShape -> this.getSpeckDistance(otherShape, left, top, right, bottom), otherShape -> !speckSet.contains(otherShape));
+
       double minDistance = 0.0;
       int nearestShapeXDiff = 0;
       int nearestShapeYDiff = 0;
-
-      for (Shape otherShape : shapes) {
-        // limit to nearby shapes
-        if (otherShape.getTop() > clusterBottom + speckYDistanceThreshold + 1)
-          break;
-        if (otherShape.getBottom() < clusterTop - speckYDistanceThreshold - 1)
-          continue;
-        if (otherShape.getRight() < clusterLeft - speckXDistanceThreshold - 1)
-          continue;
-        if (otherShape.getLeft() > clusterRight + speckXDistanceThreshold + 1)
-          continue;
-
-        // Note: tried !specks.contains(otherShape), but sometimes we
-        // have a valid case
-        // where a diacritic is "split" into two specks
-        if (!specks.contains(otherShape)) {
-          int xDiff = 0;
-          int yDiff = 0;
-          int leftDiff = 0;
-          int rightDiff = 0;
-          int topDiff = 0;
-          int botDiff = 0;
-
-          if (otherShape.getLeft() <= clusterRight && otherShape.getRight() >= clusterLeft) {
-            xDiff = 0;
-          } else {
-            leftDiff = Math.abs(clusterLeft - otherShape.getRight());
-            rightDiff = Math.abs(clusterRight - otherShape.getLeft());
-            xDiff = (leftDiff < rightDiff) ? leftDiff : rightDiff;
-          }
-
-          if (otherShape.getTop() <= clusterBottom && otherShape.getBottom() >= clusterTop) {
-            yDiff = 0;
-          } else {
-            int nearestTop = (otherShape.getTop() > otherShape.getTop() + otherShape.getMeanLine()) ? otherShape.getTop() + otherShape.getMeanLine()
-                : otherShape.getTop();
-            int nearestBot = (otherShape.getBottom() < otherShape.getTop() + otherShape.getBaseLine())
-                ? otherShape.getTop() + otherShape.getBaseLine() : otherShape.getBottom();
-            topDiff = Math.abs(clusterTop - nearestBot);
-            botDiff = Math.abs(clusterBottom - nearestTop);
-            yDiff = (topDiff < botDiff) ? topDiff : botDiff;
-          }
-
-          double distance = Math.sqrt((xDiff * xDiff) + (yDiff * yDiff));
-
-          if (nearestShape == null || distance < minDistance) {
-            nearestShape = otherShape;
-            minDistance = distance;
-            nearestShapeXDiff = xDiff;
-            nearestShapeYDiff = yDiff;
-            LOG.trace("leftDiff=" + leftDiff + ", rightDiff=" + rightDiff);
-            LOG.trace("topDiff=" + topDiff + ", botDiff=" + botDiff);
-          } // found closer shape?
-        } // is this the speck?
-      } // loop shapes around the reference shape
-
       if (nearestShape != null) {
+        int[] diffs = this.getSpeckDiffs(nearestShape, clusterLeft, clusterTop, clusterRight, clusterBottom);
+        nearestShapeXDiff = diffs[0];
+        nearestShapeYDiff = diffs[1];
+        minDistance = this.getSpeckDistance(nearestShape, clusterLeft, clusterTop, clusterRight, clusterBottom);
         LOG.trace("Nearest shape, top(" + nearestShape.getTop() + ") " + "left(" + nearestShape.getLeft() + ") " + "bot(" + nearestShape.getBottom()
             + ") " + "right(" + nearestShape.getRight() + ")");
         LOG.trace("Distance=" + minDistance + ", xDiff=" + nearestShapeXDiff + ", yDiff=" + nearestShapeYDiff);
@@ -1215,42 +1199,15 @@ public class Segmenter implements Monitorable {
         // calculate the shortest distance from the nearest shape to the
         // speck cluster
         for (Shape speck : speckCluster) {
-          int xDiff = 0;
-          int yDiff = 0;
-          int leftDiff = 0;
-          int rightDiff = 0;
-          int topDiff = 0;
-          int botDiff = 0;
-
-          if (nearestShape.getLeft() <= speck.getRight() && nearestShape.getRight() >= speck.getLeft()) {
-            xDiff = 0;
-          } else {
-            leftDiff = Math.abs(speck.getLeft() - nearestShape.getRight());
-            rightDiff = Math.abs(speck.getRight() - nearestShape.getLeft());
-            xDiff = (leftDiff < rightDiff) ? leftDiff : rightDiff;
-          }
-
-          if (nearestShape.getTop() <= speck.getBottom() && nearestShape.getBottom() >= speck.getTop()) {
-            yDiff = 0;
-          } else {
-            int nearestTop = (nearestShape.getTop() > nearestShape.getTop() + nearestShape.getMeanLine())
-                ? nearestShape.getTop() + nearestShape.getMeanLine() : nearestShape.getTop();
-            int nearestBot = (nearestShape.getBottom() < nearestShape.getTop() + nearestShape.getBaseLine())
-                ? nearestShape.getTop() + nearestShape.getBaseLine() : nearestShape.getBottom();
-            topDiff = Math.abs(speck.getTop() - nearestBot);
-            botDiff = Math.abs(speck.getBottom() - nearestTop);
-            yDiff = (topDiff < botDiff) ? topDiff : botDiff;
-          }
-
-          double distance = Math.sqrt((xDiff * xDiff) + (yDiff * yDiff));
+          int[] diffs = this.getSpeckDiffs(nearestShape, speck.getLeft(), speck.getTop(), speck.getRight(), speck.getBottom());
+          double distance = this.getSpeckDistance(nearestShape, speck.getLeft(), speck.getTop(), speck.getRight(), speck.getBottom());
 
           if (distance < minDistance) {
             minDistance = distance;
-            nearestShapeXDiff = xDiff;
-            nearestShapeYDiff = yDiff;
-            LOG.debug("Found closer speck:");
-            LOG.debug("leftDiff=" + leftDiff + ", rightDiff=" + rightDiff);
-            LOG.debug("topDiff=" + topDiff + ", botDiff=" + botDiff);
+            nearestShapeXDiff = diffs[0];
+            nearestShapeYDiff = diffs[1];
+            LOG.debug("Found closer speck: " + speck);
+            LOG.debug("xDiff=" + nearestShapeXDiff + ", yDiff=" + nearestShapeYDiff);
           } // found closer shape?
         }
         // Then, for all of these specks, find the one that's closest to
@@ -1271,6 +1228,39 @@ public class Segmenter implements Monitorable {
     shapes.removeAll(specksToRemove);
   }
 
+  /**
+   * The horizontal and vertical distance between a shape and a speck area,
+   * where the shape's vertical extent includes its meanline and baseline.
+   */
+  private int[] getSpeckDiffs(Shape shape, int left, int top, int right, int bottom) {
+    int xDiff = 0;
+    int yDiff = 0;
+
+    if (shape.getLeft() <= right && shape.getRight() >= left) {
+      xDiff = 0;
+    } else {
+      int leftDiff = Math.abs(left - shape.getRight());
+      int rightDiff = Math.abs(right - shape.getLeft());
+      xDiff = (leftDiff < rightDiff) ? leftDiff : rightDiff;
+    }
+
+    if (shape.getTop() <= bottom && shape.getBottom() >= top) {
+      yDiff = 0;
+    } else {
+      int nearestTop = (shape.getTop() > shape.getTop() + shape.getMeanLine()) ? shape.getTop() + shape.getMeanLine() : shape.getTop();
+      int nearestBot = (shape.getBottom() < shape.getTop() + shape.getBaseLine()) ? shape.getTop() + shape.getBaseLine() : shape.getBottom();
+      int topDiff = Math.abs(top - nearestBot);
+      int botDiff = Math.abs(bottom - nearestTop);
+      yDiff = (topDiff < botDiff) ? topDiff : botDiff;
+    }
+    return new int[] { xDiff, yDiff };
+  }
+
+  private double getSpeckDistance(Shape shape, int left, int top, int right, int bottom) {
+    int[] diffs = this.getSpeckDiffs(shape, left, top, right, bottom);
+    return Math.sqrt((diffs[0] * diffs[0]) + (diffs[1] * diffs[1]));
+  }
+
   void removeOrphans(SourceImage sourceImage, boolean hasGroups) {
     LOG.debug("########## removeOrphans #########");
 
@@ -1465,14 +1455,9 @@ public class Segmenter implements Monitorable {
           i++;
           continue;
         }
-        int j = 0;
-        for (Shape otherShape : row.getShapes()) {
-          if (j <= i) {
-            j++;
-            continue;
-          }
-          if (j > i + 6)
-            break;
+        List<Shape> rowShapes = row.getShapes();
+        for (int j = i + 1; j < rowShapes.size() && j <= i + 6; j++) {
+          Shape otherShape = rowShapes.get(j);
           // LOG.debug("Comparing to " + otherShape);
           if (otherShape.getLeft() <= shape.getRight() && otherShape.getRight() >= shape.getLeft()) {
             // LOG.debug("Found overlap between " + shape + " and "
@@ -1500,7 +1485,6 @@ public class Segmenter implements Monitorable {
             }
 
           } // there is a horizontal overlap
-          j++;
         } // check following few shapes
         i++;
       } // next shape
@@ -1519,8 +1503,14 @@ public class Segmenter implements Monitorable {
    */
   void findGuideLines(SourceImage sourceImage) {
     LOG.debug("########## findGuideLines #########");
-    for (RowOfShapes row : sourceImage.getRows()) {
-      row.assignGuideLines();
+    if (parallel) {
+      // rows only share the image's mean slope, which is calculated up-front
+      sourceImage.getMeanHorizontalSlope();
+      sourceImage.getRows().parallelStream().forEach(RowOfShapes::assignGuideLines);
+    } else {
+      for (RowOfShapes row : sourceImage.getRows()) {
+        row.assignGuideLines();
+      }
     }
   }
 
@@ -3079,112 +3069,20 @@ public class Segmenter implements Monitorable {
     return shape;
   }
   
+  /**
+   * Find the contiguous area containing the black pixel (x,y), marking all of
+   * its pixels on the mirror, and extend the shape to cover it.
+   */
   void getShape(ImageGrid sourceImage, Shape shape, WritableImageGrid mirror, int x, int y, int blackThreshold) {
-    // find xMax for this x
-    int xMax = x+1;
-    for ( ; x<=sourceImage.getWidth(); xMax++) {
-      if (!sourceImage.isPixelBlack(xMax, y, blackThreshold)) {
-        break;
-      }
-    }
-
-    this.findContiguousPixels(sourceImage, mirror, shape, x, xMax, y, blackThreshold);
+    ConnectedComponentLabeller labeller = new ConnectedComponentLabeller(sourceImage, blackThreshold, true);
+    ConnectedComponentLabeller.Component component = labeller.fillComponent(mirror, x, y);
+    shape.setLeft(component.getLeft());
+    shape.setTop(component.getTop());
+    shape.setRight(component.getRight());
+    shape.setBottom(component.getBottom());
     LOG.trace("Got shape for pixel (" + x + "," + y + "): " + shape);
   }
 
-  void findContiguousPixels(ImageGrid sourceImage, WritableImageGrid mirror, Shape shape, int xMin, int xMax, int y, int blackThreshold) {
-    // let's imagine
-    // 0 X 0 0 x x
-    // x x x 0 0 x
-    // 0 0 x x x x
-    // so we have to go up and to the left to keep finding contiguous black
-    // pixels.
-    Stack<int[]> segmentStack = new Stack<int[]>();
-    segmentStack.push(new int[] { xMin, xMax, y });
-
-    while (!segmentStack.isEmpty()) {
-      if (segmentStack.size() > maxShapeStackSize) {
-        throw new SegmentationException("While finding contiguous shapes, stack to large");
-      }
-      
-      int[] segment = segmentStack.pop();
-      xMin = segment[0];
-      xMax = segment[1];
-      y = segment[2];
-      if (LOG.isTraceEnabled()) {
-        LOG.trace("Popping next segment, xMin=" + xMin + ", xMax=" + xMax + ", y=" +y);
-      }
-      // Add this pixel to the mirror so that we don't touch it again.
-      for (int x=xMin; x<xMax; x++) {
-        mirror.setPixel(x, y, 1);
-      }
-      if (xMin < shape.getLeft()) {
-        shape.setLeft(xMin);
-        if (LOG.isTraceEnabled()) LOG.trace("Set shape left to " + shape.getLeft());
-      }
-      if (xMax-1 > shape.getRight()) {
-        shape.setRight(xMax - 1);
-        if (LOG.isTraceEnabled()) LOG.trace("Set shape right to " + shape.getRight());
-      }
-      if (y > shape.getBottom()) {
-        shape.setBottom(y);
-        if (LOG.isTraceEnabled()) LOG.trace("Set shape bottom to " + shape.getBottom());
-      }
-      // we don't have to check top, cause it's all going
-      // from top to bottom.
-      
-      for (int rely = y - 1; rely <= y + 1; rely+=2) {
-        boolean inBlack = false;
-
-        int currentStart = xMin;
-        for (int relx = xMin-1; relx <= xMax; relx++) {
-          if (mirror.getPixel(relx, rely) > 0)
-            continue;
-
-          if (sourceImage.isPixelBlack(relx, rely, blackThreshold)) {
-            if (!inBlack) {
-              // start of a new black segment
-              currentStart = relx;
-              inBlack = true;
-            }
-            // If it's the left-most point, go as far left as necessary
-            if (relx == xMin - 1) {
-              for (int i = xMin - 2; i >= 0; i--) {
-                if (!sourceImage.isPixelBlack(i, rely, blackThreshold)) {
-                  currentStart = i+1;
-                  break;
-                }
-              }
-            }
-            // If it's the right-most point, go as far right as necessary
-            if (relx == xMax) {
-              int xEnd = xMax;
-              for (int i = xMax + 1; i <= sourceImage.getWidth(); i++) {
-                if (!sourceImage.isPixelBlack(i, rely, blackThreshold)) {
-                  xEnd = i;
-                  break;
-                }
-              }
-              segmentStack.push(new int[]{currentStart, xEnd, rely});
-              if (LOG.isTraceEnabled()) {
-                LOG.trace("At xMax pushed " + Arrays.toString(segmentStack.peek()));
-              }
-            }
-          } else {
-            if (inBlack) {
-              // end of the previous segment
-              segmentStack.push(new int[]{currentStart, relx, rely});
-              if (LOG.isTraceEnabled()) {
-                LOG.trace("End of segment, pushed" + Arrays.toString(segmentStack.peek()));
-              }
-              inBlack = false;
-            }
-          }
-        }
-      }
-    }
-  }
-
   void splitShapes(SourceImage sourceImage, int fillFactor) {
     LOG.debug("########## splitShapes #########");
     // Cluster rows into rows of a similar height
@@ -3312,28 +3210,32 @@ public class Segmenter implements Monitorable {
         int maxOverlap = (int) Math.ceil(shapeWidthMean / 8.0);
         LOG.debug("maxOverlap: " + maxOverlap);
 
-        Map<Shape, List<Shape>> shapesToSplit = new Hashtable<Shape, List<Shape>>();
-        for (Shape candidate : candidates) {
+        // each candidate is split independently, possibly in parallel, and
+        // the results are applied in candidate order
+        Stream<Shape> candidateStream = parallel ? candidates.parallelStream() : candidates.stream();
+        List<List<Shape>> splitShapesPerCandidate = candidateStream.map(candidate -> {
           LOG.debug("Trying to split candidate " + candidate);
-          for (int y = 0; y < candidate.getHeight(); y++) {
-            String line = "";
-            if (y == candidate.getMeanLine())
-              line += "M";
-            else if (y == candidate.getBaseLine())
-              line += "B";
-            else
-              line += y;
-            for (int x = 0; x < candidate.getWidth(); x++) {
-              if (candidate.isPixelBlack(x, y, sourceImage.getBlackThreshold()))
-                line += "x";
+          if (LOG.isDebugEnabled()) {
+            for (int y = 0; y < candidate.getHeight(); y++) {
+              String line = "";
+              if (y == candidate.getMeanLine())
+                line += "M";
+              else if (y == candidate.getBaseLine())
+                line += "B";
               else
-                line += "o";
+                line += y;
+              for (int x = 0; x < candidate.getWidth(); x++) {
+                if (candidate.isPixelBlack(x, y, sourceImage.getBlackThreshold()))
+                  line += "x";
+                else
+                  line += "o";
+              }
+              LOG.debug(line);
             }
-            LOG.debug(line);
           }
           if (candidate.getHeight() < 3.0 * maxBridgeWidthUpper) {
             LOG.debug("Shape too narrow - probably a long dash.");
-            continue;
+            return Collections.<Shape> emptyList();
           }
           int maxBridgeWidth;
           if (candidate.getWidth() > widthForSplittingUpper)
@@ -3345,7 +3247,13 @@ public class Segmenter implements Monitorable {
             maxBridgeWidth = (int) Math.ceil(maxBridgeWidthLower + ((candidate.getWidth() - widthForSplittingLower)
                 / (widthForSplittingUpper - widthForSplittingLower) * (maxBridgeWidthUpper - maxBridgeWidthLower)));
           }
-          List<Shape> splitShapes = this.splitShape(candidate, sourceImage, maxBridgeWidth, minLetterWeight, maxOverlap);
+          return this.splitShape(candidate, sourceImage, maxBridgeWidth, minLetterWeight, maxOverlap);
+        }).collect(Collectors.toList());
+
+        Map<Shape, List<Shape>> shapesToSplit = new Hashtable<Shape, List<Shape>>();
+        for (int i = 0; i < candidates.size(); i++) {
+          Shape candidate = candidates.get(i);
+          List<Shape> splitShapes = splitShapesPerCandidate.get(i);
           if (splitShapes.size() > 1) {
             LOG.debug("Split found");
             for (Shape splitShape : splitShapes) {
@@ -3554,7 +3462,9 @@ public class Segmenter implements Monitorable {
   }
 
   /**
-   * Get a random sample (with replacement) of shapes on this image.
+   * Get a random sample (with replacement) of shapes on this image. Samples
+   * are drawn from a seeded generator, so that they are identical each time an
+   * image is segmented.
    */
   List<Shape> getSample(Collection<RowOfShapes> rows, int sampleSize, boolean bigShapesOnly) {
     double minShapeWidth = 0;
@@ -3584,14 +3494,14 @@ public class Segmenter implements Monitorable {
         maxShapeWidth = Double.MAX_VALUE;
         maxShapeHeight = Double.MAX_VALUE;
       }
-      double random = Math.random();
+      double random = sampleRandom.nextDouble();
       int rowIndex = (int) Math.floor(random * rows.size());
       Iterator<RowOfShapes> iRows = rows.iterator();
       RowOfShapes row = null;
       for (int i = 0; i <= rowIndex; i++) {
         row = iRows.next();
       }
-      random = Math.random();
+      random = sampleRandom.nextDouble();
 
       int index = (int) Math.floor(random * row.getShapes().size());
       Shape shape = row.getShapes().get(index);
@@ -23,10 +23,8 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collection;
-import java.util.Dictionary;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -41,6 +39,7 @@ import com.joliciel.jochre.Entity;
 import com.joliciel.jochre.JochreSession;
 import com.joliciel.jochre.boundaries.BoundaryDao;
 import com.joliciel.jochre.boundaries.Split;
+import com.joliciel.jochre.utils.graphics.GreyscalePixelGrabber;
 import com.joliciel.jochre.utils.graphics.ImagePixelGrabber;
 import com.joliciel.jochre.utils.graphics.ImagePixelGrabberImpl;
 import com.joliciel.talismane.machineLearning.Decision;
@@ -51,6 +50,11 @@ import com.joliciel.talismane.machineLearning.features.RuntimeEnvironment;
 import com.joliciel.talismane.utils.PersistentList;
 import com.joliciel.talismane.utils.PersistentListImpl;
 
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
 /**
  * A rectangle containing a shape that needs to be identified as a grapheme.
  * 
@@ -91,6 +95,22 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
   }
 
   private static final Logger LOG = LoggerFactory.getLogger(Shape.class);
+
+  /**
+   * The maximum number of feature results cached for a single shape - any
+   * further results are recalculated each time.
+   */
+  static final int MAX_CACHED_FEATURE_RESULTS = 4096;
+
+  private static final int SECTORS_WITH_MARGINS = 1;
+  private static final int SECTORS_WITHOUT_MARGINS = 2;
+  private static final int SECTORS_WITH_MARGIN_WIDTHS = 3;
+
+  /**
+   * The white gap fill factor used in the bitset key when none was requested.
+   */
+  private static final int UNFILLED = -1;
+
   private int id;
 
   private int top;
@@ -112,13 +132,12 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
   private String letter = "";
   private String originalGuess = "";
 
-  private Map<String, Map<SectionBrightnessMeasurementMethod, double[][]>> brightnessBySectorMap = new HashMap<String, Map<SectionBrightnessMeasurementMethod, double[][]>>();
-  private Map<String, Map<SectionBrightnessMeasurementMethod, Double>> brightnessMeanBySectorMap = new HashMap<String, Map<SectionBrightnessMeasurementMethod, Double>>();
+  private TLongObjectMap<SectorBrightness> brightnessBySectorMap = new TLongObjectHashMap<>();
 
-  private Map<String, FeatureResult<?>> featureResults = new HashMap<String, FeatureResult<?>>();
+  private TLongObjectMap<FeatureResult<?>> featureResults = new TLongObjectHashMap<>();
 
-  private Dictionary<String, BitSet> bitsets = new Hashtable<String, BitSet>();
-  private Dictionary<Integer, BitSet> outlines = new Hashtable<Integer, BitSet>();
+  private TLongObjectMap<BitSet> bitsets = new TLongObjectHashMap<>();
+  private TIntObjectMap<BitSet> outlines = new TIntObjectHashMap<>();
 
   private int[] brightnessCounts;
   private boolean blackAndWhite = false;
@@ -199,7 +218,7 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
 
   @Override
   public int getPixel(int x, int y) {
-    if (this.image != null) {
+    if (this.hasOwnPixels()) {
       int pixel = this.getPixelGrabber().getPixelBrightness(x, y);
       return this.getJochreImage().normalize(pixel);
     } else {
@@ -209,7 +228,7 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
 
   @Override
   public int getAbsolutePixel(int x, int y) {
-    if (this.image != null) {
+    if (this.hasOwnPixels()) {
       int pixel = this.getPixelGrabber().getPixelBrightness(x - this.left, y - this.top);
       return this.getJochreImage().normalize(pixel);
     } else
@@ -218,7 +237,7 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
 
   @Override
   public int getRawPixel(int x, int y) {
-    if (this.image != null) {
+    if (this.hasOwnPixels()) {
       int pixel = this.getPixelGrabber().getPixelBrightness(x, y);
       return pixel;
     } else
@@ -227,7 +246,7 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
 
   @Override
   public int getRawAbsolutePixel(int x, int y) {
-    if (this.image != null) {
+    if (this.hasOwnPixels()) {
       int pixel = this.getPixelGrabber().getPixelBrightness(x - this.left, y - this.top);
       return pixel;
     } else
@@ -371,22 +390,12 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
 
   @Override
   public void save() {
+    this.graphicsDao.saveShape(this);
+  }
+
+  void beforeSave() {
     if (this.group != null && this.groupId == 0)
       this.setGroupId(this.group.getId());
-
-    if (this.dirty)
-      this.graphicsDao.saveShape(this);
-
-    if (this.splits != null) {
-      for (Split split : this.splits.getItemsRemoved()) {
-        split.delete();
-      }
-      for (Split split : this.splits) {
-        split.save();
-      }
-    }
-
-    this.getJochreImage().onSaveShape(this);
   }
 
   /**
@@ -484,9 +493,9 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
    */
   public double[][] getBrightnessBySection(int verticalSectionCount, int horizontalSectionCount, double topBottomMarginWidth, double horizontalMarginWidth,
       SectionBrightnessMeasurementMethod measurementMethod) {
-    String key = verticalSectionCount + "|" + horizontalSectionCount + "|" + topBottomMarginWidth + "|" + horizontalMarginWidth;
+    long key = getSectorKey(SECTORS_WITH_MARGIN_WIDTHS, verticalSectionCount, horizontalSectionCount, 0, false);
 
-    Map<SectionBrightnessMeasurementMethod, double[][]> brightnessBySector = this.brightnessBySectorMap.get(key);
+    SectorBrightness brightnessBySector = this.findSectorBrightness(key, topBottomMarginWidth, horizontalMarginWidth);
     if (brightnessBySector == null) {
       int xSectorCount = verticalSectionCount;
       int ySectorCount = horizontalSectionCount;
@@ -523,16 +532,16 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
           LOG.trace("Horizontal break " + i + ": " + horizontalBreaks[i]);
       }
 
-      brightnessBySector = this.getBrightnessBySector(key, verticalBreaks, horizontalBreaks);
+      brightnessBySector = this.getBrightnessBySector(key, topBottomMarginWidth, horizontalMarginWidth, verticalBreaks, horizontalBreaks);
 
     }
-    return brightnessBySector.get(measurementMethod);
+    return brightnessBySector.brightnessByMethod.get(measurementMethod);
   }
 
   public double[][] getBrightnessBySector(int verticalSectionCount, int horizontalSectionCount, int marginSectionCount, boolean includeHorizontalMargin,
       SectionBrightnessMeasurementMethod measurementMethod) {
-    String key = verticalSectionCount + "|" + horizontalSectionCount + "|" + marginSectionCount + "|" + includeHorizontalMargin;
-    Map<SectionBrightnessMeasurementMethod, double[][]> brightnessBySector = this.brightnessBySectorMap.get(key);
+    long key = getSectorKey(SECTORS_WITH_MARGINS, verticalSectionCount, horizontalSectionCount, marginSectionCount, includeHorizontalMargin);
+    SectorBrightness brightnessBySector = this.findSectorBrightness(key, 0, 0);
     if (brightnessBySector == null) {
       int xSectorCount = verticalSectionCount;
       if (includeHorizontalMargin)
@@ -628,9 +637,9 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
           LOG.trace("Horizontal break " + i + ": " + horizontalBreaks[i]);
         }
 
-      brightnessBySector = this.getBrightnessBySector(key, verticalBreaks, horizontalBreaks);
+      brightnessBySector = this.getBrightnessBySector(key, 0, 0, verticalBreaks, horizontalBreaks);
     }
-    return brightnessBySector.get(measurementMethod);
+    return brightnessBySector.brightnessByMethod.get(measurementMethod);
   }
 
   /**
@@ -645,8 +654,8 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
    * @return double[verticalSectionCount][horizontalSectionCount]
    */
   public double[][] getBrightnessBySection(int verticalSectionCount, int horizontalSectionCount, SectionBrightnessMeasurementMethod measurementMethod) {
-    String key = verticalSectionCount + "|" + horizontalSectionCount;
-    Map<SectionBrightnessMeasurementMethod, double[][]> brightnessBySector = this.brightnessBySectorMap.get(key);
+    long key = getSectorKey(SECTORS_WITHOUT_MARGINS, verticalSectionCount, horizontalSectionCount, 0, false);
+    SectorBrightness brightnessBySector = this.findSectorBrightness(key, 0, 0);
     if (brightnessBySector == null) {
       int xSectorCount = verticalSectionCount;
       int ySectorCount = horizontalSectionCount;
@@ -682,14 +691,32 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
           LOG.trace("Horizontal break " + i + ": " + horizontalBreaks[i]);
         }
 
-      brightnessBySector = this.getBrightnessBySector(key, verticalBreaks, horizontalBreaks);
+      brightnessBySector = this.getBrightnessBySector(key, 0, 0, verticalBreaks, horizontalBreaks);
     }
-    return brightnessBySector.get(measurementMethod);
+    return brightnessBySector.brightnessByMethod.get(measurementMethod);
   }
 
-  Map<SectionBrightnessMeasurementMethod, double[][]> getBrightnessBySector(String key, double[] verticalBreaks, double[] horizontalBreaks) {
-    Map<SectionBrightnessMeasurementMethod, double[][]> brightnessByMethod = this.brightnessBySectorMap.get(key);
-    if (brightnessByMethod == null) {
+  /**
+   * Pack a way of dividing the shape into sectors into a single key. Section
+   * counts are assumed to be below 2^16.
+   */
+  private static long getSectorKey(int sectorType, int verticalSectionCount, int horizontalSectionCount, int marginSectionCount,
+      boolean includeHorizontalMargin) {
+    return ((long) sectorType << 56) | ((long) (verticalSectionCount & 0xffff) << 40) | ((long) (horizontalSectionCount & 0xffff) << 24)
+        | ((long) (marginSectionCount & 0xffff) << 8) | (includeHorizontalMargin ? 1 : 0);
+  }
+
+  private SectorBrightness findSectorBrightness(long key, double topBottomMarginWidth, double horizontalMarginWidth) {
+    SectorBrightness sectorBrightness = this.brightnessBySectorMap.get(key);
+    while (sectorBrightness != null && !sectorBrightness.hasMarginWidths(topBottomMarginWidth, horizontalMarginWidth))
+      sectorBrightness = sectorBrightness.next;
+    return sectorBrightness;
+  }
+
+  SectorBrightness getBrightnessBySector(long key, double topBottomMarginWidth, double horizontalMarginWidth, double[] verticalBreaks,
+      double[] horizontalBreaks) {
+    SectorBrightness sectorBrightness = this.findSectorBrightness(key, topBottomMarginWidth, horizontalMarginWidth);
+    if (sectorBrightness == null) {
       int xSectorCount = verticalBreaks.length - 1;
       int ySectorCount = horizontalBreaks.length - 1;
       double[][] totals = new double[xSectorCount][ySectorCount];
@@ -826,16 +853,17 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
         }
       }
 
-      brightnessByMethod = new HashMap<Shape.SectionBrightnessMeasurementMethod, double[][]>();
-      brightnessByMethod.put(SectionBrightnessMeasurementMethod.RAW, totals);
-      brightnessByMethod.put(SectionBrightnessMeasurementMethod.SIZE_NORMALISED, ratios);
-      brightnessByMethod.put(SectionBrightnessMeasurementMethod.RELATIVE_TO_MAX_SECTION, relativeToMax);
-      brightnessByMethod.put(SectionBrightnessMeasurementMethod.PORTION_OF_TOTAL_BRIGHTNESS, relativeToTotal);
+      sectorBrightness = new SectorBrightness(topBottomMarginWidth, horizontalMarginWidth);
+      sectorBrightness.brightnessByMethod.put(SectionBrightnessMeasurementMethod.RAW, totals);
+      sectorBrightness.brightnessByMethod.put(SectionBrightnessMeasurementMethod.SIZE_NORMALISED, ratios);
+      sectorBrightness.brightnessByMethod.put(SectionBrightnessMeasurementMethod.RELATIVE_TO_MAX_SECTION, relativeToMax);
+      sectorBrightness.brightnessByMethod.put(SectionBrightnessMeasurementMethod.PORTION_OF_TOTAL_BRIGHTNESS, relativeToTotal);
 
-      this.brightnessBySectorMap.put(key, brightnessByMethod);
+      sectorBrightness.next = this.brightnessBySectorMap.get(key);
+      this.brightnessBySectorMap.put(key, sectorBrightness);
     }
 
-    return brightnessByMethod;
+    return sectorBrightness;
   }
 
   /**
@@ -851,16 +879,16 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
    */
   public double getBrightnessMeanBySection(int verticalSectionCount, int horizontalSectionCount, int marginSectionCount, boolean includeHorizontalMargin,
       SectionBrightnessMeasurementMethod measurementMethod) {
-    String key = verticalSectionCount + "|" + horizontalSectionCount + "|" + marginSectionCount + "|" + includeHorizontalMargin;
-    return this.getBrightnessMeanBySector(key, measurementMethod);
+    long key = getSectorKey(SECTORS_WITH_MARGINS, verticalSectionCount, horizontalSectionCount, marginSectionCount, includeHorizontalMargin);
+    return this.getBrightnessMeanBySector(key, 0, 0, measurementMethod);
   }
 
   /**
    * Mean brightness for the sections defined above.
    */
   public double getBrightnessMeanBySection(int verticalSectionCount, int horizontalSectionCount, SectionBrightnessMeasurementMethod measurementMethod) {
-    String key = verticalSectionCount + "|" + horizontalSectionCount;
-    return this.getBrightnessMeanBySector(key, measurementMethod);
+    long key = getSectorKey(SECTORS_WITHOUT_MARGINS, verticalSectionCount, horizontalSectionCount, 0, false);
+    return this.getBrightnessMeanBySector(key, 0, 0, measurementMethod);
   }
 
   /**
@@ -868,22 +896,19 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
    */
   public double getBrightnessMeanBySection(int verticalSectionCount, int horizontalSectionCount, double topBottomMarginWidth, double horizontalMarginWidth,
       SectionBrightnessMeasurementMethod measurementMethod) {
-    String key = verticalSectionCount + "|" + horizontalSectionCount + "|" + topBottomMarginWidth + "|" + horizontalMarginWidth;
-    return this.getBrightnessMeanBySector(key, measurementMethod);
+    long key = getSectorKey(SECTORS_WITH_MARGIN_WIDTHS, verticalSectionCount, horizontalSectionCount, 0, false);
+    return this.getBrightnessMeanBySector(key, topBottomMarginWidth, horizontalMarginWidth, measurementMethod);
   }
 
-  double getBrightnessMeanBySector(String key, SectionBrightnessMeasurementMethod measurementMethod) {
-    Map<SectionBrightnessMeasurementMethod, Double> methodToMeanMap = this.brightnessMeanBySectorMap.get(key);
-    if (methodToMeanMap == null) {
-      methodToMeanMap = new HashMap<Shape.SectionBrightnessMeasurementMethod, Double>();
-      this.brightnessMeanBySectorMap.put(key, methodToMeanMap);
-    }
+  double getBrightnessMeanBySector(long key, double topBottomMarginWidth, double horizontalMarginWidth,
+      SectionBrightnessMeasurementMethod measurementMethod) {
+    SectorBrightness sectorBrightness = this.findSectorBrightness(key, topBottomMarginWidth, horizontalMarginWidth);
+    Map<SectionBrightnessMeasurementMethod, Double> methodToMeanMap = sectorBrightness.meanByMethod;
     Double brightnessMeanBySectorObj = methodToMeanMap.get(measurementMethod);
     double brightnessMeanBySector = 0.0;
     if (brightnessMeanBySectorObj == null) {
       Mean mean = new Mean();
-      Map<SectionBrightnessMeasurementMethod, double[][]> brightnessByMethod = this.brightnessBySectorMap.get(key);
-      double[][] brightnessGrid = brightnessByMethod.get(measurementMethod);
+      double[][] brightnessGrid = sectorBrightness.brightnessByMethod.get(measurementMethod);
       for (int i = 0; i < brightnessGrid.length; i++)
         mean.incrementAll(brightnessGrid[i]);
       brightnessMeanBySector = mean.getResult();
@@ -920,6 +945,9 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
   public boolean isPixelBlack(int x, int y, int threshold, int whiteGapFillFactor) {
     if (x < 0 || y < 0 || x >= this.getWidth() || y >= this.getHeight())
       return false;
+    // unless gaps need to be filled, read directly from the page's bitplanes
+    if (!this.hasOwnPixels() && (whiteGapFillFactor == 0 || !this.isBlackAndWhite()))
+      return jochreImage.isPixelBlack(left + x, top + y, threshold);
     BitSet bitset = this.getBlackAndWhiteBitSet(threshold, whiteGapFillFactor);
     return bitset.get(y * this.getWidth() + x);
   }
@@ -932,7 +960,7 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
    * bottom-right, travelling horizontally first.
    */
   public BitSet getBlackAndWhiteBitSet(int threshold) {
-    String key = "" + threshold;
+    long key = getBitSetKey(threshold, UNFILLED);
     BitSet bitset = this.bitsets.get(key);
     if (bitset == null) {
       bitset = new BitSet(this.getWidth() * this.getHeight());
@@ -955,7 +983,7 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
    * bottom-right, travelling horizontally first.
    */
   public BitSet getBlackAndWhiteBitSet(int threshold, int whiteGapFillFactor) {
-    String key = threshold + "|" + whiteGapFillFactor;
+    long key = getBitSetKey(threshold, whiteGapFillFactor);
     BitSet bitset = this.bitsets.get(key);
     if (bitset == null) {
       bitset = this.getBlackAndWhiteBitSet(threshold);
@@ -973,6 +1001,10 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
     return bitset;
   }
 
+  private static long getBitSetKey(int threshold, int whiteGapFillFactor) {
+    return ((long) threshold << 32) | (whiteGapFillFactor & 0xffffffffL);
+  }
+
   /**
    * Find outline of the shape as a BitSet.
    */
@@ -1053,6 +1085,17 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
     return this.verticalCounts;
   }
 
+  /**
+   * Clears out cached bitmaps, brightness measurements and feature results to
+   * avoid filling up memory. They will be recalculated if required.
+   */
+  public void clearMemory() {
+    brightnessBySectorMap = new TLongObjectHashMap<>();
+    featureResults = new TLongObjectHashMap<>();
+    bitsets = new TLongObjectHashMap<>();
+    outlines = new TIntObjectHashMap<>();
+  }
+
   /**
    * Recalculate the various statistical measurements for this shape. Should
    * be called after the shape coordinates have changed.
@@ -1061,11 +1104,10 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
     image = null;
     pixelGrabber = null;
 
-    brightnessBySectorMap = new HashMap<String, Map<SectionBrightnessMeasurementMethod, double[][]>>();
-    brightnessMeanBySectorMap = new HashMap<String, Map<SectionBrightnessMeasurementMethod, Double>>();
+    brightnessBySectorMap = new TLongObjectHashMap<>();
 
-    bitsets = new Hashtable<String, BitSet>();
-    outlines = new Hashtable<Integer, BitSet>();
+    bitsets = new TLongObjectHashMap<>();
+    outlines = new TIntObjectHashMap<>();
 
     brightnessCounts = null;
 
@@ -1084,12 +1126,23 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
    * Get the image behind this shape.
    */
   public BufferedImage getImage() {
-    if (image == null && this.jochreImage != null) {
-      image = this.jochreImage.getOriginalImage().getSubimage(this.getLeft(), this.getTop(), this.getWidth(), this.getHeight());
+    if (image == null) {
+      if (this.pixelGrabber instanceof GreyscalePixelGrabber)
+        image = ((GreyscalePixelGrabber) this.pixelGrabber).getImage();
+      else if (this.jochreImage != null)
+        image = this.jochreImage.getOriginalImage().getSubimage(this.getLeft(), this.getTop(), this.getWidth(), this.getHeight());
     }
     return image;
   }
 
+  /**
+   * Whether this shape has its own copy of its pixels (e.g. read from the
+   * database), as opposed to reading them from the containing image.
+   */
+  private boolean hasOwnPixels() {
+    return this.image != null || this.pixelGrabber != null;
+  }
+
   void setImage(BufferedImage image) {
     this.image = image;
   }
@@ -1928,13 +1981,23 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
    */
   public List<Split> getSplits() {
     if (splits == null) {
-      splits = new PersistentListImpl<Split>();
       BoundaryDao boundaryDao = BoundaryDao.getInstance(jochreSession);
-      splits.addAll(boundaryDao.findSplits(this));
+      this.setSplits(boundaryDao.findSplits(this));
     }
     return splits;
   }
 
+  /**
+   * Set the splits marked on this shape, pointing each split back to this
+   * shape.
+   */
+  void setSplits(List<Split> splits) {
+    this.splits = new PersistentListImpl<Split>();
+    for (Split split : splits)
+      split.setShape(this);
+    this.splits.addAll(splits);
+  }
+
   /**
    * Add a split to this shape at the indicated position.
    */
@@ -2050,23 +2113,25 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
     this.confidence = confidence;
   }
 
+  /**
+   * Not synchronized, like the shape's other lazily calculated values: when
+   * features are calculated on several threads (training event extraction or
+   * parallel beam search), each group or shape is handled by a single thread,
+   * so a given shape is never accessed concurrently.
+   */
   @Override
   @SuppressWarnings("unchecked")
-
   public <T, Y> FeatureResult<Y> getResultFromCache(Feature<T, Y> feature, RuntimeEnvironment env) {
-    FeatureResult<Y> result = null;
-
-    String key = feature.getName() + env.getKey();
-    if (this.featureResults.containsKey(key)) {
-      result = (FeatureResult<Y>) this.featureResults.get(key);
-    }
-    return result;
+    long key = FeatureCacheKeys.getKey(feature, env);
+    return (FeatureResult<Y>) this.featureResults.get(key);
   }
 
   @Override
   public <T, Y> void putResultInCache(Feature<T, Y> feature, FeatureResult<Y> featureResult, RuntimeEnvironment env) {
-    String key = feature.getName() + env.getKey();
-    this.featureResults.put(key, featureResult);
+    if (this.featureResults.size() < MAX_CACHED_FEATURE_RESULTS) {
+      long key = FeatureCacheKeys.getKey(feature, env);
+      this.featureResults.put(key, featureResult);
+    }
   }
 
   @Override
@@ -2079,4 +2144,26 @@ public class Shape implements ImageGrid, Entity, Rectangle, ShapeWrapper, HasFea
     this.id = id;
   }
 
+  /**
+   * The brightness by sector, and mean brightness, for a single way of dividing
+   * the shape into sectors. Sectors defined by margin widths rather than section
+   * counts share the same key, and are chained.
+   */
+  private static final class SectorBrightness {
+    private final double topBottomMarginWidth;
+    private final double horizontalMarginWidth;
+    private final Map<SectionBrightnessMeasurementMethod, double[][]> brightnessByMethod = new EnumMap<>(SectionBrightnessMeasurementMethod.class);
+    private final Map<SectionBrightnessMeasurementMethod, Double> meanByMethod = new EnumMap<>(SectionBrightnessMeasurementMethod.class);
+    private SectorBrightness next;
+
+    private SectorBrightness(double topBottomMarginWidth, double horizontalMarginWidth) {
+      this.topBottomMarginWidth = topBottomMarginWidth;
+      this.horizontalMarginWidth = horizontalMarginWidth;
+    }
+
+    private boolean hasMarginWidths(double topBottomMarginWidth, double horizontalMarginWidth) {
+      return Double.doubleToLongBits(this.topBottomMarginWidth) == Double.doubleToLongBits(topBottomMarginWidth)
+          && Double.doubleToLongBits(this.horizontalMarginWidth) == Double.doubleToLongBits(horizontalMarginWidth);
+    }
+  }
 }
@@ -25,9 +25,14 @@ import java.awt.image.RescaleOp;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import com.joliciel.jochre.utils.graphics.ImageUtils;
 import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
@@ -92,6 +97,7 @@ public class SourceImage extends JochreImage implements ImageGrid {
   private final boolean saveImagesForDebug;
   private final double blackThresholdPercentile;
   private final double separationThresholdPercentile;
+  private final boolean parallel;
 
   private int targetShortDimension = 0;
   private int originalWidth = 0;
@@ -104,6 +110,7 @@ public class SourceImage extends JochreImage implements ImageGrid {
     blackThresholdPercentile = segmenterConfig.getDouble("black-threshold-percentile");
     separationThresholdPercentile = segmenterConfig.getDouble("separation-threshold-percentile");
     saveImagesForDebug = segmenterConfig.getBoolean("save-images-for-debug");
+    parallel = segmenterConfig.getBoolean("parallel");
     this.imageBackup = null;
   }
 
@@ -119,6 +126,7 @@ public class SourceImage extends JochreImage implements ImageGrid {
     blackThresholdPercentile = segmenterConfig.getDouble("black-threshold-percentile");
     separationThresholdPercentile = segmenterConfig.getDouble("separation-threshold-percentile");
     saveImagesForDebug = segmenterConfig.getBoolean("save-images-for-debug");
+    parallel = segmenterConfig.getBoolean("parallel");
 
     this.name = name;
 
@@ -198,8 +206,8 @@ public class SourceImage extends JochreImage implements ImageGrid {
     ColorModel srcCM = this.getOriginalImage().getColorModel();
     if (srcCM.getPixelSize() == 1) {
       LOG.debug("Black and white");
-      this.blackLimit = 0;
-      this.whiteLimit = 255;
+      this.setBlackLimit(0);
+      this.setWhiteLimit(255);
       this.blackThreshold = 254;
       this.separationThreshold = 254;
       this.greyscaleMultiplier = 1.0;
@@ -211,15 +219,9 @@ public class SourceImage extends JochreImage implements ImageGrid {
     // we want to leave out anomalies (ink blots!)
     // also, we leave x% at each margin, in case there's black areas
     // surrounding the image
-    int[] pixelSpread = new int[256];
-
     int verticalMarginPixels = (int) Math.floor(this.getHeight() * 0.10);
     int horizontalMarginPixels = (int) Math.floor(this.getWidth() * 0.10);
-    for (int y = verticalMarginPixels; y < this.getHeight() - verticalMarginPixels; y++)
-      for (int x = horizontalMarginPixels; x < this.getWidth() - horizontalMarginPixels; x++) {
-        int pixel = this.getPixelGrabber().getPixelBrightness(x, y);
-        pixelSpread[pixel]++;
-      }
+    int[] pixelSpread = this.getPixelSpread(horizontalMarginPixels, verticalMarginPixels);
 
     if (LOG.isTraceEnabled()) {
       for (int i = 0; i < 256; i++)
@@ -292,6 +294,28 @@ public class SourceImage extends JochreImage implements ImageGrid {
 
   }
 
+  /**
+   * Count the pixels for each brightness value, leaving out the margins
+   * indicated. If segmentation is parallel, rows are counted in parallel and
+   * the counts added together.
+   */
+  private int[] getPixelSpread(int horizontalMarginPixels, int verticalMarginPixels) {
+    // read the pixels once before reading them from several threads
+    this.getPixelStore();
+    IntStream rows = IntStream.range(verticalMarginPixels, this.getHeight() - verticalMarginPixels);
+    if (parallel)
+      rows = rows.parallel();
+    return rows.collect(() -> new int[256], (pixelSpread, y) -> {
+      for (int x = horizontalMarginPixels; x < this.getWidth() - horizontalMarginPixels; x++) {
+        int pixel = this.getRawAbsolutePixel(x, y);
+        pixelSpread[pixel]++;
+      }
+    }, (pixelSpread, otherSpread) -> {
+      for (int i = 0; i < 256; i++)
+        pixelSpread[i] += otherSpread[i];
+    });
+  }
+
   private int getPercentile(int[] pixelSpread, int start, int end, double percentile) {
     double total = 0;
     for (int i = start; i <= end; i++)
@@ -609,30 +633,40 @@ public class SourceImage extends JochreImage implements ImageGrid {
     LOG.debug("minVerticalWhiteAreaWidth: " + minVerticalWhiteAreaWidth);
     LOG.debug("minVerticalWhiteAreaHeight: " + minVerticalWhiteAreaHeight);
 
-    List<Rectangle> verticalWhiteAreas = whiteAreaFinder.getWhiteAreas(blackAreas, left, top, right, bottom, minVerticalWhiteAreaWidth,
-        minVerticalWhiteAreaHeight);
-    whiteAreas.addAll(verticalWhiteAreas);
-
     // Square white areas
     double minSquareWhiteAreaWidth = 4.0 * averageShapeWidth;
     double minSquareWhiteAreaHeight = 4.0 * averageShapeHeight;
     LOG.debug("minSquareWhiteAreaWidth: " + minSquareWhiteAreaWidth);
     LOG.debug("minSquareWhiteAreaHeight: " + minSquareWhiteAreaHeight);
 
-    List<Rectangle> squareWhiteAreas = whiteAreaFinder.getWhiteAreas(blackAreas, left, top, right, bottom, minSquareWhiteAreaWidth,
-        minSquareWhiteAreaHeight);
+    // Each search carries open white areas from one row to the next, and
+    // therefore can't be split up, but the vertical and square searches
+    // both use the same black areas, and can be performed concurrently
+    int areaLeft = left, areaTop = top, areaRight = right, areaBottom = bottom;
+    List<Supplier<List<Rectangle>>> searches = Arrays.asList(
+        () -> whiteAreaFinder.getWhiteAreas(blackAreas, areaLeft, areaTop, areaRight, areaBottom, minVerticalWhiteAreaWidth,
+            minVerticalWhiteAreaHeight),
+        () -> whiteAreaFinder.getWhiteAreas(blackAreas, areaLeft, areaTop, areaRight, areaBottom, minSquareWhiteAreaWidth,
+            minSquareWhiteAreaHeight));
+    Stream<Supplier<List<Rectangle>>> searchStream = parallel ? searches.parallelStream() : searches.stream();
+    List<List<Rectangle>> searchResults = searchStream.map(Supplier::get).collect(Collectors.toList());
+
+    List<Rectangle> verticalWhiteAreas = searchResults.get(0);
+    whiteAreas.addAll(verticalWhiteAreas);
+
+    List<Rectangle> squareWhiteAreas = searchResults.get(1);
     whiteAreas.addAll(squareWhiteAreas);
     blackAreas.addAll(squareWhiteAreas);
     blackAreas.addAll(this.getWhiteAreasAroundLargeShapes(shapes));
 
     // Long narrow vertical white areas
-    minVerticalWhiteAreaWidth = 1.0 * averageShapeWidth;
-    minVerticalWhiteAreaHeight = 20.0 * averageShapeHeight;
-    LOG.debug("minVerticalWhiteAreaWidth: " + minVerticalWhiteAreaWidth);
-    LOG.debug("minVerticalWhiteAreaHeight: " + minVerticalWhiteAreaHeight);
+    double minNarrowWhiteAreaWidth = 1.0 * averageShapeWidth;
+    double minNarrowWhiteAreaHeight = 20.0 * averageShapeHeight;
+    LOG.debug("minVerticalWhiteAreaWidth: " + minNarrowWhiteAreaWidth);
+    LOG.debug("minVerticalWhiteAreaHeight: " + minNarrowWhiteAreaHeight);
 
-    List<Rectangle> verticalWhiteAreas2 = whiteAreaFinder.getWhiteAreas(blackAreas, left, top, right, bottom, minVerticalWhiteAreaWidth,
-        minVerticalWhiteAreaHeight);
+    List<Rectangle> verticalWhiteAreas2 = whiteAreaFinder.getWhiteAreas(blackAreas, left, top, right, bottom, minNarrowWhiteAreaWidth,
+        minNarrowWhiteAreaHeight);
     whiteAreas.addAll(verticalWhiteAreas2);
 
     return whiteAreas;
@@ -0,0 +1,217 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.graphics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * An index of rectangles on an image, allowing us to find the rectangles in a
+ * given area without scanning all of them. The image is divided into a uniform
+ * grid of square cells, and each rectangle is stored in all of the cells it
+ * covers. Rectangles lying partially or completely outside of the image are
+ * stored in the nearest cells at the image's edge.<br>
+ * <br>
+ * Rectangles are always returned in the order in which they were added, so
+ * that results are identical to a sequential scan of the original collection.
+ * If a rectangle's coordinates change, it should be removed before the change
+ * and added again afterwards.<br>
+ * <br>
+ * Not thread-safe.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+final class SpatialIndex<T extends Rectangle> {
+  private static final int DEFAULT_CELL_SIZE = 32;
+  private static final Comparator<Entry<?>> ENTRY_ORDER = (e1, e2) -> Long.compare(e1.sequence, e2.sequence);
+
+  private final int cellSize;
+  private final int columnCount;
+  private final int rowCount;
+  private final List<List<Entry<T>>> cells;
+  private final Map<T, Entry<T>> entries = new IdentityHashMap<>();
+  private long sequence = 0;
+  private int queryStamp = 0;
+
+  /**
+   * An index for an image of the given width and height, with the default cell
+   * size.
+   */
+  public SpatialIndex(int width, int height) {
+    this(width, height, DEFAULT_CELL_SIZE);
+  }
+
+  public SpatialIndex(int width, int height, int cellSize) {
+    this.cellSize = cellSize;
+    this.columnCount = Math.max(1, (width + cellSize - 1) / cellSize);
+    this.rowCount = Math.max(1, (height + cellSize - 1) / cellSize);
+    this.cells = new ArrayList<>(columnCount * rowCount);
+    for (int i = 0; i < columnCount * rowCount; i++)
+      cells.add(null);
+  }
+
+  /**
+   * Add a rectangle to the index. Does nothing if it's already in the index.
+   */
+  public void add(T rectangle) {
+    if (entries.containsKey(rectangle))
+      return;
+    Entry<T> entry = new Entry<>(rectangle, sequence++, this.getColumn(rectangle.getLeft()), this.getRow(rectangle.getTop()),
+        this.getColumn(rectangle.getRight()), this.getRow(rectangle.getBottom()));
+    entries.put(rectangle, entry);
+    for (int row = entry.minRow; row <= entry.maxRow; row++) {
+      for (int column = entry.minColumn; column <= entry.maxColumn; column++) {
+        int cellIndex = row * columnCount + column;
+        List<Entry<T>> cell = cells.get(cellIndex);
+        if (cell == null) {
+          cell = new ArrayList<>();
+          cells.set(cellIndex, cell);
+        }
+        cell.add(entry);
+      }
+    }
+  }
+
+  /**
+   * Add all rectangles in the order provided.
+   */
+  public void addAll(Iterable<? extends T> rectangles) {
+    for (T rectangle : rectangles)
+      this.add(rectangle);
+  }
+
+  /**
+   * Remove a rectangle from the index, returning false if it wasn't there.
+   */
+  public boolean remove(T rectangle) {
+    Entry<T> entry = entries.remove(rectangle);
+    if (entry == null)
+      return false;
+    for (int row = entry.minRow; row <= entry.maxRow; row++) {
+      for (int column = entry.minColumn; column <= entry.maxColumn; column++) {
+        cells.get(row * columnCount + column).remove(entry);
+      }
+    }
+    return true;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Find all rectangles overlapping the area provided, coordinates inclusive,
+   * in the order in which they were added.
+   */
+  public List<T> findOverlapping(int left, int top, int right, int bottom) {
+    List<Entry<T>> found = this.findEntries(left, top, right, bottom);
+    List<T> rectangles = new ArrayList<>(found.size());
+    for (Entry<T> entry : found)
+      rectangles.add(entry.rectangle);
+    return rectangles;
+  }
+
+  /**
+   * Among the rectangles overlapping the area provided and matching the
+   * filter, find the one with the smallest distance, or null if none are
+   * found. In case of ties, the rectangle added first is returned.
+   */
+  public T findNearest(int left, int top, int right, int bottom, ToDoubleFunction<? super T> distance, Predicate<? super T> filter) {
+    T nearest = null;
+    double minDistance = 0.0;
+    for (Entry<T> entry : this.findEntries(left, top, right, bottom)) {
+      if (!filter.test(entry.rectangle))
+        continue;
+      double entryDistance = distance.applyAsDouble(entry.rectangle);
+      if (nearest == null || entryDistance < minDistance) {
+        nearest = entry.rectangle;
+        minDistance = entryDistance;
+      }
+    }
+    return nearest;
+  }
+
+  private List<Entry<T>> findEntries(int left, int top, int right, int bottom) {
+    List<Entry<T>> found = new ArrayList<>();
+    if (left > right || top > bottom)
+      return found;
+
+    int stamp = ++queryStamp;
+    int minColumn = this.getColumn(left);
+    int maxColumn = this.getColumn(right);
+    int minRow = this.getRow(top);
+    int maxRow = this.getRow(bottom);
+    for (int row = minRow; row <= maxRow; row++) {
+      for (int column = minColumn; column <= maxColumn; column++) {
+        List<Entry<T>> cell = cells.get(row * columnCount + column);
+        if (cell == null)
+          continue;
+        for (Entry<T> entry : cell) {
+          if (entry.queryStamp == stamp)
+            continue;
+          entry.queryStamp = stamp;
+          T rectangle = entry.rectangle;
+          if (rectangle.getLeft() <= right && rectangle.getRight() >= left && rectangle.getTop() <= bottom && rectangle.getBottom() >= top)
+            found.add(entry);
+        }
+      }
+    }
+    found.sort(ENTRY_ORDER);
+    return found;
+  }
+
+  private int getColumn(int x) {
+    if (x < 0)
+      return 0;
+    int column = x / cellSize;
+    return column < columnCount ? column : columnCount - 1;
+  }
+
+  private int getRow(int y) {
+    if (y < 0)
+      return 0;
+    int row = y / cellSize;
+    return row < rowCount ? row : rowCount - 1;
+  }
+
+  private static final class Entry<T> {
+    private final T rectangle;
+    private final long sequence;
+    private final int minColumn;
+    private final int minRow;
+    private final int maxColumn;
+    private final int maxRow;
+    private int queryStamp = 0;
+
+    public Entry(T rectangle, long sequence, int minColumn, int minRow, int maxColumn, int maxRow) {
+      this.rectangle = rectangle;
+      this.sequence = sequence;
+      this.minColumn = minColumn;
+      this.minRow = minRow;
+      this.maxColumn = maxColumn;
+      this.maxRow = maxRow;
+    }
+  }
+}
@@ -19,10 +19,12 @@
 package com.joliciel.jochre.letterGuesser;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,31 +38,32 @@ import com.joliciel.jochre.graphics.GroupOfShapes;
 import com.joliciel.jochre.graphics.JochreCorpusGroupReader;
 import com.joliciel.jochre.graphics.Shape;
 import com.joliciel.jochre.letterGuesser.features.LetterFeature;
+import com.joliciel.jochre.training.CorpusEventStream;
 import com.joliciel.talismane.machineLearning.ClassificationEvent;
-import com.joliciel.talismane.machineLearning.ClassificationEventStream;
 import com.joliciel.talismane.machineLearning.features.FeatureResult;
 import com.joliciel.talismane.machineLearning.features.RuntimeEnvironment;
 
-public class JochreLetterEventStream implements ClassificationEventStream {
+/**
+ * An event stream for training the letter guesser. Events for each group's
+ * shape sequence are extracted together, so that the history of letters
+ * guessed is built up within the group.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+public class JochreLetterEventStream extends CorpusEventStream<ShapeSequence> {
   private static final Logger LOG = LoggerFactory.getLogger(JochreLetterEventStream.class);
 
   private final BoundaryDetector boundaryDetector;
 
   private final Set<LetterFeature<?>> features;
-  private int shapeIndex = 0;
-
-  private ShapeInSequence shapeInSequence = null;
-
-  private LetterSequence history = null;
 
   private JochreCorpusGroupReader groupReader;
-  private ShapeSequence shapeSequence = null;
   private final LetterValidator letterValidator;
 
-  private int invalidLetterCount = 0;
+  private final AtomicInteger invalidLetterCount = new AtomicInteger();
 
   private final CorpusSelectionCriteria criteria;
-  private final JochreSession jochreSession;
 
   /**
    * Constructor.
@@ -70,7 +73,7 @@ public class JochreLetterEventStream implements ClassificationEventStream {
    */
   public JochreLetterEventStream(Set<LetterFeature<?>> features, BoundaryDetector boundaryDetector, LetterValidator letterValidator,
       CorpusSelectionCriteria criteria, JochreSession jochreSession) {
-    this.jochreSession = jochreSession;
+    super(jochreSession);
     this.features = features;
     this.boundaryDetector = boundaryDetector;
     this.letterValidator = letterValidator;
@@ -78,10 +81,49 @@ public class JochreLetterEventStream implements ClassificationEventStream {
   }
 
   @Override
-  public ClassificationEvent next() {
-    ClassificationEvent event = null;
-    if (this.hasNext()) {
+  protected ShapeSequence nextUnit() {
+    if (groupReader == null) {
+      groupReader = new JochreCorpusGroupReader(jochreSession);
+      groupReader.setSelectionCriteria(criteria);
+    }
+
+    ShapeSequence shapeSequence = null;
+    if (groupReader.hasNext()) {
+      GroupOfShapes group = groupReader.next();
+      if (boundaryDetector != null) {
+        // in this case the boundary detector is supposed to give us the
+        // correct
+        // splits and merges
+        shapeSequence = boundaryDetector.findBoundaries(group).get(0);
+      } else {
+        // simply add this group's shapes
+        shapeSequence = new ShapeSequence();
+        for (Shape shape : group.getShapes())
+          shapeSequence.addShape(shape);
+      }
+    }
+    return shapeSequence;
+  }
+
+  @Override
+  protected List<ClassificationEvent> getEvents(ShapeSequence shapeSequence) {
+    List<ClassificationEvent> events = new ArrayList<>();
+    LetterSequence history = new LetterSequence(shapeSequence, jochreSession);
+
+    for (ShapeInSequence shapeInSequence : shapeSequence) {
       Shape shape = shapeInSequence.getShape();
+      String letter = shape.getLetter();
+      if (!letterValidator.validate(letter)) {
+        // if there's an invalid letter, skip the rest of this
+        // group
+        // note we allow empty letters (which is how we indicate
+        // ink smudges
+        // in the text)
+        LOG.debug("Invalid letter for shape " + shapeInSequence.getOriginalShapes().get(0).getId() + ": " + letter);
+        invalidLetterCount.incrementAndGet();
+        break;
+      }
+
       LOG.debug("next event, shape: " + shape);
       LetterGuesserContext context = new LetterGuesserContext(shapeInSequence, history);
 
@@ -99,79 +141,27 @@ public class JochreLetterEventStream implements ClassificationEventStream {
       }
 
       String outcome = shape.getLetter();
-
-      event = new ClassificationEvent(featureResults, outcome);
+      events.add(new ClassificationEvent(featureResults, outcome));
 
       history.getLetters().add(outcome);
-      // set shape to null so that hasNext can retrieve the next one.
-      this.shapeInSequence = null;
     }
-    return event;
+    return events;
   }
 
   @Override
-  public boolean hasNext() {
-    this.initialiseStream();
-
-    while (shapeInSequence == null && shapeSequence != null) {
-      while (shapeInSequence == null && shapeIndex < shapeSequence.size()) {
-        shapeInSequence = shapeSequence.get(shapeIndex);
-        shapeIndex++;
-
-        Shape shape = shapeInSequence.getShape();
-        String letter = shape.getLetter();
-        if (!letterValidator.validate(letter)) {
-          // if there's an invalid letter, skip the rest of this
-          // group
-          // note we allow empty letters (which is how we indicate
-          // ink smudges
-          // in the text)
-          LOG.debug("Invalid letter for shape " + shapeInSequence.getOriginalShapes().get(0).getId() + ": " + letter);
-          invalidLetterCount++;
-          shapeInSequence = null;
-          break;
-        }
-      }
-
-      if (shapeInSequence == null) {
-        this.getNextGroup();
-      }
-    }
-
-    if (shapeInSequence == null) {
-      LOG.debug("invalidLetterCount: " + invalidLetterCount);
-    }
-    return shapeInSequence != null;
+  protected void onStreamComplete() {
+    LOG.debug("invalidLetterCount: " + invalidLetterCount);
   }
 
-  void getNextGroup() {
-    shapeSequence = null;
-    shapeIndex = 0;
-    if (groupReader.hasNext()) {
-      GroupOfShapes group = groupReader.next();
-      if (boundaryDetector != null) {
-        // in this case the boundary detector is supposed to give us the
-        // correct
-        // splits and merges
-        shapeSequence = boundaryDetector.findBoundaries(group).get(0);
-      } else {
-        // simply add this group's shapes
-        shapeSequence = new ShapeSequence();
-        for (Shape shape : group.getShapes())
-          shapeSequence.addShape(shape);
-      }
-
-      history = new LetterSequence(shapeSequence, jochreSession);
-
-    }
+  @Override
+  protected Collection<LetterFeature<?>> getFeatures() {
+    return features;
   }
 
-  void initialiseStream() {
-    if (groupReader == null) {
-      groupReader = new JochreCorpusGroupReader(jochreSession);
-      groupReader.setSelectionCriteria(criteria);
-      this.getNextGroup();
-    }
+  @Override
+  protected void addCacheAttributes(Map<String, String> cacheAttributes) {
+    cacheAttributes.put("boundaryDetector", boundaryDetector == null ? "" : boundaryDetector.getClass().getName());
+    cacheAttributes.put("letterValidator", letterValidator.getClass().getName());
   }
 
   @Override
@@ -19,8 +19,12 @@
 package com.joliciel.jochre.letterGuesser;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,7 +38,13 @@ import com.joliciel.talismane.machineLearning.features.FeatureResult;
 import com.joliciel.talismane.machineLearning.features.RuntimeEnvironment;
 
 /**
- * Guesses the letters for a given shape.
+ * Guesses the letters for a given shape.<br>
+ * <br>
+ * During a beam search, the same shape is guessed once for each history in the
+ * beam. Features which never look at the history (typically all of the shape
+ * features) are therefore calculated only once per shape in sequence, and
+ * their results are reused for all subsequent histories. Only features which
+ * request the history, such as n-grams, are recalculated each time.
  * 
  * @author Assaf Urieli
  *
@@ -45,11 +55,13 @@ public class LetterGuesser {
   private static final double MIN_PROB_TO_STORE = 0.001;
 
   private final DecisionMaker decisionMaker;
-  private final Set<LetterFeature<?>> features;
+  private final List<LetterFeature<?>> features;
+  private final Map<ShapeInSequence, IntrinsicFeatureResults> intrinsicResultCache = Collections
+      .synchronizedMap(new WeakHashMap<>());
 
   public LetterGuesser(Set<LetterFeature<?>> features, DecisionMaker decisionMaker) {
     this.decisionMaker = decisionMaker;
-    this.features = features;
+    this.features = new ArrayList<>(features);
   }
 
   public String guessLetter(ShapeInSequence shapeInSequence) {
@@ -64,17 +76,61 @@ public class LetterGuesser {
    * @return the best outcome for this shape.
    */
   public String guessLetter(ShapeInSequence shapeInSequence, LetterSequence history) {
+    Shape shape = shapeInSequence.getShape();
+    List<Decision> letterGuesses = this.guessLetters(shapeInSequence, history);
+
+    // store outcomes
+    shape.getLetterGuesses().clear();
+    shape.getLetterGuesses().addAll(letterGuesses);
+
+    String bestOutcome = shape.getLetterGuesses().iterator().next().getOutcome();
+
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Shape: " + shape);
+      LOG.trace("Letter: " + shape.getLetter());
+      LOG.trace("Best outcome: " + bestOutcome);
+    }
+
+    return bestOutcome;
+  }
+
+  /**
+   * Analyses this shape, using the context provided for features that are not
+   * intrinsic, without storing anything on the shape itself, so that several
+   * shapes may be guessed concurrently by the same letter guesser.
+   * 
+   * @return all outcomes above a certain threshold of probability, in
+   *         descending order of probability.
+   */
+  public List<Decision> guessLetters(ShapeInSequence shapeInSequence, LetterSequence history) {
     Shape shape = shapeInSequence.getShape();
     if (LOG.isTraceEnabled())
       LOG.trace("guessLetter, shape: " + shape);
 
+    // the first time round, all features are calculated for the current
+    // history while finding out which ones depend on it, so reuse these
+    // results rather than calculating the history-dependent ones again
+    FeatureResult<?>[] currentResults = null;
+    IntrinsicFeatureResults intrinsicResults = intrinsicResultCache.get(shapeInSequence);
+    if (intrinsicResults == null) {
+      currentResults = new FeatureResult<?>[features.size()];
+      intrinsicResults = this.calculateIntrinsicResults(shapeInSequence, history, currentResults);
+    }
+
     List<FeatureResult<?>> featureResults = new ArrayList<FeatureResult<?>>();
 
     // analyse features
-    for (LetterFeature<?> feature : features) {
-      LetterGuesserContext context = new LetterGuesserContext(shapeInSequence, history);
-      RuntimeEnvironment env = new RuntimeEnvironment();
-      FeatureResult<?> featureResult = feature.check(context, env);
+    LetterGuesserContext context = new LetterGuesserContext(shapeInSequence, history);
+    for (int i = 0; i < features.size(); i++) {
+      FeatureResult<?> featureResult = null;
+      if (currentResults != null) {
+        featureResult = currentResults[i];
+      } else if (intrinsicResults.historyDependent[i]) {
+        RuntimeEnvironment env = new RuntimeEnvironment();
+        featureResult = features.get(i).check(context, env);
+      } else {
+        featureResult = intrinsicResults.results[i];
+      }
       if (featureResult != null) {
         featureResults.add(featureResult);
         if (LOG.isTraceEnabled()) {
@@ -83,27 +139,53 @@ public class LetterGuesser {
       }
     }
 
-    List<Decision> letterGuesses = decisionMaker.decide(featureResults);
-
-    // store outcomes
-    String bestOutcome = null;
-    shape.getLetterGuesses().clear();
+    List<Decision> decisions = decisionMaker.decide(featureResults);
 
-    for (Decision letterGuess : letterGuesses) {
+    Set<Decision> letterGuesses = new TreeSet<>();
+    for (Decision letterGuess : decisions) {
       if (letterGuess.getProbability() >= MIN_PROB_TO_STORE) {
-        shape.getLetterGuesses().add(letterGuess);
+        letterGuesses.add(letterGuess);
       }
     }
 
-    bestOutcome = shape.getLetterGuesses().iterator().next().getOutcome();
+    return new ArrayList<>(letterGuesses);
+  }
 
-    if (LOG.isTraceEnabled()) {
-      LOG.trace("Shape: " + shape);
-      LOG.trace("Letter: " + shape.getLetter());
-      LOG.trace("Best outcome: " + bestOutcome);
+  /**
+   * Calculate all features for this shape in sequence and the current history,
+   * and cache the results for those which don't depend on the history.
+   * 
+   * @param currentResults
+   *          filled with the results of all features for the current history
+   */
+  private IntrinsicFeatureResults calculateIntrinsicResults(ShapeInSequence shapeInSequence, LetterSequence history,
+      FeatureResult<?>[] currentResults) {
+    IntrinsicFeatureResults intrinsicResults = new IntrinsicFeatureResults(features.size());
+    for (int i = 0; i < features.size(); i++) {
+      LetterGuesserContext context = new LetterGuesserContext(shapeInSequence, history);
+      RuntimeEnvironment env = new RuntimeEnvironment();
+      FeatureResult<?> featureResult = features.get(i).check(context, env);
+      currentResults[i] = featureResult;
+      if (context.isHistoryRequested())
+        intrinsicResults.historyDependent[i] = true;
+      else
+        intrinsicResults.results[i] = featureResult;
     }
-
-    return bestOutcome;
+    intrinsicResultCache.put(shapeInSequence, intrinsicResults);
+    return intrinsicResults;
   }
 
+  /**
+   * Feature results for a single shape in sequence, for features which didn't
+   * request the history.
+   */
+  private static final class IntrinsicFeatureResults {
+    private final FeatureResult<?>[] results;
+    private final boolean[] historyDependent;
+
+    public IntrinsicFeatureResults(int featureCount) {
+      this.results = new FeatureResult<?>[featureCount];
+      this.historyDependent = new boolean[featureCount];
+    }
+  }
 }
@@ -35,6 +35,7 @@ import com.joliciel.jochre.graphics.ShapeWrapper;
 public class LetterGuesserContext implements ShapeWrapper, ShapeInSequenceWrapper {
   private final ShapeInSequence shapeInSequence;
   private final LetterSequence history;
+  private boolean historyRequested = false;
 
   public LetterGuesserContext(ShapeInSequence shapeInSequence, LetterSequence history) {
     this.shapeInSequence = shapeInSequence;
@@ -51,9 +52,18 @@ public class LetterGuesserContext implements ShapeWrapper, ShapeInSequenceWrappe
    * preceding the current shape within the same word.
    */
   public LetterSequence getHistory() {
+    historyRequested = true;
     return history;
   }
 
+  /**
+   * Whether {@link #getHistory()} has been called on this context, in which
+   * case any feature result calculated with it may depend on the history.
+   */
+  boolean isHistoryRequested() {
+    return historyRequested;
+  }
+
   @Override
   public Shape getShape() {
     return this.shapeInSequence.getShape();
@@ -18,7 +18,9 @@
 //////////////////////////////////////////////////////////////////////////////
 package com.joliciel.jochre.letterGuesser;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,7 +43,13 @@ import com.joliciel.talismane.utils.CountedOutcome;
 /**
  * A sequence of letter guesses associated with a given sequence of shapes, and
  * the attached score. There will be exactly one element in this sequence per
- * underlying shape, including possibly empty strings.
+ * underlying shape, including possibly empty strings.<br>
+ * <br>
+ * A sequence created by extending a history with a single letter simply points
+ * at its history, so that a beam search can create many candidate sequences
+ * without copying all of the previous letters and decisions each time. The
+ * full lists of letters and decisions are only built if requested. The
+ * history should not be modified once it has been extended.
  * 
  * @author Assaf Urieli
  *
@@ -70,7 +78,8 @@ public class LetterSequence implements Comparable<LetterSequence>, Classificatio
   private int frequency = 0;
   private List<CountedOutcome<String>> wordFrequencies = new ArrayList<CountedOutcome<String>>();
 
-  private List<Decision> decisions = new ArrayList<Decision>();
+  private List<Decision> decisions;
+  private Double decisionLogSum = null;
   private List<Solution> underlyingSolutions = new ArrayList<Solution>();
   @SuppressWarnings("rawtypes")
   private ScoringStrategy scoringStrategy = new GeometricMeanScoringStrategy();
@@ -78,7 +87,16 @@ public class LetterSequence implements Comparable<LetterSequence>, Classificatio
   private List<LetterSequence> subsequences;
   private List<LetterSequence> groupSequences;
   private LetterSequence hyphenSubsequence = null;
-  private List<String> letters = new ArrayList<String>();
+  private List<String> letters;
+
+  // for sequences extending a history - letters and decisions stay null
+  // until requested
+  private final LetterSequence parent;
+  private final String lastLetter;
+  private final Decision lastDecision;
+  private final int parentLetterCount;
+  private final int parentDecisionCount;
+
   private boolean punctation = false;
   private boolean softHyphen = false;
   private String hyphenatedString = null;
@@ -86,18 +104,37 @@ public class LetterSequence implements Comparable<LetterSequence>, Classificatio
   private final JochreSession jochreSession;
 
   public LetterSequence(ShapeSequence underlyingShapeSequence, JochreSession jochreSession) {
-    this.jochreSession = jochreSession;
-    this.setUnderlyingShapeSequence(underlyingShapeSequence);
+    this(underlyingShapeSequence, new ArrayList<String>(), jochreSession);
   }
 
   /**
    * Create a letter sequence with space to one additional letter at the end
-   * of an existing history.
+   * of an existing history, by copying the history's letters and decisions.
    */
   public LetterSequence(LetterSequence history) {
     this.jochreSession = history.getJochreSession();
-    this.letters.addAll(history.getLetters());
-    this.decisions.addAll(history.getDecisions());
+    this.parent = null;
+    this.lastLetter = null;
+    this.lastDecision = null;
+    this.parentLetterCount = 0;
+    this.parentDecisionCount = 0;
+    this.letters = new ArrayList<String>(history.getLetters());
+    this.decisions = new ArrayList<Decision>(history.getDecisions());
+    this.setUnderlyingShapeSequence(history.getUnderlyingShapeSequence());
+  }
+
+  /**
+   * Create a letter sequence adding a single letter and its decision to the
+   * end of an existing history, without copying the history.
+   */
+  public LetterSequence(LetterSequence history, String letter, Decision decision) {
+    this.jochreSession = history.getJochreSession();
+    this.parent = history;
+    this.lastLetter = letter;
+    this.lastDecision = decision;
+    this.parentLetterCount = history.getLetterCount();
+    this.parentDecisionCount = history.getDecisionCount();
+    this.decisionLogSum = history.getDecisionLogSum() + decision.getProbabilityLog();
     this.setUnderlyingShapeSequence(history.getUnderlyingShapeSequence());
   }
 
@@ -106,6 +143,13 @@ public class LetterSequence implements Comparable<LetterSequence>, Classificatio
    */
   public LetterSequence(LetterSequence sequence1, LetterSequence sequence2) {
     jochreSession = sequence1 != null ? sequence1.getJochreSession() : sequence2.getJochreSession();
+    this.parent = null;
+    this.lastLetter = null;
+    this.lastDecision = null;
+    this.parentLetterCount = 0;
+    this.parentDecisionCount = 0;
+    this.letters = new ArrayList<String>();
+    this.decisions = new ArrayList<Decision>();
     if (sequence1 != null) {
       this.letters.addAll(sequence1.getLetters());
       this.decisions.addAll(sequence1.getDecisions());
@@ -141,8 +185,14 @@ public class LetterSequence implements Comparable<LetterSequence>, Classificatio
 
   public LetterSequence(ShapeSequence shapeSequence, List<String> letters, JochreSession jochreSession) {
     this.jochreSession = jochreSession;
+    this.parent = null;
+    this.lastLetter = null;
+    this.lastDecision = null;
+    this.parentLetterCount = 0;
+    this.parentDecisionCount = 0;
     this.setUnderlyingShapeSequence(shapeSequence);
     this.letters = letters;
+    this.decisions = new ArrayList<Decision>();
   }
 
   /**
@@ -150,15 +200,42 @@ public class LetterSequence implements Comparable<LetterSequence>, Classificatio
    */
   @Override
   @SuppressWarnings("unchecked")
-
   public double getScore() {
     if (!scoreCalculated) {
-      score = this.getScoringStrategy().calculateScore(this);
+      if (this.getScoringStrategy().getClass().equals(GeometricMeanScoringStrategy.class)) {
+        // avoid building the full list of decisions - this gives exactly the
+        // same result as the geometric mean scoring strategy
+        score = 0;
+        int decisionCount = this.getDecisionCount();
+        if (decisionCount > 0)
+          score = this.getDecisionLogSum() / decisionCount;
+        score = Math.exp(score);
+        for (Solution underlyingSolution : this.getUnderlyingSolutions()) {
+          if (!underlyingSolution.getScoringStrategy().isAdditive())
+            score *= underlyingSolution.getScore();
+        }
+      } else {
+        score = this.getScoringStrategy().calculateScore(this);
+      }
       scoreCalculated = true;
     }
     return score;
   }
 
+  /**
+   * The sum of the probability logs for all decisions, in the order in which
+   * they were added.
+   */
+  private double getDecisionLogSum() {
+    if (decisionLogSum == null) {
+      double sum = 0;
+      for (Decision decision : this.getDecisions())
+        sum += decision.getProbabilityLog();
+      decisionLogSum = sum;
+    }
+    return decisionLogSum;
+  }
+
   public void setScore(double score) {
     this.score = score;
     scoreCalculated = true;
@@ -178,7 +255,7 @@ public class LetterSequence implements Comparable<LetterSequence>, Classificatio
   }
 
   @Override
-  public synchronized String toString() {
+  public String toString() {
     if (string == null) {
       string = "Sequence: " + this.getGuessedSequence();
     }
@@ -262,6 +339,7 @@ public class LetterSequence implements Comparable<LetterSequence>, Classificatio
     if (guessedSequence == null) {
       Linguistics linguistics = jochreSession.getLinguistics();
       StringBuilder builder = new StringBuilder();
+      List<String> letters = this.getLetters();
       for (int i = 0; i < letters.size(); i++) {
         String letter = letters.get(i);
         if (i == this.endOfLineHyphenIndex) {
@@ -323,10 +401,11 @@ public class LetterSequence implements Comparable<LetterSequence>, Classificatio
    * already been guessed by this letter sequence.
    */
   public ShapeInSequence getNextShape() {
-    if (this.underlyingShapeSequence.size() <= this.letters.size())
+    int letterCount = this.getLetterCount();
+    if (this.underlyingShapeSequence.size() <= letterCount)
       return null;
     else
-      return this.underlyingShapeSequence.get(this.letters.size());
+      return this.underlyingShapeSequence.get(letterCount);
   }
 
   /**
@@ -342,9 +421,20 @@ public class LetterSequence implements Comparable<LetterSequence>, Classificatio
 
   @Override
   public List<Decision> getDecisions() {
+    this.buildLists();
     return this.decisions;
   }
 
+  /**
+   * The number of decisions in this sequence, without building the list of
+   * decisions.
+   */
+  public int getDecisionCount() {
+    if (decisions != null)
+      return decisions.size();
+    return parentDecisionCount + 1;
+  }
+
   @Override
   public List<Solution> getUnderlyingSolutions() {
     return this.underlyingSolutions;
@@ -352,7 +442,8 @@ public class LetterSequence implements Comparable<LetterSequence>, Classificatio
 
   @Override
   public void addDecision(Decision decision) {
-    this.decisions.add(decision);
+    this.getDecisions().add(decision);
+    this.decisionLogSum = null;
   }
 
   @Override
@@ -419,8 +510,9 @@ public class LetterSequence implements Comparable<LetterSequence>, Classificatio
       boolean inPunctuation = false;
       boolean expectEndOfLineHyphen = false;
 
-      for (int i = 0; i < this.letters.size(); i++) {
-        String letter = this.letters.get(i);
+      List<String> letters = this.getLetters();
+      for (int i = 0; i < letters.size(); i++) {
+        String letter = letters.get(i);
         ShapeInSequence shape = this.underlyingShapeSequence.get(i);
 
         if (i == this.getEndOfLineHyphenIndex())
@@ -486,11 +578,65 @@ public class LetterSequence implements Comparable<LetterSequence>, Classificatio
   /**
    * The letters in this sequence.
    */
-
   public List<String> getLetters() {
+    this.buildLists();
     return letters;
   }
 
+  /**
+   * The number of letters in this sequence, without building the list of
+   * letters.
+   */
+  public int getLetterCount() {
+    if (letters != null)
+      return letters.size();
+    return parentLetterCount + 1;
+  }
+
+  /**
+   * The letter at a given index, without building the list of letters. Most
+   * efficient for letters near the end of the sequence.
+   */
+  public String getLetter(int index) {
+    LetterSequence sequence = this;
+    while (sequence.letters == null) {
+      if (index == sequence.parentLetterCount)
+        return sequence.lastLetter;
+      if (index > sequence.parentLetterCount)
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (sequence.parentLetterCount + 1));
+      sequence = sequence.parent;
+    }
+    return sequence.letters.get(index);
+  }
+
+  /**
+   * For a sequence extending a history, build the full lists of letters and
+   * decisions from the chain of histories, the first time they're required.
+   */
+  private void buildLists() {
+    if (letters != null)
+      return;
+
+    Deque<LetterSequence> chain = new ArrayDeque<>();
+    LetterSequence ancestor = this;
+    while (ancestor.letters == null) {
+      chain.push(ancestor);
+      ancestor = ancestor.parent;
+    }
+
+    LetterSequence first = chain.peek();
+    List<String> letters = new ArrayList<>(this.getLetterCount());
+    letters.addAll(ancestor.letters.subList(0, first.parentLetterCount));
+    List<Decision> decisions = new ArrayList<>(this.getDecisionCount());
+    decisions.addAll(ancestor.decisions.subList(0, first.parentDecisionCount));
+    for (LetterSequence sequence : chain) {
+      letters.add(sequence.lastLetter);
+      decisions.add(sequence.lastDecision);
+    }
+    this.letters = letters;
+    this.decisions = decisions;
+  }
+
   /**
    * Return the rectangle enclosing this letter sequence in a particular
    * group.
@@ -519,8 +665,9 @@ public class LetterSequence implements Comparable<LetterSequence>, Classificatio
         ShapeSequence currentShapes = new ShapeSequence();
         GroupOfShapes currentGroup = this.getGroups().get(0);
 
-        for (int i = 0; i < this.letters.size(); i++) {
-          String letter = this.letters.get(i);
+        List<String> letters = this.getLetters();
+        for (int i = 0; i < letters.size(); i++) {
+          String letter = letters.get(i);
           Shape shape = this.underlyingShapeSequence.get(i).getShape();
           if (!currentGroup.equals(shape.getGroup())) {
             LetterSequence letterSequence = new LetterSequence(currentShapes, currentLetters, jochreSession);
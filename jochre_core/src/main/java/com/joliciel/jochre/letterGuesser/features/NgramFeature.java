@@ -27,15 +27,16 @@ public class NgramFeature extends AbstractLetterFeature<String> implements Strin
       int n = nResult.getOutcome();
       
       int historyToFind = n-1;
-      String ngram = "";
+      StringBuilder ngram = new StringBuilder();
       Shape shape = context.getShapeInSequence().getShape();
       LetterSequence history = context.getHistory();
-      for (int i = 0; i < historyToFind; i++) {
+      for (int i = historyToFind - 1; i >= 0; i--) {
         String letter = null;
         if (history!=null) {
           // this is during analysis, we look at the current history
-          if (history.getLetters().size()>i) {
-            letter = history.getLetters().get(history.getLetters().size()-i-1);
+          int letterCount = history.getLetterCount();
+          if (letterCount>i) {
+            letter = history.getLetter(letterCount-i-1);
           } else {
             letter = SPACE;
           }  
@@ -48,10 +49,10 @@ public class NgramFeature extends AbstractLetterFeature<String> implements Strin
             letter = SPACE;
           }
         }
-        ngram = letter + ngram;
+        ngram.append(letter);
       }
   
-      result = this.generateResult(ngram);
+      result = this.generateResult(ngram.toString());
     }
     return result;
   }
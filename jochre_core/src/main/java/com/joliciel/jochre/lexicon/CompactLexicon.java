@@ -0,0 +1,322 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.lexicon;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.joliciel.jochre.utils.JochreException;
+
+/**
+ * A read-only lexicon stored in a compact binary file, which is memory-mapped
+ * rather than read into the heap, so that it's available immediately and can
+ * be shared by several JVMs on the same machine.<br>
+ * <br>
+ * The file (by convention with a .lex extension) is organised as follows,
+ * with all values big-endian:
+ * <ul>
+ * <li>a 4-byte magic number, followed by the format version, the word count
+ * n, and the upper-case variant count m</li>
+ * <li>the locale used to generate the upper-case variants, as a UTF-encoded
+ * language tag (empty if none were generated)</li>
+ * <li>n+1 ints giving the offset of each word in the character data (the last
+ * giving the total length)</li>
+ * <li>n ints giving each word's frequency</li>
+ * <li>the words themselves, as UTF-16 chars, sorted in
+ * {@link String#compareTo(String)} order</li>
+ * <li>m+1 offsets followed by the characters of the upper-case variants
+ * added by {@link DefaultLexiconWrapper}, for those variants not already in
+ * the lexicon, sorted in the same order</li>
+ * </ul>
+ * Words are looked up by binary search directly in the mapped file. Files
+ * written in version 1 of the format, without the locale or upper-case
+ * variants, can still be read.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+public class CompactLexicon implements Lexicon {
+  private static final Logger LOG = LoggerFactory.getLogger(CompactLexicon.class);
+  private static final int MAGIC_NUMBER = 0x4a4c4558; // JLEX
+  private static final int VERSION = 2;
+
+  private final WordTable words;
+  private final IntBuffer frequencies;
+  private final WordTable upperCaseVariants;
+  private final Locale upperCaseLocale;
+
+  /**
+   * Map a lexicon file previously written by {@link #write(Lexicon, File)} or
+   * {@link #write(Lexicon, Locale, File)}.
+   */
+  public CompactLexicon(File file) {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+      ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC_NUMBER)
+        throw new JochreException("Not a compact lexicon file: " + file.getPath());
+      int version = buffer.getInt();
+      if (version < 1 || version > VERSION)
+        throw new JochreException("Unsupported compact lexicon version " + version + " in " + file.getPath());
+      int wordCount = buffer.getInt();
+      int variantCount = 0;
+      String localeTag = "";
+      if (version >= 2) {
+        variantCount = buffer.getInt();
+        byte[] localeBytes = new byte[buffer.getShort()];
+        buffer.get(localeBytes);
+        localeTag = new String(localeBytes, StandardCharsets.UTF_8);
+      }
+
+      IntBuffer wordOffsets = slice(buffer, (wordCount + 1) * Integer.BYTES).asIntBuffer();
+      this.frequencies = slice(buffer, wordCount * Integer.BYTES).asIntBuffer();
+      CharBuffer wordChars = slice(buffer, wordOffsets.get(wordCount) * Character.BYTES).asCharBuffer();
+      this.words = new WordTable(wordCount, wordOffsets, wordChars);
+
+      if (localeTag.length() > 0) {
+        IntBuffer variantOffsets = slice(buffer, (variantCount + 1) * Integer.BYTES).asIntBuffer();
+        CharBuffer variantChars = slice(buffer, variantOffsets.get(variantCount) * Character.BYTES).asCharBuffer();
+        this.upperCaseVariants = new WordTable(variantCount, variantOffsets, variantChars);
+        this.upperCaseLocale = Locale.forLanguageTag(localeTag);
+      } else {
+        this.upperCaseVariants = null;
+        this.upperCaseLocale = null;
+      }
+      LOG.debug("Mapped " + wordCount + " words and " + variantCount + " upper-case variants from " + file.getPath());
+    } catch (IOException e) {
+      throw new JochreException(e);
+    }
+  }
+
+  /**
+   * Return a buffer for the next length bytes, and move past them.
+   */
+  private static ByteBuffer slice(ByteBuffer buffer, int length) {
+    ByteBuffer slice = buffer.slice();
+    slice.limit(length);
+    buffer.position(buffer.position() + length);
+    return slice;
+  }
+
+  /**
+   * Write all of the words in a lexicon, with their frequencies, to a compact
+   * lexicon file, without upper-case variants.
+   */
+  public static void write(Lexicon lexicon, File file) {
+    write(lexicon, null, file);
+  }
+
+  /**
+   * Write all of the words in a lexicon, with their frequencies, to a compact
+   * lexicon file, together with the upper-case variants that a
+   * {@link DefaultLexiconWrapper} would add for the locale provided, so that
+   * the wrapper needn't calculate them when the lexicon is loaded.
+   * 
+   * @param locale
+   *          the locale for upper-case variants, or null to skip them
+   */
+  public static void write(Lexicon lexicon, Locale locale, File file) {
+    TreeSet<String> words = new TreeSet<>();
+    Iterator<String> wordIterator = lexicon.getWords();
+    while (wordIterator.hasNext())
+      words.add(wordIterator.next());
+
+    TreeSet<String> variants = new TreeSet<>();
+    if (locale != null) {
+      for (String word : words)
+        DefaultLexiconWrapper.addUpperCaseVariants(word, locale, variants);
+      variants.removeAll(words);
+    }
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(MAGIC_NUMBER);
+      out.writeInt(VERSION);
+      out.writeInt(words.size());
+      out.writeInt(variants.size());
+      byte[] localeBytes = locale == null ? new byte[0] : locale.toLanguageTag().getBytes(StandardCharsets.UTF_8);
+      out.writeShort(localeBytes.length);
+      out.write(localeBytes);
+
+      writeOffsets(out, words);
+      for (String word : words)
+        out.writeInt(lexicon.getFrequency(word));
+      for (String word : words)
+        out.writeChars(word);
+
+      if (locale != null) {
+        writeOffsets(out, variants);
+        for (String variant : variants)
+          out.writeChars(variant);
+      }
+    } catch (IOException e) {
+      throw new JochreException(e);
+    }
+    LOG.debug("Wrote " + words.size() + " words and " + variants.size() + " upper-case variants to " + file.getPath());
+  }
+
+  private static void writeOffsets(DataOutputStream out, Set<String> words) throws IOException {
+    int offset = 0;
+    for (String word : words) {
+      out.writeInt(offset);
+      offset += word.length();
+    }
+    out.writeInt(offset);
+  }
+
+  @Override
+  public int getFrequency(String word) {
+    int index = words.indexOf(word);
+    if (index < 0)
+      return 0;
+    return frequencies.get(index);
+  }
+
+  /**
+   * The locale for which upper-case variants were stored in this lexicon, or
+   * null if none were stored.
+   */
+  public Locale getUpperCaseLocale() {
+    return upperCaseLocale;
+  }
+
+  /**
+   * Whether this word is one of the stored upper-case variants, not found in
+   * the lexicon itself.
+   */
+  public boolean isUpperCaseVariant(String word) {
+    return upperCaseVariants != null && upperCaseVariants.indexOf(word) >= 0;
+  }
+
+  /**
+   * The stored upper-case variants, in sorted order.
+   */
+  public Iterator<String> getUpperCaseVariants() {
+    if (upperCaseVariants == null)
+      return Collections.emptyIterator();
+    return upperCaseVariants.iterator();
+  }
+
+  /**
+   * The number of words in this lexicon.
+   */
+  public int size() {
+    return words.size;
+  }
+
+  @Override
+  public Iterator<String> getWords() {
+    return words.iterator();
+  }
+
+  /**
+   * A sorted list of words in the mapped file.
+   */
+  private static final class WordTable {
+    private final int size;
+    private final IntBuffer offsets;
+    private final CharBuffer chars;
+
+    public WordTable(int size, IntBuffer offsets, CharBuffer chars) {
+      this.size = size;
+      this.offsets = offsets;
+      this.chars = chars;
+    }
+
+    /**
+     * The index of this word in the sorted word list, or -1 if not found.
+     */
+    public int indexOf(String word) {
+      int low = 0;
+      int high = size - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int comparison = this.compare(mid, word);
+        if (comparison < 0)
+          low = mid + 1;
+        else if (comparison > 0)
+          high = mid - 1;
+        else
+          return mid;
+      }
+      return -1;
+    }
+
+    /**
+     * Compare the word at a given index to the word provided, in the same way
+     * as {@link String#compareTo(String)}.
+     */
+    private int compare(int index, String word) {
+      int start = offsets.get(index);
+      int length = offsets.get(index + 1) - start;
+      int minLength = Math.min(length, word.length());
+      for (int i = 0; i < minLength; i++) {
+        char c1 = chars.get(start + i);
+        char c2 = word.charAt(i);
+        if (c1 != c2)
+          return c1 - c2;
+      }
+      return length - word.length();
+    }
+
+    public String getWord(int index) {
+      int start = offsets.get(index);
+      int end = offsets.get(index + 1);
+      char[] word = new char[end - start];
+      for (int i = 0; i < word.length; i++)
+        word[i] = chars.get(start + i);
+      return new String(word);
+    }
+
+    public Iterator<String> iterator() {
+      return new Iterator<String>() {
+        private int i = 0;
+
+        @Override
+        public boolean hasNext() {
+          return i < size;
+        }
+
+        @Override
+        public String next() {
+          if (i >= size)
+            throw new NoSuchElementException();
+          return getWord(i++);
+        }
+      };
+    }
+  }
+}
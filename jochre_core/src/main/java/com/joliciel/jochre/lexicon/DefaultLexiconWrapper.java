@@ -20,17 +20,24 @@ package com.joliciel.jochre.lexicon;
 
 import java.text.Normalizer;
 import java.text.Normalizer.Form;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * For each word in the lexicon, adds variants with an initial uppercase and all
- * upper-case.
+ * upper-case.<br>
+ * <br>
+ * Variants are calculated when the wrapper is constructed, except for any
+ * {@link CompactLexicon} in which they were already stored for the same
+ * locale, which is simply consulted at lookup time.
  * 
  * @author Assaf Urieli
  *
@@ -38,29 +45,62 @@ import org.slf4j.LoggerFactory;
 public class DefaultLexiconWrapper implements Lexicon {
   @SuppressWarnings("unused")
   private static final Logger LOG = LoggerFactory.getLogger(DefaultLexiconWrapper.class);
+  private static final Pattern DIACRITICS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
   private final Lexicon baseLexicon;
   private final Set<String> upperCaseLexicon = new HashSet<String>();
+  private final List<CompactLexicon> precalculatedLexicons = new ArrayList<>();
   private final Locale locale;
 
   public DefaultLexiconWrapper(Lexicon baseLexicon, Locale locale) {
     this.locale = locale;
     this.baseLexicon = baseLexicon;
-    Iterator<String> words = baseLexicon.getWords();
-    while (words.hasNext()) {
-      String word = words.next();
-      if (word.length() > 0) {
-        String firstLetter = word.substring(0, 1);
-
-        if (word.length() == 1)
-          upperCaseLexicon.add(this.toUpperCaseNoAccents(firstLetter));
-        else
-          upperCaseLexicon.add(this.toUpperCaseNoAccents(firstLetter) + word.substring(1));
-
-        upperCaseLexicon.add(this.toUpperCaseNoAccents(word));
+    this.addLexicon(baseLexicon);
+  }
+
+  private void addLexicon(Lexicon lexicon) {
+    if (lexicon instanceof LexiconMerger) {
+      for (Lexicon subLexicon : ((LexiconMerger) lexicon).getLexicons())
+        this.addLexicon(subLexicon);
+    } else if (lexicon instanceof CompactLexicon && locale.equals(((CompactLexicon) lexicon).getUpperCaseLocale())) {
+      precalculatedLexicons.add((CompactLexicon) lexicon);
+    } else {
+      Set<String> variants = new HashSet<>();
+      Iterator<String> words = lexicon.getWords();
+      while (words.hasNext()) {
+        variants.clear();
+        addUpperCaseVariants(words.next(), locale, variants);
+        for (String variant : variants)
+          this.addUpperCaseVariant(variant);
       }
     }
   }
 
+  /**
+   * Add the upper-case variants of a single word to a set.
+   */
+  static void addUpperCaseVariants(String word, Locale locale, Set<String> variants) {
+    if (word.length() > 0) {
+      String firstLetter = word.substring(0, 1);
+
+      if (word.length() == 1)
+        variants.add(toUpperCaseNoAccents(firstLetter, locale));
+      else
+        variants.add(toUpperCaseNoAccents(firstLetter, locale) + word.substring(1));
+
+      variants.add(toUpperCaseNoAccents(word, locale));
+    }
+  }
+
+  /**
+   * Only store variants which the base lexicon doesn't already know, which
+   * avoids duplicating the entire lexicon for languages without case.
+   */
+  private void addUpperCaseVariant(String variant) {
+    if (baseLexicon.getFrequency(variant) <= 0)
+      upperCaseLexicon.add(variant);
+  }
+
   @Override
   public int getFrequency(String word) {
     int frequency = baseLexicon.getFrequency(word);
@@ -70,14 +110,34 @@ public class DefaultLexiconWrapper implements Lexicon {
     if (upperCaseLexicon.contains(word))
       return 1;
 
+    for (CompactLexicon lexicon : precalculatedLexicons) {
+      if (lexicon.isUpperCaseVariant(word))
+        return 1;
+    }
+
     return 0;
   }
 
+  /**
+   * The upper-case variants added to the base lexicon's words. Variants stored
+   * in a compact lexicon may include some words found in another lexicon.
+   */
+  Iterator<String> getUpperCaseWords() {
+    List<String> words = new ArrayList<>(upperCaseLexicon);
+    for (CompactLexicon lexicon : precalculatedLexicons)
+      lexicon.getUpperCaseVariants().forEachRemaining(words::add);
+    return words.iterator();
+  }
+
   String toUpperCaseNoAccents(String string) {
+    return toUpperCaseNoAccents(string, locale);
+  }
+
+  static String toUpperCaseNoAccents(String string, Locale locale) {
     // decompose accents
     String decomposed = Normalizer.normalize(string, Form.NFD);
     // removing diacritics
-    String removed = decomposed.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
+    String removed = DIACRITICS.matcher(decomposed).replaceAll("");
 
     String uppercase = removed.toUpperCase(locale);
     return uppercase;
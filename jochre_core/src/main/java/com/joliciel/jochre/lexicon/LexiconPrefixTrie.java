@@ -0,0 +1,144 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.lexicon;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A read-only prefix trie containing all of the words in a lexicon, used to
+ * check whether a partial word could be the start of any word in the
+ * lexicon.<br>
+ * <br>
+ * To keep memory usage low for large lexicons, nodes are not stored as
+ * objects: each node is an index into three arrays giving its letter, its
+ * first child, and its number of children, with the children of each node
+ * stored contiguously in alphabetical order.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+public class LexiconPrefixTrie {
+  private final char[] letters;
+  private final int[] firstChildren;
+  private final int[] childCounts;
+
+  /**
+   * Build a trie from all of the words returned by the lexicon, including
+   * any upper-case variants it recognises.
+   */
+  public LexiconPrefixTrie(Lexicon lexicon) {
+    this(getWords(lexicon));
+  }
+
+  /**
+   * Build a trie from the words provided.
+   */
+  public LexiconPrefixTrie(Iterator<String> wordIterator) {
+    TreeSet<String> wordSet = new TreeSet<>();
+    while (wordIterator.hasNext())
+      wordSet.add(wordIterator.next());
+    List<String> words = new ArrayList<>(wordSet);
+    wordSet.clear();
+
+    int capacity = 1024;
+    char[] letters = new char[capacity];
+    int[] firstChildren = new int[capacity];
+    int[] childCounts = new int[capacity];
+    int nodeCount = 1;
+
+    // breadth-first construction: each queue entry gives a node, the range
+    // of sorted words which pass through it, and its depth
+    Deque<int[]> queue = new ArrayDeque<>();
+    queue.add(new int[] { 0, 0, words.size(), 0 });
+    while (!queue.isEmpty()) {
+      int[] entry = queue.poll();
+      int node = entry[0];
+      int end = entry[2];
+      int depth = entry[3];
+      int start = entry[1];
+      // a word ending at this node sorts before any longer words
+      while (start < end && words.get(start).length() == depth)
+        start++;
+
+      firstChildren[node] = nodeCount;
+      int i = start;
+      while (i < end) {
+        char letter = words.get(i).charAt(depth);
+        int j = i + 1;
+        while (j < end && words.get(j).charAt(depth) == letter)
+          j++;
+
+        if (nodeCount == capacity) {
+          capacity *= 2;
+          letters = Arrays.copyOf(letters, capacity);
+          firstChildren = Arrays.copyOf(firstChildren, capacity);
+          childCounts = Arrays.copyOf(childCounts, capacity);
+        }
+        int child = nodeCount++;
+        letters[child] = letter;
+        childCounts[node]++;
+        queue.add(new int[] { child, i, j, depth + 1 });
+        i = j;
+      }
+    }
+
+    this.letters = Arrays.copyOf(letters, nodeCount);
+    this.firstChildren = Arrays.copyOf(firstChildren, nodeCount);
+    this.childCounts = Arrays.copyOf(childCounts, nodeCount);
+  }
+
+  /**
+   * Is the string provided the start of at least one word in the lexicon?
+   * The empty string is always a prefix.
+   */
+  public boolean isPrefix(CharSequence prefix) {
+    int node = 0;
+    for (int i = 0; i < prefix.length(); i++) {
+      int first = firstChildren[node];
+      int child = Arrays.binarySearch(letters, first, first + childCounts[node], prefix.charAt(i));
+      if (child < 0)
+        return false;
+      node = child;
+    }
+    return true;
+  }
+
+  /**
+   * The number of nodes in this trie, including the root.
+   */
+  public int size() {
+    return letters.length;
+  }
+
+  private static Iterator<String> getWords(Lexicon lexicon) {
+    if (lexicon instanceof DefaultLexiconWrapper) {
+      List<String> words = new ArrayList<>();
+      lexicon.getWords().forEachRemaining(words::add);
+      ((DefaultLexiconWrapper) lexicon).getUpperCaseWords().forEachRemaining(words::add);
+      return words.iterator();
+    }
+    return lexicon.getWords();
+  }
+}
@@ -20,13 +20,13 @@ package com.joliciel.jochre.lexicon;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,7 +51,7 @@ public class MostLikelyWordChooser {
   private double frequencyLogBase;
   private boolean frequencyAdjusted;
 
-  private final Map<Integer, Double> frequencyLogs = new HashMap<>();
+  private final Map<Integer, Double> frequencyLogs = new ConcurrentHashMap<>();
   private final Linguistics linguistics;
   private Set<String> midWordPunctuation = new HashSet<>();
   private Set<String> startWordPunctuation = new HashSet<>();
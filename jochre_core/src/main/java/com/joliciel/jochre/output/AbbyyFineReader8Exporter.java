@@ -1,10 +1,7 @@
 package com.joliciel.jochre.output;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
@@ -17,12 +14,8 @@ import com.joliciel.jochre.doc.JochreDocument;
 import com.joliciel.jochre.doc.JochrePage;
 import com.joliciel.jochre.graphics.JochreImage;
 
-import freemarker.cache.NullCacheStorage;
-import freemarker.template.Configuration;
-import freemarker.template.DefaultObjectWrapperBuilder;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
-import freemarker.template.Version;
 
 /**
  * Outputs to the XML spec indicated by http://finereader.abbyy.com/
@@ -46,12 +39,7 @@ public class AbbyyFineReader8Exporter extends AbstractExporter implements Docume
 
   private void initialize() {
     try {
-      Configuration cfg = new Configuration(new Version(2, 3, 23));
-      cfg.setCacheStorage(new NullCacheStorage());
-      cfg.setObjectWrapper(new DefaultObjectWrapperBuilder(new Version(2, 3, 23)).build());
-
-      Reader templateReader = new BufferedReader(new InputStreamReader(AltoXMLExporter.class.getResourceAsStream("abbyy_8.ftl")));
-      this.template = new Template("freemarkerTemplate", templateReader, cfg);
+      this.template = ExportTemplates.getTemplate("abbyy_8.ftl");
     } catch (IOException e) {
       LOG.error("Failed writing to " + this.getClass().getSimpleName(), e);
       throw new RuntimeException(e);
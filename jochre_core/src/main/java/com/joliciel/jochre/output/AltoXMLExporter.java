@@ -12,15 +12,13 @@ import com.joliciel.jochre.doc.JochreDocument;
 import com.joliciel.jochre.doc.JochrePage;
 import com.joliciel.jochre.graphics.JochreImage;
 
-import freemarker.cache.NullCacheStorage;
-import freemarker.template.Configuration;
-import freemarker.template.DefaultObjectWrapperBuilder;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
-import freemarker.template.Version;
 
 /**
- * Outputs to Alto 3.0 XML format, see http://www.loc.gov/standards/alto/
+ * Outputs to Alto 3.0 XML format, see http://www.loc.gov/standards/alto/<br>
+ * Each image is written out as soon as it is complete, so that only the
+ * current page needs to be held in memory.
  **/
 public class AltoXMLExporter extends AbstractExporter implements DocumentObserver {
   private static final Logger LOG = LoggerFactory.getLogger(AltoXMLExporter.class);
@@ -41,13 +39,7 @@ public class AltoXMLExporter extends AbstractExporter implements DocumentObserve
 
   private void initialize() {
     try {
-      Configuration cfg = new Configuration(new Version(2, 3, 23));
-      cfg.setCacheStorage(new NullCacheStorage());
-      cfg.setObjectWrapper(new DefaultObjectWrapperBuilder(new Version(2, 3, 23)).build());
-
-
-      Reader templateReader = new BufferedReader(new InputStreamReader(AltoXMLExporter.class.getResourceAsStream("alto_body_" + getExactAltoVersion(version) + ".ftl")));
-      this.template = new Template("alto_body", templateReader, cfg);
+      this.template = ExportTemplates.getTemplate("alto_body_" + getExactAltoVersion(version) + ".ftl");
     } catch (IOException e) {
       LOG.error("Failed writing to " + this.getClass().getSimpleName(), e);
       throw new RuntimeException(e);
@@ -71,11 +63,7 @@ public class AltoXMLExporter extends AbstractExporter implements DocumentObserve
   @Override
   public void onDocumentStartInternal(JochreDocument jochreDocument) {
     try {
-      Configuration cfg = new Configuration(new Version(2, 3, 23));
-      cfg.setCacheStorage(new NullCacheStorage());
-      cfg.setObjectWrapper(new DefaultObjectWrapperBuilder(new Version(2, 3, 23)).build());
-
-      Reader templateReader = new BufferedReader(new InputStreamReader(AltoXMLExporter.class.getResourceAsStream("alto_header_" + getExactAltoVersion(version) + ".ftl")));
+      Template template = ExportTemplates.getTemplate("alto_header_" + getExactAltoVersion(version) + ".ftl");
       Map<String, Object> model = new HashMap<>();
       model.put("document", jochreDocument);
 
@@ -85,7 +73,6 @@ public class AltoXMLExporter extends AbstractExporter implements DocumentObserve
 
       model.put("version", version);
 
-      Template template = new Template("alto_header", templateReader, cfg);
       template.process(model, writer);
       writer.flush();
     } catch (TemplateException e) {
@@ -125,15 +112,10 @@ public class AltoXMLExporter extends AbstractExporter implements DocumentObserve
   @Override
   public void onDocumentCompleteInternal(JochreDocument jochreDocument) {
     try {
-      Configuration cfg = new Configuration(new Version(2, 3, 23));
-      cfg.setCacheStorage(new NullCacheStorage());
-      cfg.setObjectWrapper(new DefaultObjectWrapperBuilder(new Version(2, 3, 23)).build());
-
-      Reader templateReader = new BufferedReader(new InputStreamReader(AltoXMLExporter.class.getResourceAsStream("alto_footer_" + getExactAltoVersion(version) + ".ftl")));
+      Template template = ExportTemplates.getTemplate("alto_footer_" + getExactAltoVersion(version) + ".ftl");
       Map<String, Object> model = new HashMap<>();
       model.put("document", jochreDocument);
 
-      Template template = new Template("alto_footer", templateReader, cfg);
       template.process(model, writer);
       writer.flush();
     } catch (TemplateException e) {
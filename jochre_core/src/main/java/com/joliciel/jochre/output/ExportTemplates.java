@@ -0,0 +1,46 @@
+package com.joliciel.jochre.output;
+
+import java.io.IOException;
+
+import freemarker.cache.ClassTemplateLoader;
+import freemarker.cache.StrongCacheStorage;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.Template;
+import freemarker.template.Version;
+
+/**
+ * The Freemarker templates used by the exporters in this package. Templates
+ * are parsed the first time they are requested, and then shared by all
+ * exporters for the lifetime of the JVM, rather than being re-parsed for each
+ * document. A parsed template is safe to use from several threads at once.
+ *
+ * @author Assaf Urieli
+ *
+ */
+final class ExportTemplates {
+  private static final Version FREEMARKER_VERSION = new Version(2, 3, 23);
+  private static final Configuration CONFIGURATION = buildConfiguration();
+
+  private ExportTemplates() {
+  }
+
+  private static Configuration buildConfiguration() {
+    Configuration cfg = new Configuration(FREEMARKER_VERSION);
+    cfg.setTemplateLoader(new ClassTemplateLoader(ExportTemplates.class, ""));
+    cfg.setCacheStorage(new StrongCacheStorage());
+    // templates are packaged resources, so they never change once loaded
+    cfg.setTemplateUpdateDelayMilliseconds(Long.MAX_VALUE);
+    cfg.setLocalizedLookup(false);
+    cfg.setDefaultEncoding("UTF-8");
+    cfg.setObjectWrapper(new DefaultObjectWrapperBuilder(FREEMARKER_VERSION).build());
+    return cfg;
+  }
+
+  /**
+   * Get a template from this package's resources, e.g. "alto_body_4_4.ftl".
+   */
+  public static Template getTemplate(String templateName) throws IOException {
+    return CONFIGURATION.getTemplate(templateName);
+  }
+}
@@ -1,13 +1,10 @@
 package com.joliciel.jochre.output;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.io.Reader;
 import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
@@ -22,12 +19,8 @@ import com.joliciel.jochre.doc.JochreDocument;
 import com.joliciel.jochre.doc.JochrePage;
 import com.joliciel.jochre.graphics.JochreImage;
 
-import freemarker.cache.NullCacheStorage;
-import freemarker.template.Configuration;
-import freemarker.template.DefaultObjectWrapperBuilder;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
-import freemarker.template.Version;
 
 /**
  * Outputs to Jochre's lossless XML format on a page-by-page basis, along with
@@ -49,12 +42,7 @@ public class JochrePageByPageExporter implements DocumentObserver {
       zipWriter = new BufferedWriter(new OutputStreamWriter(zos, "UTF-8"));
 
       this.baseName = baseName;
-      Configuration cfg = new Configuration(new Version(2, 3, 23));
-      cfg.setCacheStorage(new NullCacheStorage());
-      cfg.setObjectWrapper(new DefaultObjectWrapperBuilder(new Version(2, 3, 23)).build());
-
-      Reader templateReader = new BufferedReader(new InputStreamReader(JochrePageByPageExporter.class.getResourceAsStream("jochre.ftl")));
-      this.template = new Template("freemarkerTemplate", templateReader, cfg);
+      this.template = ExportTemplates.getTemplate("jochre.ftl");
     } catch (IOException e) {
       LOG.error("Failed writing to JochrePageByPageExporter", e);
       throw new RuntimeException(e);
@@ -38,7 +38,22 @@ public class PdfDocumentProcessor extends PdfImageVisitor implements Runnable {
    *          we go).
    */
   public PdfDocumentProcessor(File pdfFile, Set<Integer> pages, SourceFileProcessor documentProcessor) {
-    super(pdfFile, pages);
+    this(pdfFile, pages, documentProcessor, DEFAULT_MAX_MAIN_MEMORY);
+  }
+
+  /**
+   * @param pages
+   *          Pages to process, empty set means all pages
+   * @param documentProcessor
+   *          a processor for the document being created (to allow processing as
+   *          we go).
+   * @param maxMainMemory
+   *          the maximum number of bytes of the pdf file to buffer in memory,
+   *          beyond which a temporary scratch file is used
+   */
+  public PdfDocumentProcessor(File pdfFile, Set<Integer> pages, SourceFileProcessor documentProcessor,
+      long maxMainMemory) {
+    super(pdfFile, pages, maxMainMemory);
     this.documentProcessor = documentProcessor;
     this.addImageObserver(new JochreImageVisitor());
   }
@@ -48,7 +48,7 @@ public class SecurityDao {
 
   public static Map<String, SecurityDao> instances = new HashMap<>();
 
-  public static SecurityDao getInstance(JochreSession jochreSession) {
+  public static synchronized SecurityDao getInstance(JochreSession jochreSession) {
     String key = DaoConfig.getKey(jochreSession.getConfig().getConfig("jochre.jdbc"));
     SecurityDao instance = instances.get(key);
     if (instance == null) {
@@ -19,8 +19,12 @@
 package com.joliciel.jochre.stats;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
@@ -30,6 +34,9 @@ import org.slf4j.LoggerFactory;
 /**
  * Performs clustering on a dataset using the DBSCAN algorithm,
  * and the Euclidean distance between coordinates corresponding to each object.
+ * Clusters, and the objects within each cluster, are returned in the order in
+ * which they were found, so that results don't depend on the objects' hash
+ * codes.
  * 
  * @author Assaf Urieli
  *
@@ -41,6 +48,8 @@ public class DBSCANClusterer<T> {
   List<double[]> dataSet;
   boolean[] visited;
   List<Set<T>> clusterList;
+  Map<Long, List<Integer>> grid;
+  double cellSize;
   
   public DBSCANClusterer(List<T> objectSet, List<double[]> dataSet) {
     if (objectSet.size()!=dataSet.size())
@@ -63,12 +72,13 @@ public class DBSCANClusterer<T> {
              C = next cluster
              expandCluster(P, N, C, eps, MinPts)
      */
-    Set<Set<T>> clusters = new HashSet<Set<T>>();
-    Set<T> noise = new HashSet<T>();
+    Set<Set<T>> clusters = new LinkedHashSet<Set<T>>();
+    Set<T> noise = new LinkedHashSet<T>();
     this.visited = new boolean[dataSet.size()];
     this.clusterList = new ArrayList<Set<T>>(dataSet.size());
     for (int i = 0; i < dataSet.size(); i++)
       this.clusterList.add(null);
+    this.buildGrid(epsilon);
     
     Set<T> cluster = null;
     
@@ -80,7 +90,7 @@ public class DBSCANClusterer<T> {
       if (neighbours.size()<minPoints - 1)
         noise.add(objectSet.get(index));
       else {
-        cluster = new HashSet<T>();
+        cluster = new LinkedHashSet<T>();
         expandCluster(index, neighbours, cluster, epsilon, minPoints);
         clusters.add(cluster);
       }
@@ -89,7 +99,7 @@ public class DBSCANClusterer<T> {
     LOG.debug("Found " + noise.size() + " noise"); 
     if (includeNoise) {
       for (T object : noise) {
-        Set<T> oneObject = new HashSet<T>();
+        Set<T> oneObject = new LinkedHashSet<T>();
         oneObject.add(object);
         clusters.add(oneObject);
         
@@ -133,10 +143,74 @@ public class DBSCANClusterer<T> {
     }
   }
 
+  /**
+   * For two-dimensional data, place each point in a grid of cells twice as
+   * wide as epsilon, so that neighbours only need to be sought in the
+   * surrounding cells.
+   */
+  private void buildGrid(double epsilon) {
+    this.grid = null;
+    if (dataSet.size() == 0 || !(epsilon > 0) || Double.isInfinite(epsilon))
+      return;
+    for (double[] point : dataSet) {
+      if (point.length != 2)
+        return;
+    }
+    this.cellSize = epsilon * 2;
+    this.grid = new HashMap<Long, List<Integer>>();
+    for (int j = 0; j < dataSet.size(); j++) {
+      double[] point = dataSet.get(j);
+      long cell = this.getCell(this.getCellIndex(point[0]), this.getCellIndex(point[1]));
+      List<Integer> cellPoints = grid.get(cell);
+      if (cellPoints == null) {
+        cellPoints = new ArrayList<Integer>();
+        grid.put(cell, cellPoints);
+      }
+      cellPoints.add(j);
+    }
+  }
+
+  private long getCellIndex(double coordinate) {
+    return (long) Math.floor(coordinate / cellSize);
+  }
+
+  private long getCell(long x, long y) {
+    return (x << 32) ^ (y & 0xffffffffL);
+  }
+
+  /**
+   * Get the points which could be neighbours of a given point, in ascending
+   * order.
+   */
+  private List<Integer> getCandidates(int i) {
+    double[] point = dataSet.get(i);
+    long cellX = this.getCellIndex(point[0]);
+    long cellY = this.getCellIndex(point[1]);
+    List<Integer> candidates = new ArrayList<Integer>();
+    for (long x = cellX - 1; x <= cellX + 1; x++) {
+      for (long y = cellY - 1; y <= cellY + 1; y++) {
+        List<Integer> cellPoints = grid.get(this.getCell(x, y));
+        if (cellPoints != null)
+          candidates.addAll(cellPoints);
+      }
+    }
+    Collections.sort(candidates);
+    return candidates;
+  }
+
   /**
    * Get neighbours based on Euclidean distance.
    */
   Set<Integer> getNeighbours(int i, double epsilon) {
+    if (grid != null && epsilon * 2 == cellSize) {
+      Set<Integer> neighbours = new HashSet<Integer>();
+      for (int j : this.getCandidates(i)) {
+        if (i != j && this.getDistance(dataSet.get(i), dataSet.get(j)) <= epsilon)
+          neighbours.add(j);
+      }
+      return neighbours;
+    }
+
     Set<Integer> neighbours = new HashSet<Integer>();
     double[] point = dataSet.get(i);
     int dimensions = point.length;
@@ -155,4 +229,13 @@ public class DBSCANClusterer<T> {
     }
     return neighbours;
   }
+
+  private double getDistance(double[] point, double[] otherPoint) {
+    double sum = 0.0;
+    for (int n = 0; n < point.length; n++) {
+      double diff = point[n] - otherPoint[n];
+      sum += (diff * diff);
+    }
+    return Math.sqrt(sum);
+  }
 }
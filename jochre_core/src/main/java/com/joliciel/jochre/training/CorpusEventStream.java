@@ -0,0 +1,280 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.training;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.joliciel.jochre.JochreSession;
+import com.joliciel.jochre.graphics.JochreCorpusSnapshot;
+import com.joliciel.jochre.utils.JochreException;
+import com.joliciel.talismane.machineLearning.ClassificationEvent;
+import com.joliciel.talismane.machineLearning.ClassificationEventStream;
+import com.joliciel.talismane.machineLearning.features.Feature;
+import com.typesafe.config.Config;
+
+/**
+ * A base class for event streams reading the training corpus, which extracts
+ * the features for several units of the corpus (e.g. groups or shapes) at a
+ * time on a pool of worker threads.<br>
+ * <br>
+ * Units are read from the corpus in order on the thread calling the stream,
+ * and the events for each unit are returned in that same order, so that the
+ * events, and hence the trained model, are identical whatever the thread count.
+ * <br>
+ * <br>
+ * If an event cache directory is configured, the events are also written to a
+ * cache file, keyed by the stream's attributes (including the corpus selection
+ * criteria) and features. Any subsequent stream with the same key reads its
+ * events from the cache without touching the corpus. The cache isn't aware of
+ * changes to the corpus itself, so cache files need to be deleted whenever the
+ * corpus is modified.
+ * 
+ * @param <T>
+ *          the unit of the corpus for which events are extracted together
+ * 
+ * @author Assaf Urieli
+ *
+ */
+public abstract class CorpusEventStream<T> implements ClassificationEventStream {
+  private static final Logger LOG = LoggerFactory.getLogger(CorpusEventStream.class);
+
+  protected final JochreSession jochreSession;
+  private final int threadCount;
+  private final int maxPendingUnits;
+  private final File eventCacheDir;
+
+  private final Deque<Future<List<ClassificationEvent>>> pendingUnits = new ArrayDeque<>();
+  private final Deque<ClassificationEvent> events = new ArrayDeque<>();
+  private boolean initialised = false;
+  private boolean corpusFinished = false;
+  private ExecutorService executor = null;
+
+  private File cacheFile = null;
+  private File tempCacheFile = null;
+  private EventCache.Reader cacheReader = null;
+  private EventCache.Writer cacheWriter = null;
+
+  public CorpusEventStream(JochreSession jochreSession) {
+    this.jochreSession = jochreSession;
+    Config trainingConfig = jochreSession.getConfig().getConfig("jochre.training");
+    this.threadCount = trainingConfig.getInt("thread-count");
+    int maxPendingUnits = trainingConfig.getInt("max-pending-units");
+    if (maxPendingUnits <= 0)
+      maxPendingUnits = threadCount * 2;
+    this.maxPendingUnits = maxPendingUnits;
+    if (trainingConfig.hasPath("event-cache-dir"))
+      this.eventCacheDir = new File(trainingConfig.getString("event-cache-dir"));
+    else
+      this.eventCacheDir = null;
+  }
+
+  /**
+   * Read the next unit from the corpus, or return null if there are none left.
+   * Always called on the thread calling the stream.
+   */
+  protected abstract T nextUnit();
+
+  /**
+   * Extract the events for a single unit, in order. May be called on a worker
+   * thread, concurrently with other units.
+   */
+  protected abstract List<ClassificationEvent> getEvents(T unit);
+
+  /**
+   * The features analysed by this stream, used to identify cached events.
+   */
+  protected abstract Collection<? extends Feature<?, ?>> getFeatures();
+
+  /**
+   * Any attributes other than {@link #getAttributes()} which affect the events
+   * extracted, used to identify cached events.
+   */
+  protected void addCacheAttributes(Map<String, String> cacheAttributes) {
+  }
+
+  /**
+   * Called once all events have been returned.
+   */
+  protected void onStreamComplete() {
+  }
+
+  @Override
+  public boolean hasNext() {
+    this.initialiseStream();
+    try {
+      while (events.isEmpty()) {
+        if (cacheReader != null) {
+          ClassificationEvent event = cacheReader.readEvent();
+          if (event == null) {
+            cacheReader.close();
+            cacheReader = null;
+            break;
+          }
+          events.add(event);
+          continue;
+        }
+
+        while (!corpusFinished && pendingUnits.size() < maxPendingUnits) {
+          T unit = this.nextUnit();
+          if (unit == null) {
+            corpusFinished = true;
+          } else if (executor == null) {
+            pendingUnits.add(CompletableFuture.completedFuture(this.getEvents(unit)));
+          } else {
+            pendingUnits.add(executor.submit(() -> this.getEvents(unit)));
+          }
+        }
+
+        if (pendingUnits.isEmpty()) {
+          this.finishStream();
+          break;
+        }
+
+        List<ClassificationEvent> unitEvents = this.getResult(pendingUnits.pollFirst());
+        if (cacheWriter != null) {
+          for (ClassificationEvent event : unitEvents)
+            cacheWriter.writeEvent(event);
+        }
+        events.addAll(unitEvents);
+      }
+    } catch (IOException e) {
+      throw new JochreException(e);
+    }
+    return !events.isEmpty();
+  }
+
+  @Override
+  public ClassificationEvent next() {
+    if (this.hasNext())
+      return events.pollFirst();
+    return null;
+  }
+
+  private void initialiseStream() {
+    if (initialised)
+      return;
+    initialised = true;
+    try {
+      if (eventCacheDir != null) {
+        cacheFile = new File(eventCacheDir, this.getClass().getSimpleName() + "_" + this.getCacheKey() + ".events.gz");
+        if (cacheFile.exists()) {
+          LOG.info("Reading events from cache: " + cacheFile.getPath());
+          cacheReader = new EventCache.Reader(cacheFile);
+          return;
+        }
+        eventCacheDir.mkdirs();
+        tempCacheFile = new File(eventCacheDir, cacheFile.getName() + ".tmp");
+        LOG.info("Writing events to cache: " + cacheFile.getPath());
+        cacheWriter = new EventCache.Writer(tempCacheFile);
+      }
+    } catch (IOException e) {
+      throw new JochreException(e);
+    }
+
+    if (threadCount > 1) {
+      LOG.debug("Extracting features on " + threadCount + " threads");
+      AtomicInteger threadIndex = new AtomicInteger(0);
+      executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+        Thread thread = new Thread(runnable, "jochre-features-" + threadIndex.incrementAndGet());
+        // don't stop the JVM from exiting if training fails mid-way
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  private void finishStream() throws IOException {
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+    if (cacheWriter != null) {
+      cacheWriter.close();
+      cacheWriter = null;
+      // only publish the cache once it's complete
+      if (!tempCacheFile.renameTo(cacheFile))
+        throw new JochreException("Unable to rename " + tempCacheFile.getPath() + " to " + cacheFile.getPath());
+    }
+    this.onStreamComplete();
+  }
+
+  private List<ClassificationEvent> getResult(Future<List<ClassificationEvent>> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new JochreException(e);
+    } catch (ExecutionException e) {
+      if (executor != null)
+        executor.shutdownNow();
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new JochreException(e.getCause());
+    }
+  }
+
+  /**
+   * A hash of everything which determines the events in this stream.
+   */
+  private String getCacheKey() {
+    Map<String, String> cacheAttributes = new TreeMap<>(this.getAttributes());
+    this.addCacheAttributes(cacheAttributes);
+    JochreCorpusSnapshot snapshot = jochreSession.getCorpusSnapshot();
+    if (snapshot != null) {
+      cacheAttributes.put("corpusSnapshot", snapshot.getFile().getAbsolutePath());
+      cacheAttributes.put("corpusSnapshotModified", "" + snapshot.getFile().lastModified());
+    }
+
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, String> attribute : cacheAttributes.entrySet())
+      sb.append(attribute.getKey()).append('=').append(attribute.getValue()).append('\n');
+    for (Feature<?, ?> feature : this.getFeatures())
+      sb.append(feature.getName()).append('\n');
+
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      byte[] hash = digest.digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+      StringBuilder key = new StringBuilder();
+      for (byte b : hash)
+        key.append(String.format("%02x", b));
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new JochreException(e);
+    }
+  }
+}
@@ -0,0 +1,228 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.training;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.joliciel.jochre.utils.JochreException;
+import com.joliciel.talismane.machineLearning.ClassificationEvent;
+import com.joliciel.talismane.machineLearning.features.Feature;
+import com.joliciel.talismane.machineLearning.features.FeatureResult;
+import com.joliciel.talismane.utils.WeightedOutcome;
+
+/**
+ * Reads and writes classification events in the event cache format. Only the
+ * information used by model trainers is retained for each feature result: the
+ * training name and the outcome. Each distinct training name and
+ * classification is written out once, and referred to by index thereafter.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+final class EventCache {
+  private static final byte BOOLEAN = 0;
+  private static final byte DOUBLE = 1;
+  private static final byte INTEGER = 2;
+  private static final byte STRING = 3;
+  private static final byte WEIGHTED_STRINGS = 4;
+
+  private EventCache() {
+  }
+
+  static final class Writer implements Closeable {
+    private final DataOutputStream out;
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+    public Writer(File file) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+    }
+
+    public void writeEvent(ClassificationEvent event) throws IOException {
+      out.writeBoolean(true);
+      this.writeString(event.getClassification());
+      out.writeInt(event.getFeatureResults().size());
+      for (FeatureResult<?> featureResult : event.getFeatureResults()) {
+        this.writeString(featureResult.getTrainingName());
+        Object outcome = featureResult.getOutcome();
+        if (outcome instanceof Boolean) {
+          out.writeByte(BOOLEAN);
+          out.writeBoolean((Boolean) outcome);
+        } else if (outcome instanceof Double) {
+          out.writeByte(DOUBLE);
+          out.writeDouble((Double) outcome);
+        } else if (outcome instanceof Integer) {
+          out.writeByte(INTEGER);
+          out.writeInt((Integer) outcome);
+        } else if (outcome instanceof String) {
+          out.writeByte(STRING);
+          this.writeString((String) outcome);
+        } else if (outcome instanceof List) {
+          out.writeByte(WEIGHTED_STRINGS);
+          @SuppressWarnings("unchecked")
+          List<WeightedOutcome<String>> weightedOutcomes = (List<WeightedOutcome<String>>) outcome;
+          out.writeInt(weightedOutcomes.size());
+          for (WeightedOutcome<String> weightedOutcome : weightedOutcomes) {
+            this.writeString(weightedOutcome.getOutcome());
+            out.writeDouble(weightedOutcome.getWeight());
+          }
+        } else {
+          throw new JochreException(
+              "Cannot cache feature result " + featureResult.getTrainingName() + " of type " + outcome.getClass().getName());
+        }
+      }
+    }
+
+    private void writeString(String string) throws IOException {
+      Integer index = stringIndexes.get(string);
+      if (index == null) {
+        index = stringIndexes.size();
+        stringIndexes.put(string, index);
+        out.writeInt(index);
+        out.writeUTF(string);
+      } else {
+        out.writeInt(index);
+      }
+    }
+
+    /**
+     * Mark the end of the events, and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+      out.writeBoolean(false);
+      out.close();
+    }
+  }
+
+  static final class Reader implements Closeable {
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+
+    public Reader(File file) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+    }
+
+    /**
+     * Read the next event, or null if there are none left.
+     */
+    public ClassificationEvent readEvent() throws IOException {
+      if (!in.readBoolean())
+        return null;
+      String classification = this.readString();
+      int featureResultCount = in.readInt();
+      List<FeatureResult<?>> featureResults = new ArrayList<>(featureResultCount);
+      for (int i = 0; i < featureResultCount; i++) {
+        String trainingName = this.readString();
+        byte type = in.readByte();
+        Object outcome;
+        switch (type) {
+        case BOOLEAN:
+          outcome = in.readBoolean();
+          break;
+        case DOUBLE:
+          outcome = in.readDouble();
+          break;
+        case INTEGER:
+          outcome = in.readInt();
+          break;
+        case STRING:
+          outcome = this.readString();
+          break;
+        case WEIGHTED_STRINGS:
+          int weightedOutcomeCount = in.readInt();
+          List<WeightedOutcome<String>> weightedOutcomes = new ArrayList<>(weightedOutcomeCount);
+          for (int j = 0; j < weightedOutcomeCount; j++)
+            weightedOutcomes.add(new WeightedOutcome<>(this.readString(), in.readDouble()));
+          outcome = weightedOutcomes;
+          break;
+        default:
+          throw new JochreException("Unknown feature result type in event cache: " + type);
+        }
+        featureResults.add(new CachedFeatureResult<>(trainingName, outcome));
+      }
+      return new ClassificationEvent(featureResults, classification);
+    }
+
+    private String readString() throws IOException {
+      int index = in.readInt();
+      if (index == strings.size())
+        strings.add(in.readUTF());
+      return strings.get(index);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * A feature result read from the cache. As the feature itself isn't
+   * available, {@link #getFeature()} returns null.
+   */
+  private static final class CachedFeatureResult<T> implements FeatureResult<T> {
+    private final String trainingName;
+    private final T outcome;
+
+    public CachedFeatureResult(String trainingName, T outcome) {
+      this.trainingName = trainingName;
+      this.outcome = outcome;
+    }
+
+    @Override
+    public Feature<?, T> getFeature() {
+      return null;
+    }
+
+    @Override
+    public T getOutcome() {
+      return outcome;
+    }
+
+    @Override
+    public String getTrainingName() {
+      return trainingName;
+    }
+
+    @Override
+    public String getTrainingOutcome(String outcome) {
+      // same substitutions as the original feature results
+      return outcome.replace(' ', '·').replace('=', '≈').replace('\n', '¬');
+    }
+
+    @Override
+    public String toString() {
+      return trainingName + ": " + outcome;
+    }
+  }
+}
@@ -3,6 +3,9 @@
  * plain text is provided against a given entity (e.g. a group of shapes, a
  * page), and the system must transform it into training data. More
  * specifically, each letter in the text has to be aligned with a rectangle
- * within the entity.
+ * within the entity.<br>
+ * <br>
+ * Also contains the base class for the event streams used to train models from
+ * the training corpus.
  */
 package com.joliciel.jochre.training;
\ No newline at end of file
@@ -0,0 +1,236 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.doc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.joliciel.jochre.JochreSession;
+import com.joliciel.jochre.graphics.JochreImage;
+import com.typesafe.config.ConfigFactory;
+
+public class OrderedObserverDispatcherTest {
+  private JochreSession jochreSession;
+
+  @Before
+  public void setUp() throws Exception {
+    System.setProperty("config.file", "src/test/resources/test.conf");
+    ConfigFactory.invalidateCaches();
+    jochreSession = new JochreSession(ConfigFactory.load());
+  }
+
+  /**
+   * Images completed out of order should still reach the observers in the order
+   * in which they were submitted, between their page's start and end events.
+   */
+  @Test
+  public void testOrdering() throws Exception {
+    RecordingObserver observer = new RecordingObserver();
+    OrderedObserverDispatcher dispatcher = new OrderedObserverDispatcher(Collections.singletonList(observer), 10);
+
+    JochrePage page1 = this.newPage(1);
+    JochrePage page2 = this.newPage(2);
+    CompletableFuture<JochreImage> image1 = new CompletableFuture<>();
+    CompletableFuture<JochreImage> image2 = new CompletableFuture<>();
+    CompletableFuture<JochreImage> image3 = new CompletableFuture<>();
+
+    List<String> completed = new ArrayList<>();
+    dispatcher.onPageStart(page1);
+    dispatcher.onImageProcessing(page1, image1);
+    dispatcher.onImageProcessing(page1, image2);
+    dispatcher.onPageComplete(page1, () -> completed.add("page1"));
+    dispatcher.onPageStart(page2);
+    dispatcher.onImageProcessing(page2, image3);
+    dispatcher.onPageComplete(page2, () -> completed.add("page2"));
+
+    // only the first page start can be dispatched so far
+    assertEquals(Collections.singletonList("pageStart 1"), observer.events);
+
+    image3.complete(this.newImage(3));
+    image2.complete(this.newImage(2));
+    image1.complete(this.newImage(1));
+    dispatcher.flush();
+
+    List<String> expected = new ArrayList<>();
+    expected.add("pageStart 1");
+    expected.add("imageStart 1");
+    expected.add("imageComplete 1");
+    expected.add("imageStart 2");
+    expected.add("imageComplete 2");
+    expected.add("pageComplete 1");
+    expected.add("pageStart 2");
+    expected.add("imageStart 3");
+    expected.add("imageComplete 3");
+    expected.add("pageComplete 2");
+    assertEquals(expected, observer.events);
+
+    List<String> expectedCompleted = new ArrayList<>();
+    expectedCompleted.add("page1");
+    expectedCompleted.add("page2");
+    assertEquals(expectedCompleted, completed);
+
+    assertEquals(2, page1.getImages().size());
+    assertEquals(1, page1.getImages().get(0).getIndex());
+    assertEquals(2, page1.getImages().get(1).getIndex());
+    assertEquals(1, page2.getImages().size());
+  }
+
+  /**
+   * Events for images which are already done are passed on immediately, without
+   * waiting for a flush.
+   */
+  @Test
+  public void testReadyEventsDispatchedEagerly() throws Exception {
+    RecordingObserver observer = new RecordingObserver();
+    OrderedObserverDispatcher dispatcher = new OrderedObserverDispatcher(Collections.singletonList(observer), 10);
+
+    JochrePage page = this.newPage(1);
+    dispatcher.onPageStart(page);
+    dispatcher.onImageProcessing(page, CompletableFuture.completedFuture(this.newImage(1)));
+
+    List<String> expected = new ArrayList<>();
+    expected.add("pageStart 1");
+    expected.add("imageStart 1");
+    expected.add("imageComplete 1");
+    assertEquals(expected, observer.events);
+  }
+
+  /**
+   * Once the maximum number of images are pending, adding another image should
+   * block until the first pending image is complete.
+   */
+  @Test
+  public void testBackPressure() throws Exception {
+    RecordingObserver observer = new RecordingObserver();
+    OrderedObserverDispatcher dispatcher = new OrderedObserverDispatcher(Collections.singletonList(observer), 2);
+
+    JochrePage page = this.newPage(1);
+    CompletableFuture<JochreImage> image1 = new CompletableFuture<>();
+    CompletableFuture<JochreImage> image2 = new CompletableFuture<>();
+    dispatcher.onPageStart(page);
+    dispatcher.onImageProcessing(page, image1);
+
+    AtomicBoolean returned = new AtomicBoolean(false);
+    CountDownLatch started = new CountDownLatch(1);
+    Thread producer = new Thread(() -> {
+      started.countDown();
+      dispatcher.onImageProcessing(page, image2);
+      returned.set(true);
+    });
+    producer.start();
+    started.await();
+
+    // the second image fills the pending images, so the call shouldn't return
+    producer.join(200);
+    assertFalse(returned.get());
+
+    image1.complete(this.newImage(1));
+    producer.join(TimeUnit.SECONDS.toMillis(10));
+    assertTrue(returned.get());
+
+    List<String> expected = new ArrayList<>();
+    expected.add("pageStart 1");
+    expected.add("imageStart 1");
+    expected.add("imageComplete 1");
+    assertEquals(expected, observer.events);
+
+    image2.complete(this.newImage(2));
+    dispatcher.flush();
+    assertEquals(5, observer.events.size());
+    assertEquals("imageComplete 2", observer.events.get(4));
+  }
+
+  /**
+   * An exception thrown while processing an image should be passed on to the
+   * calling thread.
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testException() throws Exception {
+    RecordingObserver observer = new RecordingObserver();
+    OrderedObserverDispatcher dispatcher = new OrderedObserverDispatcher(Collections.singletonList(observer), 10);
+
+    JochrePage page = this.newPage(1);
+    CompletableFuture<JochreImage> image1 = new CompletableFuture<>();
+    dispatcher.onPageStart(page);
+    dispatcher.onImageProcessing(page, image1);
+    image1.completeExceptionally(new IllegalStateException("segmentation failed"));
+    dispatcher.flush();
+  }
+
+  private JochrePage newPage(int index) {
+    JochrePage page = new JochrePage(jochreSession);
+    page.setIndex(index);
+    return page;
+  }
+
+  private JochreImage newImage(int index) {
+    JochreImage image = new JochreImage(new BufferedImage(8, 8, BufferedImage.TYPE_BYTE_GRAY), jochreSession);
+    image.setIndex(index);
+    return image;
+  }
+
+  private static final class RecordingObserver implements DocumentObserver {
+    private final List<String> events = new ArrayList<>();
+
+    @Override
+    public void onDocumentStart(JochreDocument jochreDocument) {
+    }
+
+    @Override
+    public void onPageStart(JochrePage jochrePage) {
+      events.add("pageStart " + jochrePage.getIndex());
+    }
+
+    @Override
+    public void onImageStart(JochreImage jochreImage) {
+      events.add("imageStart " + jochreImage.getIndex());
+    }
+
+    @Override
+    public void onImageComplete(JochreImage jochreImage) {
+      events.add("imageComplete " + jochreImage.getIndex());
+    }
+
+    @Override
+    public void onPageComplete(JochrePage jochrePage) {
+      events.add("pageComplete " + jochrePage.getIndex());
+    }
+
+    @Override
+    public void onDocumentComplete(JochreDocument jochreDocument) {
+    }
+
+    @Override
+    public void onAnalysisComplete() {
+    }
+  }
+}
@@ -0,0 +1,175 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.joliciel.jochre.JochreSession;
+import com.joliciel.jochre.boundaries.Split;
+import com.joliciel.jochre.doc.JochreDocument;
+import com.joliciel.jochre.doc.JochrePage;
+import com.typesafe.config.ConfigFactory;
+
+public class JochreCorpusSnapshotTest {
+
+  /**
+   * An image written to a snapshot should be read back with the same
+   * documents, pages, paragraphs, rows, groups, shapes and splits, without
+   * accessing the database.
+   */
+  @Test
+  public void testWriteAndRead() throws Exception {
+    System.setProperty("config.file", "src/test/resources/test.conf");
+    ConfigFactory.invalidateCaches();
+    JochreSession jochreSession = new JochreSession(ConfigFactory.load());
+
+    JochreDocument doc = new JochreDocument(jochreSession);
+    doc.setName("Doc");
+    doc.setYear(1920);
+    JochrePage page = doc.newPage();
+    page.setIndex(7);
+    JochreImage image = new JochreImage(jochreSession);
+    image.setName("Image");
+    image.setWidth(100);
+    image.setHeight(50);
+    image.setBlackThreshold(120);
+    image.setImageStatus(ImageStatus.TRAINING_VALIDATED);
+    page.addJochreImage(image);
+
+    Paragraph paragraph = new Paragraph(jochreSession);
+    paragraph.setId(11);
+    paragraph.setImage(image);
+    RowOfShapes row = new RowOfShapes(jochreSession);
+    row.setId(21);
+    row.setXHeight(6);
+    row.setParagraph(paragraph);
+    List<GroupOfShapes> groups = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      GroupOfShapes group = new GroupOfShapes(jochreSession);
+      group.setId(31 + i);
+      group.setIndex(i);
+      group.setBrokenWord(i == 1);
+      group.setRow(row);
+      List<Shape> shapes = new ArrayList<>();
+      for (int j = 0; j < 2; j++) {
+        Shape shape = new Shape(jochreSession);
+        shape.setId(41 + i * 2 + j);
+        shape.setIndex(j);
+        shape.setGroupId(group.getId());
+        shape.setLeft(j * 10);
+        shape.setTop(5);
+        shape.setRight(j * 10 + 3);
+        shape.setBottom(6);
+        shape.setLetter(i == 0 && j == 0 ? "|א" : "ב");
+        int[] pixels = new int[] { 0, 255, 0, 255, 255, 0, 255, (i * 2 + j) * 50 };
+        shape.setPixelGrabber(new ImagePixelGrabberMock(pixels, 4, 2));
+        List<Split> splits = new ArrayList<>();
+        if (j == 1) {
+          Split split = new Split(shape, jochreSession);
+          split.setId(51 + i);
+          split.setPosition(2);
+          splits.add(split);
+        }
+        shape.setSplits(splits);
+        shapes.add(shape);
+      }
+      group.addShapes(shapes);
+      groups.add(group);
+    }
+    row.setGroups(groups);
+    paragraph.setRows(Arrays.asList(row));
+    image.setParagraphs(new ArrayList<>(Arrays.asList(paragraph)));
+
+    // ids are set once the image is attached, so that nothing gets loaded from
+    // the database
+    page.setId(3);
+    doc.setId(2);
+    image.setPage(page);
+    image.setId(4);
+
+    File file = File.createTempFile("corpus", ".snapshot");
+    try {
+      assertEquals(1, JochreCorpusSnapshot.write(Arrays.asList(image).iterator(), file));
+
+      try (JochreCorpusSnapshot snapshot = new JochreCorpusSnapshot(file, jochreSession)) {
+        assertEquals(1, snapshot.getImages().size());
+        JochreImage readImage = snapshot.getImages().get(0);
+        assertEquals(4, readImage.getId());
+        assertEquals("Image", readImage.getName());
+        assertEquals(100, readImage.getWidth());
+        assertEquals(50, readImage.getHeight());
+        assertEquals(120, readImage.getBlackThreshold());
+        assertEquals(ImageStatus.TRAINING_VALIDATED, readImage.getImageStatus());
+        // the shape count is available before the image's contents are read
+        assertEquals(4, readImage.getShapeCount());
+
+        JochrePage readPage = readImage.getPage();
+        assertEquals(3, readPage.getId());
+        assertEquals(7, readPage.getIndex());
+        assertEquals(2, readPage.getDocumentId());
+        assertEquals("Doc", readPage.getDocument().getName());
+        assertEquals(1920, readPage.getDocument().getYear());
+
+        assertEquals(1, readImage.getParagraphs().size());
+        Paragraph readParagraph = readImage.getParagraphs().get(0);
+        assertEquals(11, readParagraph.getId());
+        assertEquals(1, readParagraph.getRows().size());
+        RowOfShapes readRow = readParagraph.getRows().get(0);
+        assertEquals(21, readRow.getId());
+        assertEquals(6, readRow.getXHeight());
+        assertEquals(2, readRow.getGroups().size());
+        for (int i = 0; i < 2; i++) {
+          GroupOfShapes readGroup = readRow.getGroups().get(i);
+          assertEquals(31 + i, readGroup.getId());
+          assertEquals(i == 1, readGroup.isBrokenWord());
+          assertEquals(2, readGroup.getShapes().size());
+          for (int j = 0; j < 2; j++) {
+            Shape shape = groups.get(i).getShapes().get(j);
+            Shape readShape = readGroup.getShapes().get(j);
+            assertEquals(shape.getId(), readShape.getId());
+            assertEquals(shape.getLeft(), readShape.getLeft());
+            assertEquals(shape.getTop(), readShape.getTop());
+            assertEquals(shape.getRight(), readShape.getRight());
+            assertEquals(shape.getBottom(), readShape.getBottom());
+            assertEquals(shape.getLetter(), readShape.getLetter());
+            for (int y = 0; y < 2; y++)
+              for (int x = 0; x < 4; x++)
+                assertEquals(shape.getPixelGrabber().getPixelBrightness(x, y), readShape.getPixelGrabber().getPixelBrightness(x, y));
+            assertEquals(shape.getSplits().size(), readShape.getSplits().size());
+            for (Split readSplit : readShape.getSplits()) {
+              assertEquals(51 + i, readSplit.getId());
+              assertEquals(2, readSplit.getPosition());
+              assertTrue(readSplit.getShape() == readShape);
+            }
+          }
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+}
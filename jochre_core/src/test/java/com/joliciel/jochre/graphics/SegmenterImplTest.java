@@ -19,11 +19,19 @@
 package com.joliciel.jochre.graphics;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.imageio.ImageIO;
+
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -211,4 +219,61 @@ public class SegmenterImplTest {
     }
   }
 
+  /**
+   * Parallel segmentation should give exactly the same rows, groups and shapes
+   * as sequential segmentation, with or without split-and-join.
+   */
+  @Test
+  public void testParallelSegmentation() throws Exception {
+    String[] imageNames = new String[] { "MegileLiderZeresh.png", "MendeleMoykherSforimVol1_41_0Excerpt.png",
+        "MotlPeysiDemKhazns2RowsShort2.jpg", "JoinedLetterTest.png" };
+    for (String imageName : imageNames) {
+      for (boolean splitAndJoin : new boolean[] { false, true }) {
+        String sequential = this.segment(imageName, false, splitAndJoin);
+        String parallel = this.segment(imageName, true, splitAndJoin);
+        assertTrue(imageName, sequential.length() > 0);
+        assertEquals(imageName + ", splitAndJoin=" + splitAndJoin, sequential, parallel);
+      }
+    }
+  }
+
+  /**
+   * Segment an image, and describe the resulting rows, groups and shapes by
+   * their coordinates.
+   */
+  private String segment(String imageName, boolean parallel, boolean splitAndJoin) throws Exception {
+    // the image is read each time, since segmentation may alter it
+    BufferedImage image = null;
+    try (InputStream imageFileStream = getClass().getResourceAsStream("/com/joliciel/jochre/test/resources/" + imageName)) {
+      assertNotNull(imageFileStream);
+      image = ImageIO.read(imageFileStream);
+    }
+
+    System.setProperty("config.file", "src/test/resources/test.conf");
+    ConfigFactory.invalidateCaches();
+    Map<String, Object> values = new HashMap<>();
+    values.put("jochre.segmenter.parallel", parallel);
+    Config config = ConfigFactory.parseMap(values).withFallback(ConfigFactory.load());
+    JochreSession jochreSession = new JochreSession(config);
+
+    SourceImage sourceImage = new SourceImage(imageName, image, jochreSession);
+    Segmenter segmenter = new Segmenter(sourceImage, jochreSession);
+    segmenter.setSplitAndJoin(splitAndJoin);
+    segmenter.segment();
+
+    StringBuilder sb = new StringBuilder();
+    for (RowOfShapes row : sourceImage.getRows()) {
+      sb.append("Row ").append(this.describe(row)).append('\n');
+      for (GroupOfShapes group : row.getGroups()) {
+        sb.append("  Group ").append(this.describe(group)).append('\n');
+        for (Shape shape : group.getShapes())
+          sb.append("    Shape ").append(this.describe(shape)).append('\n');
+      }
+    }
+    return sb.toString();
+  }
+
+  private String describe(Rectangle rectangle) {
+    return rectangle.getLeft() + "," + rectangle.getTop() + "," + rectangle.getRight() + "," + rectangle.getBottom();
+  }
 }
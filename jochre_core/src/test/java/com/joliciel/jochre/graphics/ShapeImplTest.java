@@ -18,7 +18,10 @@
 //////////////////////////////////////////////////////////////////////////////
 package com.joliciel.jochre.graphics;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import java.awt.image.BufferedImage;
 import java.util.BitSet;
@@ -801,4 +804,37 @@ public class ShapeImplTest {
       }
     }
   }
+
+  @Test
+  public void testGetBrightnessBySectionCachedByMarginWidths() throws Exception {
+    System.setProperty("config.file", "src/test/resources/test.conf");
+    ConfigFactory.invalidateCaches();
+    Config config = ConfigFactory.load();
+    JochreSession jochreSession = new JochreSession(config);
+
+    BufferedImage originalImage = new BufferedImage(64, 32, BufferedImage.TYPE_BYTE_GRAY);
+    for (int y = 0; y < 32; y++)
+      for (int x = 0; x < 64; x++)
+        originalImage.getRaster().setSample(x, y, 0, x < 32 ? 0 : 255);
+    JochreImage jochreImage = new JochreImage(originalImage, jochreSession);
+    jochreImage.setBlackLimit(0);
+    jochreImage.setWhiteLimit(255);
+
+    Shape shape = jochreImage.getShape(0, 0, 63, 31);
+    assertSame(shape, jochreImage.getShape(0, 0, 63, 31));
+    shape.setMeanLine(8);
+    shape.setBaseLine(23);
+
+    double[][] narrow = shape.getBrightnessBySection(4, 4, 0.5, 0.5, SectionBrightnessMeasurementMethod.RAW);
+    double[][] wide = shape.getBrightnessBySection(4, 4, 0.5, 2.0, SectionBrightnessMeasurementMethod.RAW);
+    assertNotSame(narrow, wide);
+    assertSame(narrow, shape.getBrightnessBySection(4, 4, 0.5, 0.5, SectionBrightnessMeasurementMethod.RAW));
+    assertSame(wide, shape.getBrightnessBySection(4, 4, 0.5, 2.0, SectionBrightnessMeasurementMethod.RAW));
+
+    shape.clearMemory();
+    double[][] recalculated = shape.getBrightnessBySection(4, 4, 0.5, 0.5, SectionBrightnessMeasurementMethod.RAW);
+    assertNotSame(narrow, recalculated);
+    for (int x = 0; x < narrow.length; x++)
+      assertArrayEquals(narrow[x], recalculated[x], 0.0001);
+  }
 }
@@ -0,0 +1,193 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SpatialIndexTest {
+
+  /**
+   * Rectangles spanning several cells should be returned once, in the order in
+   * which they were added, regardless of the cells they occupy.
+   */
+  @Test
+  public void testFindOverlappingOrder() {
+    SpatialIndex<RectangleImpl> index = new SpatialIndex<>(100, 100, 10);
+    RectangleImpl r1 = new RectangleImpl(80, 80, 95, 95);
+    RectangleImpl r2 = new RectangleImpl(0, 0, 99, 5);
+    RectangleImpl r3 = new RectangleImpl(5, 5, 15, 15);
+    RectangleImpl r4 = new RectangleImpl(50, 50, 50, 50);
+    RectangleImpl r5 = new RectangleImpl(12, 0, 30, 60);
+    index.addAll(Arrays.asList(r1, r2, r3, r4, r5));
+    assertEquals(5, index.size());
+
+    assertEquals(Arrays.asList(r1, r2, r3, r4, r5), index.findOverlapping(0, 0, 99, 99));
+    assertEquals(Arrays.asList(r2, r3, r5), index.findOverlapping(10, 0, 20, 10));
+    assertEquals(Arrays.asList(r3, r5), index.findOverlapping(15, 15, 15, 15));
+    // coordinates are inclusive
+    assertEquals(Arrays.asList(r4), index.findOverlapping(50, 50, 50, 50));
+    assertEquals(Arrays.asList(r4), index.findOverlapping(45, 45, 50, 50));
+    assertTrue(index.findOverlapping(51, 51, 60, 60).isEmpty());
+    // an empty area
+    assertTrue(index.findOverlapping(20, 20, 10, 10).isEmpty());
+
+    // adding a rectangle twice does nothing
+    index.add(r1);
+    assertEquals(5, index.size());
+    assertEquals(Arrays.asList(r1, r2, r3, r4, r5), index.findOverlapping(0, 0, 99, 99));
+  }
+
+  /**
+   * The index should give the same results as a sequential scan, in the same
+   * order.
+   */
+  @Test
+  public void testFindOverlappingMatchesScan() {
+    Random random = new Random(42);
+    List<RectangleImpl> rectangles = new ArrayList<>();
+    SpatialIndex<RectangleImpl> index = new SpatialIndex<>(200, 150, 16);
+    for (int i = 0; i < 300; i++) {
+      int left = random.nextInt(220) - 10;
+      int top = random.nextInt(170) - 10;
+      RectangleImpl rectangle = new RectangleImpl(left, top, left + random.nextInt(40), top + random.nextInt(40));
+      rectangles.add(rectangle);
+      index.add(rectangle);
+    }
+    for (int i = 0; i < 200; i++) {
+      int left = random.nextInt(240) - 20;
+      int top = random.nextInt(190) - 20;
+      int right = left + random.nextInt(60);
+      int bottom = top + random.nextInt(60);
+      List<RectangleImpl> expected = new ArrayList<>();
+      for (RectangleImpl rectangle : rectangles) {
+        if (rectangle.getLeft() <= right && rectangle.getRight() >= left && rectangle.getTop() <= bottom
+            && rectangle.getBottom() >= top)
+          expected.add(rectangle);
+      }
+      assertEquals(expected, index.findOverlapping(left, top, right, bottom));
+    }
+  }
+
+  @Test
+  public void testFindNearest() {
+    SpatialIndex<RectangleImpl> index = new SpatialIndex<>(100, 100, 10);
+    RectangleImpl r1 = new RectangleImpl(60, 0, 70, 10);
+    RectangleImpl r2 = new RectangleImpl(30, 0, 40, 10);
+    RectangleImpl r3 = new RectangleImpl(10, 0, 20, 10);
+    RectangleImpl r4 = new RectangleImpl(0, 0, 10, 10);
+    index.addAll(Arrays.asList(r1, r2, r3, r4));
+
+    // distance from x=50: r1 and r2 are tied at 10
+    RectangleImpl nearest = index.findNearest(0, 0, 99, 99, r -> distance(r, 50), r -> true);
+    assertSame(r1, nearest);
+
+    // once r1 is filtered out, r2 is nearest
+    nearest = index.findNearest(0, 0, 99, 99, r -> distance(r, 50), r -> r != r1);
+    assertSame(r2, nearest);
+
+    // distance from x=15: r3 contains it
+    nearest = index.findNearest(0, 0, 99, 99, r -> distance(r, 15), r -> true);
+    assertSame(r3, nearest);
+
+    // only rectangles in the area are considered
+    nearest = index.findNearest(55, 0, 99, 99, r -> distance(r, 15), r -> true);
+    assertSame(r1, nearest);
+
+    // nothing found
+    assertNull(index.findNearest(80, 50, 99, 99, r -> distance(r, 50), r -> true));
+    assertNull(index.findNearest(0, 0, 99, 99, r -> distance(r, 50), r -> false));
+  }
+
+  /**
+   * Rectangles partially or completely outside of the image should still be
+   * found, by queries which are also outside of the image.
+   */
+  @Test
+  public void testOutsideBounds() {
+    SpatialIndex<RectangleImpl> index = new SpatialIndex<>(50, 40, 10);
+    RectangleImpl left = new RectangleImpl(-20, 5, -5, 15);
+    RectangleImpl straddling = new RectangleImpl(-5, -5, 5, 5);
+    RectangleImpl farRight = new RectangleImpl(100, 100, 120, 110);
+    RectangleImpl huge = new RectangleImpl(-100, -100, 200, 200);
+    RectangleImpl inside = new RectangleImpl(20, 20, 25, 25);
+    index.addAll(Arrays.asList(left, straddling, farRight, huge, inside));
+
+    assertEquals(Arrays.asList(left, straddling, huge), index.findOverlapping(-10, 0, -5, 10));
+    assertEquals(Arrays.asList(left, huge), index.findOverlapping(-10, 0, -6, 10));
+    assertEquals(Arrays.asList(straddling, huge), index.findOverlapping(0, 0, 0, 0));
+    assertEquals(Arrays.asList(farRight, huge), index.findOverlapping(110, 105, 300, 300));
+    assertEquals(Arrays.asList(huge), index.findOverlapping(60, 60, 70, 70));
+    assertEquals(Arrays.asList(left, straddling, farRight, huge, inside),
+        index.findOverlapping(-1000, -1000, 1000, 1000));
+    assertTrue(index.findOverlapping(-1000, -1000, -500, -500).isEmpty());
+  }
+
+  @Test
+  public void testRemove() {
+    SpatialIndex<RectangleImpl> index = new SpatialIndex<>(100, 100, 10);
+    RectangleImpl r1 = new RectangleImpl(0, 0, 45, 45);
+    RectangleImpl r2 = new RectangleImpl(20, 20, 30, 30);
+    RectangleImpl r3 = new RectangleImpl(25, 25, 80, 80);
+    index.addAll(Arrays.asList(r1, r2, r3));
+
+    assertTrue(index.remove(r2));
+    assertEquals(2, index.size());
+    assertEquals(Arrays.asList(r1, r3), index.findOverlapping(20, 20, 30, 30));
+    assertFalse(index.remove(r2));
+
+    // the index is by identity, not equality
+    assertFalse(index.remove(new RectangleImpl(0, 0, 45, 45)));
+    assertEquals(2, index.size());
+
+    // a rectangle whose coordinates change is removed and added again, at the
+    // end of the order
+    assertTrue(index.remove(r1));
+    r1.setLeft(70);
+    r1.setTop(70);
+    r1.setRight(90);
+    r1.setBottom(90);
+    index.add(r1);
+    assertEquals(Arrays.asList(r3), index.findOverlapping(0, 0, 40, 40));
+    assertEquals(Arrays.asList(r3, r1), index.findOverlapping(75, 75, 75, 75));
+
+    assertTrue(index.remove(r1));
+    assertTrue(index.remove(r3));
+    assertEquals(0, index.size());
+    assertTrue(index.findOverlapping(0, 0, 99, 99).isEmpty());
+  }
+
+  private static double distance(Rectangle rectangle, int x) {
+    if (x < rectangle.getLeft())
+      return rectangle.getLeft() - x;
+    if (x > rectangle.getRight())
+      return x - rectangle.getRight();
+    return 0;
+  }
+}
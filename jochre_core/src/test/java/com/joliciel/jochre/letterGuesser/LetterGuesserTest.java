@@ -0,0 +1,181 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.letterGuesser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.joliciel.jochre.JochreSession;
+import com.joliciel.jochre.boundaries.ShapeInSequence;
+import com.joliciel.jochre.boundaries.ShapeSequence;
+import com.joliciel.jochre.graphics.JochreImage;
+import com.joliciel.jochre.graphics.Shape;
+import com.joliciel.jochre.letterGuesser.features.AbstractLetterFeature;
+import com.joliciel.jochre.letterGuesser.features.LetterFeature;
+import com.joliciel.talismane.machineLearning.ClassificationSolution;
+import com.joliciel.talismane.machineLearning.Decision;
+import com.joliciel.talismane.machineLearning.DecisionMaker;
+import com.joliciel.talismane.machineLearning.ScoringStrategy;
+import com.joliciel.talismane.machineLearning.features.FeatureResult;
+import com.joliciel.talismane.machineLearning.features.RuntimeEnvironment;
+import com.joliciel.talismane.machineLearning.features.StringFeature;
+import com.typesafe.config.ConfigFactory;
+
+public class LetterGuesserTest {
+
+  /**
+   * Guessing the same shape for several histories with a single letter guesser,
+   * which caches history-independent results, should give the same guesses as
+   * a fresh letter guesser for each history, and should calculate each
+   * history-dependent feature exactly once per guess.
+   */
+  @Test
+  public void testCachedResultsMatchUncached() throws Exception {
+    System.setProperty("config.file", "src/test/resources/test.conf");
+    ConfigFactory.invalidateCaches();
+    JochreSession jochreSession = new JochreSession(ConfigFactory.load());
+
+    BufferedImage originalImage = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+    JochreImage jochreImage = new JochreImage(originalImage, jochreSession);
+    ShapeSequence shapeSequence = new ShapeSequence();
+    shapeSequence.addShape(new Shape(jochreImage, 0, 0, 31, 15, jochreSession));
+    shapeSequence.addShape(new Shape(jochreImage, 32, 0, 47, 15, jochreSession));
+    shapeSequence.addShape(new Shape(jochreImage, 48, 0, 95, 15, jochreSession));
+
+    WidthFeature widthFeature = new WidthFeature();
+    PreviousLetterFeature previousLetterFeature = new PreviousLetterFeature();
+    Set<LetterFeature<?>> features = new LinkedHashSet<>();
+    features.add(widthFeature);
+    features.add(previousLetterFeature);
+    DecisionMaker decisionMaker = new HashingDecisionMaker();
+
+    List<LetterSequence> histories = new ArrayList<>();
+    LetterSequence empty = new LetterSequence(shapeSequence, jochreSession);
+    histories.add(empty);
+    histories.add(new LetterSequence(empty, "a", new Decision("a", 0.5)));
+    histories.add(new LetterSequence(empty, "b", new Decision("b", 0.3)));
+    histories.add(new LetterSequence(new LetterSequence(empty, "b", new Decision("b", 0.3)), "c",
+        new Decision("c", 0.2)));
+
+    LetterGuesser cachedGuesser = new LetterGuesser(features, decisionMaker);
+    int guessCount = 0;
+    for (ShapeInSequence shapeInSequence : shapeSequence) {
+      for (LetterSequence history : histories) {
+        List<Decision> cached = cachedGuesser.guessLetters(shapeInSequence, history);
+        guessCount++;
+        assertEquals(guessCount, previousLetterFeature.checkCount);
+
+        LetterGuesser uncachedGuesser = new LetterGuesser(features, decisionMaker);
+        List<Decision> uncached = uncachedGuesser.guessLetters(shapeInSequence, history);
+        guessCount++;
+        assertEquals(guessCount, previousLetterFeature.checkCount);
+
+        assertEquals(toString(uncached), toString(cached));
+      }
+    }
+    // the width is calculated once per shape by the cached guesser, and once
+    // per guess by the uncached ones
+    int shapeCount = shapeSequence.size();
+    int historyCount = histories.size();
+    assertEquals(shapeCount + shapeCount * historyCount, widthFeature.checkCount);
+  }
+
+  private static List<String> toString(List<Decision> decisions) {
+    List<String> strings = new ArrayList<>();
+    for (Decision decision : decisions)
+      strings.add(decision.getOutcome() + ":" + decision.getProbability());
+    return strings;
+  }
+
+  private static final class WidthFeature extends AbstractLetterFeature<String> implements StringFeature<LetterGuesserContext> {
+    private int checkCount = 0;
+
+    @Override
+    public FeatureResult<String> checkInternal(LetterGuesserContext context, RuntimeEnvironment env) {
+      checkCount++;
+      return this.generateResult("" + context.getShape().getWidth());
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Class<? extends com.joliciel.talismane.machineLearning.features.Feature> getFeatureType() {
+      return StringFeature.class;
+    }
+  }
+
+  private static final class PreviousLetterFeature extends AbstractLetterFeature<String>
+      implements StringFeature<LetterGuesserContext> {
+    private int checkCount = 0;
+
+    @Override
+    public FeatureResult<String> checkInternal(LetterGuesserContext context, RuntimeEnvironment env) {
+      checkCount++;
+      LetterSequence history = context.getHistory();
+      if (history == null || history.getLetterCount() == 0)
+        return this.generateResult(" ");
+      return this.generateResult(history.getLetter(history.getLetterCount() - 1));
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Class<? extends com.joliciel.talismane.machineLearning.features.Feature> getFeatureType() {
+      return StringFeature.class;
+    }
+  }
+
+  /**
+   * Assigns probabilities to a fixed set of outcomes based on the feature
+   * results, so that different feature results give different decisions.
+   */
+  private static final class HashingDecisionMaker implements DecisionMaker {
+    private static final String[] OUTCOMES = new String[] { "a", "b", "c", "d" };
+
+    @Override
+    public List<Decision> decide(List<FeatureResult<?>> featureResults) {
+      StringBuilder sb = new StringBuilder();
+      for (FeatureResult<?> featureResult : featureResults)
+        sb.append(featureResult.getFeature().getName()).append('=').append(featureResult.getOutcome()).append('|');
+      String key = sb.toString();
+      double[] weights = new double[OUTCOMES.length];
+      double total = 0;
+      for (int i = 0; i < OUTCOMES.length; i++) {
+        weights[i] = 1 + Math.abs((key + OUTCOMES[i]).hashCode() % 100);
+        total += weights[i];
+      }
+      List<Decision> decisions = new ArrayList<>();
+      for (int i = 0; i < OUTCOMES.length; i++)
+        decisions.add(new Decision(OUTCOMES[i], weights[i] / total));
+      Collections.sort(decisions);
+      return decisions;
+    }
+
+    @Override
+    public ScoringStrategy<ClassificationSolution> getDefaultScoringStrategy() {
+      return null;
+    }
+  }
+}
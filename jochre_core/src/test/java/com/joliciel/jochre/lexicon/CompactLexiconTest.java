@@ -0,0 +1,148 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.lexicon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class CompactLexiconTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    TextFileLexicon textLexicon = new TextFileLexicon(this.getEntries());
+    File file = File.createTempFile("lexicon", ".lex");
+    try {
+      CompactLexicon.write(textLexicon, file);
+      CompactLexicon lexicon = new CompactLexicon(file);
+
+      assertEquals(6, lexicon.size());
+      assertEquals(10, lexicon.getFrequency("der"));
+      assertEquals(8, lexicon.getFrequency("di"));
+      assertEquals(5, lexicon.getFrequency("דאָס"));
+      assertEquals(1, lexicon.getFrequency("derfar"));
+      assertEquals(2, lexicon.getFrequency("école"));
+      assertEquals(3, lexicon.getFrequency("a"));
+      assertEquals(0, lexicon.getFrequency("de"));
+      assertEquals(0, lexicon.getFrequency("derf"));
+      assertEquals(0, lexicon.getFrequency("b"));
+      assertEquals(0, lexicon.getFrequency(""));
+
+      List<String> words = new ArrayList<>();
+      lexicon.getWords().forEachRemaining(words::add);
+      assertEquals(new ArrayList<>(new TreeSet<>(this.getEntries().keySet())), words);
+
+      assertNull(lexicon.getUpperCaseLocale());
+      assertFalse(lexicon.getUpperCaseVariants().hasNext());
+      assertFalse(lexicon.isUpperCaseVariant("Der"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testEmptyLexicon() throws Exception {
+    File file = File.createTempFile("lexicon", ".lex");
+    try {
+      CompactLexicon.write(new FakeLexicon(), Locale.FRENCH, file);
+      CompactLexicon lexicon = new CompactLexicon(file);
+      assertEquals(0, lexicon.size());
+      assertEquals(0, lexicon.getFrequency("a"));
+      assertFalse(lexicon.getWords().hasNext());
+      assertFalse(lexicon.getUpperCaseVariants().hasNext());
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Upper-case variants stored in the compact lexicon should give the same
+   * results as those calculated by the wrapper when loading.
+   */
+  @Test
+  public void testUpperCaseVariants() throws Exception {
+    TextFileLexicon textLexicon = new TextFileLexicon(this.getEntries());
+    File file = File.createTempFile("lexicon", ".lex");
+    try {
+      CompactLexicon.write(textLexicon, Locale.FRENCH, file);
+      CompactLexicon lexicon = new CompactLexicon(file);
+      assertEquals(Locale.FRENCH, lexicon.getUpperCaseLocale());
+      assertTrue(lexicon.isUpperCaseVariant("Der"));
+      assertTrue(lexicon.isUpperCaseVariant("DER"));
+      assertTrue(lexicon.isUpperCaseVariant("Ecole"));
+      assertTrue(lexicon.isUpperCaseVariant("ECOLE"));
+      assertFalse(lexicon.isUpperCaseVariant("der"));
+      // no case in Yiddish, so the variant is the word itself
+      assertFalse(lexicon.isUpperCaseVariant("דאָס"));
+
+      DefaultLexiconWrapper expected = new DefaultLexiconWrapper(textLexicon, Locale.FRENCH);
+      DefaultLexiconWrapper precalculated = new DefaultLexiconWrapper(lexicon, Locale.FRENCH);
+      LexiconMerger merger = new LexiconMerger();
+      merger.addLexicon(lexicon);
+      DefaultLexiconWrapper merged = new DefaultLexiconWrapper(merger, Locale.FRENCH);
+
+      String[] words = new String[] { "der", "Der", "DER", "dEr", "école", "Ecole", "École", "ECOLE", "ÉCOLE", "a", "A",
+          "דאָס", "b", "B", "Di", "DI", "Derfar", "DERFAR" };
+      for (String word : words) {
+        assertEquals(word, expected.getFrequency(word), precalculated.getFrequency(word));
+        assertEquals(word, expected.getFrequency(word), merged.getFrequency(word));
+      }
+
+      assertEquals(this.toSet(expected.getUpperCaseWords()), this.toSet(precalculated.getUpperCaseWords()));
+
+      // a different locale means the variants need to be recalculated
+      DefaultLexiconWrapper turkish = new DefaultLexiconWrapper(lexicon, Locale.forLanguageTag("tr"));
+      DefaultLexiconWrapper expectedTurkish = new DefaultLexiconWrapper(textLexicon, Locale.forLanguageTag("tr"));
+      assertEquals(this.toSet(expectedTurkish.getUpperCaseWords()), this.toSet(turkish.getUpperCaseWords()));
+      assertEquals(1, turkish.getFrequency("Dİ"));
+      assertEquals(0, turkish.getFrequency("DI"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  private TreeSet<String> toSet(Iterator<String> words) {
+    TreeSet<String> set = new TreeSet<>();
+    words.forEachRemaining(set::add);
+    return set;
+  }
+
+  private Map<String, Integer> getEntries() {
+    Map<String, Integer> entries = new HashMap<>();
+    entries.put("der", 10);
+    entries.put("di", 8);
+    entries.put("דאָס", 5);
+    entries.put("derfar", 1);
+    entries.put("école", 2);
+    entries.put("a", 3);
+    return entries;
+  }
+}
@@ -0,0 +1,70 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.lexicon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LexiconPrefixTrieTest {
+
+  @Test
+  public void testIsPrefix() {
+    Map<String, Integer> entries = new HashMap<>();
+    entries.put("der", 10);
+    entries.put("di", 8);
+    entries.put("dos", 5);
+    entries.put("derfar", 1);
+    entries.put("a", 3);
+    TextFileLexicon lexicon = new TextFileLexicon(entries);
+
+    LexiconPrefixTrie trie = new LexiconPrefixTrie(lexicon);
+
+    assertTrue(trie.isPrefix(""));
+    assertTrue(trie.isPrefix("a"));
+    assertTrue(trie.isPrefix("d"));
+    assertTrue(trie.isPrefix("de"));
+    assertTrue(trie.isPrefix("der"));
+    assertTrue(trie.isPrefix("derf"));
+    assertTrue(trie.isPrefix("derfar"));
+    assertTrue(trie.isPrefix("do"));
+
+    assertFalse(trie.isPrefix("b"));
+    assertFalse(trie.isPrefix("ab"));
+    assertFalse(trie.isPrefix("dex"));
+    assertFalse(trie.isPrefix("derfare"));
+    assertFalse(trie.isPrefix("dii"));
+
+    // root, a, d, de, der, derf, derfa, derfar, di, do, dos
+    assertEquals(11, trie.size());
+  }
+
+  @Test
+  public void testEmptyLexicon() {
+    LexiconPrefixTrie trie = new LexiconPrefixTrie(new FakeLexicon());
+    assertTrue(trie.isPrefix(""));
+    assertFalse(trie.isPrefix("a"));
+    assertEquals(1, trie.size());
+  }
+}
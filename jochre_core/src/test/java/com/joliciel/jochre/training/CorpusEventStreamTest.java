@@ -0,0 +1,148 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.training;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+import com.joliciel.jochre.JochreSession;
+import com.joliciel.talismane.machineLearning.ClassificationEvent;
+import com.joliciel.talismane.machineLearning.features.Feature;
+import com.joliciel.talismane.machineLearning.features.FeatureResult;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+public class CorpusEventStreamTest {
+  private static final int UNIT_COUNT = 200;
+
+  /**
+   * The events should be returned in corpus order whatever the thread count,
+   * even though later units may finish first.
+   */
+  @Test
+  public void testThreadCount() throws Exception {
+    List<String> sequentialEvents = this.readEvents(new UnitEventStream(this.getSession(1, null)));
+    List<String> parallelEvents = this.readEvents(new UnitEventStream(this.getSession(4, null)));
+    assertEquals(UNIT_COUNT * 2, sequentialEvents.size());
+    assertEquals(sequentialEvents, parallelEvents);
+  }
+
+  /**
+   * A second stream with the same key should read the events from the cache
+   * without reading the corpus.
+   */
+  @Test
+  public void testEventCache() throws Exception {
+    File eventCacheDir = Files.createTempDirectory("events").toFile();
+    try {
+      UnitEventStream stream = new UnitEventStream(this.getSession(4, eventCacheDir));
+      List<String> events = this.readEvents(stream);
+      assertEquals(UNIT_COUNT, stream.unitsRead);
+      assertEquals(1, eventCacheDir.listFiles().length);
+
+      UnitEventStream cachedStream = new UnitEventStream(this.getSession(1, eventCacheDir));
+      assertEquals(events, this.readEvents(cachedStream));
+      assertEquals(0, cachedStream.unitsRead);
+    } finally {
+      for (File file : eventCacheDir.listFiles())
+        file.delete();
+      eventCacheDir.delete();
+    }
+  }
+
+  private JochreSession getSession(int threadCount, File eventCacheDir) throws Exception {
+    System.setProperty("config.file", "src/test/resources/test.conf");
+    ConfigFactory.invalidateCaches();
+    Map<String, Object> values = new HashMap<>();
+    values.put("jochre.training.thread-count", threadCount);
+    values.put("jochre.training.max-pending-units", 3);
+    if (eventCacheDir != null)
+      values.put("jochre.training.event-cache-dir", eventCacheDir.getPath());
+    Config config = ConfigFactory.parseMap(values).withFallback(ConfigFactory.load());
+    return new JochreSession(config);
+  }
+
+  private List<String> readEvents(CorpusEventStream<?> stream) {
+    List<String> events = new ArrayList<>();
+    while (stream.hasNext()) {
+      ClassificationEvent event = stream.next();
+      StringBuilder sb = new StringBuilder(event.getClassification());
+      for (FeatureResult<?> featureResult : event.getFeatureResults())
+        sb.append('|').append(featureResult.getTrainingName()).append('=').append(featureResult.getOutcome());
+      events.add(sb.toString());
+    }
+    return events;
+  }
+
+  /**
+   * Returns two events for each unit, after a random delay.
+   */
+  private static final class UnitEventStream extends CorpusEventStream<Integer> {
+    private int unitsRead = 0;
+
+    public UnitEventStream(JochreSession jochreSession) {
+      super(jochreSession);
+    }
+
+    @Override
+    protected Integer nextUnit() {
+      if (unitsRead == UNIT_COUNT)
+        return null;
+      return unitsRead++;
+    }
+
+    @Override
+    protected List<ClassificationEvent> getEvents(Integer unit) {
+      try {
+        Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      List<ClassificationEvent> events = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        List<FeatureResult<?>> featureResults = new ArrayList<>();
+        featureResults.add(new FeatureResultMock<>("unit", unit));
+        featureResults.add(new FeatureResultMock<>("even", unit % 2 == 0));
+        events.add(new ClassificationEvent(featureResults, "c" + i));
+      }
+      return events;
+    }
+
+    @Override
+    protected Collection<? extends Feature<?, ?>> getFeatures() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public Map<String, String> getAttributes() {
+      return Collections.emptyMap();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.training;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.joliciel.talismane.machineLearning.ClassificationEvent;
+import com.joliciel.talismane.machineLearning.features.FeatureResult;
+import com.joliciel.talismane.utils.WeightedOutcome;
+
+public class EventCacheTest {
+
+  /**
+   * Events should be read back with the same classification, and the same
+   * training name and outcome for each feature result, whatever the outcome
+   * type.
+   */
+  @Test
+  public void testWriteAndRead() throws Exception {
+    List<ClassificationEvent> events = new ArrayList<>();
+    List<FeatureResult<?>> featureResults = new ArrayList<>();
+    featureResults.add(new FeatureResultMock<>("boolean", true));
+    featureResults.add(new FeatureResultMock<>("double", 0.25));
+    featureResults.add(new FeatureResultMock<>("integer", -3));
+    featureResults.add(new FeatureResultMock<>("string", "א"));
+    featureResults.add(new FeatureResultMock<>("weighted",
+        Arrays.asList(new WeightedOutcome<>("a", 0.5), new WeightedOutcome<>("b", 1.5))));
+    events.add(new ClassificationEvent(featureResults, "א"));
+
+    // repeated names and classifications are written by index
+    featureResults = new ArrayList<>();
+    featureResults.add(new FeatureResultMock<>("boolean", false));
+    featureResults.add(new FeatureResultMock<>("string", "b"));
+    featureResults.add(new FeatureResultMock<>("weighted", new ArrayList<WeightedOutcome<String>>()));
+    events.add(new ClassificationEvent(featureResults, "א"));
+
+    events.add(new ClassificationEvent(new ArrayList<>(), "ב"));
+
+    File file = File.createTempFile("events", ".events.gz");
+    try {
+      try (EventCache.Writer writer = new EventCache.Writer(file)) {
+        for (ClassificationEvent event : events)
+          writer.writeEvent(event);
+      }
+
+      try (EventCache.Reader reader = new EventCache.Reader(file)) {
+        for (ClassificationEvent event : events) {
+          ClassificationEvent readEvent = reader.readEvent();
+          assertEquals(event.getClassification(), readEvent.getClassification());
+          assertEquals(event.getFeatureResults().size(), readEvent.getFeatureResults().size());
+          for (int i = 0; i < event.getFeatureResults().size(); i++) {
+            FeatureResult<?> featureResult = event.getFeatureResults().get(i);
+            FeatureResult<?> readFeatureResult = readEvent.getFeatureResults().get(i);
+            assertEquals(featureResult.getTrainingName(), readFeatureResult.getTrainingName());
+            if (featureResult.getOutcome() instanceof List) {
+              @SuppressWarnings("unchecked")
+              List<WeightedOutcome<String>> weightedOutcomes = (List<WeightedOutcome<String>>) featureResult.getOutcome();
+              @SuppressWarnings("unchecked")
+              List<WeightedOutcome<String>> readWeightedOutcomes = (List<WeightedOutcome<String>>) readFeatureResult.getOutcome();
+              assertEquals(weightedOutcomes.size(), readWeightedOutcomes.size());
+              for (int j = 0; j < weightedOutcomes.size(); j++) {
+                assertEquals(weightedOutcomes.get(j).getOutcome(), readWeightedOutcomes.get(j).getOutcome());
+                assertEquals(weightedOutcomes.get(j).getWeight(), readWeightedOutcomes.get(j).getWeight(), 0.0);
+              }
+            } else {
+              assertEquals(featureResult.getOutcome().getClass(), readFeatureResult.getOutcome().getClass());
+              assertEquals(featureResult.getOutcome(), readFeatureResult.getOutcome());
+            }
+          }
+        }
+        assertNull(reader.readEvent());
+      }
+    } finally {
+      file.delete();
+    }
+  }
+}
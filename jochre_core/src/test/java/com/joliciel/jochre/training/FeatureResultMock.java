@@ -0,0 +1,52 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.training;
+
+import com.joliciel.talismane.machineLearning.features.Feature;
+import com.joliciel.talismane.machineLearning.features.FeatureResult;
+
+class FeatureResultMock<T> implements FeatureResult<T> {
+  private final String trainingName;
+  private final T outcome;
+
+  public FeatureResultMock(String trainingName, T outcome) {
+    this.trainingName = trainingName;
+    this.outcome = outcome;
+  }
+
+  @Override
+  public Feature<?, T> getFeature() {
+    return null;
+  }
+
+  @Override
+  public T getOutcome() {
+    return outcome;
+  }
+
+  @Override
+  public String getTrainingName() {
+    return trainingName;
+  }
+
+  @Override
+  public String getTrainingOutcome(String outcome) {
+    return outcome;
+  }
+}
@@ -0,0 +1,195 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2014 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.search;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent journal of the content directories which need to be added,
+ * updated or removed from the index, so that the index can be brought up to
+ * date without scanning the entire content directory.<br>
+ * <br>
+ * Each change is appended to the journal file as a single line, containing the
+ * change type and the directory path relative to the content directory. When
+ * the index builder starts processing the journal, the journal file is moved
+ * aside, and it is only deleted once the index has been committed, so that no
+ * change is lost if indexing fails. Changes recorded in the meantime are
+ * written to a new journal file, and processed by the next run.
+ *
+ * @author Assaf Urieli
+ *
+ */
+public class IndexChangeJournal {
+  private static final Logger LOG = LoggerFactory.getLogger(IndexChangeJournal.class);
+  private static final Map<String, IndexChangeJournal> instances = new HashMap<>();
+
+  public enum ChangeType {
+    Update, Delete
+  }
+
+  private final String configId;
+  private final File journalFile;
+  private final File processingFile;
+  private final long indexingDelay;
+  private final ScheduledExecutorService indexingExecutor;
+  private final AtomicBoolean indexingRequested = new AtomicBoolean(false);
+
+  public static synchronized IndexChangeJournal getInstance(String configId) {
+    IndexChangeJournal instance = instances.get(configId);
+    if (instance == null) {
+      instance = new IndexChangeJournal(configId);
+      instances.put(configId, instance);
+    }
+    return instance;
+  }
+
+  private IndexChangeJournal(String configId) {
+    this.configId = configId;
+    JochreSearchConfig config = JochreSearchConfig.getInstance(configId);
+    if (config.getConfig().hasPath("index-builder.journal-file"))
+      this.journalFile = new File(config.getConfig().getString("index-builder.journal-file"));
+    else
+      this.journalFile = new File(config.getContentDir(), "index-journal.txt");
+    this.processingFile = new File(journalFile.getPath() + ".processing");
+    this.indexingDelay = config.getConfig().getDuration("index-builder.journal-delay", TimeUnit.MILLISECONDS);
+    this.indexingExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "jochre-index-journal-" + configId);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Record that the directory at a given path needs to be (re-)indexed.
+   *
+   * @param path
+   *          the directory path relative to the content directory
+   */
+  public void recordUpdate(String path) throws IOException {
+    this.record(ChangeType.Update, path);
+  }
+
+  /**
+   * Record that the directory at a given path needs to be removed from the
+   * index.
+   *
+   * @param path
+   *          the directory path relative to the content directory
+   */
+  public void recordDelete(String path) throws IOException {
+    this.record(ChangeType.Delete, path);
+  }
+
+  private synchronized void record(ChangeType changeType, String path) throws IOException {
+    if (LOG.isDebugEnabled())
+      LOG.debug("Journaling " + changeType + ": " + path);
+    try (BufferedWriter writer = Files.newBufferedWriter(journalFile.toPath(), StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      writer.write(changeType.name() + "\t" + path + "\n");
+    }
+  }
+
+  /**
+   * Start processing the changes recorded so far, including any changes left
+   * over from a previous failed run. Each directory path is returned once, with
+   * the last change recorded for it, in the order in which the paths were first
+   * recorded. The changes remain in the journal until
+   * {@link #endProcessing()} is called.
+   */
+  synchronized Map<String, ChangeType> beginProcessing() throws IOException {
+    if (journalFile.exists()) {
+      if (processingFile.exists()) {
+        Files.write(processingFile.toPath(), Files.readAllBytes(journalFile.toPath()), StandardOpenOption.APPEND);
+        Files.delete(journalFile.toPath());
+      } else {
+        Files.move(journalFile.toPath(), processingFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      }
+    }
+
+    Map<String, ChangeType> changes = new LinkedHashMap<>();
+    if (processingFile.exists()) {
+      List<String> lines = Files.readAllLines(processingFile.toPath(), StandardCharsets.UTF_8);
+      for (String line : lines) {
+        int tab = line.indexOf('\t');
+        if (tab < 0)
+          continue;
+        ChangeType changeType = ChangeType.valueOf(line.substring(0, tab));
+        String path = line.substring(tab + 1);
+        changes.put(path, changeType);
+      }
+    }
+    return changes;
+  }
+
+  /**
+   * Remove the changes returned by the last call to {@link #beginProcessing()}
+   * from the journal, once they have been committed to the index.
+   */
+  synchronized void endProcessing() throws IOException {
+    Files.deleteIfExists(processingFile.toPath());
+  }
+
+  /**
+   * Request that the changes in the journal be indexed on a background thread,
+   * after a short delay, to allow several closely spaced changes to be indexed
+   * together. Requests made while an indexing run is already waiting to start
+   * are merged into that run, and runs never overlap.
+   */
+  public void requestIndexing() {
+    if (indexingRequested.compareAndSet(false, true)) {
+      indexingExecutor.schedule(() -> {
+        indexingRequested.set(false);
+        try {
+          JochreIndexBuilder builder = new JochreIndexBuilder(configId, false);
+          builder.updateIndexFromJournal();
+        } catch (IndexingUnderwayException e) {
+          // the changes remain in the journal, try again later
+          LOG.info("Indexing underway, delaying journal processing");
+          this.requestIndexing();
+        } catch (Exception e) {
+          LOG.error("Failed to index journal changes", e);
+        }
+      }, indexingDelay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * The file to which changes are appended.
+   */
+  public File getJournalFile() {
+    return journalFile;
+  }
+}
@@ -0,0 +1,145 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2014 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.search;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the content directory for new, modified and deleted
+ * sub-directories, and records them in the {@link IndexChangeJournal}, so that
+ * they get indexed without requiring a full scan.<br>
+ * <br>
+ * Each sub-directory requires its own watch, so on Linux the number of
+ * sub-directories should not exceed fs.inotify.max_user_watches.
+ *
+ * @author Assaf Urieli
+ *
+ */
+class IndexChangeWatcher implements Runnable {
+  private static final Logger LOG = LoggerFactory.getLogger(IndexChangeWatcher.class);
+  // written and removed by the index builder itself
+  private static final String UPDATE_INSTRUCTIONS = "update";
+
+  private final String configId;
+  private final File contentDir;
+  private final IndexChangeJournal journal;
+  private final WatchService watchService;
+  private final Map<WatchKey, File> watchedDirs = new HashMap<>();
+  private final Map<WatchKey, String> watchedPaths = new HashMap<>();
+
+  public IndexChangeWatcher(String configId) throws IOException {
+    this.configId = configId;
+    JochreSearchConfig config = JochreSearchConfig.getInstance(configId);
+    this.contentDir = config.getContentDir();
+    this.journal = IndexChangeJournal.getInstance(configId);
+    this.watchService = contentDir.toPath().getFileSystem().newWatchService();
+
+    this.watch(contentDir);
+    File[] subdirs = contentDir.listFiles(File::isDirectory);
+    for (File subdir : subdirs)
+      this.watch(subdir);
+    LOG.info("Watching " + subdirs.length + " directories in " + contentDir.getPath());
+  }
+
+  private void watch(File dir) throws IOException {
+    WatchKey key = dir.toPath().register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+    watchedDirs.put(key, dir);
+    // the path can no longer be calculated once the directory is deleted
+    watchedPaths.put(key, new JochreIndexDirectory(dir, configId).getPath());
+  }
+
+  /**
+   * Start watching on a background thread.
+   */
+  public void start() {
+    Thread thread = new Thread(this, "jochre-index-watcher-" + configId);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public void run() {
+    while (true) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      File dir = watchedDirs.get(key);
+      try {
+        this.processEvents(key, dir);
+      } catch (IOException e) {
+        LOG.error("Failed to record changes in " + dir.getPath(), e);
+      }
+    }
+  }
+
+  private void processEvents(WatchKey key, File dir) throws IOException {
+    boolean isContentDir = dir.equals(contentDir);
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        LOG.warn("Too many changes in " + dir.getPath() + ", some may have been missed.");
+        continue;
+      }
+      String fileName = ((Path) event.context()).toString();
+      if (isContentDir) {
+        File file = new File(dir, fileName);
+        if (event.kind() == ENTRY_CREATE && file.isDirectory()) {
+          this.watch(file);
+          journal.recordUpdate(new JochreIndexDirectory(file, configId).getPath());
+          changed = true;
+        }
+      } else if (!fileName.equals(UPDATE_INSTRUCTIONS) && !changed) {
+        journal.recordUpdate(watchedPaths.get(key));
+        changed = true;
+      }
+    }
+
+    if (!key.reset()) {
+      // the directory no longer exists
+      String path = watchedPaths.remove(key);
+      watchedDirs.remove(key);
+      if (!isContentDir) {
+        journal.recordDelete(path);
+        changed = true;
+      }
+    }
+
+    if (changed)
+      journal.requestIndexing();
+  }
+}
@@ -27,8 +27,14 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
@@ -44,6 +50,7 @@ import org.apache.lucene.search.TopDocs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.joliciel.jochre.search.IndexChangeJournal.ChangeType;
 import com.joliciel.jochre.search.JochreIndexDirectory.Instructions;
 import com.joliciel.jochre.search.SearchStatusHolder.SearchStatus;
 import com.joliciel.jochre.search.alto.AltoDocument;
@@ -57,6 +64,14 @@ import com.joliciel.jochre.search.alto.AltoTextLine;
 import com.joliciel.jochre.search.feedback.Correction;
 import com.joliciel.jochre.search.feedback.FeedbackSuggestion;
 
+/**
+ * Builds or updates the index from the content directory.<br>
+ * <br>
+ * Directories can be indexed concurrently by several threads, all sharing
+ * the same IndexWriter. Since Lucene analyses each document on the thread which
+ * adds it, the tokens handed over to the text layer analyser are held
+ * separately for each thread.
+ */
 public class JochreIndexBuilder implements Runnable, TokenExtractor {
   private static final Logger LOG = LoggerFactory.getLogger(JochreIndexBuilder.class);
   private final File contentDir;
@@ -67,8 +82,9 @@ public class JochreIndexBuilder implements Runnable, TokenExtractor {
   private final boolean forceUpdate;
 
   private final int wordsPerDoc;
+  private final int threadCount;
 
-  private List<JochreToken> currentStrings = null;
+  private final ThreadLocal<List<JochreToken>> currentStrings = new ThreadLocal<>();
 
   /**
    *
@@ -83,6 +99,7 @@ public class JochreIndexBuilder implements Runnable, TokenExtractor {
     this.config = JochreSearchConfig.getInstance(configId);
     this.contentDir = config.getContentDir();
     this.wordsPerDoc = config.getConfig().getInt("index-builder.words-per-document");
+    this.threadCount = config.getConfig().getInt("index-builder.thread-count");
     this.forceUpdate = forceUpdate;
   }
 
@@ -98,17 +115,38 @@ public class JochreIndexBuilder implements Runnable, TokenExtractor {
    * work will only be updated if the date of it's text layer is later than the
    * previous index date (stored in the index), or if forceUpdate=true. If the
    * work is updated, any previous documents with the same path are first deleted.
+   * If index-builder.thread-count is greater than 1, sub-directories are
+   * processed concurrently.<br>
+   * Any changes recorded in the {@link IndexChangeJournal} are applied as well:
+   * directories listed as updated are re-indexed regardless of their dates, and
+   * directories listed as deleted are removed. The journal is then cleared.
    */
   public void updateIndex() {
+    this.updateIndex(false);
+  }
+
+  /**
+   * Update the index for the directories listed in the
+   * {@link IndexChangeJournal} only, without scanning the content directory.
+   * Each directory listed as updated is re-indexed unconditionally, unless its
+   * instructions say otherwise, and each directory listed as deleted, or no
+   * longer found, is removed from the index.
+   */
+  public void updateIndexFromJournal() {
+    this.updateIndex(true);
+  }
+
+  private void updateIndex(boolean fromJournal) {
+    searchStatusHolder.startIndexing();
     long startTime = System.currentTimeMillis();
     try {
-      if (searchStatusHolder.getStatus() != SearchStatus.WAITING) {
-        throw new IndexingUnderwayException();
-      }
-
       JochreSearchManager manager = JochreSearchManager.getInstance(configId);
-
-      searchStatusHolder.setStatus(SearchStatus.PREPARING);
+      IndexChangeJournal journal = IndexChangeJournal.getInstance(configId);
+      Map<String, ChangeType> changes = journal.beginProcessing();
+      if (fromJournal && changes.isEmpty()) {
+        LOG.debug("No changes in journal");
+        return;
+      }
 
       Map<String, Analyzer> analyzerPerField = new HashMap<>();
       analyzerPerField.put(JochreIndexField.text.name(), new JochreTextLayerAnalyser(this, configId));
@@ -121,31 +159,60 @@ public class JochreIndexBuilder implements Runnable, TokenExtractor {
       IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
       iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
       try (IndexWriter indexWriter = new IndexWriter(manager.getIndexDir(), iwc)) {
+        for (Map.Entry<String, ChangeType> change : changes.entrySet()) {
+          // use the journal path directly, since the path of a directory which
+          // no longer exists cannot be recalculated
+          if (change.getValue() == ChangeType.Delete || !new File(contentDir, change.getKey()).isDirectory())
+            this.deleteDocumentInternal(indexWriter, change.getKey());
+        }
 
-        File[] subdirs = contentDir.listFiles(new FileFilter() {
+        // directories listed in the journal are known to have changed
+        Set<File> updatedDirs = changes.entrySet().stream().filter(change -> change.getValue() == ChangeType.Update)
+            .map(change -> new File(contentDir, change.getKey())).filter(File::isDirectory)
+            .collect(Collectors.toCollection(LinkedHashSet::new));
 
-          @Override
-          public boolean accept(File pathname) {
-            return pathname.isDirectory();
-          }
-        });
+        List<File> subdirs;
+        if (fromJournal) {
+          subdirs = new ArrayList<>(updatedDirs);
+        } else {
+          File[] allSubdirs = contentDir.listFiles(new FileFilter() {
 
-        if (subdirs.length == 0)
-          throw new IllegalArgumentException("content dir is empty: " + contentDir.getPath());
+            @Override
+            public boolean accept(File pathname) {
+              return pathname.isDirectory();
+            }
+          });
 
-        Arrays.sort(subdirs);
+          if (allSubdirs.length == 0)
+            throw new IllegalArgumentException("content dir is empty: " + contentDir.getPath());
+
+          Arrays.sort(allSubdirs);
+          subdirs = Arrays.asList(allSubdirs);
+        }
 
         searchStatusHolder.setStatus(SearchStatus.BUSY);
-        searchStatusHolder.setTotalCount(subdirs.length);
+        searchStatusHolder.setTotalCount(subdirs.size());
+
+        if (threadCount > 1) {
+          // make sure lazily created singletons aren't created concurrently by
+          // the indexing threads
+          AltoStringFixer.getInstance(configId);
 
-        for (File subdir : subdirs) {
+          ExecutorService executor = Executors.newFixedThreadPool(threadCount);
           try {
-            searchStatusHolder.setAction("Indexing " + subdir.getName());
-            this.processDocument(manager, indexWriter, subdir, forceUpdate);
-            searchStatusHolder.incrementSuccessCount(1);
-          } catch (Exception e) {
-            LOG.error("Failed to index " + subdir.getName(), e);
-            searchStatusHolder.incrementFailureCount(1);
+            for (File subdir : subdirs) {
+              boolean forceUpdate = this.forceUpdate || updatedDirs.contains(subdir);
+              executor.execute(() -> this.indexDirectory(manager, indexWriter, subdir, forceUpdate));
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+          } finally {
+            executor.shutdownNow();
+          }
+        } else {
+          for (File subdir : subdirs) {
+            boolean forceUpdate = this.forceUpdate || updatedDirs.contains(subdir);
+            this.indexDirectory(manager, indexWriter, subdir, forceUpdate);
           }
         }
 
@@ -153,6 +220,7 @@ public class JochreIndexBuilder implements Runnable, TokenExtractor {
         searchStatusHolder.setStatus(SearchStatus.COMMITING);
         indexWriter.commit();
         indexWriter.close();
+        journal.endProcessing();
         manager.getManager().maybeRefresh();
       }
     } catch (IOException e) {
@@ -172,6 +240,18 @@ public class JochreIndexBuilder implements Runnable, TokenExtractor {
     }
   }
 
+  private void indexDirectory(JochreSearchManager manager, IndexWriter indexWriter, File subdir,
+      boolean forceUpdate) {
+    try {
+      searchStatusHolder.setAction("Indexing " + subdir.getName());
+      this.processDocument(manager, indexWriter, subdir, forceUpdate);
+      searchStatusHolder.incrementSuccessCount(1);
+    } catch (Exception e) {
+      LOG.error("Failed to index " + subdir.getName(), e);
+      searchStatusHolder.incrementFailureCount(1);
+    }
+  }
+
   private void processDocument(JochreSearchManager manager, IndexWriter indexWriter, File documentDir,
       boolean forceUpdate) {
     try {
@@ -387,26 +467,33 @@ public class JochreIndexBuilder implements Runnable, TokenExtractor {
   }
 
   private void deleteDocumentInternal(IndexWriter indexWriter, JochreIndexDirectory jochreIndexDirectory) {
+    this.deleteDocumentInternal(indexWriter, jochreIndexDirectory.getPath());
+  }
+
+  private void deleteDocumentInternal(IndexWriter indexWriter, String path) {
     try {
-      Term term = new Term(JochreIndexField.path.name(), jochreIndexDirectory.getPath());
+      Term term = new Term(JochreIndexField.path.name(), path);
       indexWriter.deleteDocuments(term);
     } catch (IOException e) {
-      LOG.error("Failed to delete jochreIndexDirectory " + jochreIndexDirectory.getName(), e);
+      LOG.error("Failed to delete jochreIndexDirectory " + path, e);
       throw new RuntimeException(e);
     }
   }
 
   @Override
   public List<JochreToken> findTokens(String fieldName, Reader input) {
-    return currentStrings;
+    return currentStrings.get();
   }
 
+  /**
+   * The tokens of the document currently being indexed by the current thread.
+   */
   public List<JochreToken> getCurrentStrings() {
-    return currentStrings;
+    return currentStrings.get();
   }
 
   public void setCurrentStrings(List<JochreToken> currentStrings) {
-    this.currentStrings = currentStrings;
+    this.currentStrings.set(currentStrings);
   }
 
   /**
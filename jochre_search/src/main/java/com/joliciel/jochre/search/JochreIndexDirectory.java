@@ -92,6 +92,7 @@ public class JochreIndexDirectory {
   boolean metaFileRetrieved = false;
   private String path;
   private final Path updateInstructionsPath;
+  private final String configId;
 
   /**
    * @param directory
@@ -100,6 +101,7 @@ public class JochreIndexDirectory {
    */
   public JochreIndexDirectory(File directory, String configId) {
     this.directory = directory;
+    this.configId = configId;
     this.name = this.directory.getName();
     JochreSearchConfig config = JochreSearchConfig.getInstance(configId);
     this.path = config.getContentDir().toURI().relativize(directory.toURI()).getPath();
@@ -337,6 +339,10 @@ public class JochreIndexDirectory {
     return instructions;
   }
 
+  /**
+   * Mark this directory for updating, both by adding update instructions, and
+   * by recording it in the {@link IndexChangeJournal}.
+   */
   public void addUpdateInstructions() throws IOException {
     try {
       if (LOG.isDebugEnabled())
@@ -344,6 +350,7 @@ public class JochreIndexDirectory {
       Files.createFile(updateInstructionsPath);
     } catch (FileAlreadyExistsException ignored) {
     }
+    IndexChangeJournal.getInstance(configId).recordUpdate(path);
   }
 
   public void removeUpdateInstructions() throws IOException {
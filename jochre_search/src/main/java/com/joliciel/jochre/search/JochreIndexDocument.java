@@ -4,9 +4,13 @@ import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
@@ -15,10 +19,14 @@ import org.apache.lucene.document.SortedNumericDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,11 +38,6 @@ import com.joliciel.jochre.search.alto.AltoTextLine;
 import com.joliciel.jochre.search.feedback.Correction;
 import com.joliciel.jochre.utils.JochreException;
 
-import gnu.trove.map.TIntIntMap;
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntIntHashMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
-
 /**
  * A wrapper for a document in the Lucene sense - a single book could be split
  * into multiple documents, each with a different page range.
@@ -42,6 +45,11 @@ import gnu.trove.map.hash.TIntObjectHashMap;
  * The document is either read from the index, or it is read from a set of Alto
  * pages to be saved in the index.
  * 
+ * The row rectangles and start indexes are stored in a single binary doc values
+ * field (see {@link RowGeometry}), so that they can be read without loading the
+ * document's stored fields. Indexes built before this was the case stored a
+ * separate field per row, and are still read from the stored fields.
+ * 
  * @author Assaf Urieli
  *
  */
@@ -69,14 +77,15 @@ public class JochreIndexDocument {
   private final JochreIndexDirectory directory;
   private final int length;
   private Long indexTime = null;
-  private TIntObjectMap<TIntObjectMap<Rectangle>> rectangles = null;
-  private TIntObjectMap<TIntIntMap> startIndexes = null;
-  private TIntIntMap rowCounts = null;
+  private RowGeometry rowGeometry = null;
   private int docId = -1;
 
   private JochreIndexTermLister termLister;
 
-  /* Indexed, tokenized, stored. */
+  /*
+   * Indexed, tokenized, stored, with full term vectors so that a single
+   * document's terms can be listed.
+   */
   public static final FieldType TYPE_STORED = new FieldType();
 
   static {
@@ -84,10 +93,33 @@ public class JochreIndexDocument {
     TYPE_STORED.setStored(true);
     TYPE_STORED.setStoreTermVectors(true);
     TYPE_STORED.setStoreTermVectorPositions(true);
+    TYPE_STORED.setStoreTermVectorOffsets(true);
+    TYPE_STORED.setStoreTermVectorPayloads(true);
     TYPE_STORED.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
     TYPE_STORED.freeze();
   }
 
+  /* Like a stored TextField, with term vectors. */
+  public static final FieldType TYPE_TEXT_STORED = new FieldType(TextField.TYPE_STORED);
+
+  static {
+    TYPE_TEXT_STORED.setStoreTermVectors(true);
+    TYPE_TEXT_STORED.setStoreTermVectorPositions(true);
+    TYPE_TEXT_STORED.freeze();
+  }
+
+  /* The stored fields read when constructing a document from the index. */
+  private static final Set<String> METADATA_FIELDS = new HashSet<>();
+
+  static {
+    for (JochreIndexField field : new JochreIndexField[] { JochreIndexField.id, JochreIndexField.name,
+        JochreIndexField.path, JochreIndexField.sectionNumber, JochreIndexField.startPage, JochreIndexField.endPage,
+        JochreIndexField.publisher, JochreIndexField.author, JochreIndexField.title, JochreIndexField.url,
+        JochreIndexField.authorEnglish, JochreIndexField.titleEnglish, JochreIndexField.date, JochreIndexField.volume,
+        JochreIndexField.length })
+      METADATA_FIELDS.add(field.name());
+  }
+
   /**
    * Construct a document already stored in the index.
    * @throws IOException
@@ -97,7 +129,7 @@ public class JochreIndexDocument {
     this.indexSearcher = indexSearcher;
     this.docId = docId;
 
-    this.doc = indexSearcher.doc(docId);
+    this.doc = indexSearcher.doc(docId, METADATA_FIELDS);
     this.id = doc.get(JochreIndexField.id.name());
     this.name = doc.get(JochreIndexField.name.name());
     this.path = this.doc.get(JochreIndexField.path.name());
@@ -116,6 +148,16 @@ public class JochreIndexDocument {
     this.date = doc.get(JochreIndexField.date.name());
     this.volume = doc.get(JochreIndexField.volume.name());
     this.length = doc.getField(JochreIndexField.length.name()).numericValue().intValue();
+
+    List<LeafReaderContext> leaves = indexSearcher.getIndexReader().leaves();
+    LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+    BinaryDocValues rowGeometryValues = leaf.reader().getBinaryDocValues(JochreIndexField.rowGeometry.name());
+    if (rowGeometryValues != null && rowGeometryValues.advanceExact(docId - leaf.docBase)) {
+      this.rowGeometry = new RowGeometry(BytesRef.deepCopyOf(rowGeometryValues.binaryValue()).bytes);
+    } else {
+      // index built with one stored field per row
+      this.doc = indexSearcher.doc(docId);
+    }
   }
 
   /**
@@ -150,26 +192,14 @@ public class JochreIndexDocument {
     this.indexSearcher = null;
 
     StringBuilder sb = new StringBuilder();
-    rectangles = new TIntObjectHashMap<>();
-    startIndexes = new TIntObjectHashMap<>();
-    rowCounts = new TIntIntHashMap();
+    RowGeometry.Builder rowGeometryBuilder = new RowGeometry.Builder();
     int lastSpanStart = 0;
 
     for (AltoPage page : pages) {
       if (LOG.isTraceEnabled())
         LOG.trace("Adding page " + page.getIndex());
 
-      rowCounts.put(page.getIndex(), page.getTextLines().size());
-      TIntObjectMap<Rectangle> rowRectangles = rectangles.get(page.getIndex());
-      if (rowRectangles == null) {
-        rowRectangles = new TIntObjectHashMap<>();
-        rectangles.put(page.getIndex(), rowRectangles);
-      }
-      TIntIntMap rowStartIndexes = startIndexes.get(page.getIndex());
-      if (rowStartIndexes == null) {
-        rowStartIndexes = new TIntIntHashMap(256, 0.7f, -1, -1);
-        startIndexes.put(page.getIndex(), rowStartIndexes);
-      }
+      rowGeometryBuilder.addPage(page.getIndex(), page.getTextLines().size());
 
       boolean spaceAdded = true;
       for (AltoTextBlock textBlock : page.getTextBlocks()) {
@@ -215,8 +245,7 @@ public class JochreIndexDocument {
             lastSpanStart = textLine.getStrings().get(0).getSpanStart();
           } // have strings on this row
 
-          rowStartIndexes.put(textLine.getIndex(), lastSpanStart);
-          rowRectangles.put(textLine.getIndex(), textLine.getRectangle());
+          rowGeometryBuilder.setRow(page.getIndex(), textLine.getIndex(), textLine.getRectangle(), lastSpanStart);
         } // next row in this block
         if (spaceAdded && sb.length() > 0) {
           sb.deleteCharAt(sb.length() - 1);
@@ -231,6 +260,7 @@ public class JochreIndexDocument {
       } // next block in this page
     } // next page
 
+    this.rowGeometry = rowGeometryBuilder.build();
     this.contents = sb.toString();
     this.length = this.contents.length();
 
@@ -256,11 +286,11 @@ public class JochreIndexDocument {
       if (this.id != null)
         doc.add(new StringField(JochreIndexField.id.name(), this.id, Field.Store.YES));
       if (this.authorEnglish != null)
-        doc.add(new TextField(JochreIndexField.authorEnglish.name(), this.authorEnglish, Field.Store.YES));
+        doc.add(new Field(JochreIndexField.authorEnglish.name(), this.authorEnglish, TYPE_TEXT_STORED));
       if (this.titleEnglish != null)
         doc.add(new Field(JochreIndexField.titleEnglish.name(), this.titleEnglish, TYPE_STORED));
       if (this.publisher != null)
-        doc.add(new TextField(JochreIndexField.publisher.name(), this.publisher, Field.Store.YES));
+        doc.add(new Field(JochreIndexField.publisher.name(), this.publisher, TYPE_TEXT_STORED));
       if (this.date != null) {
         doc.add(new StringField(JochreIndexField.date.name(), this.date, Field.Store.YES));
         try {
@@ -271,7 +301,7 @@ public class JochreIndexDocument {
         }
       }
       if (this.author != null)
-        doc.add(new TextField(JochreIndexField.author.name(), this.author, Field.Store.YES));
+        doc.add(new Field(JochreIndexField.author.name(), this.author, TYPE_TEXT_STORED));
       if (this.title != null)
         doc.add(new Field(JochreIndexField.title.name(), this.title, TYPE_STORED));
       if (this.volume != null)
@@ -280,29 +310,7 @@ public class JochreIndexDocument {
       if (this.url != null)
         doc.add(new StringField(JochreIndexField.url.name(), this.url, Field.Store.YES));
 
-      for (int pageIndex : rectangles.keys()) {
-        TIntObjectMap<Rectangle> rowRectangles = rectangles.get(pageIndex);
-        for (int rowIndex : rowRectangles.keys()) {
-          Rectangle rect = rowRectangles.get(rowIndex);
-          String fieldName = JochreIndexField.rect.name() + pageIndex + "_" + rowIndex;
-          doc.add(new StoredField(fieldName, this.rectToString(rect)));
-        }
-      }
-
-      for (int pageIndex : startIndexes.keys()) {
-        TIntIntMap rowStartIndexes = startIndexes.get(pageIndex);
-        for (int rowIndex : rowStartIndexes.keys()) {
-          int startIndex = rowStartIndexes.get(rowIndex);
-          String fieldName = JochreIndexField.start.name() + pageIndex + "_" + rowIndex;
-          doc.add(new StoredField(fieldName, startIndex));
-        }
-      }
-
-      for (int pageIndex : rowCounts.keys()) {
-        int rowCount = rowCounts.get(pageIndex);
-        String fieldName = JochreIndexField.rowCount.name() + pageIndex;
-        doc.add(new StoredField(fieldName, rowCount));
-      }
+      doc.add(new BinaryDocValuesField(JochreIndexField.rowGeometry.name(), new BytesRef(rowGeometry.getBytes())));
 
       indexWriter.addDocument(doc);
 
@@ -356,8 +364,17 @@ public class JochreIndexDocument {
    */
   public String getContents() {
     if (this.contents == null) {
+      // the text is only loaded with the other stored fields for older indexes
       this.contents = doc.get(JochreIndexField.text.name());
     }
+    if (this.contents == null) {
+      try {
+        this.contents = indexSearcher.doc(docId, Collections.singleton(JochreIndexField.text.name()))
+            .get(JochreIndexField.text.name());
+      } catch (IOException e) {
+        throw new JochreException(e);
+      }
+    }
     return contents;
   }
 
@@ -370,14 +387,11 @@ public class JochreIndexDocument {
    */
   public Rectangle getRowRectangle(int pageIndex, int rowIndex) {
     Rectangle rect = null;
-    if (rectangles != null) {
-      TIntObjectMap<Rectangle> rowRectangles = rectangles.get(pageIndex);
-      if (rowRectangles == null)
-        throw new IndexFieldNotFoundException("No rectangles for pageIndex " + pageIndex);
-
-      rect = rowRectangles.get(rowIndex);
+    if (rowGeometry != null) {
+      rect = rowGeometry.getRowRectangle(pageIndex, rowIndex);
       if (rect == null)
-        throw new IndexFieldNotFoundException("No rectangles for pageIndex " + pageIndex + ", rowIndex " + rowIndex);
+        throw new IndexFieldNotFoundException("No rectangle for pageIndex " + pageIndex + ", rowIndex " + rowIndex
+            + " in document " + this.name + " (docId=" + this.docId + ")");
     } else if (doc != null) {
       String fieldName = JochreIndexField.rect.name() + pageIndex + "_" + rowIndex;
       String rectString = this.doc.get(fieldName);
@@ -396,14 +410,11 @@ public class JochreIndexDocument {
    */
   public int getStartIndex(int pageIndex, int rowIndex) {
     int startIndex = -1;
-    if (startIndexes != null) {
-      TIntIntMap rowStartIndexes = startIndexes.get(pageIndex);
-      if (rowStartIndexes == null)
-        throw new IndexFieldNotFoundException("No start indexes for pageIndex " + pageIndex);
-
-      startIndex = rowStartIndexes.get(rowIndex);
+    if (rowGeometry != null) {
+      startIndex = rowGeometry.getStartIndex(pageIndex, rowIndex);
       if (startIndex == -1)
-        throw new IndexFieldNotFoundException("No start index for pageIndex " + pageIndex + ", rowIndex " + rowIndex);
+        throw new IndexFieldNotFoundException("No start index for pageIndex " + pageIndex + ", rowIndex " + rowIndex
+            + " in document " + this.name + " (docId=" + this.docId + ")");
     } else if (doc != null) {
       String fieldName = JochreIndexField.start.name() + pageIndex + "_" + rowIndex;
       Number startIndexObj = null;
@@ -448,8 +459,11 @@ public class JochreIndexDocument {
    */
   public int getRowCount(int pageIndex) {
     int rowCount = -1;
-    if (rowCounts != null) {
-      return rowCounts.get(pageIndex);
+    if (rowGeometry != null) {
+      rowCount = rowGeometry.getRowCount(pageIndex);
+      if (rowCount == -1)
+        throw new IndexFieldNotFoundException(
+            "No rowCount for pageIndex " + pageIndex + " in document " + this.name + " (docId=" + this.docId + ")");
     } else {
       String fieldName = JochreIndexField.rowCount.name() + pageIndex;
       Number rowCountObj = null;
@@ -489,18 +503,15 @@ public class JochreIndexDocument {
   }
 
   /**
-   * Get the image corresponding to a particular page index.
+   * Get the image corresponding to a particular page index. The image is
+   * shared via the {@link PageImageCache}, and must not be modified.
    */
   public BufferedImage getImage(int pageIndex) {
-    PdfImageReader pdfImageReader = new PdfImageReader(this.directory.getPdfFile());
-    BufferedImage image = pdfImageReader.readImage(pageIndex);
+    PageImageCache pageImageCache = PageImageCache.getInstance(this.config.getConfigId());
+    BufferedImage image = pageImageCache.getImage(this.directory.getPdfFile(), pageIndex);
     return image;
   }
 
-  private String rectToString(Rectangle rect) {
-    return rect.x + "|" + rect.y + "|" + rect.width + "|" + rect.height;
-  }
-
   private Rectangle stringToRect(String string) {
     String[] parts = string.split("\\|");
     int x = Integer.parseInt(parts[0]);
@@ -48,10 +48,15 @@ public enum JochreIndexField {
   volume,
   /** Length of current section in characters */
   length,
-  /** Prefix for each row's rectangle. */
+  /** Prefix for each row's rectangle, in indexes built before rowGeometry. */
   rect,
-  /** Prefix for each row's start position in characters. */
+  /**
+   * Prefix for each row's start position in characters, in indexes built before
+   * rowGeometry.
+   */
   start,
-  /** Prefix for the number of rows in each page */
-  rowCount;
+  /** Prefix for the number of rows in each page, in indexes built before rowGeometry. */
+  rowCount,
+  /** Binary doc values with each row's rectangle and start position */
+  rowGeometry;
 }
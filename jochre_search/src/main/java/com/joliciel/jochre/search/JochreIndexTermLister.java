@@ -11,6 +11,7 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
+import org.apache.lucene.index.Fields;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexReaderContext;
 import org.apache.lucene.index.LeafReader;
@@ -28,6 +29,18 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 
+/**
+ * Lists the terms indexed for a single document, with their positions, offsets
+ * and payloads.<br>
+ * <br>
+ * The terms are read from the document's term vectors, so that the cost only
+ * depends on the size of the document. Documents indexed before their term
+ * vectors included offsets and payloads are listed by scanning the term
+ * dictionary of the document's segment instead, which is much slower.
+ * 
+ * @author Assaf Urieli
+ *
+ */
 public class JochreIndexTermLister {
   private static final Logger LOG = LoggerFactory.getLogger(JochreIndexTermLister.class);
 
@@ -66,6 +79,11 @@ public class JochreIndexTermLister {
 
     LeafReaderContext subContext = leaves.get(leaf);
     LeafReader atomicReader = subContext.reader();
+    int relativeId = docId - subContext.docBase;
+
+    Fields termVectors = atomicReader.getTermVectors(relativeId);
+    Terms textVector = termVectors == null ? null : termVectors.terms(JochreIndexField.text.name());
+    boolean useTermVectors = textVector != null && textVector.hasOffsets() && textVector.hasPayloads();
 
     int fieldCounter = 0;
     for (String field : fields) {
@@ -73,19 +91,23 @@ public class JochreIndexTermLister {
       if (LOG.isTraceEnabled())
         LOG.trace("Field " + fieldCounter + ": " + field);
 
-      Terms atomicReaderTerms = atomicReader.terms(field);
-      if (atomicReaderTerms == null) {
+      Terms terms = useTermVectors ? termVectors.terms(field) : atomicReader.terms(field);
+      if (terms == null) {
         LOG.trace("Empty reader");
         continue; // nothing to do
       }
 
-      TermsEnum termsEnum = atomicReaderTerms.iterator();
-
-      @SuppressWarnings("unused")
-      BytesRef bytesRef = null;
-      while ((bytesRef = termsEnum.next()) != null) {
-        this.findTerms(fieldTermMap, field, termsEnum, subContext, docId);
-      } // next bytesRef
+      TermsEnum termsEnum = terms.iterator();
+      PostingsEnum docPosEnum = null;
+
+      while (termsEnum.next() != null) {
+        docPosEnum = termsEnum.postings(docPosEnum,
+            PostingsEnum.OFFSETS | PostingsEnum.POSITIONS | PostingsEnum.PAYLOADS);
+        // a term vector only contains the current document
+        int targetId = useTermVectors ? 0 : relativeId;
+        if (docPosEnum.advance(targetId) == targetId)
+          this.findTerms(fieldTermMap, field, termsEnum, docPosEnum);
+      } // next term
     } // next field
 
     return fieldTermMap;
@@ -136,42 +158,33 @@ public class JochreIndexTermLister {
     }
   }
 
-  private void findTerms(Map<String, Set<JochreTerm>> textFeatureMap, String field, TermsEnum termsEnum, LeafReaderContext subContext, int luceneId)
+  private void findTerms(Map<String, Set<JochreTerm>> textFeatureMap, String field, TermsEnum termsEnum, PostingsEnum docPosEnum)
       throws IOException {
     Term term = new Term(field, BytesRef.deepCopyOf(termsEnum.term()));
 
-    PostingsEnum docPosEnum = termsEnum.postings(null, PostingsEnum.OFFSETS | PostingsEnum.POSITIONS | PostingsEnum.PAYLOADS);
-    int relativeId = docPosEnum.nextDoc();
-    while (relativeId != PostingsEnum.NO_MORE_DOCS) {
-      int nextId = subContext.docBase + relativeId;
-      if (luceneId == nextId) {
-        // Retrieve the term frequency in the current document
-        int freq = docPosEnum.freq();
-
-        if (LOG.isTraceEnabled())
-          LOG.trace("Found " + freq + " matches for term " + term.toString() + ", luceneId " + nextId + ", docId " + docId + ", field " + field);
-
-        for (int i = 0; i < freq; i++) {
-          int position = docPosEnum.nextPosition();
-          int start = docPosEnum.startOffset();
-          int end = docPosEnum.endOffset();
-
-          if (LOG.isTraceEnabled())
-            LOG.trace("Found match " + position + " at luceneId " + nextId + ", field " + field + " start=" + start + ", end=" + end);
-
-          BytesRef bytesRef = docPosEnum.getPayload();
-          JochrePayload payload = null;
-          if (bytesRef != null)
-            payload = new JochrePayload(bytesRef);
-
-          JochreTerm jochreTerm = new JochreTerm(term.toString(), position, start, end, payload, term);
-          Set<JochreTerm> jochreTerms = textFeatureMap.get(field);
-          jochreTerms.add(jochreTerm);
-        } // next occurrence
-      } // correct document
-
-      relativeId = docPosEnum.nextDoc();
-    }
+    // Retrieve the term frequency in the current document
+    int freq = docPosEnum.freq();
+
+    if (LOG.isTraceEnabled())
+      LOG.trace("Found " + freq + " matches for term " + term.toString() + ", docId " + docId + ", field " + field);
+
+    for (int i = 0; i < freq; i++) {
+      int position = docPosEnum.nextPosition();
+      int start = docPosEnum.startOffset();
+      int end = docPosEnum.endOffset();
+
+      if (LOG.isTraceEnabled())
+        LOG.trace("Found match " + position + " at docId " + docId + ", field " + field + " start=" + start + ", end=" + end);
+
+      BytesRef bytesRef = docPosEnum.getPayload();
+      JochrePayload payload = null;
+      if (bytesRef != null)
+        payload = new JochrePayload(bytesRef);
+
+      JochreTerm jochreTerm = new JochreTerm(term.toString(), position, start, end, payload, term);
+      Set<JochreTerm> jochreTerms = textFeatureMap.get(field);
+      jochreTerms.add(jochreTerm);
+    } // next occurrence
   }
 
   public static final class JochreTerm implements Comparable<JochreTerm> {
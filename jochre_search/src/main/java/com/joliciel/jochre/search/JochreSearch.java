@@ -89,6 +89,7 @@ public class JochreSearch {
   private static DecimalFormatSymbols enSymbols = new DecimalFormatSymbols(Locale.US);
 
   private final String configId;
+  private boolean indexInBackground = true;
 
   public JochreSearch(String configId) {
     if (configId == null) {
@@ -784,9 +785,8 @@ public class JochreSearch {
           JochreIndexDirectory jochreIndexDirectory = new JochreIndexDirectory(path, configId);
           jochreIndexDirectory.addUpdateInstructions();
 
-          // Start the index thread
-          JochreIndexBuilder builder = new JochreIndexBuilder(configId, false);
-          new Thread(builder).start();
+          // Index the document
+          this.indexJournalChanges();
         } finally {
           searchManager.getManager().release(indexSearcher);
         }
@@ -849,9 +849,8 @@ public class JochreSearch {
           correction.setDocuments(docNames);
           correction.save();
 
-          // start the index thread
-          JochreIndexBuilder builder = new JochreIndexBuilder(configId, false);
-          new Thread(builder).start();
+          // index the documents
+          this.indexJournalChanges();
 
           // wrap e-mail in runnable to return directly to client
           new Thread(new Runnable() {
@@ -911,9 +910,8 @@ public class JochreSearch {
           JochreIndexDirectory jochreIndexDirectory = new JochreIndexDirectory(docPath, configId);
           jochreIndexDirectory.addUpdateInstructions();
 
-          // start the index thread
-          JochreIndexBuilder builder = new JochreIndexBuilder(configId, forceUpdate);
-          new Thread(builder).start();
+          // index the documents
+          this.indexJournalChanges();
 
           out.write("{\"response\":\"correction undo thread started\"}\n");
         } finally {
@@ -929,12 +927,13 @@ public class JochreSearch {
 
         IndexSearcher indexSearcher = searchManager.getManager().acquire();
         try {
-          FieldTermPrefixFinder finder = new FieldTermPrefixFinder(indexSearcher, field, prefix, maxResults, configId);
+          PrefixSuggester prefixSuggester = ((JochreSearcher) indexSearcher).getPrefixSuggester();
+          List<String> results = prefixSuggester.suggest(field, prefix, maxResults);
           JsonFactory jsonFactory = new JsonFactory();
           JsonGenerator jsonGen = jsonFactory.createGenerator(out);
 
           jsonGen.writeStartArray();
-          for (String result : finder.getResults()) {
+          for (String result : results) {
             jsonGen.writeString(result);
           }
           jsonGen.writeEndArray();
@@ -1138,6 +1137,34 @@ public class JochreSearch {
     }
   }
 
+  /**
+   * Index the changes recorded in the {@link IndexChangeJournal}, either in the
+   * background or on the current thread, depending on
+   * {@link #isIndexInBackground()}.
+   */
+  private void indexJournalChanges() throws IOException {
+    if (indexInBackground) {
+      IndexChangeJournal.getInstance(configId).requestIndexing();
+    } else {
+      JochreIndexBuilder builder = new JochreIndexBuilder(configId, false);
+      builder.updateIndexFromJournal();
+    }
+  }
+
+  /**
+   * Whether commands which change the index return before indexing is
+   * complete, leaving it to a background thread. Default is true. Should be
+   * false when the process doesn't outlive the command, since the background
+   * thread won't keep it alive.
+   */
+  public boolean isIndexInBackground() {
+    return indexInBackground;
+  }
+
+  public void setIndexInBackground(boolean indexInBackground) {
+    this.indexInBackground = indexInBackground;
+  }
+
   /**
    * Command-line entry point.
    */
@@ -1190,6 +1217,8 @@ public class JochreSearch {
       }
 
       JochreSearch main = new JochreSearch(configId);
+      // the process exits as soon as the command returns
+      main.setIndexInBackground(false);
       main.execute(argMap, output);
 
       if (output.isRight())
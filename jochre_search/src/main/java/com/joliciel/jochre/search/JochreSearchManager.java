@@ -64,6 +64,11 @@ public class JochreSearchManager {
         manager = new SearcherManager(indexDir, searcherFactory);
       }
       this.manager = manager;
+
+      if (config.getConfig().getBoolean("index-builder.watch-content-dir")) {
+        IndexChangeWatcher watcher = new IndexChangeWatcher(configId);
+        watcher.start();
+      }
     } catch (IOException e) {
       throw new RuntimeException("Unable to open index directories", e);
     }
@@ -9,9 +9,12 @@ import org.apache.lucene.search.IndexSearcher;
 
 public class JochreSearcher extends IndexSearcher {
   private final int bookCount;
+  private final PrefixSuggester prefixSuggester;
 
-  public JochreSearcher(IndexReader reader, JochreSearchConfig config) throws IOException {
+  public JochreSearcher(IndexReader reader, JochreSearchConfig config, PrefixSuggester previousPrefixSuggester)
+      throws IOException {
     super(reader);
+    this.prefixSuggester = new PrefixSuggester(reader, previousPrefixSuggester, config.getConfigId());
     File contentDir = config.getContentDir();
     bookCount = (int) (Files.find(contentDir.toPath(), 1, // how deep do we want to descend
         (path, attributes) -> attributes.isDirectory()).count() - 1);
@@ -23,4 +26,11 @@ public class JochreSearcher extends IndexSearcher {
   public int getBookCount() {
     return bookCount;
   }
+
+  /**
+   * The prefix suggester for this searcher's index reader.
+   */
+  public PrefixSuggester getPrefixSuggester() {
+    return prefixSuggester;
+  }
 }
@@ -8,6 +8,7 @@ import org.apache.lucene.search.SearcherFactory;
 
 public class JochreSearcherFactory extends SearcherFactory {
   private final JochreSearchConfig config;
+  private PrefixSuggester lastPrefixSuggester = null;
 
   public JochreSearcherFactory(JochreSearchConfig config) {
     this.config = config;
@@ -15,7 +16,9 @@ public class JochreSearcherFactory extends SearcherFactory {
 
   @Override
   public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
-    return new JochreSearcher(reader, config);
+    JochreSearcher searcher = new JochreSearcher(reader, config, lastPrefixSuggester);
+    lastPrefixSuggester = searcher.getPrefixSuggester();
+    return searcher;
   }
 
 }
@@ -0,0 +1,260 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.search;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+/**
+ * A cache of decoded PDF page images, so that a page shared by several image
+ * snippets or word images only gets decoded once.<br>
+ * <br>
+ * Images are kept in memory up to a maximum total size, the least recently used
+ * images being dropped first. If a cache directory is configured, each decoded
+ * page is also stored there as a PNG file, which is read instead of decoding
+ * the PDF again once the image has been dropped from memory, or after a
+ * restart. Entries are keyed by the PDF file's path and last modification time,
+ * so that a replaced PDF is decoded again. Files are never removed from the
+ * cache directory, including those of replaced PDFs, so it grows with the
+ * number of distinct pages viewed, and needs to be cleaned externally if disk
+ * space is limited.<br>
+ * <br>
+ * Concurrent requests for a page which isn't cached yet share a single decode.
+ * Pages found to have no image are remembered in memory, so that they aren't
+ * decoded again.<br>
+ * <br>
+ * The images returned are shared, and must not be modified by callers.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+public class PageImageCache {
+  private static final Logger LOG = LoggerFactory.getLogger(PageImageCache.class);
+  private static final Map<String, PageImageCache> instances = new HashMap<>();
+
+  private final long maxMemory;
+  private final File directory;
+  private final PageLoader pageLoader;
+  private final LinkedHashMap<String, BufferedImage> images = new LinkedHashMap<>(16, 0.75f, true);
+  private final Set<String> pagesWithoutImage = new HashSet<>();
+  private final Map<String, CompletableFuture<BufferedImage>> decodesInProgress = new ConcurrentHashMap<>();
+  private long memory = 0;
+
+  public static synchronized PageImageCache getInstance(String configId) {
+    PageImageCache instance = instances.get(configId);
+    if (instance == null) {
+      instance = new PageImageCache(configId);
+      instances.put(configId, instance);
+    }
+    return instance;
+  }
+
+  private PageImageCache(String configId) {
+    this(JochreSearchConfig.getInstance(configId).getConfig().getConfig("page-image-cache"));
+  }
+
+  private PageImageCache(Config config) {
+    this(config.getBytes("max-memory"), config.hasPath("directory") ? new File(config.getString("directory")) : null,
+        (pdfFile, pageIndex) -> new PdfImageReader(pdfFile).readImage(pageIndex));
+  }
+
+  /**
+   * Construct a cache with its own page loader.
+   * 
+   * @param maxMemory
+   *          the maximum total size of the images kept in memory, in bytes
+   * @param directory
+   *          the directory in which to store decoded images, or null if none
+   */
+  PageImageCache(long maxMemory, File directory, PageLoader pageLoader) {
+    this.maxMemory = maxMemory;
+    this.directory = directory;
+    if (this.directory != null)
+      this.directory.mkdirs();
+    this.pageLoader = pageLoader;
+  }
+
+  /**
+   * Loads the image on a given page of a PDF file, or returns null if the page
+   * has no image.
+   */
+  interface PageLoader {
+    BufferedImage loadImage(File pdfFile, int pageIndex);
+  }
+
+  /**
+   * Get the image on a given page of a PDF file, decoding it only if it isn't
+   * already cached. Returns null if the page has no image.
+   */
+  public BufferedImage getImage(File pdfFile, int pageIndex) {
+    String key = pdfFile.getAbsolutePath() + "|" + pdfFile.lastModified() + "|" + pageIndex;
+    BufferedImage image = this.getCachedImage(key);
+    if (image != null || this.hasNoImage(key))
+      return image;
+
+    CompletableFuture<BufferedImage> future = new CompletableFuture<>();
+    CompletableFuture<BufferedImage> decodeInProgress = decodesInProgress.putIfAbsent(key, future);
+    if (decodeInProgress != null) {
+      try {
+        return decodeInProgress.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException)
+          throw (RuntimeException) e.getCause();
+        throw new RuntimeException(e.getCause());
+      }
+    }
+
+    try {
+      // another thread may have finished decoding this page since we checked
+      image = this.getCachedImage(key);
+      if (image == null && !this.hasNoImage(key)) {
+        image = this.loadImage(key, pdfFile, pageIndex);
+        if (image == null) {
+          synchronized (this) {
+            pagesWithoutImage.add(key);
+          }
+        } else {
+          this.put(key, image);
+        }
+      }
+      future.complete(image);
+      return image;
+    } catch (RuntimeException | Error e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      decodesInProgress.remove(key);
+    }
+  }
+
+  private synchronized BufferedImage getCachedImage(String key) {
+    return images.get(key);
+  }
+
+  private synchronized boolean hasNoImage(String key) {
+    return pagesWithoutImage.contains(key);
+  }
+
+  /**
+   * Read the image from the cache directory, or decode it from the PDF file if
+   * it isn't there.
+   */
+  private BufferedImage loadImage(String key, File pdfFile, int pageIndex) {
+    File cacheFile = null;
+    if (directory != null) {
+      cacheFile = new File(directory, this.getFileName(key));
+      BufferedImage image = this.readFromDisk(cacheFile);
+      if (image != null)
+        return image;
+    }
+
+    if (LOG.isDebugEnabled())
+      LOG.debug("Decoding page " + pageIndex + " of " + pdfFile.getPath());
+    BufferedImage image = pageLoader.loadImage(pdfFile, pageIndex);
+    if (image != null && cacheFile != null)
+      this.writeToDisk(image, cacheFile);
+    return image;
+  }
+
+  private synchronized void put(String key, BufferedImage image) {
+    long size = getSize(image);
+    if (size > maxMemory)
+      return;
+    BufferedImage previous = images.put(key, image);
+    if (previous != null)
+      memory -= getSize(previous);
+    memory += size;
+
+    Iterator<BufferedImage> iEldest = images.values().iterator();
+    while (memory > maxMemory) {
+      memory -= getSize(iEldest.next());
+      iEldest.remove();
+    }
+  }
+
+  private static long getSize(BufferedImage image) {
+    DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+    return (long) dataBuffer.getSize() * dataBuffer.getNumBanks()
+        * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+  }
+
+  private BufferedImage readFromDisk(File cacheFile) {
+    if (!cacheFile.exists())
+      return null;
+    try {
+      return ImageIO.read(cacheFile);
+    } catch (IOException e) {
+      LOG.warn("Unable to read cached page image " + cacheFile.getPath(), e);
+      return null;
+    }
+  }
+
+  private void writeToDisk(BufferedImage image, File cacheFile) {
+    try {
+      // write to a temporary file first, so that a partially written image is
+      // never read
+      File tempFile = File.createTempFile("page", ".tmp", directory);
+      try {
+        ImageIO.write(image, "png", tempFile);
+        Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(tempFile.toPath());
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to cache page image " + cacheFile.getPath(), e);
+    }
+  }
+
+  private String getFileName(String key) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      StringBuilder sb = new StringBuilder();
+      for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8)))
+        sb.append(String.format("%02x", b));
+      sb.append(".png");
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,311 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.spell.HighFrequencyDictionary;
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.apache.lucene.search.suggest.fst.WFSTCompletionLookup;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.joliciel.jochre.search.lexicon.TextNormaliser;
+
+/**
+ * Finds the top-N most frequent terms in a field matching a certain prefix.
+ * Frequency is the number of documents in which the term appears. Results are
+ * sorted alphabetically.<br>
+ * <br>
+ * Each field's terms are compiled into a weighted FST, so that a lookup only
+ * depends on the number of results requested, not on the number of matching
+ * terms or index segments. A suggester is built for each index reader, when
+ * the index is refreshed. A field whose segments haven't changed since the
+ * previous reader reuses the previous reader's FST. Otherwise, the fields
+ * listed in prefix-search.fields, and any field built for the previous reader,
+ * are rebuilt on a background thread, so that refreshing the index isn't held
+ * up, and the previous reader's FST is used until the new one is ready. Other
+ * fields are built the first time they are requested.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+public class PrefixSuggester {
+  private static final Logger LOG = LoggerFactory.getLogger(PrefixSuggester.class);
+  private static final Map<String, ExecutorService> executors = new HashMap<>();
+
+  private final IndexReader reader;
+  private final String configId;
+  private final List<Object> segmentKeys;
+  private final Map<JochreIndexField, CompletableFuture<FieldSuggester>> fieldSuggesters = new ConcurrentHashMap<>();
+  private final Map<JochreIndexField, FieldSuggester> previousFieldSuggesters = new ConcurrentHashMap<>();
+  private volatile boolean superseded = false;
+
+  /**
+   * Build a suggester for a given reader.
+   * 
+   * @param previous
+   *          the suggester for the previous reader, whose fields are reused if
+   *          the segments haven't changed, or null if there is none
+   */
+  public PrefixSuggester(IndexReader reader, PrefixSuggester previous, String configId) throws IOException {
+    this.reader = reader;
+    this.configId = configId;
+    this.segmentKeys = new ArrayList<>();
+    for (LeafReaderContext leaf : reader.leaves()) {
+      IndexReader.CacheHelper cacheHelper = leaf.reader().getCoreCacheHelper();
+      segmentKeys.add(cacheHelper == null ? leaf.reader() : cacheHelper.getKey());
+    }
+
+    Set<JochreIndexField> fieldsToBuild = new LinkedHashSet<>();
+    JochreSearchConfig config = JochreSearchConfig.getInstance(configId);
+    for (String fieldName : config.getConfig().getStringList("prefix-search.fields"))
+      fieldsToBuild.add(JochreIndexField.valueOf(fieldName));
+
+    if (previous != null) {
+      boolean sameSegments = previous.segmentKeys.equals(this.segmentKeys);
+      if (!sameSegments)
+        previous.superseded = true;
+      Set<JochreIndexField> previousFields = new LinkedHashSet<>(previous.fieldSuggesters.keySet());
+      previousFields.addAll(previous.previousFieldSuggesters.keySet());
+      for (JochreIndexField field : previousFields) {
+        FieldSuggester fieldSuggester = previous.getBuiltFieldSuggester(field);
+        if (fieldSuggester != null && sameSegments) {
+          // deletions don't change the document frequency
+          fieldSuggesters.put(field, CompletableFuture.completedFuture(fieldSuggester));
+          continue;
+        }
+        if (fieldSuggester == null)
+          fieldSuggester = previous.previousFieldSuggesters.get(field);
+        if (fieldSuggester != null)
+          previousFieldSuggesters.put(field, fieldSuggester);
+        fieldsToBuild.add(field);
+      }
+    }
+
+    ExecutorService executor = getExecutor(configId);
+    for (JochreIndexField field : fieldsToBuild) {
+      if (fieldSuggesters.containsKey(field))
+        continue;
+      CompletableFuture<FieldSuggester> future = new CompletableFuture<>();
+      fieldSuggesters.put(field, future);
+      executor.execute(() -> this.buildInBackground(field, future));
+    }
+  }
+
+  private static synchronized ExecutorService getExecutor(String configId) {
+    ExecutorService executor = executors.get(configId);
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "jochre-prefix-suggester-" + configId);
+        thread.setDaemon(true);
+        return thread;
+      });
+      executors.put(configId, executor);
+    }
+    return executor;
+  }
+
+  /**
+   * Get the top results for a given prefix, using the text stored in the index
+   * rather than the normalised term, except for the full text field, where the
+   * term itself is returned.
+   */
+  public List<String> suggest(JochreIndexField field, String prefix, int maxResults) throws IOException {
+    TextNormaliser textNormaliser = TextNormaliser.getInstance(configId);
+    if (textNormaliser != null) {
+      prefix = textNormaliser.normalise(prefix);
+    }
+
+    FieldSuggester fieldSuggester = this.getFieldSuggester(field);
+    int num = maxResults > 0 ? maxResults : Math.max(1, (int) fieldSuggester.lookup.getCount());
+    List<LookupResult> lookupResults = fieldSuggester.lookup.lookup(prefix, false, num);
+
+    List<String> results = new ArrayList<>(lookupResults.size());
+    for (LookupResult lookupResult : lookupResults) {
+      String term = lookupResult.key.toString();
+      if (field == JochreIndexField.text) {
+        results.add(term);
+      } else {
+        String displayForm = fieldSuggester.displayForms.get(term);
+        if (displayForm == null) {
+          displayForm = this.findDisplayForm(field, term);
+          fieldSuggester.displayForms.put(term, displayForm);
+        }
+        results.add(displayForm);
+      }
+    }
+
+    // sort alphabetically
+    Collections.sort(results);
+    return results;
+  }
+
+  /**
+   * Get the field's suggester for this reader if it has been built, otherwise
+   * the previous reader's suggester if the field was scheduled for a rebuild in
+   * the background, otherwise build it on the current thread.
+   */
+  private FieldSuggester getFieldSuggester(JochreIndexField field) throws IOException {
+    FieldSuggester fieldSuggester = this.getBuiltFieldSuggester(field);
+    if (fieldSuggester != null)
+      return fieldSuggester;
+
+    CompletableFuture<FieldSuggester> future = fieldSuggesters.get(field);
+    if (future != null) {
+      // either the rebuild is still underway, or it was skipped because this
+      // reader has already been replaced, in which case there's no point in
+      // building it here either
+      FieldSuggester previousFieldSuggester = previousFieldSuggesters.get(field);
+      if (previousFieldSuggester != null)
+        return previousFieldSuggester;
+    }
+    if (future != null && !future.isDone()) {
+      try {
+        return future.join();
+      } catch (CompletionException e) {
+        // the background build was skipped or failed, build it below
+      }
+    }
+
+    synchronized (this) {
+      fieldSuggester = this.getBuiltFieldSuggester(field);
+      if (fieldSuggester == null) {
+        fieldSuggester = this.buildFieldSuggester(field);
+        fieldSuggesters.put(field, CompletableFuture.completedFuture(fieldSuggester));
+        previousFieldSuggesters.remove(field);
+      }
+      return fieldSuggester;
+    }
+  }
+
+  /**
+   * Wait for the field's suggester for this reader to be built, if it was
+   * scheduled for building, and return it, or null if it was not scheduled or
+   * could not be built.
+   */
+  Object awaitFieldSuggester(JochreIndexField field) {
+    CompletableFuture<FieldSuggester> future = fieldSuggesters.get(field);
+    if (future == null)
+      return null;
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      return null;
+    }
+  }
+
+  /**
+   * The field's suggester for this reader, or null if it hasn't been built.
+   */
+  private FieldSuggester getBuiltFieldSuggester(JochreIndexField field) {
+    CompletableFuture<FieldSuggester> future = fieldSuggesters.get(field);
+    if (future == null || !future.isDone() || future.isCompletedExceptionally())
+      return null;
+    return future.join();
+  }
+
+  private void buildInBackground(JochreIndexField field, CompletableFuture<FieldSuggester> future) {
+    // no point in building for a reader which has already been replaced
+    if (superseded || !reader.tryIncRef()) {
+      future.completeExceptionally(new IllegalStateException("Index reader replaced"));
+      return;
+    }
+    try {
+      future.complete(this.buildFieldSuggester(field));
+      // release the previous reader's FST
+      previousFieldSuggesters.remove(field);
+    } catch (IOException | RuntimeException e) {
+      LOG.error("Unable to build prefix suggester for " + field.name(), e);
+      future.completeExceptionally(e);
+    } finally {
+      try {
+        reader.decRef();
+      } catch (IOException e) {
+        LOG.error("Unable to release index reader", e);
+      }
+    }
+  }
+
+  private FieldSuggester buildFieldSuggester(JochreIndexField field) throws IOException {
+    long startTime = System.currentTimeMillis();
+    WFSTCompletionLookup lookup = new WFSTCompletionLookup(new RAMDirectory(), "prefix", false);
+    lookup.build(new HighFrequencyDictionary(reader, field.name(), 0f));
+    if (LOG.isDebugEnabled())
+      LOG.debug("Built prefix suggester for " + field.name() + " with " + lookup.getCount() + " terms in "
+          + (System.currentTimeMillis() - startTime) + " ms");
+    return new FieldSuggester(lookup);
+  }
+
+  /**
+   * Read the text actually stored in a document containing the term, rather than
+   * the text normalised into a search term, which might be lowercase or not
+   * have accents.
+   */
+  private String findDisplayForm(JochreIndexField field, String term) throws IOException {
+    BytesRef bytesRef = new BytesRef(term);
+    for (LeafReaderContext leaf : reader.leaves()) {
+      Terms terms = leaf.reader().terms(field.name());
+      if (terms == null)
+        continue;
+      TermsEnum termsEnum = terms.iterator();
+      if (!termsEnum.seekExact(bytesRef))
+        continue;
+      PostingsEnum docPosEnum = termsEnum.postings(null, PostingsEnum.NONE);
+      int relativeId = docPosEnum.nextDoc();
+      if (relativeId != PostingsEnum.NO_MORE_DOCS) {
+        Document doc = reader.document(leaf.docBase + relativeId, Collections.singleton(field.name()));
+        String displayForm = doc.get(field.name());
+        if (displayForm != null)
+          return displayForm;
+      }
+    }
+    LOG.debug("Term not found: " + term);
+    return term;
+  }
+
+  private static final class FieldSuggester {
+    private final WFSTCompletionLookup lookup;
+    private final Map<String, String> displayForms = new ConcurrentHashMap<>();
+
+    public FieldSuggester(WFSTCompletionLookup lookup) {
+      this.lookup = lookup;
+    }
+  }
+}
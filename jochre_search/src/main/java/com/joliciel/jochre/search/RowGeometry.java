@@ -0,0 +1,166 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.search;
+
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * The rectangle and content start index of each row in a document, serialised
+ * as a single byte array so that it can be stored in a binary doc values field.
+ * <br>
+ * <br>
+ * The layout is a header giving the first page and the number of pages, an
+ * offset table with one entry per page giving the position of the page's first
+ * row and the page's row count (-1 if the page is missing), followed by a
+ * fixed-size entry per row (x, y, width, height, start index). Any row can
+ * therefore be read directly given its page and row index, without parsing the
+ * rest of the document.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+final class RowGeometry {
+  private static final int HEADER_SIZE = 2 * Integer.BYTES;
+  private static final int PAGE_ENTRY_SIZE = 2 * Integer.BYTES;
+  private static final int ROW_ENTRY_SIZE = 5 * Integer.BYTES;
+
+  private final ByteBuffer buffer;
+  private final int startPage;
+  private final int pageCount;
+
+  RowGeometry(byte[] bytes) {
+    this.buffer = ByteBuffer.wrap(bytes);
+    this.startPage = buffer.getInt(0);
+    this.pageCount = buffer.getInt(Integer.BYTES);
+  }
+
+  /**
+   * The number of rows on a given page, or -1 if the page is not in this
+   * document.
+   */
+  public int getRowCount(int pageIndex) {
+    if (pageIndex < startPage || pageIndex >= startPage + pageCount)
+      return -1;
+    return buffer.getInt(HEADER_SIZE + (pageIndex - startPage) * PAGE_ENTRY_SIZE + Integer.BYTES);
+  }
+
+  /**
+   * The rectangle enclosing a given row, or null if the row is not in this
+   * document.
+   */
+  public Rectangle getRowRectangle(int pageIndex, int rowIndex) {
+    int position = this.getRowPosition(pageIndex, rowIndex);
+    if (position < 0)
+      return null;
+    return new Rectangle(buffer.getInt(position), buffer.getInt(position + Integer.BYTES),
+        buffer.getInt(position + 2 * Integer.BYTES), buffer.getInt(position + 3 * Integer.BYTES));
+  }
+
+  /**
+   * The content index of the first character on a given row, or -1 if the row
+   * is not in this document.
+   */
+  public int getStartIndex(int pageIndex, int rowIndex) {
+    int position = this.getRowPosition(pageIndex, rowIndex);
+    if (position < 0)
+      return -1;
+    return buffer.getInt(position + 4 * Integer.BYTES);
+  }
+
+  private int getRowPosition(int pageIndex, int rowIndex) {
+    int rowCount = this.getRowCount(pageIndex);
+    if (rowIndex < 0 || rowIndex >= rowCount)
+      return -1;
+    int firstRow = buffer.getInt(HEADER_SIZE + (pageIndex - startPage) * PAGE_ENTRY_SIZE);
+    return HEADER_SIZE + pageCount * PAGE_ENTRY_SIZE + (firstRow + rowIndex) * ROW_ENTRY_SIZE;
+  }
+
+  public byte[] getBytes() {
+    return buffer.array();
+  }
+
+  /**
+   * Collects the rows of each page, and serialises them into a
+   * {@link RowGeometry}.
+   */
+  static final class Builder {
+    private final TIntObjectMap<int[]> pageRows = new TIntObjectHashMap<>();
+    private int startPage = Integer.MAX_VALUE;
+    private int endPage = Integer.MIN_VALUE;
+    private int totalRowCount = 0;
+
+    /**
+     * Add a page with a given number of rows. Rows are then set via
+     * {@link #setRow(int, int, Rectangle, int)}.
+     */
+    public void addPage(int pageIndex, int rowCount) {
+      int[] rows = new int[rowCount * 5];
+      for (int i = 4; i < rows.length; i += 5)
+        rows[i] = -1;
+      pageRows.put(pageIndex, rows);
+      totalRowCount += rowCount;
+      if (pageIndex < startPage)
+        startPage = pageIndex;
+      if (pageIndex > endPage)
+        endPage = pageIndex;
+    }
+
+    public void setRow(int pageIndex, int rowIndex, Rectangle rectangle, int startIndex) {
+      int[] rows = pageRows.get(pageIndex);
+      int offset = rowIndex * 5;
+      rows[offset] = rectangle.x;
+      rows[offset + 1] = rectangle.y;
+      rows[offset + 2] = rectangle.width;
+      rows[offset + 3] = rectangle.height;
+      rows[offset + 4] = startIndex;
+    }
+
+    public RowGeometry build() {
+      int pageCount = pageRows.isEmpty() ? 0 : endPage - startPage + 1;
+      ByteBuffer buffer = ByteBuffer
+          .allocate(HEADER_SIZE + pageCount * PAGE_ENTRY_SIZE + totalRowCount * ROW_ENTRY_SIZE);
+      buffer.putInt(pageRows.isEmpty() ? 0 : startPage);
+      buffer.putInt(pageCount);
+      int firstRow = 0;
+      for (int i = 0; i < pageCount; i++) {
+        int[] rows = pageRows.get(startPage + i);
+        if (rows == null) {
+          buffer.putInt(-1);
+          buffer.putInt(-1);
+        } else {
+          buffer.putInt(firstRow);
+          buffer.putInt(rows.length / 5);
+          firstRow += rows.length / 5;
+        }
+      }
+      for (int i = 0; i < pageCount; i++) {
+        int[] rows = pageRows.get(startPage + i);
+        if (rows != null) {
+          for (int value : rows)
+            buffer.putInt(value);
+        }
+      }
+      return new RowGeometry(buffer.array());
+    }
+  }
+}
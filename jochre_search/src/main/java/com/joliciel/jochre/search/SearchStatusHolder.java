@@ -39,7 +39,20 @@ public final class SearchStatusHolder implements TaskStatusHolder {
     return lastUpdated;
   }
 
-  public void setStatus(SearchStatus status) {
+  /**
+   * Move from {@link SearchStatus#WAITING} to
+   * {@link SearchStatus#PREPARING}.
+   * 
+   * @throws IndexingUnderwayException
+   *           if indexing is already underway
+   */
+  public synchronized void startIndexing() {
+    if (status != SearchStatus.WAITING)
+      throw new IndexingUnderwayException();
+    this.setStatus(SearchStatus.PREPARING);
+  }
+
+  public synchronized void setStatus(SearchStatus status) {
     this.status = status;
     this.lastUpdated = System.currentTimeMillis();
     this.action = "";
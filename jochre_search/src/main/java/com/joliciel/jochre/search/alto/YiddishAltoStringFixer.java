@@ -245,7 +245,7 @@ class YiddishAltoStringFixer implements AltoStringFixer {
     }
   }
 
-  private Set<String> getDualCharacterLetters() {
+  private synchronized Set<String> getDualCharacterLetters() {
     if (dualCharacterLetters == null) {
       dualCharacterLetters = new TreeSet<>();
       String[] dualCharacterLetterArray = new String[] { "אָ", "אַ", "בּ", "פּ", "וּ", "פֿ", "שׁ", "וֹ", "יִ", "ײַ",
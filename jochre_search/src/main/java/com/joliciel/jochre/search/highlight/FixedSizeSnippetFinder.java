@@ -24,13 +24,11 @@ import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Set;
 
-import org.apache.lucene.document.Document;
 import org.apache.lucene.search.IndexSearcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.joliciel.jochre.search.JochreIndexDocument;
-import com.joliciel.jochre.search.JochreIndexField;
 import com.joliciel.jochre.search.JochreSearchConfig;
 
 class FixedSizeSnippetFinder implements SnippetFinder {
@@ -47,7 +45,6 @@ class FixedSizeSnippetFinder implements SnippetFinder {
   @Override
   public List<Snippet> findSnippets(IndexSearcher indexSearcher, int docId, Set<String> fields,
       Set<HighlightTerm> highlightTerms, int maxSnippets) throws IOException {
-    Document doc = indexSearcher.doc(docId);
     JochreIndexDocument jochreDoc = new JochreIndexDocument(indexSearcher, docId, configId);
     // find best snippet for each term
     PriorityQueue<Snippet> heap = new PriorityQueue<>();
@@ -57,12 +54,9 @@ class FixedSizeSnippetFinder implements SnippetFinder {
       i++;
       String content = jochreDoc.getContents();
       if (term.getStartOffset() >= content.length()) {
-        String title = doc.get(JochreIndexField.titleEnglish.name());
-        String startPage = doc.get(JochreIndexField.startPage.name());
-        String endPage = doc.get(JochreIndexField.endPage.name());
         LOG.debug("Content: " + content);
-        throw new RuntimeException(term.toString() + " cannot fit into contents for doc " + title + ", pages "
-            + startPage + " to " + endPage + ", length: " + content.length());
+        throw new RuntimeException(term.toString() + " cannot fit into contents for doc " + jochreDoc.getName()
+            + ", pages " + jochreDoc.getStartPage() + " to " + jochreDoc.getEndPage() + ", length: " + content.length());
       }
       List<HighlightTerm> snippetTerms = new ArrayList<>();
       snippetTerms.add(term);
@@ -32,7 +32,6 @@ import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.lucene.document.Document;
 import org.apache.lucene.search.IndexSearcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,6 +51,7 @@ public class HighlightManager {
   private final IndexSearcher indexSearcher;
   private final String configId;
   private final Set<String> fields;
+  private final Map<Integer, JochreIndexDocument> documents = new HashMap<>();
 
   private int decimalPlaces = 2;
   private DecimalFormatSymbols enSymbols = new DecimalFormatSymbols(Locale.US);
@@ -91,10 +91,10 @@ public class HighlightManager {
     jsonGen.writeStartObject();
 
     for (int docId : docIds) {
-      Document doc = indexSearcher.doc(docId);
+      JochreIndexDocument jochreDoc = this.getDocument(docId);
       jsonGen.writeObjectFieldStart(docId + "");
-      jsonGen.writeStringField(JochreIndexField.path.name(), doc.get(JochreIndexField.path.name()));
-      jsonGen.writeStringField(JochreIndexField.name.name(), doc.get(JochreIndexField.name.name()));
+      jsonGen.writeStringField(JochreIndexField.path.name(), jochreDoc.getPath());
+      jsonGen.writeStringField(JochreIndexField.name.name(), jochreDoc.getName());
       jsonGen.writeNumberField("docId", docId);
 
       jsonGen.writeArrayFieldStart("terms");
@@ -176,10 +176,10 @@ public class HighlightManager {
     jsonGen.writeStartObject();
 
     for (int docId : docIds) {
-      Document doc = indexSearcher.doc(docId);
+      JochreIndexDocument jochreDoc = this.getDocument(docId);
       jsonGen.writeObjectFieldStart(docId + "");
-      jsonGen.writeStringField(JochreIndexField.path.name(), doc.get(JochreIndexField.path.name()));
-      jsonGen.writeStringField(JochreIndexField.name.name(), doc.get(JochreIndexField.name.name()));
+      jsonGen.writeStringField(JochreIndexField.path.name(), jochreDoc.getPath());
+      jsonGen.writeStringField(JochreIndexField.name.name(), jochreDoc.getName());
       jsonGen.writeNumberField("docId", docId);
 
       Either<List<Snippet>, Exception> result = snippetMap.get(docId);
@@ -239,7 +239,7 @@ public class HighlightManager {
    * 
    */
   public String displayHighlights(int docId, String field, Set<HighlightTerm> terms) throws IOException {
-    JochreIndexDocument jochreDoc = new JochreIndexDocument(indexSearcher, docId, configId);
+    JochreIndexDocument jochreDoc = this.getDocument(docId);
     String content = jochreDoc.getContents();
     if (LOG.isTraceEnabled()) {
       LOG.trace("Displaying highlights for doc " + docId + ", field " + field);
@@ -275,7 +275,7 @@ public class HighlightManager {
    * @throws IOException
    */
   public String displaySnippet(Snippet snippet) throws IOException {
-    JochreIndexDocument jochreDoc = new JochreIndexDocument(indexSearcher, snippet.getDocId(), configId);
+    JochreIndexDocument jochreDoc = this.getDocument(snippet.getDocId());
     String content = jochreDoc.getContents();
 
     if (LOG.isTraceEnabled())
@@ -402,9 +402,22 @@ public class HighlightManager {
   }
 
   public ImageSnippet getImageSnippet(Snippet snippet) throws IOException {
-    JochreIndexDocument jochreDoc = new JochreIndexDocument(indexSearcher, snippet.getDocId(), configId);
+    JochreIndexDocument jochreDoc = this.getDocument(snippet.getDocId());
     ImageSnippet imageSnippet = new ImageSnippet(jochreDoc, snippet);
     return imageSnippet;
   }
 
+  /**
+   * Documents are read once per highlight manager, so that their contents and
+   * row geometry are shared by all of their snippets.
+   */
+  private JochreIndexDocument getDocument(int docId) throws IOException {
+    JochreIndexDocument jochreDoc = documents.get(docId);
+    if (jochreDoc == null) {
+      jochreDoc = new JochreIndexDocument(indexSearcher, docId, configId);
+      documents.put(docId, jochreDoc);
+    }
+    return jochreDoc;
+  }
+
 }
@@ -0,0 +1,223 @@
+package com.joliciel.jochre.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.search.IndexSearcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.joliciel.jochre.search.IndexChangeJournal.ChangeType;
+import com.typesafe.config.ConfigFactory;
+
+public class IndexChangeJournalTest {
+  private static final String CONFIG_ID = "journal";
+  private static final String BOOK = "JournalBook";
+
+  private File contentDir;
+  private IndexChangeJournal journal;
+
+  @Before
+  public void setUp() throws IOException {
+    System.setProperty("config.file", "src/test/resources/test.conf");
+    ConfigFactory.invalidateCaches();
+
+    contentDir = JochreSearchConfig.getInstance(CONFIG_ID).getContentDir();
+    journal = IndexChangeJournal.getInstance(CONFIG_ID);
+
+    // start each test with an empty content directory and journal
+    deleteRecursively(contentDir);
+    contentDir.mkdirs();
+    journal.beginProcessing();
+    journal.endProcessing();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    // the index is shared with the other tests
+    deleteRecursively(new File(contentDir, BOOK));
+    journal.recordDelete(BOOK + "/");
+    new JochreIndexBuilder(CONFIG_ID, false).updateIndexFromJournal();
+  }
+
+  /**
+   * Each path should be returned once, with its last change, in the order in
+   * which it was first recorded.
+   */
+  @Test
+  public void testLastChangeWins() throws IOException {
+    journal.recordUpdate("A/");
+    journal.recordUpdate("B/");
+    journal.recordDelete("C/");
+    journal.recordDelete("A/");
+    journal.recordUpdate("B/");
+    journal.recordUpdate("C/");
+
+    Map<String, ChangeType> changes = journal.beginProcessing();
+    assertEquals(Arrays.asList("A/", "B/", "C/"), Arrays.asList(changes.keySet().toArray()));
+    assertEquals(ChangeType.Delete, changes.get("A/"));
+    assertEquals(ChangeType.Update, changes.get("B/"));
+    assertEquals(ChangeType.Update, changes.get("C/"));
+
+    journal.endProcessing();
+    assertTrue(journal.beginProcessing().isEmpty());
+  }
+
+  /**
+   * Changes left over from a run which never completed should be merged with
+   * the changes recorded since.
+   */
+  @Test
+  public void testMergeLeftoverChanges() throws IOException {
+    journal.recordUpdate("A/");
+    journal.recordUpdate("B/");
+    Map<String, ChangeType> changes = journal.beginProcessing();
+    assertEquals(2, changes.size());
+
+    // recorded while the first run is underway
+    journal.recordDelete("B/");
+    journal.recordUpdate("C/");
+    assertTrue(journal.getJournalFile().exists());
+
+    // the first run fails without calling endProcessing
+    Map<String, ChangeType> expected = new LinkedHashMap<>();
+    expected.put("A/", ChangeType.Update);
+    expected.put("B/", ChangeType.Delete);
+    expected.put("C/", ChangeType.Update);
+    changes = journal.beginProcessing();
+    assertEquals(expected, changes);
+    assertFalse(journal.getJournalFile().exists());
+
+    journal.endProcessing();
+    assertTrue(journal.beginProcessing().isEmpty());
+  }
+
+  /**
+   * If indexing fails before the index is committed, the changes should remain
+   * in the journal for the next run.
+   */
+  @Test
+  public void testNothingLostOnFailure() throws IOException {
+    journal.recordUpdate("A/");
+    journal.recordDelete("B/");
+
+    // a full scan of an empty content directory fails before committing
+    JochreIndexBuilder builder = new JochreIndexBuilder(CONFIG_ID, false);
+    try {
+      builder.updateIndex();
+      fail("Indexing an empty content directory should fail");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    Map<String, ChangeType> expected = new LinkedHashMap<>();
+    expected.put("A/", ChangeType.Update);
+    expected.put("B/", ChangeType.Delete);
+    assertEquals(expected, journal.beginProcessing());
+  }
+
+  /**
+   * A directory which has been deleted should be removed from the index, whether
+   * it was journaled as deleted or as updated.
+   */
+  @Test
+  public void testDeleteMissingDirectory() throws IOException {
+    File bookDir = createBook();
+    journal.recordUpdate(BOOK + "/");
+    new JochreIndexBuilder(CONFIG_ID, false).updateIndexFromJournal();
+    assertTrue(getIndexTime() > 0);
+    assertTrue(journal.beginProcessing().isEmpty());
+    journal.endProcessing();
+
+    deleteRecursively(bookDir);
+    journal.recordDelete(BOOK + "/");
+    journal.recordUpdate("Missing/");
+    new JochreIndexBuilder(CONFIG_ID, false).updateIndexFromJournal();
+    assertEquals(-1, getIndexTime());
+    assertTrue(journal.beginProcessing().isEmpty());
+    journal.endProcessing();
+
+    // an update to a directory which no longer exists is a deletion
+    bookDir = createBook();
+    journal.recordUpdate(BOOK + "/");
+    new JochreIndexBuilder(CONFIG_ID, false).updateIndexFromJournal();
+    assertTrue(getIndexTime() > 0);
+
+    deleteRecursively(bookDir);
+    journal.recordUpdate(BOOK + "/");
+    new JochreIndexBuilder(CONFIG_ID, false).updateIndexFromJournal();
+    assertEquals(-1, getIndexTime());
+  }
+
+  /**
+   * A full scan should re-index the directories journaled as updated, even if
+   * their files are older than the index.
+   */
+  @Test
+  public void testFullScanAppliesUpdates() throws Exception {
+    createBook();
+    new JochreIndexBuilder(CONFIG_ID, false).updateIndex();
+    long firstIndexTime = getIndexTime();
+    assertTrue(firstIndexTime > 0);
+
+    Thread.sleep(10);
+    new JochreIndexBuilder(CONFIG_ID, false).updateIndex();
+    assertEquals(firstIndexTime, getIndexTime());
+
+    Thread.sleep(10);
+    journal.recordUpdate(BOOK + "/");
+    new JochreIndexBuilder(CONFIG_ID, false).updateIndex();
+    assertTrue(getIndexTime() > firstIndexTime);
+    assertTrue(journal.beginProcessing().isEmpty());
+  }
+
+  private File createBook() throws IOException {
+    File sourceDir = new File("src/test/resources/books/MotlPeysiDemKhazns");
+    File bookDir = new File(contentDir, BOOK);
+    bookDir.mkdirs();
+    Files.copy(new File(sourceDir, "MotlPeysiDemKhazns_alto4.xml").toPath(), new File(bookDir, BOOK + ".xml").toPath());
+    Files.copy(new File(sourceDir, "MotlPeysiDemKhazns.pdf").toPath(), new File(bookDir, BOOK + ".pdf").toPath());
+    return bookDir;
+  }
+
+  /**
+   * The time at which the test book was indexed, or -1 if it isn't in the
+   * index.
+   */
+  private long getIndexTime() throws IOException {
+    JochreSearchManager manager = JochreSearchManager.getInstance(CONFIG_ID);
+    IndexSearcher indexSearcher = manager.getManager().acquire();
+    try {
+      JochreIndexSearcher searcher = new JochreIndexSearcher(indexSearcher, CONFIG_ID);
+      Map<Integer, Document> docs = searcher.findDocuments(BOOK);
+      if (docs.isEmpty())
+        return -1;
+      Document doc = docs.values().iterator().next();
+      return doc.getField(JochreIndexField.indexTime.name()).numericValue().longValue();
+    } finally {
+      manager.getManager().release(indexSearcher);
+    }
+  }
+
+  static void deleteRecursively(File dir) throws IOException {
+    if (!dir.exists())
+      return;
+    try (Stream<Path> paths = Files.walk(dir.toPath())) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+}
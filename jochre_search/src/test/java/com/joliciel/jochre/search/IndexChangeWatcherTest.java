@@ -0,0 +1,71 @@
+package com.joliciel.jochre.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.joliciel.jochre.search.IndexChangeJournal.ChangeType;
+import com.typesafe.config.ConfigFactory;
+
+public class IndexChangeWatcherTest {
+  private static final String CONFIG_ID = "journal-watch";
+
+  @Test
+  public void testWatch() throws Exception {
+    System.setProperty("config.file", "src/test/resources/test.conf");
+    ConfigFactory.invalidateCaches();
+
+    File contentDir = JochreSearchConfig.getInstance(CONFIG_ID).getContentDir();
+    IndexChangeJournalTest.deleteRecursively(contentDir);
+    File existingDir = new File(contentDir, "ExistingBook");
+    existingDir.mkdirs();
+    IndexChangeJournal journal = IndexChangeJournal.getInstance(CONFIG_ID);
+
+    IndexChangeWatcher watcher = new IndexChangeWatcher(CONFIG_ID);
+    watcher.start();
+
+    // a new sub-directory
+    File newDir = new File(contentDir, "NewBook");
+    newDir.mkdirs();
+    this.waitForJournal(journal, "Update\tNewBook/");
+
+    // a file modified in an existing sub-directory
+    Files.write(new File(existingDir, "ExistingBook.xml").toPath(), "<alto/>".getBytes(StandardCharsets.UTF_8));
+    this.waitForJournal(journal, "Update\tExistingBook/");
+
+    // the index builder's own update instructions are ignored
+    File otherDir = new File(contentDir, "OtherBook");
+    otherDir.mkdirs();
+    this.waitForJournal(journal, "Update\tOtherBook/");
+    Map<String, ChangeType> changes = journal.beginProcessing();
+    journal.endProcessing();
+    assertEquals(3, changes.size());
+    new File(otherDir, "update").createNewFile();
+
+    // a deleted sub-directory
+    IndexChangeJournalTest.deleteRecursively(existingDir);
+    this.waitForJournal(journal, "Delete\tExistingBook/");
+
+    changes = journal.beginProcessing();
+    journal.endProcessing();
+    assertEquals(1, changes.size());
+    assertEquals(ChangeType.Delete, changes.get("ExistingBook/"));
+  }
+
+  private void waitForJournal(IndexChangeJournal journal, String line) throws IOException, InterruptedException {
+    File journalFile = journal.getJournalFile();
+    for (int i = 0; i < 100; i++) {
+      if (journalFile.exists() && Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8).contains(line))
+        return;
+      Thread.sleep(100);
+    }
+    fail("Not found in journal: " + line);
+  }
+}
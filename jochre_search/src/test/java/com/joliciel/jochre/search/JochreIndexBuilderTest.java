@@ -2,14 +2,28 @@ package com.joliciel.jochre.search;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.BytesRef;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,4 +65,100 @@ public class JochreIndexBuilderTest {
     }
   }
 
+  /**
+   * Indexing on several threads should give each document exactly the same
+   * terms, positions, offsets and payloads as indexing on a single thread.
+   */
+  @Test
+  public void testThreadCount() throws IOException {
+    System.setProperty("config.file", "src/test/resources/test.conf");
+    ConfigFactory.invalidateCaches();
+
+    // several books with different contents, built from the pages of the test book
+    File contentDir = JochreSearchConfig.getInstance("yiddish-sequential").getContentDir();
+    File bookDir = new File("src/test/resources/books/MotlPeysiDemKhazns");
+    File altoFile = new File(bookDir, "MotlPeysiDemKhazns_alto4.xml");
+    File pdfFile = new File(bookDir, "MotlPeysiDemKhazns.pdf");
+    String alto = new String(Files.readAllBytes(altoFile.toPath()), StandardCharsets.UTF_8);
+    int firstPageStart = alto.indexOf("    <Page ");
+    int secondPageStart = alto.indexOf("    <Page ", firstPageStart + 1);
+    int pagesEnd = alto.indexOf("      </PrintSpace>\n    </Page>\n  </Layout>") + "      </PrintSpace>\n    </Page>\n".length();
+    String header = alto.substring(0, firstPageStart);
+    String firstPage = alto.substring(firstPageStart, secondPageStart);
+    String secondPage = alto.substring(secondPageStart, pagesEnd);
+    String footer = alto.substring(pagesEnd);
+    List<String> bookPages = Arrays.asList(firstPage, secondPage, firstPage + secondPage, secondPage + firstPage,
+        firstPage + secondPage + firstPage, secondPage, firstPage);
+    for (int i = 0; i < bookPages.size(); i++) {
+      File newBookDir = new File(contentDir, "Book" + i);
+      newBookDir.mkdirs();
+      Files.write(new File(newBookDir, "Book" + i + ".xml").toPath(),
+          (header + bookPages.get(i) + footer).getBytes(StandardCharsets.UTF_8));
+      Files.copy(pdfFile.toPath(), new File(newBookDir, "Book" + i + ".pdf").toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    try {
+      Map<String, String> sequentialDocs = this.indexAndDescribe("yiddish-sequential");
+      Map<String, String> parallelDocs = this.indexAndDescribe("yiddish-parallel");
+      assertEquals(bookPages.size(), sequentialDocs.size());
+      assertEquals(sequentialDocs, parallelDocs);
+    } finally {
+      // the index is shared with the other tests
+      IndexChangeJournal journal = IndexChangeJournal.getInstance("yiddish-sequential");
+      for (int i = 0; i < bookPages.size(); i++)
+        journal.recordDelete("Book" + i + "/");
+      new JochreIndexBuilder("yiddish-sequential", false).updateIndexFromJournal();
+    }
+  }
+
+  /**
+   * Index the content directory and describe each generated book's stored
+   * fields and text term vectors, keyed by document name and section.
+   */
+  private Map<String, String> indexAndDescribe(String configId) throws IOException {
+    JochreIndexBuilder builder = new JochreIndexBuilder(configId, true);
+    builder.updateIndex();
+
+    Map<String, String> docs = new TreeMap<>();
+    JochreSearchManager manager = JochreSearchManager.getInstance(configId);
+    IndexSearcher indexSearcher = manager.getManager().acquire();
+    try {
+      IndexReader reader = indexSearcher.getIndexReader();
+      for (int docId = 0; docId < reader.maxDoc(); docId++) {
+        Document doc = reader.document(docId);
+        // the search manager, and hence the index, is shared with the other tests
+        String name = doc.get(JochreIndexField.name.name());
+        if (name == null || !name.startsWith("Book"))
+          continue;
+        StringBuilder sb = new StringBuilder();
+        List<String> fields = new ArrayList<>();
+        for (IndexableField field : doc.getFields()) {
+          if (!field.name().equals(JochreIndexField.indexTime.name()))
+            fields.add(field.name() + "=" + field.stringValue());
+        }
+        fields.sort(null);
+        sb.append(fields).append('\n');
+
+        Terms terms = reader.getTermVector(docId, JochreIndexField.text.name());
+        TermsEnum termsEnum = terms.iterator();
+        BytesRef term;
+        while ((term = termsEnum.next()) != null) {
+          PostingsEnum postings = termsEnum.postings(null, PostingsEnum.ALL);
+          postings.nextDoc();
+          for (int i = 0; i < postings.freq(); i++) {
+            int position = postings.nextPosition();
+            BytesRef payload = postings.getPayload();
+            sb.append(term.utf8ToString()).append(' ').append(position).append(' ').append(postings.startOffset())
+                .append('-').append(postings.endOffset()).append(' ').append(payload == null ? null : payload.toString())
+                .append('\n');
+          }
+        }
+        docs.put(name + "|" + doc.get(JochreIndexField.sectionNumber.name()), sb.toString());
+      }
+    } finally {
+      manager.getManager().release(indexSearcher);
+    }
+    return docs;
+  }
 }
@@ -0,0 +1,160 @@
+package com.joliciel.jochre.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import com.joliciel.jochre.search.alto.AltoPage;
+import com.joliciel.jochre.search.alto.AltoPageConsumer;
+import com.joliciel.jochre.search.alto.AltoReader;
+import com.joliciel.jochre.search.alto.AltoStringFixer;
+import com.joliciel.jochre.search.alto.AltoTextBlock;
+import com.joliciel.jochre.search.alto.AltoTextLine;
+import com.typesafe.config.ConfigFactory;
+
+public class JochreIndexDocumentTest {
+
+  /**
+   * The row geometry read from the index should be identical to the one read
+   * from the stored fields written for each row by earlier versions.
+   */
+  @Test
+  public void testRowGeometry() throws IOException {
+    System.setProperty("config.file", "src/test/resources/test.conf");
+    ConfigFactory.invalidateCaches();
+
+    String configId = "yiddish";
+    JochreIndexBuilder builder = new JochreIndexBuilder(configId, false);
+    builder.updateIndex();
+
+    // the pages as the index builder prepares them
+    File bookDir = new File("src/test/resources/books/MotlPeysiDemKhazns");
+    JochreIndexDirectory directory = new JochreIndexDirectory(bookDir, configId);
+    AltoStringFixer altoStringFixer = AltoStringFixer.getInstance(configId);
+    List<AltoPage> pages = new ArrayList<>();
+    AltoReader reader = new AltoReader();
+    reader.addConsumer(new AltoPageConsumer() {
+      @Override
+      public void onNextPage(AltoPage page) {
+        for (AltoTextBlock textBlock : page.getTextBlocks()) {
+          textBlock.joinHyphens();
+          if (altoStringFixer != null)
+            altoStringFixer.fix(textBlock);
+        }
+        pages.add(page);
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+    reader.parseFile(directory.getAltoFile());
+
+    // calculates the span of each string
+    JochreIndexDocument newDoc = new JochreIndexDocument(directory, 0, pages, new HashMap<>(), configId);
+
+    // the stored fields written by earlier versions
+    Document legacyDoc = new Document();
+    legacyDoc.add(new StringField(JochreIndexField.name.name(), directory.getName(), Field.Store.YES));
+    legacyDoc.add(new StringField(JochreIndexField.path.name(), directory.getPath(), Field.Store.YES));
+    legacyDoc.add(new StoredField(JochreIndexField.startPage.name(), newDoc.getStartPage()));
+    legacyDoc.add(new StoredField(JochreIndexField.endPage.name(), newDoc.getEndPage()));
+    legacyDoc.add(new StringField(JochreIndexField.sectionNumber.name(), "0", Field.Store.YES));
+    legacyDoc.add(new StoredField(JochreIndexField.text.name(), newDoc.getContents()));
+    legacyDoc.add(new StoredField(JochreIndexField.length.name(), newDoc.getLength()));
+    int lastSpanStart = 0;
+    for (AltoPage page : pages) {
+      legacyDoc.add(new StoredField(JochreIndexField.rowCount.name() + page.getIndex(), page.getTextLines().size()));
+      for (AltoTextBlock textBlock : page.getTextBlocks()) {
+        for (AltoTextLine textLine : textBlock.getTextLines()) {
+          if (textLine.getStrings().size() > 0)
+            lastSpanStart = textLine.getStrings().get(0).getSpanStart();
+          String suffix = page.getIndex() + "_" + textLine.getIndex();
+          Rectangle rect = textLine.getRectangle();
+          legacyDoc.add(new StoredField(JochreIndexField.rect.name() + suffix,
+              rect.x + "|" + rect.y + "|" + rect.width + "|" + rect.height));
+          legacyDoc.add(new StoredField(JochreIndexField.start.name() + suffix, lastSpanStart));
+        }
+      }
+    }
+
+    try (RAMDirectory legacyIndex = new RAMDirectory()) {
+      try (IndexWriter indexWriter = new IndexWriter(legacyIndex, new IndexWriterConfig())) {
+        indexWriter.addDocument(legacyDoc);
+      }
+      try (DirectoryReader legacyReader = DirectoryReader.open(legacyIndex)) {
+        JochreIndexDocument legacyJochreDoc = new JochreIndexDocument(new IndexSearcher(legacyReader), 0, configId);
+
+        JochreSearchManager manager = JochreSearchManager.getInstance(configId);
+        IndexSearcher indexSearcher = manager.getManager().acquire();
+        try {
+          JochreIndexSearcher searcher = new JochreIndexSearcher(indexSearcher, configId);
+          Map<Integer, Document> docs = searcher.findDocuments(directory.getName());
+          assertEquals(1, docs.size());
+          int docId = docs.keySet().iterator().next();
+          JochreIndexDocument jochreDoc = new JochreIndexDocument(indexSearcher, docId, configId);
+          assertEquals(legacyJochreDoc.getContents(), jochreDoc.getContents());
+          assertEquals(legacyJochreDoc.getStartPage(), jochreDoc.getStartPage());
+          assertEquals(legacyJochreDoc.getEndPage(), jochreDoc.getEndPage());
+
+          int rowsCompared = 0;
+          for (int pageIndex = jochreDoc.getStartPage() - 1; pageIndex <= jochreDoc.getEndPage() + 1; pageIndex++) {
+            int page = pageIndex;
+            assertSame(() -> legacyJochreDoc.getRowCount(page), () -> jochreDoc.getRowCount(page));
+            int rowCount = pages.stream().filter(p -> p.getIndex() == page).mapToInt(p -> p.getTextLines().size())
+                .findFirst().orElse(0);
+            for (int rowIndex = -1; rowIndex <= rowCount; rowIndex++) {
+              int row = rowIndex;
+              assertSame(() -> legacyJochreDoc.getRowRectangle(page, row), () -> jochreDoc.getRowRectangle(page, row));
+              assertSame(() -> legacyJochreDoc.getStartIndex(page, row), () -> jochreDoc.getStartIndex(page, row));
+              assertSame(() -> legacyJochreDoc.getEndIndex(page, row), () -> jochreDoc.getEndIndex(page, row));
+              rowsCompared++;
+            }
+          }
+          assertTrue(rowsCompared > pages.size() * 2);
+        } finally {
+          manager.getManager().release(indexSearcher);
+        }
+      }
+    }
+  }
+
+  /**
+   * Both suppliers should return the same value, or both should fail because
+   * the field wasn't found.
+   */
+  private void assertSame(Supplier<Object> expected, Supplier<Object> actual) {
+    Object expectedValue;
+    try {
+      expectedValue = expected.get();
+    } catch (IndexFieldNotFoundException e) {
+      expectedValue = IndexFieldNotFoundException.class;
+    }
+    Object actualValue;
+    try {
+      actualValue = actual.get();
+    } catch (IndexFieldNotFoundException e) {
+      actualValue = IndexFieldNotFoundException.class;
+    }
+    assertEquals(expectedValue, actualValue);
+  }
+}
@@ -0,0 +1,156 @@
+package com.joliciel.jochre.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class PageImageCacheTest {
+  // a 100x100 grey image takes up 10,000 bytes
+  private static final int IMAGE_SIZE = 100 * 100;
+
+  /**
+   * Counts the pages loaded, each page getting a grey image whose pixels are
+   * the page index.
+   */
+  private static class CountingPageLoader implements PageImageCache.PageLoader {
+    private final Map<Integer, AtomicInteger> loadCounts = new ConcurrentHashMap<>();
+
+    @Override
+    public BufferedImage loadImage(File pdfFile, int pageIndex) {
+      loadCounts.computeIfAbsent(pageIndex, k -> new AtomicInteger()).incrementAndGet();
+      if (pageIndex < 0)
+        return null;
+      BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_GRAY);
+      for (int x = 0; x < 100; x++)
+        image.getRaster().setSample(x, 0, 0, pageIndex);
+      return image;
+    }
+
+    public int getLoadCount(int pageIndex) {
+      AtomicInteger loadCount = loadCounts.get(pageIndex);
+      return loadCount == null ? 0 : loadCount.get();
+    }
+  }
+
+  @Test
+  public void testConcurrentMisses() throws Exception {
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountingPageLoader countingLoader = new CountingPageLoader();
+    PageImageCache cache = new PageImageCache(10 * IMAGE_SIZE, null, (pdfFile, pageIndex) -> {
+      loading.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return countingLoader.loadImage(pdfFile, pageIndex);
+    });
+
+    File pdfFile = new File("book.pdf");
+    int threadCount = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      List<Future<BufferedImage>> futures = new ArrayList<>();
+      for (int i = 0; i < threadCount; i++)
+        futures.add(executor.submit(() -> cache.getImage(pdfFile, 1)));
+
+      // let the other threads join the decode in progress
+      loading.await(10, TimeUnit.SECONDS);
+      Thread.sleep(200);
+      release.countDown();
+
+      BufferedImage image = futures.get(0).get(10, TimeUnit.SECONDS);
+      assertNotNull(image);
+      for (Future<BufferedImage> future : futures)
+        assertSame(image, future.get(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, countingLoader.getLoadCount(1));
+  }
+
+  @Test
+  public void testEviction() {
+    CountingPageLoader loader = new CountingPageLoader();
+    // room for two images
+    PageImageCache cache = new PageImageCache(2 * IMAGE_SIZE + IMAGE_SIZE / 2, null, loader);
+    File pdfFile = new File("book.pdf");
+
+    BufferedImage image1 = cache.getImage(pdfFile, 1);
+    cache.getImage(pdfFile, 2);
+    // page 1 is now more recently used than page 2
+    assertSame(image1, cache.getImage(pdfFile, 1));
+    cache.getImage(pdfFile, 3);
+    assertEquals(1, loader.getLoadCount(1));
+    assertEquals(1, loader.getLoadCount(2));
+    assertEquals(1, loader.getLoadCount(3));
+
+    // page 2 was evicted
+    assertSame(image1, cache.getImage(pdfFile, 1));
+    assertEquals(1, loader.getLoadCount(1));
+    cache.getImage(pdfFile, 2);
+    assertEquals(2, loader.getLoadCount(2));
+
+    // pages without an image are remembered
+    assertNull(cache.getImage(pdfFile, -1));
+    assertNull(cache.getImage(pdfFile, -1));
+    assertEquals(1, loader.getLoadCount(-1));
+
+    // images larger than the cache aren't kept
+    cache = new PageImageCache(IMAGE_SIZE / 2, null, loader);
+    cache.getImage(pdfFile, 4);
+    cache.getImage(pdfFile, 4);
+    assertEquals(2, loader.getLoadCount(4));
+  }
+
+  @Test
+  public void testDiskCache() throws IOException {
+    File directory = new File("target/page-image-cache");
+    IndexChangeJournalTest.deleteRecursively(directory);
+    File pdfFile = new File("target/page-image-cache-book.pdf");
+    Files.write(pdfFile.toPath(), new byte[0]);
+
+    CountingPageLoader loader = new CountingPageLoader();
+    // room for one image in memory
+    PageImageCache cache = new PageImageCache(IMAGE_SIZE + IMAGE_SIZE / 2, directory, loader);
+    cache.getImage(pdfFile, 1);
+    cache.getImage(pdfFile, 2);
+    assertEquals(2, directory.listFiles().length);
+
+    // page 1 was evicted from memory, and is read from disk
+    BufferedImage image = cache.getImage(pdfFile, 1);
+    assertEquals(1, loader.getLoadCount(1));
+    assertEquals(100, image.getWidth());
+    assertEquals(1, image.getRaster().getSample(0, 0, 0));
+
+    // after a restart
+    cache = new PageImageCache(IMAGE_SIZE + IMAGE_SIZE / 2, directory, loader);
+    image = cache.getImage(pdfFile, 2);
+    assertEquals(1, loader.getLoadCount(2));
+    assertEquals(2, image.getRaster().getSample(0, 0, 0));
+
+    // a replaced PDF is decoded again
+    pdfFile.setLastModified(pdfFile.lastModified() - 10000);
+    cache.getImage(pdfFile, 2);
+    assertEquals(2, loader.getLoadCount(2));
+  }
+}
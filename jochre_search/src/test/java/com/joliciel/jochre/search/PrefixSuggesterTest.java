@@ -0,0 +1,164 @@
+package com.joliciel.jochre.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.ConfigFactory;
+
+public class PrefixSuggesterTest {
+  private static final Logger LOG = LoggerFactory.getLogger(PrefixSuggesterTest.class);
+
+  @Test
+  public void test() throws IOException {
+    System.setProperty("config.file", "src/test/resources/test.conf");
+    ConfigFactory.invalidateCaches();
+
+    String configId = "yiddish";
+    JochreSearchManager manager = JochreSearchManager.getInstance(configId);
+
+    Analyzer analyzer = new StandardAnalyzer();
+    IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+    iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+    IndexWriter indexWriter = new IndexWriter(manager.getIndexDir(), iwc);
+    Document doc = new Document();
+    doc.add(new StringField(JochreIndexField.name.name(), "apple", Store.YES));
+    indexWriter.addDocument(doc);
+
+    doc = new Document();
+    doc.add(new StringField(JochreIndexField.name.name(), "artichoke", Store.YES));
+    indexWriter.addDocument(doc);
+
+    doc = new Document();
+    doc.add(new StringField(JochreIndexField.name.name(), "artichoke", Store.YES));
+    indexWriter.addDocument(doc);
+
+    doc = new Document();
+    doc.add(new StringField(JochreIndexField.name.name(), "apple pie", Store.YES));
+    indexWriter.addDocument(doc);
+
+    doc = new Document();
+    doc.add(new StringField(JochreIndexField.name.name(), "apple pie", Store.YES));
+    indexWriter.addDocument(doc);
+
+    doc = new Document();
+    doc.add(new StringField(JochreIndexField.name.name(), "banana", Store.YES));
+    indexWriter.addDocument(doc);
+
+    indexWriter.commit();
+    indexWriter.close();
+
+    manager.getManager().maybeRefresh();
+
+    JochreSearcher searcher = (JochreSearcher) manager.getManager().acquire();
+    try {
+      PrefixSuggester prefixSuggester = searcher.getPrefixSuggester();
+      List<String> results = prefixSuggester.suggest(JochreIndexField.name, "a", 2);
+      LOG.debug("results: " + results);
+      assertEquals(2, results.size());
+      assertEquals("apple pie", results.get(0));
+      assertEquals("artichoke", results.get(1));
+
+      results = prefixSuggester.suggest(JochreIndexField.name, "ap", 2);
+      LOG.debug("results: " + results);
+      assertEquals(2, results.size());
+      assertEquals("apple", results.get(0));
+      assertEquals("apple pie", results.get(1));
+
+    } finally {
+      manager.getManager().release(searcher);
+    }
+  }
+
+  /**
+   * After a refresh, the suggester should be reused if only deletions were made,
+   * and rebuilt if documents were added.
+   */
+  @Test
+  public void testRefresh() throws Exception {
+    System.setProperty("config.file", "src/test/resources/test.conf");
+    ConfigFactory.invalidateCaches();
+
+    String configId = "yiddish";
+    JochreSearchManager manager = JochreSearchManager.getInstance(configId);
+
+    IndexWriterConfig iwc = new IndexWriterConfig(new StandardAnalyzer());
+    iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+    try (IndexWriter indexWriter = new IndexWriter(manager.getIndexDir(), iwc)) {
+      for (String name : new String[] { "cherry", "chestnut", "chestnut" }) {
+        Document doc = new Document();
+        doc.add(new StringField(JochreIndexField.name.name(), name, Store.YES));
+        indexWriter.addDocument(doc);
+      }
+      indexWriter.commit();
+      manager.getManager().maybeRefresh();
+
+      // the name field is built by the first prefix search on it, unless it was
+      // already built for a previous reader by another test, in which case it is
+      // being rebuilt in the background
+      Object firstFieldSuggester;
+      JochreSearcher searcher = (JochreSearcher) manager.getManager().acquire();
+      try {
+        PrefixSuggester prefixSuggester = searcher.getPrefixSuggester();
+        prefixSuggester.awaitFieldSuggester(JochreIndexField.name);
+        assertEquals(Arrays.asList("cherry", "chestnut"), prefixSuggester.suggest(JochreIndexField.name, "ch", 10));
+        firstFieldSuggester = prefixSuggester.awaitFieldSuggester(JochreIndexField.name);
+        assertNotNull(firstFieldSuggester);
+      } finally {
+        manager.getManager().release(searcher);
+      }
+
+      // deletions leave the segments unchanged: the suggester is reused
+      indexWriter.deleteDocuments(new Term(JochreIndexField.name.name(), "cherry"));
+      indexWriter.commit();
+      manager.getManager().maybeRefresh();
+
+      searcher = (JochreSearcher) manager.getManager().acquire();
+      try {
+        PrefixSuggester prefixSuggester = searcher.getPrefixSuggester();
+        assertSame(firstFieldSuggester, prefixSuggester.awaitFieldSuggester(JochreIndexField.name));
+      } finally {
+        manager.getManager().release(searcher);
+      }
+
+      // a new segment: the suggester is rebuilt in the background, since it was
+      // built for the previous reader
+      Document doc = new Document();
+      doc.add(new StringField(JochreIndexField.name.name(), "chicory", Store.YES));
+      indexWriter.addDocument(doc);
+      indexWriter.commit();
+      manager.getManager().maybeRefresh();
+
+      searcher = (JochreSearcher) manager.getManager().acquire();
+      try {
+        PrefixSuggester prefixSuggester = searcher.getPrefixSuggester();
+        Object newFieldSuggester = prefixSuggester.awaitFieldSuggester(JochreIndexField.name);
+        assertNotNull(newFieldSuggester);
+        assertNotSame(firstFieldSuggester, newFieldSuggester);
+        List<String> results = prefixSuggester.suggest(JochreIndexField.name, "chi", 10);
+        LOG.debug("results: " + results);
+        assertEquals(Arrays.asList("chicory"), results);
+      } finally {
+        manager.getManager().release(searcher);
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.joliciel.jochre.search;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.awt.Rectangle;
+
+import org.junit.Test;
+
+public class RowGeometryTest {
+
+  @Test
+  public void testRows() {
+    RowGeometry.Builder builder = new RowGeometry.Builder();
+    // pages added out of order, with page 6 missing
+    builder.addPage(7, 1);
+    builder.addPage(5, 2);
+    builder.setRow(5, 0, new Rectangle(10, 20, 30, 40), 0);
+    builder.setRow(5, 1, new Rectangle(11, 21, 31, 41), 12);
+    builder.setRow(7, 0, new Rectangle(12, 22, 32, 42), 25);
+
+    // read back from its serialised form, as it would be from the index
+    RowGeometry built = builder.build();
+    RowGeometry rowGeometry = new RowGeometry(built.getBytes());
+    assertArrayEquals(built.getBytes(), rowGeometry.getBytes());
+
+    assertEquals(2, rowGeometry.getRowCount(5));
+    assertEquals(-1, rowGeometry.getRowCount(6));
+    assertEquals(1, rowGeometry.getRowCount(7));
+
+    assertEquals(new Rectangle(10, 20, 30, 40), rowGeometry.getRowRectangle(5, 0));
+    assertEquals(new Rectangle(11, 21, 31, 41), rowGeometry.getRowRectangle(5, 1));
+    assertEquals(new Rectangle(12, 22, 32, 42), rowGeometry.getRowRectangle(7, 0));
+    assertEquals(0, rowGeometry.getStartIndex(5, 0));
+    assertEquals(12, rowGeometry.getStartIndex(5, 1));
+    assertEquals(25, rowGeometry.getStartIndex(7, 0));
+
+    // the missing page inside the range
+    assertNull(rowGeometry.getRowRectangle(6, 0));
+    assertEquals(-1, rowGeometry.getStartIndex(6, 0));
+
+    // pages outside the range
+    assertEquals(-1, rowGeometry.getRowCount(4));
+    assertEquals(-1, rowGeometry.getRowCount(8));
+    assertNull(rowGeometry.getRowRectangle(4, 0));
+    assertNull(rowGeometry.getRowRectangle(8, 0));
+    assertEquals(-1, rowGeometry.getStartIndex(4, 0));
+    assertEquals(-1, rowGeometry.getStartIndex(8, 0));
+
+    // rows outside the page
+    assertNull(rowGeometry.getRowRectangle(5, -1));
+    assertNull(rowGeometry.getRowRectangle(5, 2));
+    assertNull(rowGeometry.getRowRectangle(7, 1));
+    assertEquals(-1, rowGeometry.getStartIndex(5, -1));
+    assertEquals(-1, rowGeometry.getStartIndex(5, 2));
+    assertEquals(-1, rowGeometry.getStartIndex(7, 1));
+  }
+
+  @Test
+  public void testRowNotSet() {
+    RowGeometry.Builder builder = new RowGeometry.Builder();
+    builder.addPage(1, 2);
+    builder.setRow(1, 1, new Rectangle(1, 2, 3, 4), 8);
+    RowGeometry rowGeometry = new RowGeometry(builder.build().getBytes());
+
+    assertEquals(2, rowGeometry.getRowCount(1));
+    assertEquals(-1, rowGeometry.getStartIndex(1, 0));
+    assertEquals(8, rowGeometry.getStartIndex(1, 1));
+  }
+
+  @Test
+  public void testEmpty() {
+    RowGeometry.Builder builder = new RowGeometry.Builder();
+    RowGeometry rowGeometry = new RowGeometry(builder.build().getBytes());
+    assertEquals(-1, rowGeometry.getRowCount(0));
+    assertEquals(-1, rowGeometry.getRowCount(1));
+    assertNull(rowGeometry.getRowRectangle(0, 0));
+    assertEquals(-1, rowGeometry.getStartIndex(0, 0));
+
+    // a page without rows
+    builder = new RowGeometry.Builder();
+    builder.addPage(3, 0);
+    rowGeometry = new RowGeometry(builder.build().getBytes());
+    assertEquals(0, rowGeometry.getRowCount(3));
+    assertNull(rowGeometry.getRowRectangle(3, 0));
+    assertEquals(-1, rowGeometry.getStartIndex(3, 0));
+  }
+}
@@ -0,0 +1,81 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2016 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.utils.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import com.typesafe.config.Config;
+
+/**
+ * Utilities for writing many rows to the database at once, rather than one
+ * statement per row.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+public class BatchUtils {
+  private static final Logger LOG = LoggerFactory.getLogger(BatchUtils.class);
+
+  /**
+   * The maximum number of statements sent in a single JDBC batch, as read from
+   * the jochre.jdbc key in the configuration file.
+   */
+  public static int getBatchSize(Config jdbcConfig) {
+    return jdbcConfig.getInt("batch-size");
+  }
+
+  /**
+   * Reserve a range of ids from a PostgreSQL sequence in a single query,
+   * returned in ascending order.
+   */
+  public static List<Integer> getNextIds(NamedParameterJdbcTemplate jt, String sequenceName, int count) {
+    if (count == 0)
+      return Collections.emptyList();
+    String sql = "SELECT nextval('" + sequenceName + "') FROM generate_series(1, :count)";
+    MapSqlParameterSource paramSource = new MapSqlParameterSource();
+    paramSource.addValue("count", count);
+    LOG.debug(sql);
+    List<Integer> ids = new ArrayList<>(jt.queryForList(sql, paramSource, Integer.class));
+    Collections.sort(ids);
+    return ids;
+  }
+
+  /**
+   * Execute the same statement for each parameter source, sending at most
+   * batchSize statements to the database at a time.
+   */
+  public static void batchUpdate(NamedParameterJdbcTemplate jt, String sql, List<? extends SqlParameterSource> paramSources, int batchSize) {
+    if (paramSources.size() == 0)
+      return;
+    LOG.debug(sql);
+    LOG.debug("Batch size: " + paramSources.size());
+    for (int i = 0; i < paramSources.size(); i += batchSize) {
+      List<? extends SqlParameterSource> batch = paramSources.subList(i, Math.min(i + batchSize, paramSources.size()));
+      jt.batchUpdate(sql, batch.toArray(new SqlParameterSource[batch.size()]));
+    }
+  }
+}
@@ -21,9 +21,16 @@ package com.joliciel.jochre.utils.dao;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import javax.imageio.ImageIO;
 
@@ -34,6 +41,9 @@ import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 
 import com.joliciel.jochre.utils.JochreException;
+import com.joliciel.jochre.utils.graphics.GreyscalePixelGrabber;
+import com.joliciel.jochre.utils.graphics.ImagePixelGrabber;
+import com.joliciel.jochre.utils.graphics.ImagePixelGrabberImpl;
 
 /**
  * Various static utility methods for handling images with a database using the
@@ -43,6 +53,13 @@ import com.joliciel.jochre.utils.JochreException;
  *
  */
 public class ImageUtils {
+  /**
+   * Header identifying pixels stored by {@link #storePixels}, which can't be
+   * mistaken for the PNG signature (0x89 'P' 'N' 'G').
+   */
+  private static final byte[] PIXEL_HEADER = new byte[] { 'J', 'P', 'X', 1 };
+  private static final int PIXEL_FLAG_BILEVEL = 1;
+  private static final int PIXEL_FLAG_DEFLATED = 2;
 
   /**
    * Get the image from a previously retrieved ResultSet.
@@ -125,4 +142,140 @@ public class ImageUtils {
       throw new JochreException(e);
     }
   }
+
+  /**
+   * Store an image's greyscale pixels in a MapSqlParameterSource for usage in
+   * an insert/update query. The pixels are stored as a width, a height and
+   * either one byte per pixel, or one bit per pixel if the image contains only
+   * pure black and pure white pixels. This is much faster to read back than a
+   * PNG, and doesn't require an AWT image.
+   * 
+   * @param compress
+   *          if true, the pixels are further compressed using the fastest
+   *          deflate level
+   */
+  public static void storePixels(MapSqlParameterSource paramSource, String varName, ImagePixelGrabber pixelGrabber, boolean compress) {
+    paramSource.addValue(varName, encodePixels(pixelGrabber, compress));
+  }
+
+  /**
+   * Get the greyscale pixels from a previously retrieved ResultSet, whether
+   * they were stored by {@link #storePixels} or as a PNG image by
+   * {@link #storeImage}.
+   */
+  public static ImagePixelGrabber getPixels(ResultSet rs, String column) throws SQLException {
+    byte[] bytes = rs.getBytes(column);
+    if (bytes == null)
+      return null;
+    return decodePixels(bytes);
+  }
+
+  /**
+   * Encode the greyscale pixels in the format read by {@link #decodePixels}.
+   */
+  public static byte[] encodePixels(ImagePixelGrabber pixelGrabber, boolean compress) {
+    byte[] plane = pixelGrabber.getBrightnessPlane();
+    boolean bilevel = true;
+    for (byte pixel : plane) {
+      if (pixel != 0 && pixel != (byte) 255) {
+        bilevel = false;
+        break;
+      }
+    }
+
+    byte[] payload;
+    if (bilevel) {
+      // a set bit indicates a black pixel
+      payload = new byte[(plane.length + 7) / 8];
+      for (int i = 0; i < plane.length; i++) {
+        if (plane[i] == 0)
+          payload[i >> 3] |= 1 << (i & 7);
+      }
+    } else {
+      payload = plane;
+    }
+
+    int flags = (bilevel ? PIXEL_FLAG_BILEVEL : 0) | (compress ? PIXEL_FLAG_DEFLATED : 0);
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 16);
+      DataOutputStream header = new DataOutputStream(bytes);
+      header.write(PIXEL_HEADER);
+      header.writeByte(flags);
+      header.writeInt(pixelGrabber.getWidth());
+      header.writeInt(pixelGrabber.getHeight());
+      header.flush();
+      if (compress) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (OutputStream os = new DeflaterOutputStream(bytes, deflater)) {
+          os.write(payload);
+        } finally {
+          deflater.end();
+        }
+      } else {
+        bytes.write(payload);
+      }
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new JochreException(e);
+    }
+  }
+
+  /**
+   * Decode greyscale pixels stored by {@link #encodePixels}, or stored as an
+   * image in any format readable by ImageIO.
+   */
+  public static ImagePixelGrabber decodePixels(byte[] bytes) {
+    try {
+      if (!isEncodedPixels(bytes)) {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+        if (image == null)
+          throw new JochreException("Unrecognised pixel data: neither encoded pixels nor an image in a format readable by ImageIO");
+        ImagePixelGrabber imageGrabber = new ImagePixelGrabberImpl(image);
+        return new GreyscalePixelGrabber(imageGrabber.getWidth(), imageGrabber.getHeight(), imageGrabber.getBrightnessPlane());
+      }
+
+      DataInputStream header = new DataInputStream(new ByteArrayInputStream(bytes));
+      header.skipBytes(PIXEL_HEADER.length);
+      int flags = header.readUnsignedByte();
+      int width = header.readInt();
+      int height = header.readInt();
+      int headerLength = PIXEL_HEADER.length + 9;
+      boolean bilevel = (flags & PIXEL_FLAG_BILEVEL) != 0;
+      int pixelCount = width * height;
+
+      byte[] payload = new byte[bilevel ? (pixelCount + 7) / 8 : pixelCount];
+      InputStream is = new ByteArrayInputStream(bytes, headerLength, bytes.length - headerLength);
+      if ((flags & PIXEL_FLAG_DEFLATED) != 0)
+        is = new InflaterInputStream(is);
+      try (DataInputStream dis = new DataInputStream(is)) {
+        dis.readFully(payload);
+      }
+
+      byte[] plane;
+      if (bilevel) {
+        plane = new byte[pixelCount];
+        for (int i = 0; i < pixelCount; i++)
+          plane[i] = (payload[i >> 3] & (1 << (i & 7))) != 0 ? 0 : (byte) 255;
+      } else {
+        plane = payload;
+      }
+      return new GreyscalePixelGrabber(width, height, plane);
+    } catch (IOException e) {
+      throw new JochreException(e);
+    }
+  }
+
+  /**
+   * Were these bytes written by {@link #encodePixels}, as opposed to being a
+   * legacy image?
+   */
+  public static boolean isEncodedPixels(byte[] bytes) {
+    if (bytes.length < PIXEL_HEADER.length)
+      return false;
+    for (int i = 0; i < PIXEL_HEADER.length; i++)
+      if (bytes[i] != PIXEL_HEADER[i])
+        return false;
+    return true;
+  }
 }
@@ -0,0 +1,111 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.utils.graphics;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A pixel grabber backed directly by an array of greyscale brightness values,
+ * as read from the database, without going through an AWT image.
+ * 
+ * @author Assaf Urieli
+ *
+ */
+public final class GreyscalePixelGrabber implements ImagePixelGrabber {
+  private final int width;
+  private final int height;
+  private final byte[] plane;
+
+  /**
+   * @param plane
+   *          the brightness of each pixel as an unsigned byte, from top-left to
+   *          bottom-right, travelling horizontally first
+   */
+  public GreyscalePixelGrabber(int width, int height, byte[] plane) {
+    if (plane.length != width * height)
+      throw new IllegalArgumentException("Expected " + (width * height) + " pixels, got " + plane.length);
+    this.width = width;
+    this.height = height;
+    this.plane = plane;
+  }
+
+  @Override
+  public Object getPixels() {
+    return plane;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getNumColors() {
+    return 256;
+  }
+
+  @Override
+  public int getRed(int pixel) {
+    return pixel & 0xff;
+  }
+
+  @Override
+  public int getGreen(int pixel) {
+    return pixel & 0xff;
+  }
+
+  @Override
+  public int getBlue(int pixel) {
+    return pixel & 0xff;
+  }
+
+  @Override
+  public int getPixelBrightness(int x, int y) {
+    return plane[y * width + x] & 0xff;
+  }
+
+  /**
+   * Returns the underlying array, which should not be modified.
+   */
+  @Override
+  public byte[] getBrightnessPlane() {
+    return plane;
+  }
+
+  /**
+   * Build an image from these pixels, for display. Each pixel gets equal red,
+   * green and blue components, so that its brightness is unchanged if the
+   * image is read back in by {@link ImagePixelGrabberImpl}.
+   */
+  public BufferedImage getImage() {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    int[] rgb = new int[plane.length];
+    for (int i = 0; i < plane.length; i++) {
+      int brightness = plane[i] & 0xff;
+      rgb[i] = (brightness << 16) | (brightness << 8) | brightness;
+    }
+    image.setRGB(0, 0, width, height, rgb, 0, width);
+    return image;
+  }
+}
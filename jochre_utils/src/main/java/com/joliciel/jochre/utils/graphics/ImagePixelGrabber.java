@@ -58,4 +58,18 @@ public interface ImagePixelGrabber {
    */
   public abstract int getPixelBrightness(int x, int y);
 
+  /**
+   * Get the greyscale value of all pixels in a single array, structured from
+   * top-left to bottom-right, travelling horizontally first. Each brightness
+   * value is stored as an unsigned byte.
+   */
+  public default byte[] getBrightnessPlane() {
+    byte[] plane = new byte[this.getWidth() * this.getHeight()];
+    int index = 0;
+    for (int y = 0; y < this.getHeight(); y++)
+      for (int x = 0; x < this.getWidth(); x++)
+        plane[index++] = (byte) this.getPixelBrightness(x, y);
+    return plane;
+  }
+
 }
\ No newline at end of file
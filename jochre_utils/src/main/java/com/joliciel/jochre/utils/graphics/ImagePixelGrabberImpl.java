@@ -161,10 +161,36 @@ public final class ImagePixelGrabberImpl implements ImageObserver, ImagePixelGra
       pixel = bytePixels[index];
     else
       pixel = intPixels[index];
+    return this.getBrightness(pixel);
+  }
+
+  /**
+   * Converts all pixels in a single pass. For indexed images, the brightness
+   * of each possible byte value is calculated once up front, rather than
+   * querying the colour model for every pixel.
+   */
+  @Override
+  public byte[] getBrightnessPlane() {
+    byte[] plane = new byte[width * height];
+    if (isBytes && colorModel instanceof IndexColorModel) {
+      byte[] brightnessByValue = new byte[256];
+      for (int i = 0; i < 256; i++)
+        brightnessByValue[i] = (byte) this.getBrightness((byte) i);
+      for (int i = 0; i < plane.length; i++)
+        plane[i] = brightnessByValue[bytePixels[i] & 0xff];
+    } else {
+      for (int i = 0; i < plane.length; i++) {
+        int pixel = isBytes ? bytePixels[i] : intPixels[i];
+        plane[i] = (byte) this.getBrightness(pixel);
+      }
+    }
+    return plane;
+  }
+
+  private int getBrightness(int pixel) {
     int red = this.getRed(pixel);
     int green = this.getGreen(pixel);
     int blue = this.getBlue(pixel);
-    int alpha = this.getAlpha(pixel);
     int brightness = (11 * red + 16 * green + 5 * blue) / 32;
     return brightness;
   }
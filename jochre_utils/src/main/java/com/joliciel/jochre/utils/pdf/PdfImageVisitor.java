@@ -24,9 +24,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import com.joliciel.jochre.utils.graphics.ImageUtils;
-import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDDocumentInformation;
 import org.apache.pdfbox.pdmodel.PDPage;
@@ -39,13 +42,27 @@ import org.slf4j.LoggerFactory;
 import com.joliciel.jochre.utils.JochreException;
 
 /**
- * A base class for visiting the images in a Pdf document one at a time.
+ * A base class for visiting the images in a Pdf document one at a time.<br>
+ * <br>
+ * The document is buffered in memory up to a maximum size, and in a temporary
+ * scratch file beyond that, so that very large documents can be read without
+ * exhausting the heap.<br>
+ * <br>
+ * If a look-ahead is set, images are extracted on a separate thread, and
+ * passed on to the observers via a queue holding at most the look-ahead number
+ * of images, so that the next images are decoded while observers are
+ * processing the current one. The observers are always notified on the thread
+ * calling {@link #visitImages()}, in document order.
  * 
  * @author Assaf Urieli
  *
  */
 public class PdfImageVisitor {
   private static final Logger LOG = LoggerFactory.getLogger(PdfImageVisitor.class);
+  /**
+   * The default maximum number of bytes of the document buffered in memory.
+   */
+  public static final long DEFAULT_MAX_MAIN_MEMORY = 64L * 1024L * 1024L;
   private PDDocument pdfDocument = null;
   private File pdfFile;
   private Map<String, String> fields = new TreeMap<>();
@@ -53,17 +70,28 @@ public class PdfImageVisitor {
   private boolean stopOnError = false;
   private final List<PdfImageObserver> imageObservers = new ArrayList<>();
   private final Set<Integer> pages;
+  private int lookAhead = 0;
+  private volatile boolean extractionCancelled = false;
 
   public PdfImageVisitor(File pdfFile) {
     this(pdfFile, new HashSet<>());
   }
   
   public PdfImageVisitor(File pdfFile, Set<Integer> pages) {
+    this(pdfFile, pages, DEFAULT_MAX_MAIN_MEMORY);
+  }
+
+  /**
+   * @param maxMainMemory
+   *          the maximum number of bytes of the document to buffer in memory,
+   *          beyond which a temporary scratch file is used
+   */
+  public PdfImageVisitor(File pdfFile, Set<Integer> pages, long maxMainMemory) {
     try {
       this.pdfFile = pdfFile;
       this.pages = pages;
 
-      pdfDocument = PDDocument.load(pdfFile);
+      pdfDocument = PDDocument.load(pdfFile, MemoryUsageSetting.setupMixed(maxMainMemory));
       PDDocumentInformation info = pdfDocument.getDocumentInformation();
       SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
       fields.put("PageCount", "" + pdfDocument.getNumberOfPages());
@@ -98,93 +126,206 @@ public class PdfImageVisitor {
    */
   final public void visitImages() {
     try {
-      int i = 0;
-      for (PDPage pdfPage : pdfDocument.getPages()) {
-        i++;
-        if (!pages.isEmpty() && !pages.contains(i))
-          continue;
+      if (lookAhead > 0)
+        this.visitImagesInBackground();
+      else
+        this.extractImages(this::notifyObservers);
+    } finally {
+      this.close();
+    }
+  }
+
+  private void notifyObservers(BufferedImage image, String imageName, int pageIndex, int imageIndex) {
+    for (PdfImageObserver imageObserver : imageObservers) {
+      imageObserver.visitImage(image, imageName, pageIndex, imageIndex);
+    }
+  }
+
+  /**
+   * Extract images on a separate thread, and notify the observers on this
+   * thread as they become available.
+   */
+  private void visitImagesInBackground() {
+    BlockingQueue<ExtractedImage> queue = new ArrayBlockingQueue<>(lookAhead);
+    extractionCancelled = false;
+    Thread extractor = new Thread(() -> {
+      ExtractedImage lastImage = ExtractedImage.END;
+      try {
+        this.extractImages((image, imageName, pageIndex, imageIndex) -> this.enqueue(queue,
+            new ExtractedImage(image, imageName, pageIndex, imageIndex, null)));
+      } catch (ExtractionCancelledException e) {
+        return;
+      } catch (Throwable e) {
+        // includes errors such as OutOfMemoryError, which would otherwise
+        // leave the observers waiting forever
+        lastImage = new ExtractedImage(null, null, 0, 0, e);
+      }
+      try {
+        this.enqueue(queue, lastImage);
+      } catch (ExtractionCancelledException e) {
+        // nobody is listening any more
+      }
+    }, "jochre-pdf-" + pdfFile.getName());
+    // don't stop the JVM from exiting if processing fails mid-way
+    extractor.setDaemon(true);
+    extractor.start();
+
+    try {
+      while (true) {
+        ExtractedImage extractedImage = queue.take();
+        if (extractedImage == ExtractedImage.END)
+          break;
+        if (extractedImage.error instanceof RuntimeException)
+          throw (RuntimeException) extractedImage.error;
+        if (extractedImage.error instanceof Error)
+          throw (Error) extractedImage.error;
+        if (extractedImage.error != null)
+          throw new JochreException(extractedImage.error);
+        try {
+          this.notifyObservers(extractedImage.image, extractedImage.imageName, extractedImage.pageIndex,
+              extractedImage.imageIndex);
+        } catch (JochreException e) {
+          // same behaviour as when observers are notified during extraction
+          LOG.error("Error in file  " + pdfFile.getAbsolutePath() + ", page " + extractedImage.pageIndex, e);
+          if (stopOnError)
+            throw e;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new JochreException(e);
+    } finally {
+      // make sure the extractor is no longer using the document before it
+      // gets closed
+      extractionCancelled = true;
+      queue.clear();
+      try {
+        extractor.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
 
-        LOG.info("Decoding page " + i + " (out of " + pdfDocument.getNumberOfPages() + ")");
+  private void enqueue(BlockingQueue<ExtractedImage> queue, ExtractedImage extractedImage) {
+    try {
+      while (!queue.offer(extractedImage, 100, TimeUnit.MILLISECONDS)) {
+        if (extractionCancelled)
+          throw new ExtractionCancelledException();
+      }
+    } catch (InterruptedException e) {
+      throw new ExtractionCancelledException();
+    }
+  }
+
+  /**
+   * Extract the images, notifying the observer of each one in document order.
+   */
+  void extractImages(PdfImageObserver extractedImageObserver) {
+    int i = 0;
+    for (PDPage pdfPage : pdfDocument.getPages()) {
+      i++;
+      if (!pages.isEmpty() && !pages.contains(i))
+        continue;
+
+      LOG.info("Decoding page " + i + " (out of " + pdfDocument.getNumberOfPages() + ")");
+      
+      int rotation = pdfPage.getRotation();
+      
+      try {
+        ImageLocationExtractor imageLocationExtractor = new ImageLocationExtractor();
+        ImageCollector imageCollector = new ImageCollector();
+        imageLocationExtractor.addObserver(imageCollector);
+        imageLocationExtractor.processPage(pdfPage);
+        PDResources resources = pdfPage.getResources();
         
-        int rotation = pdfPage.getRotation();
+        Set<Integer> combineWithNext = new HashSet<>();
+        for (int j=1; j<imageCollector.getImages().size(); j++) {
+          // if two subsequent images are overlaid, combine them
+          PdfImageWithLocation image1 = imageCollector.getImages().get(j-1);
+          PdfImageWithLocation image2 = imageCollector.getImages().get(j);
+          float intersection = Float.max(0f, 
+              Float.min(image2.scaledLeft + image2.scaledWidth, image1.scaledLeft + image1.scaledWidth)
+              - Float.max(image2.scaledLeft, image1.scaledLeft))
+              * Float.max(0f,
+                  Float.min(image2.scaledTop + image2.scaledHeight, image1.scaledTop + image1.scaledHeight)
+                      - Float.max(image2.scaledTop, image1.scaledTop));
+          float image1Area = image1.scaledWidth * image1.scaledHeight;
+          float image2Area = image2.scaledWidth * image2.scaledHeight;
+          float union = image1Area + image2Area - intersection;
+          float ratio = intersection / union;
+          
+          // For simplicity, we assume images are either entirely overlaid, or not overlaid at all
+          if (ratio > 0.99f) {
+            combineWithNext.add(j-1);
+          }
+        }
         
-        try {
-          ImageLocationExtractor imageLocationExtractor = new ImageLocationExtractor();
-          ImageCollector imageCollector = new ImageCollector();
-          imageLocationExtractor.addObserver(imageCollector);
-          imageLocationExtractor.processPage(pdfPage);
-          PDResources resources = pdfPage.getResources();
+        BufferedImage previousImage = null;
+        for (int j=0; j<imageCollector.getImages().size(); j++) {
+          PdfImageWithLocation imageWithLocation = imageCollector.getImages().get(j);
+          PDImageXObject pdfImage = imageWithLocation.getImage();
+          LOG.debug("Found image of type " + pdfImage.getSuffix());
+          BufferedImage image = pdfImage.getImage();
+          if (image == null) {
+            throw new PdfImageExtractionException("Something went wrong: unable to extract image " + j
+                + " in file  " + pdfFile.getAbsolutePath() + ", page " + i);
+          }
           
-          Set<Integer> combineWithNext = new HashSet<>();
-          for (int j=1; j<imageCollector.getImages().size(); j++) {
-            // if two subsequent images are overlaid, combine them
-            PdfImageWithLocation image1 = imageCollector.getImages().get(j-1);
-            PdfImageWithLocation image2 = imageCollector.getImages().get(j);
-            float intersection = Float.max(0f, 
-                Float.min(image2.scaledLeft + image2.scaledWidth, image1.scaledLeft + image1.scaledWidth)
-                - Float.max(image2.scaledLeft, image1.scaledLeft))
-                * Float.max(0f,
-                    Float.min(image2.scaledTop + image2.scaledHeight, image1.scaledTop + image1.scaledHeight)
-                        - Float.max(image2.scaledTop, image1.scaledTop));
-            float image1Area = image1.scaledWidth * image1.scaledHeight;
-            float image2Area = image2.scaledWidth * image2.scaledHeight;
-            float union = image1Area + image2Area - intersection;
-            float ratio = intersection / union;
-            
-            // For simplicity, we assume images are either entirely overlaid, or not overlaid at all
-            if (ratio > 0.99f) {
-              combineWithNext.add(j-1);
-            }
+          if (combineWithNext.contains(j-1)) {
+            assert previousImage != null;
+            image = ImageUtils.overlayImages(previousImage, image);
           }
           
-          BufferedImage previousImage = null;
-          for (int j=0; j<imageCollector.getImages().size(); j++) {
-            PdfImageWithLocation imageWithLocation = imageCollector.getImages().get(j);
-            PDImageXObject pdfImage = imageWithLocation.getImage();
-            LOG.debug("Found image of type " + pdfImage.getSuffix());
-            BufferedImage image = pdfImage.getImage();
-            if (image == null) {
-              throw new PdfImageExtractionException("Something went wrong: unable to extract image " + j
-                  + " in file  " + pdfFile.getAbsolutePath() + ", page " + i);
-            }
-            
-            if (combineWithNext.contains(j-1)) {
-              assert previousImage != null;
-              image = ImageUtils.overlayImages(previousImage, image);
-            }
-            
-            if (rotation!=0) {
-              LOG.debug("Page rotation:" + rotation);
-              image = ImageUtils.rotate(image, rotation);
-            }
-            
-            if (combineWithNext.contains(j)) {
-              previousImage = image;
-            } else {
-              for (PdfImageObserver imageObserver : imageObservers) {
-                imageObserver.visitImage(image, imageWithLocation.getName(), i, j);
-              }
-            }
+          if (rotation!=0) {
+            LOG.debug("Page rotation:" + rotation);
+            image = ImageUtils.rotate(image, rotation);
+          }
+          
+          if (combineWithNext.contains(j)) {
+            previousImage = image;
+          } else {
+            extractedImageObserver.visitImage(image, imageWithLocation.getName(), i, j);
           }
-        } catch (PdfImageExtractionException e) {
-          LOG.error("Error in file  " + pdfFile.getAbsolutePath() + ", page " + i, e);
-          if (stopOnError)
-            throw e;
-        } catch (IOException e) {
-          LOG.error("Error in file  " + pdfFile.getAbsolutePath() + ", page " + i, e);
-          if (stopOnError)
-            throw new RuntimeException(e);
-        } catch (JochreException e) {
-          LOG.error("Error in file  " + pdfFile.getAbsolutePath() + ", page " + i, e);
-          if (stopOnError)
-            throw e;
         }
-      } // next page
-    } finally {
-      this.close();
+      } catch (PdfImageExtractionException e) {
+        LOG.error("Error in file  " + pdfFile.getAbsolutePath() + ", page " + i, e);
+        if (stopOnError)
+          throw e;
+      } catch (IOException e) {
+        LOG.error("Error in file  " + pdfFile.getAbsolutePath() + ", page " + i, e);
+        if (stopOnError)
+          throw new RuntimeException(e);
+      } catch (JochreException e) {
+        LOG.error("Error in file  " + pdfFile.getAbsolutePath() + ", page " + i, e);
+        if (stopOnError)
+          throw e;
+      }
+    } // next page
+  }
+
+  private static final class ExtractedImage {
+    private static final ExtractedImage END = new ExtractedImage(null, null, 0, 0, null);
+
+    private final BufferedImage image;
+    private final String imageName;
+    private final int pageIndex;
+    private final int imageIndex;
+    private final Throwable error;
+
+    public ExtractedImage(BufferedImage image, String imageName, int pageIndex, int imageIndex, Throwable error) {
+      this.image = image;
+      this.imageName = imageName;
+      this.pageIndex = pageIndex;
+      this.imageIndex = imageIndex;
+      this.error = error;
     }
   }
 
+  private static final class ExtractionCancelledException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+  }
+
   private static class PdfImageWithLocation {
     private final PDImageXObject image;
     private final String name;
@@ -262,6 +403,19 @@ public class PdfImageVisitor {
     return pages;
   }
 
+  /**
+   * The maximum number of images extracted ahead of the image currently being
+   * visited by the observers. If 0, images are extracted on the thread calling
+   * {@link #visitImages()}, one at a time.
+   */
+  public int getLookAhead() {
+    return lookAhead;
+  }
+
+  public void setLookAhead(int lookAhead) {
+    this.lookAhead = lookAhead;
+  }
+
   public void addImageObserver(PdfImageObserver imageObserver) {
     this.imageObservers.add(imageObserver);
   }
@@ -0,0 +1,130 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.utils.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import com.joliciel.jochre.utils.JochreException;
+import com.joliciel.jochre.utils.graphics.GreyscalePixelGrabber;
+import com.joliciel.jochre.utils.graphics.ImagePixelGrabber;
+import com.joliciel.jochre.utils.graphics.ImagePixelGrabberImpl;
+
+public class ImageUtilsTest {
+  // a pixel count which isn't a multiple of 8
+  private static final int WIDTH = 7;
+  private static final int HEIGHT = 5;
+
+  @Test
+  public void testBilevel() {
+    byte[] plane = new byte[WIDTH * HEIGHT];
+    Random random = new Random(1);
+    for (int i = 0; i < plane.length; i++)
+      plane[i] = random.nextBoolean() ? 0 : (byte) 255;
+    ImagePixelGrabber pixels = new GreyscalePixelGrabber(WIDTH, HEIGHT, plane);
+
+    byte[] encoded = ImageUtils.encodePixels(pixels, false);
+    assertTrue(ImageUtils.isEncodedPixels(encoded));
+    // one bit per pixel, after the header
+    assertTrue(encoded.length < plane.length);
+    this.assertSamePixels(pixels, ImageUtils.decodePixels(encoded));
+
+    byte[] deflated = ImageUtils.encodePixels(pixels, true);
+    assertTrue(ImageUtils.isEncodedPixels(deflated));
+    this.assertSamePixels(pixels, ImageUtils.decodePixels(deflated));
+  }
+
+  @Test
+  public void testGreyscale() {
+    byte[] plane = new byte[WIDTH * HEIGHT];
+    for (int i = 0; i < plane.length; i++)
+      plane[i] = (byte) (i * 7);
+    ImagePixelGrabber pixels = new GreyscalePixelGrabber(WIDTH, HEIGHT, plane);
+
+    byte[] encoded = ImageUtils.encodePixels(pixels, false);
+    assertTrue(ImageUtils.isEncodedPixels(encoded));
+    assertTrue(encoded.length > plane.length);
+    this.assertSamePixels(pixels, ImageUtils.decodePixels(encoded));
+
+    byte[] deflated = ImageUtils.encodePixels(pixels, true);
+    assertTrue(ImageUtils.isEncodedPixels(deflated));
+    this.assertSamePixels(pixels, ImageUtils.decodePixels(deflated));
+  }
+
+  @Test
+  public void testDeflatedIsSmaller() {
+    byte[] plane = new byte[200 * 100];
+    for (int i = 0; i < plane.length; i++)
+      plane[i] = (byte) (i % 100 < 50 ? 40 : 220);
+    ImagePixelGrabber pixels = new GreyscalePixelGrabber(200, 100, plane);
+
+    byte[] encoded = ImageUtils.encodePixels(pixels, false);
+    byte[] deflated = ImageUtils.encodePixels(pixels, true);
+    assertTrue(deflated.length < encoded.length);
+    this.assertSamePixels(pixels, ImageUtils.decodePixels(deflated));
+  }
+
+  /**
+   * Pixels stored as a PNG image, before the encoded format existed, should
+   * still be readable.
+   */
+  @Test
+  public void testLegacyPng() throws Exception {
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+    for (int y = 0; y < HEIGHT; y++)
+      for (int x = 0; x < WIDTH; x++)
+        image.getRaster().setSample(x, y, 0, (x * 31 + y * 17) % 256);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", os);
+    byte[] png = os.toByteArray();
+
+    assertFalse(ImageUtils.isEncodedPixels(png));
+    ImagePixelGrabber decoded = ImageUtils.decodePixels(png);
+    this.assertSamePixels(new ImagePixelGrabberImpl(image), decoded);
+  }
+
+  @Test(expected = JochreException.class)
+  public void testUnreadableBytes() {
+    ImageUtils.decodePixels(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+  }
+
+  @Test(expected = JochreException.class)
+  public void testEmptyBytes() {
+    ImageUtils.decodePixels(new byte[0]);
+  }
+
+  private void assertSamePixels(ImagePixelGrabber expected, ImagePixelGrabber actual) {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    assertArrayEquals(expected.getBrightnessPlane(), actual.getBrightnessPlane());
+    for (int y = 0; y < expected.getHeight(); y++)
+      for (int x = 0; x < expected.getWidth(); x++)
+        assertEquals(expected.getPixelBrightness(x, y), actual.getPixelBrightness(x, y));
+  }
+}
@@ -0,0 +1,142 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.utils.pdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PdfImageVisitorTest {
+  private static final int PAGE_COUNT = 6;
+  private static File pdfFile;
+
+  /**
+   * Write a PDF with a single image on each page, the image's width identifying
+   * the page.
+   */
+  @BeforeClass
+  public static void writePdf() throws Exception {
+    pdfFile = File.createTempFile("images", ".pdf");
+    try (PDDocument document = new PDDocument()) {
+      for (int i = 1; i <= PAGE_COUNT; i++) {
+        PDPage page = new PDPage();
+        document.addPage(page);
+        BufferedImage image = new BufferedImage(10 + i, 20, BufferedImage.TYPE_BYTE_GRAY);
+        PDImageXObject pdfImage = LosslessFactory.createFromImage(document, image);
+        try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+          contentStream.drawImage(pdfImage, 50, 50, image.getWidth(), image.getHeight());
+        }
+      }
+      document.save(pdfFile);
+    }
+  }
+
+  @AfterClass
+  public static void deletePdf() {
+    pdfFile.delete();
+  }
+
+  /**
+   * Images extracted in the background should reach the observers in the same
+   * order as images extracted on the calling thread.
+   */
+  @Test(timeout = 30000)
+  public void testOrder() {
+    List<String> expected = new ArrayList<>();
+    for (int i = 1; i <= PAGE_COUNT; i++)
+      expected.add(i + ":0:" + (10 + i));
+
+    for (int lookAhead : new int[] { 0, 1, 3 }) {
+      PdfImageVisitor visitor = new PdfImageVisitor(pdfFile);
+      visitor.setLookAhead(lookAhead);
+      List<String> visited = new ArrayList<>();
+      visitor.addImageObserver(
+          (image, imageName, pageIndex, imageIndex) -> visited.add(pageIndex + ":" + imageIndex + ":" + image.getWidth()));
+      visitor.visitImages();
+      assertEquals("look-ahead " + lookAhead, expected, visited);
+    }
+  }
+
+  /**
+   * An exception thrown by an observer should stop the extraction, and reach
+   * the caller.
+   */
+  @Test(timeout = 30000)
+  public void testObserverFailure() {
+    RuntimeException failure = new RuntimeException("observer failure");
+    PdfImageVisitor visitor = new PdfImageVisitor(pdfFile);
+    visitor.setLookAhead(2);
+    List<Integer> visited = new ArrayList<>();
+    visitor.addImageObserver((image, imageName, pageIndex, imageIndex) -> {
+      if (pageIndex == 3)
+        throw failure;
+      visited.add(pageIndex);
+    });
+    try {
+      visitor.visitImages();
+      fail("Expected the observer failure");
+    } catch (RuntimeException e) {
+      assertSame(failure, e);
+    }
+    assertEquals(2, visited.size());
+  }
+
+  /**
+   * An error on the extracting thread, such as running out of memory, should
+   * reach the caller rather than leaving it waiting for the next image.
+   */
+  @Test(timeout = 30000)
+  public void testExtractorFailure() {
+    Error failure = new OutOfMemoryError("extractor failure");
+    PdfImageVisitor visitor = new PdfImageVisitor(pdfFile) {
+      @Override
+      void extractImages(PdfImageObserver extractedImageObserver) {
+        super.extractImages((image, imageName, pageIndex, imageIndex) -> {
+          if (pageIndex == 3)
+            throw failure;
+          extractedImageObserver.visitImage(image, imageName, pageIndex, imageIndex);
+        });
+      }
+    };
+    visitor.setLookAhead(2);
+    List<Integer> visited = new ArrayList<>();
+    visitor.addImageObserver((image, imageName, pageIndex, imageIndex) -> visited.add(pageIndex));
+    try {
+      visitor.visitImages();
+      fail("Expected the extractor failure");
+    } catch (Error e) {
+      assertSame(failure, e);
+    }
+    assertEquals(2, visited.size());
+  }
+}
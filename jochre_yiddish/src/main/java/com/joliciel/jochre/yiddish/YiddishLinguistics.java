@@ -1,7 +1,10 @@
 package com.joliciel.jochre.yiddish;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
@@ -17,6 +20,130 @@ public class YiddishLinguistics extends DefaultLinguistics {
   // notice no dash in the punctuation
   private static final String SPLITTER_PUNCTUATION = ":,.?!;*()[]{}<>—\\\"'«»|/%“„";
 
+  private static final int CACHE_SIZE = 10000;
+
+  private static final Rewrite[] STANDARDISATION_REWRITES = {
+      // double-character fixes
+      new Rewrite("וו", "װ"),
+      new Rewrite("וי", "ױ"),
+      new Rewrite("ױִ", "ויִ"),
+
+      // systematic replacements, including redundent melupm vov and khirik
+      // yud
+      new Rewrite("װוּ", "װוּּ"),
+      new Rewrite("וּװ", "וּּװ"),
+      new Rewrite("וּי", "וּּי"),
+      new Rewrite("וּ", "ו"),
+      new Rewrite("עיִ", "עיִִ"),
+      new Rewrite("אַיִ", "אַיִִ"),
+      new Rewrite("אָיִ", "אָיִִ"),
+      new Rewrite("ויִ", "ויִִ"),
+      new Rewrite("וּיִ", "וּיִִ"),
+      new Rewrite("יִי", "יִִי"),
+      new Rewrite("ייִ", "ייִִ"),
+      new Rewrite("יִ", "י"),
+      new Rewrite("עֶ", "ע"),
+      new Rewrite("עֵ", "ע"),
+      new Rewrite("אֵ", "ע"),
+      new Rewrite("אֶ", "ע"),
+      new Rewrite("שׁ", "ש"),
+      new Rewrite("וֹ", "ו"),
+      new Rewrite("\\Aת([^ּ])", "תּ$1"),
+
+      // more double-character fixes
+      new Rewrite("(.)יי", "$1ײ"),
+      new Rewrite("ייַ", "ײַ"),
+      new Rewrite("“", "\""),
+      new Rewrite("''", "\""),
+      new Rewrite(",,", "„")
+  };
+
+  private static final Rewrite[] SILENT_LETTER_REWRITES = {
+      new Rewrite("װאו([^ּ])", "װוּ$1"),
+      new Rewrite("ואװ", "וּװ"),
+      new Rewrite("װאױ", "װױ"),
+      new Rewrite("אַא", "אַ"),
+
+      // silent ה
+      new Rewrite("טהו", "טו"),
+      new Rewrite("טהאָ", "טאָ"),
+
+      // apostrophes all over the place (except at the end)
+      new Rewrite("(.)'(.)", "$1$2"),
+
+      // adjectives with דיג instread of דיק
+      new Rewrite("(.)דיג\\z", "$1דיק"),
+      new Rewrite("(.)דיגן\\z", "$1דיקן")
+  };
+
+  private static final Rewrite[] VARIANT_REWRITES = {
+      // silent ה
+      new Rewrite("(.)עה", "$1ע"),
+      new Rewrite("(.)יה", "$1י"),
+      new Rewrite("(.)אַה", "$1אַ"),
+      new Rewrite("אָה", "אָ"),
+      new Rewrite("(.)וה", "$1ו"),
+
+      // silent א
+      new Rewrite("(.)יא", "$1י"),
+
+      // diminutives with על
+      new Rewrite("(.)על\\z", "$1ל"),
+
+      // the vowel י spelled יע
+      new Rewrite("(.)יע(.)", "$1י$2"),
+
+      // accusative ען instead of ן
+      new Rewrite("(.)ען\\z", "$1ן"),
+
+      // ח instead of כ
+      new Rewrite("ח(.)", "$1כ"),
+
+      // double letters
+      new Rewrite("סס", "ס"),
+      new Rewrite("פּפּ", "פּ"),
+      new Rewrite("פּפּ", "פּ"),
+      new Rewrite("פֿפֿ", "פֿ"),
+      new Rewrite("ננ", "נ"),
+      new Rewrite("ממ", "מ"),
+      new Rewrite("לל", "ל"),
+
+      // בּ instead of ב
+      new Rewrite("א([^ַָ])", "אַ$1"),
+      new Rewrite("א([^ַָ])", "אָ$1"),
+      new Rewrite("יִ", "י"),
+      new Rewrite("פ([^ּֿ])", "פֿ$1"),
+      new Rewrite("פ([^ּֿ])", "פּ$1"),
+      new Rewrite("ב([^ּֿ])", "בֿ$1"),
+      new Rewrite("ב([^ּֿ])", "בּ$1"),
+      new Rewrite("וּ", "ו"),
+
+      // niqqud
+      new Rewrite("כ", "כּ"),
+      new Rewrite("ב", "בֿ"),
+      new Rewrite("בּ", "ב"),
+      new Rewrite("כֿ", "כ"),
+      new Rewrite("פ", "פֿ"),
+      new Rewrite("פּ", "פ"),
+      new Rewrite("װו", "װוּ"),
+
+      // other typical variants
+      new Rewrite("דט", "ט"),
+      new Rewrite("\\Aפֿער(.)", "פֿאַר$1"),
+      new Rewrite("\\Aפער(.)", "פֿאַר$1"),
+      new Rewrite("\\Aבע(.)", "באַ$1"),
+      new Rewrite("\\Aבּע(.)", "באַ$1"),
+
+      new Rewrite("ײ", "ײַ"),
+      new Rewrite("(.)דיג\\z", "$1דיק"),
+      new Rewrite("(.)דיגער\\z", "$1דיקער"),
+      new Rewrite("(.)דיגע\\z", "$1דיקע"),
+      new Rewrite("(.)דיגן\\z", "$1דיקן")
+  };
+
+  private final LruCache<String> standardisedWordCache = new LruCache<>(CACHE_SIZE);
+  private final LruCache<Set<String>> variantCache = new LruCache<>(CACHE_SIZE);
+
   @Override
   public boolean isLeftToRight() {
     return false;
@@ -24,61 +151,23 @@ public class YiddishLinguistics extends DefaultLinguistics {
 
   @Override
   public String standardiseWord(String originalWord) {
-    String word = originalWord;
-    // double-character fixes
-    word = word.replaceAll("וו", "װ");
-    word = word.replaceAll("וי", "ױ");
-    word = word.replaceAll("ױִ", "ויִ");
-
-    // systematic replacements, including redundent melupm vov and khirik
-    // yud
-    word = word.replaceAll("װוּ", "װוּּ");
-    word = word.replaceAll("וּװ", "וּּװ");
-    word = word.replaceAll("וּי", "וּּי");
-    word = word.replaceAll("וּ", "ו");
-    word = word.replaceAll("עיִ", "עיִִ");
-    word = word.replaceAll("אַיִ", "אַיִִ");
-    word = word.replaceAll("אָיִ", "אָיִִ");
-    word = word.replaceAll("ויִ", "ויִִ");
-    word = word.replaceAll("וּיִ", "וּיִִ");
-    word = word.replaceAll("יִי", "יִִי");
-    word = word.replaceAll("ייִ", "ייִִ");
-    word = word.replaceAll("יִ", "י");
-    word = word.replaceAll("עֶ", "ע");
-    word = word.replaceAll("עֵ", "ע");
-    word = word.replaceAll("אֵ", "ע");
-    word = word.replaceAll("אֶ", "ע");
-    word = word.replaceAll("שׁ", "ש");
-    word = word.replaceAll("וֹ", "ו");
-    word = word.replaceAll("\\Aת([^ּ])", "תּ$1");
-
-    // more double-character fixes
-    word = word.replaceAll("(.)יי", "$1ײ");
-    word = word.replaceAll("ייַ", "ײַ");
-    word = word.replaceAll("“", "\"");
-    word = word.replaceAll("''", "\"");
-    word = word.replaceAll(",,", "„");
+    String word = standardisedWordCache.get(originalWord);
+    if (word == null) {
+      word = this.standardiseWordInternal(originalWord);
+      standardisedWordCache.put(originalWord, word);
+    }
+    return word;
+  }
+
+  private String standardiseWordInternal(String originalWord) {
+    String word = Rewrite.applyAll(STANDARDISATION_REWRITES, originalWord);
     if (word.startsWith("יי"))
       word = "ייִ" + word.substring(2);
 
     // silent
     if (word.equals("װאו"))
       word = "װוּ";
-    word = word.replaceAll("װאו([^ּ])", "װוּ$1");
-    word = word.replaceAll("ואװ", "וּװ");
-    word = word.replaceAll("װאױ", "װױ");
-    word = word.replaceAll("אַא", "אַ");
-
-    // silent ה
-    word = word.replaceAll("טהו", "טו");
-    word = word.replaceAll("טהאָ", "טאָ");
-
-    // apostrophes all over the place (except at the end)
-    word = word.replaceAll("(.)'(.)", "$1$2");
-
-    // adjectives with דיג instread of דיק
-    word = word.replaceAll("(.)דיג\\z", "$1דיק");
-    word = word.replaceAll("(.)דיגן\\z", "$1דיקן");
+    word = Rewrite.applyAll(SILENT_LETTER_REWRITES, word);
 
     // word = YiddishWordSplitter.getEndForm(word);
 
@@ -258,87 +347,109 @@ public class YiddishLinguistics extends DefaultLinguistics {
     }
   }
 
+  /**
+   * Returns a read-only set of variants, including the original word.
+   */
   @Override
   public Set<String> findVariants(String originalWord) {
+    Set<String> variants = variantCache.get(originalWord);
+    if (variants == null) {
+      variants = Collections.unmodifiableSet(this.findVariantsInternal(originalWord));
+      variantCache.put(originalWord, variants);
+    }
+    return variants;
+  }
+
+  private Set<String> findVariantsInternal(String originalWord) {
     // systematic replacements for non-hebraic words
+    // each rewrite is applied to all variants found so far, and the results
+    // are added to the variants
     Set<String> variants = new TreeSet<String>();
 
     // in case it's a hebraic word, we keep the initial word in the mix
     variants.add(originalWord);
 
-    // silent ה
-    variants = this.addVariants(variants, "(.)עה", "$1ע");
-    variants = this.addVariants(variants, "(.)יה", "$1י");
-    variants = this.addVariants(variants, "(.)אַה", "$1אַ");
-    variants = this.addVariants(variants, "אָה", "אָ");
-    variants = this.addVariants(variants, "(.)וה", "$1ו");
-
-    // silent א
-    variants = this.addVariants(variants, "(.)יא", "$1י");
-
-    // diminutives with על
-    variants = this.addVariants(variants, "(.)על\\z", "$1ל");
-
-    // the vowel י spelled יע
-    variants = this.addVariants(variants, "(.)יע(.)", "$1י$2");
-
-    // accusative ען instead of ן
-    variants = this.addVariants(variants, "(.)ען\\z", "$1ן");
-
-    // ח instead of כ
-    variants = this.addVariants(variants, "ח(.)", "$1כ");
-
-    // double letters
-    variants = this.addVariants(variants, "סס", "ס");
-    variants = this.addVariants(variants, "פּפּ", "פּ");
-    variants = this.addVariants(variants, "פּפּ", "פּ");
-    variants = this.addVariants(variants, "פֿפֿ", "פֿ");
-    variants = this.addVariants(variants, "ננ", "נ");
-    variants = this.addVariants(variants, "ממ", "מ");
-    variants = this.addVariants(variants, "לל", "ל");
-
-    // בּ instead of ב
-    variants = this.addVariants(variants, "א([^ַָ])", "אַ$1");
-    variants = this.addVariants(variants, "א([^ַָ])", "אָ$1");
-    variants = this.addVariants(variants, "יִ", "י");
-    variants = this.addVariants(variants, "פ([^ּֿ])", "פֿ$1");
-    variants = this.addVariants(variants, "פ([^ּֿ])", "פּ$1");
-    variants = this.addVariants(variants, "ב([^ּֿ])", "בֿ$1");
-    variants = this.addVariants(variants, "ב([^ּֿ])", "בּ$1");
-    variants = this.addVariants(variants, "וּ", "ו");
-
-    // niqqud
-    variants = this.addVariants(variants, "כ", "כּ");
-    variants = this.addVariants(variants, "ב", "בֿ");
-    variants = this.addVariants(variants, "בּ", "ב");
-    variants = this.addVariants(variants, "כֿ", "כ");
-    variants = this.addVariants(variants, "פ", "פֿ");
-    variants = this.addVariants(variants, "פּ", "פ");
-    variants = this.addVariants(variants, "װו", "װוּ");
-
-    // other typical variants
-    variants = this.addVariants(variants, "דט", "ט");
-    variants = this.addVariants(variants, "\\Aפֿער(.)", "פֿאַר$1");
-    variants = this.addVariants(variants, "\\Aפער(.)", "פֿאַר$1");
-    variants = this.addVariants(variants, "\\Aבע(.)", "באַ$1");
-    variants = this.addVariants(variants, "\\Aבּע(.)", "באַ$1");
-
-    variants = this.addVariants(variants, "ײ", "ײַ");
-    variants = this.addVariants(variants, "(.)דיג\\z", "$1דיק");
-    variants = this.addVariants(variants, "(.)דיגער\\z", "$1דיקער");
-    variants = this.addVariants(variants, "(.)דיגע\\z", "$1דיקע");
-    variants = this.addVariants(variants, "(.)דיגן\\z", "$1דיקן");
+    List<String> newVariants = new ArrayList<String>();
+    for (Rewrite rewrite : VARIANT_REWRITES) {
+      newVariants.clear();
+      for (String variant : variants) {
+        String newVariant = rewrite.apply(variant);
+        if (!newVariant.equals(variant))
+          newVariants.add(newVariant);
+      }
+      variants.addAll(newVariants);
+    }
 
     return variants;
   }
 
-  Set<String> addVariants(Set<String> variants, String regex, String replacement) {
-    Set<String> newVariants = new TreeSet<String>();
+  /**
+   * A precompiled regex replacement, equivalent to
+   * {@link String#replaceAll(String, String)}. Where the regex contains a
+   * literal string which any match must include, words which don't contain
+   * it are returned without running the regex.
+   */
+  private static final class Rewrite {
+    private static final Pattern REGEX_GROUP = Pattern.compile("\\(\\.\\)|\\(\\[\\^[^\\]]*\\]\\)|\\\\A|\\\\z");
+    private static final Pattern REGEX_METACHARACTER = Pattern.compile("[\\\\.\\[\\](){}^$*+?|]");
+
+    private final Pattern pattern;
+    private final String replacement;
+    private final String requiredText;
+
+    public Rewrite(String regex, String replacement) {
+      this.pattern = Pattern.compile(regex);
+      this.replacement = replacement;
+
+      String longestLiteral = "";
+      if (regex.indexOf('|') < 0) {
+        for (String literal : REGEX_GROUP.split(regex)) {
+          if (literal.length() > longestLiteral.length())
+            longestLiteral = literal;
+        }
+      }
+      if (longestLiteral.length() > 0 && !REGEX_METACHARACTER.matcher(longestLiteral).find())
+        this.requiredText = longestLiteral;
+      else
+        this.requiredText = null;
+    }
+
+    public String apply(String word) {
+      if (requiredText != null && word.indexOf(requiredText) < 0)
+        return word;
+      return pattern.matcher(word).replaceAll(replacement);
+    }
+
+    public static String applyAll(Rewrite[] rewrites, String word) {
+      for (Rewrite rewrite : rewrites)
+        word = rewrite.apply(word);
+      return word;
+    }
+  }
+
+  /**
+   * A thread-safe cache retaining the most recently used entries.
+   */
+  private static final class LruCache<V> {
+    private final Map<String, V> map;
+
+    public LruCache(final int maxSize) {
+      this.map = new LinkedHashMap<String, V>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+          return this.size() > maxSize;
+        }
+      };
+    }
+
+    public synchronized V get(String key) {
+      return map.get(key);
+    }
 
-    for (String variant : variants) {
-      newVariants.add(variant);
-      newVariants.add(variant.replaceAll(regex, replacement));
+    public synchronized void put(String key, V value) {
+      map.put(key, value);
     }
-    return newVariants;
   }
 }
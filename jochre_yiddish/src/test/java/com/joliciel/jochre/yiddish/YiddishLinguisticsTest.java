@@ -0,0 +1,239 @@
+///////////////////////////////////////////////////////////////////////////////
+//Copyright (C) 2012 Assaf Urieli
+//
+//This file is part of Jochre.
+//
+//Jochre is free software: you can redistribute it and/or modify
+//it under the terms of the GNU Affero General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//Jochre is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU Affero General Public License for more details.
+//
+//You should have received a copy of the GNU Affero General Public License
+//along with Jochre.  If not, see <http://www.gnu.org/licenses/>.
+//////////////////////////////////////////////////////////////////////////////
+package com.joliciel.jochre.yiddish;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Checks the precompiled standardisation and variant rules against the
+ * original implementation, which applied each rule with
+ * {@link String#replaceAll(String, String)}.
+ */
+public class YiddishLinguisticsTest {
+  private static final Pattern NUMBER = Pattern.compile("\\d+");
+
+  private static final String[] WORDS = { "מאַמע-לשון", "ייִדיש", "יידיש", "װאו", "װאוּ", "וואו", "װאָס", "וואס", "ױך",
+      "וױך", "זײַן", "זיין", "זייַן", "ײַנגל", "פֿאַר", "פער", "פֿערלאָרן", "פערלאָרן", "בעקומען", "בּעקומען", "באַקומען",
+      "ברױט", "בּרױט", "כּלל", "חבֿר", "חכמה", "שׁבת", "שבת", "תּורה", "תורה", "טהור", "טהאָן", "זעהן", "געזעהען", "ליעבע",
+      "ליבע", "ביכעל", "הענטעלע", "שטעטעל", "פרײַדיג", "פרײַדיגן", "לעבעדיגער", "לעבעדיגע", "אײנס", "אַאַ", "ואװ", "װאױ",
+      "שטאדט", "שטאָדט", "פּפּ", "גאסס", "מאמע", "דאָס", "קינד'ס", "ער'ס", "רעבע'ן", "''טאָג''", "„טאָג“", ",,טאָג“", "ײִ",
+      "עיִ", "אַיִ", "אָיִ", "ויִ", "וּיִ", "יִי", "ייִ", "עֶס", "עֵס", "אֵס", "אֶס", "וֹו", "1234", "12", "ז", "" };
+
+  /**
+   * Fragments combined to generate words covering the rules and their
+   * interactions.
+   */
+  private static final String[] FRAGMENTS = { "ו", "וּ", "װ", "ױ", "י", "יִ", "ײ", "ײַ", "א", "אַ", "אָ", "ע", "ה", "ת",
+      "תּ", "ב", "בּ", "בֿ", "פ", "פּ", "פֿ", "כ", "כּ", "ח", "ס", "נ", "ל", "ד", "ט", "ג", "ן", "'", "ֶ" };
+
+  @Test
+  public void testStandardiseWord() {
+    YiddishLinguistics linguistics = new YiddishLinguistics();
+    for (String word : this.getWords()) {
+      String expected = standardiseWordOld(word);
+      assertEquals(word, expected, linguistics.standardiseWord(word));
+      // a second time, from the cache
+      assertEquals(word, expected, linguistics.standardiseWord(word));
+    }
+  }
+
+  @Test
+  public void testFindVariants() {
+    YiddishLinguistics linguistics = new YiddishLinguistics();
+    for (String word : this.getWords()) {
+      Set<String> expected = findVariantsOld(word);
+      assertEquals(word, expected, linguistics.findVariants(word));
+      // a second time, from the cache
+      assertEquals(word, expected, linguistics.findVariants(word));
+    }
+  }
+
+  private List<String> getWords() {
+    List<String> words = new ArrayList<>();
+    for (String word : WORDS)
+      words.add(word);
+    for (String fragment1 : FRAGMENTS) {
+      words.add(fragment1);
+      for (String fragment2 : FRAGMENTS) {
+        words.add(fragment1 + fragment2);
+        for (String fragment3 : FRAGMENTS) {
+          words.add(fragment1 + fragment2 + fragment3);
+          words.add(fragment1 + fragment2 + fragment3 + "דיג");
+        }
+      }
+    }
+    return words;
+  }
+
+  private static String standardiseWordOld(String originalWord) {
+    String word = originalWord;
+    // double-character fixes
+    word = word.replaceAll("וו", "װ");
+    word = word.replaceAll("וי", "ױ");
+    word = word.replaceAll("ױִ", "ויִ");
+
+    // systematic replacements, including redundent melupm vov and khirik
+    // yud
+    word = word.replaceAll("װוּ", "װוּּ");
+    word = word.replaceAll("וּװ", "וּּװ");
+    word = word.replaceAll("וּי", "וּּי");
+    word = word.replaceAll("וּ", "ו");
+    word = word.replaceAll("עיִ", "עיִִ");
+    word = word.replaceAll("אַיִ", "אַיִִ");
+    word = word.replaceAll("אָיִ", "אָיִִ");
+    word = word.replaceAll("ויִ", "ויִִ");
+    word = word.replaceAll("וּיִ", "וּיִִ");
+    word = word.replaceAll("יִי", "יִִי");
+    word = word.replaceAll("ייִ", "ייִִ");
+    word = word.replaceAll("יִ", "י");
+    word = word.replaceAll("עֶ", "ע");
+    word = word.replaceAll("עֵ", "ע");
+    word = word.replaceAll("אֵ", "ע");
+    word = word.replaceAll("אֶ", "ע");
+    word = word.replaceAll("שׁ", "ש");
+    word = word.replaceAll("וֹ", "ו");
+    word = word.replaceAll("\\Aת([^ּ])", "תּ$1");
+
+    // more double-character fixes
+    word = word.replaceAll("(.)יי", "$1ײ");
+    word = word.replaceAll("ייַ", "ײַ");
+    word = word.replaceAll("“", "\"");
+    word = word.replaceAll("''", "\"");
+    word = word.replaceAll(",,", "„");
+    if (word.startsWith("יי"))
+      word = "ייִ" + word.substring(2);
+
+    // silent
+    if (word.equals("װאו"))
+      word = "װוּ";
+    word = word.replaceAll("װאו([^ּ])", "װוּ$1");
+    word = word.replaceAll("ואװ", "וּװ");
+    word = word.replaceAll("װאױ", "װױ");
+    word = word.replaceAll("אַא", "אַ");
+
+    // silent ה
+    word = word.replaceAll("טהו", "טו");
+    word = word.replaceAll("טהאָ", "טאָ");
+
+    // apostrophes all over the place (except at the end)
+    word = word.replaceAll("(.)'(.)", "$1$2");
+
+    // adjectives with דיג instread of דיק
+    word = word.replaceAll("(.)דיג\\z", "$1דיק");
+    word = word.replaceAll("(.)דיגן\\z", "$1דיקן");
+
+    if (NUMBER.matcher(word).matches()) {
+      // reverse numbers
+      char[] newWord = new char[word.length()];
+      for (int i = 0; i < word.length(); i++) {
+        newWord[i] = word.charAt(word.length() - i - 1);
+      }
+      word = new String(newWord);
+    }
+    return word;
+  }
+
+  private static Set<String> findVariantsOld(String originalWord) {
+    Set<String> variants = new TreeSet<String>();
+    variants.add(originalWord);
+
+    // silent ה
+    variants = addVariants(variants, "(.)עה", "$1ע");
+    variants = addVariants(variants, "(.)יה", "$1י");
+    variants = addVariants(variants, "(.)אַה", "$1אַ");
+    variants = addVariants(variants, "אָה", "אָ");
+    variants = addVariants(variants, "(.)וה", "$1ו");
+
+    // silent א
+    variants = addVariants(variants, "(.)יא", "$1י");
+
+    // diminutives with על
+    variants = addVariants(variants, "(.)על\\z", "$1ל");
+
+    // the vowel י spelled יע
+    variants = addVariants(variants, "(.)יע(.)", "$1י$2");
+
+    // accusative ען instead of ן
+    variants = addVariants(variants, "(.)ען\\z", "$1ן");
+
+    // ח instead of כ
+    variants = addVariants(variants, "ח(.)", "$1כ");
+
+    // double letters
+    variants = addVariants(variants, "סס", "ס");
+    variants = addVariants(variants, "פּפּ", "פּ");
+    variants = addVariants(variants, "פּפּ", "פּ");
+    variants = addVariants(variants, "פֿפֿ", "פֿ");
+    variants = addVariants(variants, "ננ", "נ");
+    variants = addVariants(variants, "ממ", "מ");
+    variants = addVariants(variants, "לל", "ל");
+
+    // בּ instead of ב
+    variants = addVariants(variants, "א([^ַָ])", "אַ$1");
+    variants = addVariants(variants, "א([^ַָ])", "אָ$1");
+    variants = addVariants(variants, "יִ", "י");
+    variants = addVariants(variants, "פ([^ּֿ])", "פֿ$1");
+    variants = addVariants(variants, "פ([^ּֿ])", "פּ$1");
+    variants = addVariants(variants, "ב([^ּֿ])", "בֿ$1");
+    variants = addVariants(variants, "ב([^ּֿ])", "בּ$1");
+    variants = addVariants(variants, "וּ", "ו");
+
+    // niqqud
+    variants = addVariants(variants, "כ", "כּ");
+    variants = addVariants(variants, "ב", "בֿ");
+    variants = addVariants(variants, "בּ", "ב");
+    variants = addVariants(variants, "כֿ", "כ");
+    variants = addVariants(variants, "פ", "פֿ");
+    variants = addVariants(variants, "פּ", "פ");
+    variants = addVariants(variants, "װו", "װוּ");
+
+    // other typical variants
+    variants = addVariants(variants, "דט", "ט");
+    variants = addVariants(variants, "\\Aפֿער(.)", "פֿאַר$1");
+    variants = addVariants(variants, "\\Aפער(.)", "פֿאַר$1");
+    variants = addVariants(variants, "\\Aבע(.)", "באַ$1");
+    variants = addVariants(variants, "\\Aבּע(.)", "באַ$1");
+
+    variants = addVariants(variants, "ײ", "ײַ");
+    variants = addVariants(variants, "(.)דיג\\z", "$1דיק");
+    variants = addVariants(variants, "(.)דיגער\\z", "$1דיקער");
+    variants = addVariants(variants, "(.)דיגע\\z", "$1דיקע");
+    variants = addVariants(variants, "(.)דיגן\\z", "$1דיקן");
+
+    return variants;
+  }
+
+  private static Set<String> addVariants(Set<String> variants, String regex, String replacement) {
+    Set<String> newVariants = new TreeSet<String>();
+
+    for (String variant : variants) {
+      newVariants.add(variant);
+      newVariants.add(variant.replaceAll(regex, replacement));
+    }
+    return newVariants;
+  }
+}